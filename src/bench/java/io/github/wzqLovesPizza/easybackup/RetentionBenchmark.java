@@ -0,0 +1,57 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分层保留的选择部分，在 100 ~ 100k 个合成备份上运行（只计算要保留哪些，不删除文件）。
+ * 备份每小时一个，分层配置与 config.yml 的默认值相同。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetentionBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int entries;
+
+    private File[] files;
+    private List<Map<String, Object>> tiers;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        now = 1_700_000_000_000L;
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.ROOT);
+        files = new File[entries];
+        for (int i = 0; i < entries; i++) {
+            files[i] = new File("backups", "EasyBackUp_" + fmt.format(new Date(now - i * 3_600_000L)) + ".zip");
+        }
+        tiers = Arrays.asList(
+                tier("1D", Arrays.asList("1H", "2H", "3H", "6H"), null, null, 0),
+                tier("7D", Collections.emptyList(), "12H", 2.0, 4),
+                tier("30D", Arrays.asList("10D", "15D"), null, null, 0));
+    }
+
+    private static Map<String, Object> tier(String window, List<String> spacings, String minSpacing, Double growth, int keep) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("window", window);
+        if (!spacings.isEmpty()) m.put("spacings", spacings);
+        if (minSpacing != null) m.put("min-spacing", minSpacing);
+        if (growth != null) m.put("growth-multiplier", growth);
+        if (keep > 0) m.put("keep", keep);
+        return m;
+    }
+
+    @Benchmark
+    public Set<File> select() {
+        return BackupTask.selectTieredRetention(files, tiers, 10, now);
+    }
+}
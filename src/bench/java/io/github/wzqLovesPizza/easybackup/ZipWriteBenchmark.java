@@ -0,0 +1,110 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 归档热路径：扫描 + 并行 ZIP 写出，在生成的目录树上运行。
+ * <ul>
+ *   <li>small：大量几 KB 的文本/NBT 类小文件；</li>
+ *   <li>region：少量 8 MiB、可部分压缩的区域文件；</li>
+ *   <li>mixed：两者混合。</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ZipWriteBenchmark {
+
+    @Param({"small", "region", "mixed"})
+    public String tree;
+
+    @Param({"16", "64", "1024"})
+    public int bufferKB;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private Path root;
+    private File output;
+    private FileScanner.ScanResult scan;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        root = Files.createTempDirectory("easybackup-bench");
+        Random rnd = new Random(42);
+        if (!"region".equals(tree)) {
+            int count = "small".equals(tree) ? 5000 : 2000;
+            for (int i = 0; i < count; i++) {
+                Path p = root.resolve("world/data/" + (i % 50) + "/f" + i + ".yml");
+                Files.createDirectories(p.getParent());
+                StringBuilder sb = new StringBuilder();
+                int lines = 20 + rnd.nextInt(200);
+                for (int l = 0; l < lines; l++) sb.append("key-").append(l).append(": ").append(rnd.nextInt(1000)).append('\n');
+                Files.writeString(p, sb);
+            }
+        }
+        if (!"small".equals(tree)) {
+            int count = "region".equals(tree) ? 8 : 4;
+            byte[] region = new byte[8 * 1024 * 1024];
+            for (int i = 0; i < count; i++) {
+                // 每个 4 KiB 扇区一半随机、一半重复，近似已压缩区块与填充
+                for (int off = 0; off < region.length; off += 4096) {
+                    for (int j = 0; j < 2048; j++) region[off + j] = (byte) rnd.nextInt();
+                    java.util.Arrays.fill(region, off + 2048, off + 4096, (byte) i);
+                }
+                Path p = root.resolve("world/region/r." + i + ".0.mca");
+                Files.createDirectories(p.getParent());
+                Files.write(p, region);
+            }
+        }
+        output = Files.createTempFile("easybackup-bench", ".zip").toFile();
+        scan = newScanner().scan(Collections.singletonList(root.resolve("world")));
+    }
+
+    private FileScanner newScanner() {
+        return new FileScanner(root, Collections.emptySet(), Collections.emptySet(), Collections.emptySet(),
+                ParallelZipWriter.resolveThreads(threads), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (var walk = Files.walk(root)) {
+            walk.sorted((x, y) -> y.compareTo(x)).forEach(p -> p.toFile().delete());
+        }
+        Files.deleteIfExists(output.toPath());
+    }
+
+    /** 只做单次遍历扫描。 */
+    @Benchmark
+    public long scan() {
+        return newScanner().scan(Collections.singletonList(root.resolve("world"))).totalBytes;
+    }
+
+    /** 用默认压缩策略写出整个目录树（与插件的 ZIP 模式相同）。 */
+    @Benchmark
+    public long zip() throws IOException {
+        try (ParallelZipWriter zip = new ParallelZipWriter(
+                new BufferedOutputStream(new FileOutputStream(output), bufferKB * 1024),
+                ParallelZipWriter.resolveThreads(threads), 1024 * 1024,
+                new CompressionPolicy(-1, CompressionPolicy.DEFAULT_STORE_EXTENSIONS, Collections.emptyList(), 7.5, 64 * 1024, 16 * 1024), null)) {
+            for (FileScanner.ScannedFile f : scan.files) {
+                zip.addFile(f.entryName, f.path.toFile(), f.size, f.lastModified);
+            }
+            zip.close();
+            return zip.getBytesRead();
+        }
+    }
+}
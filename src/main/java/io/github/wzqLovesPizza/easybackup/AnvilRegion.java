@@ -0,0 +1,94 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.util.Locale;
+
+/**
+ * Anvil 区域文件（.mca）的头部解析与重建。
+ * <p>
+ * 文件开头是两张 4 KiB 的表：位置表（每区块 3 字节扇区偏移 + 1 字节扇区数）
+ * 与时间戳表（每区块 4 字节大端秒数）。区块记录位于偏移*4096 处：4 字节长度 + 1 字节压缩类型 + 数据。
+ */
+final class AnvilRegion {
+
+    static final int SECTOR = 4096;
+    static final int HEADER_SIZE = 2 * SECTOR;
+    static final int CHUNKS = 1024;
+
+    final byte[] header;
+
+    private AnvilRegion(byte[] header) {
+        this.header = header;
+    }
+
+    static boolean isRegionFile(String path) {
+        return path.toLowerCase(Locale.ROOT).endsWith(".mca");
+    }
+
+    /** 读取头部；文件不足 8 KiB 时返回 null（交给普通分块处理）。 */
+    static AnvilRegion readHeader(RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_SIZE) return null;
+        byte[] h = new byte[HEADER_SIZE];
+        raf.seek(0);
+        raf.readFully(h);
+        return new AnvilRegion(h);
+    }
+
+    int sectorOffset(int index) {
+        int p = index * 4;
+        return ((header[p] & 0xff) << 16) | ((header[p + 1] & 0xff) << 8) | (header[p + 2] & 0xff);
+    }
+
+    int sectorCount(int index) {
+        return header[index * 4 + 3] & 0xff;
+    }
+
+    int timestamp(int index) {
+        int p = SECTOR + index * 4;
+        return ((header[p] & 0xff) << 24) | ((header[p + 1] & 0xff) << 16) | ((header[p + 2] & 0xff) << 8) | (header[p + 3] & 0xff);
+    }
+
+    boolean isPresent(int index) {
+        return sectorOffset(index) >= 2 && sectorCount(index) > 0;
+    }
+
+    /**
+     * 读取区块记录（长度字段 + 压缩类型 + 数据，不含扇区尾部填充）。
+     * 记录越界或长度字段不合理时抛出 IOException，调用方应退回到整文件分块。
+     */
+    byte[] readChunkRecord(RandomAccessFile raf, int index) throws IOException {
+        long pos = (long) sectorOffset(index) * SECTOR;
+        long limit = (long) sectorCount(index) * SECTOR;
+        if (pos + 5 > raf.length()) throw new IOException("区块 " + index + " 超出文件范围");
+        raf.seek(pos);
+        int len = raf.readInt();
+        if (len <= 0 || len + 4L > limit) throw new IOException("区块 " + index + " 长度异常: " + len);
+        byte[] rec = new byte[len + 4];
+        raf.seek(pos);
+        raf.readFully(rec);
+        return rec;
+    }
+
+    /**
+     * 按头部重建区域文件：先写头部，再把每个区块记录写到位置表指定的扇区；扇区填充补零。
+     */
+    static void rebuild(File out, long size, byte[] header, ChunkSource chunks) throws IOException {
+        AnvilRegion region = new AnvilRegion(header);
+        try (RandomAccessFile raf = new RandomAccessFile(out, "rw")) {
+            raf.setLength(0);
+            raf.write(header);
+            for (int i = 0; i < CHUNKS; i++) {
+                if (!region.isPresent(i)) continue;
+                byte[] rec = chunks.get(i);
+                if (rec == null) continue;
+                raf.seek((long) region.sectorOffset(i) * SECTOR);
+                raf.write(rec);
+            }
+            raf.setLength(Math.max(size, raf.length()));
+        }
+    }
+
+    interface ChunkSource {
+        byte[] get(int index) throws IOException;
+    }
+}
@@ -0,0 +1,458 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 归档加密（encryption.enabled）：AES-256-GCM，按固定大小的分段各自加密并认证，挂在压缩之后、落盘之前。
+ * <p>
+ * 各分段互不依赖，由几个线程与压缩同时加密，写出线程按顺序写出密文；JDK 的 AES/GCM 使用 CPU 的 AES-NI 与 CLMUL 指令。
+ * 文件格式：{@value #HEADER_LEN} 字节的头（魔数、分段大小、密钥指纹、16 字节随机盐），之后是各分段的密文与 16 字节认证标签。
+ * 每个归档用 HMAC-SHA256(主密钥, 盐) 派生独立的密钥；分段的 nonce 由序号与“是否最后一段”组成，头作为附加认证数据，
+ * 因此调换、删除、截断分段都会在解密时被发现。
+ * <p>
+ * 加密的归档保留原来的扩展名，按文件开头的魔数识别；还原与校验时流式解密（ZIP 先解密到临时文件再随机访问）。
+ * 主密钥文件丢失则备份无法还原，须另行妥善保存。
+ */
+final class ArchiveCipher implements Closeable {
+
+    private static final byte[] MAGIC = "EBUENC01".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_LEN = 8 + 4 + 8 + 16;
+    private static final int TAG_LEN = 16;
+    private static final byte[] KDF_INFO = "EasyBackUp archive segment key v1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_ID_INFO = "EasyBackUp key id".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] masterKey;
+    private final byte[] keyId;
+    private final int segmentSize;
+    private final int threads;
+    private final AtomicLong cryptoNanos = new AtomicLong();
+    private final AtomicLong bytesEncrypted = new AtomicLong();
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(ArchiveCipher::newCipher);
+    private ExecutorService pool;
+
+    private ArchiveCipher(byte[] masterKey, int segmentSize, int threads) {
+        this.masterKey = masterKey;
+        this.keyId = Arrays.copyOf(sha256(KEY_ID_INFO, masterKey), 8);
+        this.segmentSize = segmentSize;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 按 encryption 配置读取主密钥。
+     *
+     * @param forWriting 为 true 时密钥文件不存在就生成一个；否则返回 null（只在解密已加密的归档时才需要密钥）
+     */
+    static ArchiveCipher fromConfig(FileConfiguration config, File dataFolder, Logger logger, boolean forWriting) throws IOException {
+        String path = config.getString("encryption.key-file", "backup.key");
+        File keyFile = new File(path == null || path.trim().isEmpty() ? "backup.key" : path.trim());
+        if (!keyFile.isAbsolute()) keyFile = new File(dataFolder, keyFile.getPath());
+        if (!keyFile.isFile()) {
+            if (!forWriting) return null;
+            generateKey(keyFile);
+            if (logger != null) logger.warning("已生成新的备份加密密钥 " + keyFile.getPath() + "。丢失此文件将无法还原加密的备份，请另行妥善保存。");
+        }
+        int segmentKB = Math.max(16, Math.min(64 * 1024, config.getInt("encryption.segment-size-kb", 1024)));
+        return load(keyFile, segmentKB * 1024, config.getInt("encryption.threads", 2));
+    }
+
+    /** 只用于解密（离线还原工具）：分段大小以归档头中记录的为准。 */
+    static ArchiveCipher load(File keyFile) throws IOException {
+        return load(keyFile, 1024 * 1024, 1);
+    }
+
+    static ArchiveCipher load(File keyFile, int segmentSize, int threads) throws IOException {
+        return new ArchiveCipher(readKey(keyFile), segmentSize, threads);
+    }
+
+    /** 文件是否以加密归档的魔数开头。 */
+    static boolean isEncrypted(File file) {
+        if (!file.isFile() || file.length() < HEADER_LEN) return false;
+        byte[] head = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int n = 0;
+            while (n < head.length) {
+                int r = in.read(head, n, head.length - n);
+                if (r < 0) return false;
+                n += r;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return Arrays.equals(head, MAGIC);
+    }
+
+    /** 各加密线程累计的加密耗时（纳秒）。 */
+    long getCryptoNanos() {
+        return cryptoNanos.get();
+    }
+
+    long getBytesEncrypted() {
+        return bytesEncrypted.get();
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /** 包装落盘的流：写入的明文按分段加密后按顺序写到 out；关闭时写出最后一段并关闭 out。 */
+    OutputStream encrypt(OutputStream out) throws IOException {
+        return new EncryptingStream(out);
+    }
+
+    /** 包装加密归档的输入流，读出明文；任何分段认证失败都抛出 IOException。 */
+    InputStream decrypt(InputStream in) throws IOException {
+        return new DecryptingStream(in);
+    }
+
+    /** 把整个加密归档解密到 target（ZIP 需要随机访问时使用）。 */
+    void decryptTo(File archive, File target) throws IOException {
+        try (InputStream in = decrypt(new BufferedInputStream(new FileInputStream(archive), 1024 * 1024));
+             OutputStream out = new FileOutputStream(target)) {
+            byte[] buf = new byte[1024 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pool != null) pool.shutdownNow();
+        pool = null;
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger seq = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "EasyBackUp-Encrypt-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /** 写出加密归档：满一个分段提交给加密线程，写出线程按序写出已完成的分段。 */
+    private final class EncryptingStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] header;
+        private final SecretKeySpec key;
+        private final ExecutorService pool = pool();
+        private final int maxInFlight = threads * 2 + 1;
+        private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        private final ConcurrentLinkedQueue<byte[]> spare = new ConcurrentLinkedQueue<>();
+        private byte[] buf = new byte[segmentSize];
+        private int len;
+        private int index;
+        private boolean closed;
+
+        EncryptingStream(OutputStream out) throws IOException {
+            this.out = out;
+            byte[] salt = new byte[16];
+            new SecureRandom().nextBytes(salt);
+            this.header = header(segmentSize, salt);
+            this.key = deriveKey(salt);
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int n) throws IOException {
+            if (closed) throw new IOException("加密流已关闭");
+            while (n > 0) {
+                // 只有确认后面还有数据，满的分段才不是最后一段
+                if (len == buf.length) submit(false);
+                int k = Math.min(n, buf.length - len);
+                System.arraycopy(b, off, buf, len, k);
+                len += k;
+                off += k;
+                n -= k;
+            }
+        }
+
+        private void submit(boolean last) throws IOException {
+            while (inFlight.size() >= maxInFlight) writeOne();
+            if (index < 0) throw new IOException("归档超出加密分段数上限");
+            byte[] plain = buf;
+            int plainLen = len;
+            int segment = index++;
+            try {
+                inFlight.add(pool.submit(() -> seal(plain, plainLen, segment, last)));
+            } catch (RejectedExecutionException e) {
+                throw new IOException("加密线程已停止", e);
+            }
+            byte[] next = spare.poll();
+            buf = next != null ? next : new byte[segmentSize];
+            len = 0;
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) writeOne();
+        }
+
+        private byte[] seal(byte[] plain, int plainLen, int segment, boolean last) throws GeneralSecurityException {
+            long start = System.nanoTime();
+            try {
+                Cipher c = ciphers.get();
+                c.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LEN * 8, nonce(segment, last)));
+                c.updateAAD(header);
+                return c.doFinal(plain, 0, plainLen);
+            } finally {
+                cryptoNanos.addAndGet(System.nanoTime() - start);
+                bytesEncrypted.addAndGet(plainLen);
+                spare.offer(plain);
+            }
+        }
+
+        private void writeOne() throws IOException {
+            Future<byte[]> f = inFlight.poll();
+            try {
+                out.write(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("加密被中断");
+            } catch (ExecutionException e) {
+                throw new IOException("加密失败: " + e.getCause(), e.getCause());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // 未满的分段不能提前写出（否则会被当作最后一段），只写出已完成的
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) writeOne();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            try {
+                submit(true);
+                closed = true;
+                while (!inFlight.isEmpty()) writeOne();
+            } finally {
+                closed = true;
+                for (Future<byte[]> f : inFlight) f.cancel(true);
+                out.close();
+            }
+        }
+    }
+
+    /** 顺序解密：预读下一段以判断当前段是否为最后一段。 */
+    private final class DecryptingStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header = new byte[HEADER_LEN];
+        private final SecretKeySpec key;
+        private final int segmentSize;
+        private final Cipher cipher = newCipher();
+        private byte[] current;
+        private int currentLen;
+        private byte[] ahead;
+        private int aheadLen;
+        private byte[] plain = new byte[0];
+        private int pos;
+        private int plainLen;
+        private int index;
+        private boolean done;
+
+        DecryptingStream(InputStream in) throws IOException {
+            this.in = in;
+            if (readFully(in, header, header.length) != header.length) throw new EOFException("加密归档不完整");
+            if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) throw new IOException("不是 EasyBackUp 加密归档");
+            this.segmentSize = readInt(header, 8);
+            if (segmentSize <= 0 || segmentSize > 64 * 1024 * 1024) throw new IOException("加密归档的分段大小无效");
+            if (!Arrays.equals(Arrays.copyOfRange(header, 12, 20), keyId)) {
+                throw new IOException("密钥与归档不匹配（归档由另一个密钥加密）");
+            }
+            this.key = deriveKey(Arrays.copyOfRange(header, 20, 36));
+            current = new byte[segmentSize + TAG_LEN];
+            ahead = new byte[segmentSize + TAG_LEN];
+            aheadLen = readFully(in, ahead, ahead.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int n) throws IOException {
+            if (n == 0) return 0;
+            while (pos == plainLen) {
+                if (done) return -1;
+                nextSegment();
+            }
+            int k = Math.min(n, plainLen - pos);
+            System.arraycopy(plain, pos, b, off, k);
+            pos += k;
+            return k;
+        }
+
+        private void nextSegment() throws IOException {
+            byte[] t = current;
+            current = ahead;
+            currentLen = aheadLen;
+            ahead = t;
+            if (currentLen == 0) throw new EOFException("加密归档被截断");
+            if (currentLen == current.length) {
+                aheadLen = readFully(in, ahead, ahead.length);
+            } else {
+                // 不满的分段只能是最后一段
+                aheadLen = 0;
+                if (in.read() >= 0) throw new IOException("加密归档已损坏");
+            }
+            boolean last = aheadLen == 0;
+            if (currentLen < TAG_LEN || (!last && currentLen != current.length)) throw new IOException("加密归档已损坏");
+            long start = System.nanoTime();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LEN * 8, nonce(index, last)));
+                cipher.updateAAD(header);
+                if (plain.length < currentLen) plain = new byte[current.length];
+                plainLen = cipher.doFinal(current, 0, currentLen, plain, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("加密归档第 " + index + " 段认证失败（已损坏、被截断或密钥错误）", e);
+            } finally {
+                cryptoNanos.addAndGet(System.nanoTime() - start);
+            }
+            pos = 0;
+            index++;
+            done = last;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private SecretKeySpec deriveKey(byte[] salt) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+            mac.update(salt);
+            return new SecretKeySpec(mac.doFinal(KDF_INFO), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JVM 不支持 HmacSHA256", e);
+        }
+    }
+
+    private byte[] header(int segmentSize, byte[] salt) {
+        byte[] h = new byte[HEADER_LEN];
+        System.arraycopy(MAGIC, 0, h, 0, MAGIC.length);
+        h[8] = (byte) (segmentSize >>> 24);
+        h[9] = (byte) (segmentSize >>> 16);
+        h[10] = (byte) (segmentSize >>> 8);
+        h[11] = (byte) segmentSize;
+        System.arraycopy(keyId, 0, h, 12, 8);
+        System.arraycopy(salt, 0, h, 20, 16);
+        return h;
+    }
+
+    /** 12 字节 nonce：7 字节 0、4 字节分段序号、1 字节“最后一段”标记（每个归档的密钥不同，nonce 不会重复）。 */
+    private static byte[] nonce(int segment, boolean last) {
+        byte[] n = new byte[12];
+        n[7] = (byte) (segment >>> 24);
+        n[8] = (byte) (segment >>> 16);
+        n[9] = (byte) (segment >>> 8);
+        n[10] = (byte) segment;
+        n[11] = (byte) (last ? 1 : 0);
+        return n;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JVM 不支持 AES/GCM", e);
+        }
+    }
+
+    private static void generateKey(File keyFile) throws IOException {
+        File parent = keyFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("无法创建目录: " + parent);
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        File tmp = new File(keyFile.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.US_ASCII)) {
+            w.write(Base64.getEncoder().encodeToString(key) + "\n");
+        }
+        try {
+            Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException ignored) {
+            // Windows 等不支持 POSIX 权限
+        }
+        if (!tmp.renameTo(keyFile)) {
+            tmp.delete();
+            throw new IOException("无法写入密钥文件: " + keyFile);
+        }
+    }
+
+    /** 密钥文件：32 字节原始数据，或 Base64 / 十六进制文本；至少 16 字节。 */
+    private static byte[] readKey(File keyFile) throws IOException {
+        byte[] raw = Files.readAllBytes(keyFile.toPath());
+        byte[] key;
+        if (raw.length == 32) {
+            key = raw;
+        } else {
+            String text = new String(raw, StandardCharsets.US_ASCII).trim();
+            try {
+                key = text.matches("[0-9a-fA-F]{32,}") && text.length() % 2 == 0 ? hex(text) : Base64.getDecoder().decode(text);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("无法解析密钥文件 " + keyFile + "：应为 Base64 或十六进制文本");
+            }
+        }
+        if (key.length < 16) throw new IOException("密钥文件 " + keyFile + " 太短（至少 16 字节）");
+        return key;
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) out[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        return out;
+    }
+
+    private static byte[] sha256(byte[] a, byte[] b) {
+        MessageDigest md = ArchiveManifest.newSha256();
+        md.update(a);
+        md.update(b);
+        return md.digest();
+    }
+
+    private static int readInt(byte[] b, int p) {
+        return ((b[p] & 0xFF) << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+
+    private static int readFully(InputStream in, byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, n, len - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+}
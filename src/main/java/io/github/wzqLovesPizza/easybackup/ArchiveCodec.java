@@ -0,0 +1,253 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+/**
+ * 归档格式（output-format）：
+ * <ul>
+ *   <li>{@code zip}（默认）：并行 deflate，逐文件决定是否直接存储；</li>
+ *   <li>{@code tar}：不压缩；</li>
+ *   <li>{@code tar.zst}：整条 tar 流交给 zstd，可配置级别、长距离匹配与多线程；</li>
+ *   <li>{@code tar.lz4}：lz4 帧格式，速度最快。</li>
+ * </ul>
+ * zstd 与 lz4 的实现库按 plugin.yml 的 {@code libraries} 由服务器下载；缺少时退回 ZIP。
+ * 库相关的代码放在嵌套类里，只有真正使用时才会加载。
+ */
+enum ArchiveCodec {
+    ZIP("zip", ".zip"),
+    TAR("tar", ".tar"),
+    TAR_ZSTD("tar.zst", ".tar.zst"),
+    TAR_LZ4("tar.lz4", ".tar.lz4");
+
+    /** 全部归档扩展名（以及分片备份目录的后缀）；备份目录记录按这些扩展名识别输出目录中的备份。 */
+    static final List<String> EXTENSIONS;
+
+    static {
+        List<String> exts = new ArrayList<>();
+        for (ArchiveCodec c : values()) exts.add(c.extension);
+        exts.add(ShardedArchive.SUFFIX);
+        EXTENSIONS = Collections.unmodifiableList(exts);
+    }
+
+    final String id;
+    final String extension;
+
+    ArchiveCodec(String id, String extension) {
+        this.id = id;
+        this.extension = extension;
+    }
+
+    /** 按名称查找（不区分大小写，接受 zstd / lz4 等简写）；未知返回 null。 */
+    static ArchiveCodec forName(String name) {
+        if (name == null) return null;
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "zip":
+                return ZIP;
+            case "tar":
+                return TAR;
+            case "tar.zst":
+            case "tar.zstd":
+            case "zst":
+            case "zstd":
+                return TAR_ZSTD;
+            case "tar.lz4":
+            case "lz4":
+                return TAR_LZ4;
+            default:
+                return null;
+        }
+    }
+
+    /** 按文件名的扩展名识别格式；都不匹配返回 null。 */
+    static ArchiveCodec forFileName(String fileName) {
+        for (ArchiveCodec c : values()) {
+            if (fileName.endsWith(c.extension)) return c;
+        }
+        return null;
+    }
+
+    /** 读取 output-format；未知的名称或缺少压缩库时记录警告并使用 ZIP。 */
+    static ArchiveCodec fromConfig(FileConfiguration config, Logger logger) {
+        String format = config.getString("output-format", "zip");
+        ArchiveCodec codec = forName(format);
+        if (codec == null) {
+            if (logger != null) logger.warning("未知的 output-format: " + format + "，使用 zip。");
+            return ZIP;
+        }
+        if (!codec.isAvailable()) {
+            if (logger != null) logger.warning("缺少 " + codec.id + " 所需的压缩库（需要服务器按 plugin.yml 的 libraries 下载），本次使用 zip。");
+            return ZIP;
+        }
+        return codec;
+    }
+
+    boolean isAvailable() {
+        String probe;
+        switch (this) {
+            case TAR_ZSTD:
+                probe = "com.github.luben.zstd.ZstdOutputStream";
+                break;
+            case TAR_LZ4:
+                probe = "net.jpountz.lz4.LZ4FrameOutputStream";
+                break;
+            default:
+                return true;
+        }
+        try {
+            Class.forName(probe, false, ArchiveCodec.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建写出到 target 的归档。
+     *
+     * @param threads  ZIP 的并行压缩线程数，也是 zstd 的默认工作线程数
+     * @param manifest 不为 null 时在写出的同时计算归档的 SHA-256 与每个文件的 CRC32
+     */
+    ArchiveWriter create(File target, FileConfiguration config, int bufferSize, int threads,
+                         CompressionPolicy policy, BackupThrottle throttle, ArchiveManifest manifest, Logger logger) throws IOException {
+        return create(target, config, bufferSize, threads, null, policy, throttle, manifest, null, null, logger);
+    }
+
+    /**
+     * 同上；deflatePool 不为 null 时 ZIP 使用这个共享的压缩线程池（分片备份的多个归档共用），
+     * threads 只决定该归档在途的块数。upload 不为 null 时写往磁盘的字节同时切段上传到远程。
+     * cipher 不为 null 时压缩后的数据先加密再落盘（清单的 SHA-256 与远程副本都是密文）。
+     */
+    ArchiveWriter create(File target, FileConfiguration config, int bufferSize, int threads, ExecutorService deflatePool,
+                         CompressionPolicy policy, BackupThrottle throttle, ArchiveManifest manifest,
+                         RemoteSink.Upload upload, ArchiveCipher cipher, Logger logger) throws IOException {
+        OutputStream disk = upload != null ? upload.tee(new FileOutputStream(target)) : new FileOutputStream(target);
+        if (this == ZIP) {
+            int blockKB = Math.max(64, config.getInt("compression.block-size-kb", 1024));
+            OutputStream sink = manifest != null ? manifest.digesting(disk) : disk;
+            OutputStream file = new BufferedOutputStream(cipher != null ? encrypt(cipher, sink) : sink, bufferSize);
+            ParallelZipWriter zip = deflatePool != null
+                    ? new ParallelZipWriter(file, deflatePool, false, threads, blockKB * 1024, policy, logger)
+                    : new ParallelZipWriter(file, threads, blockKB * 1024, policy, logger);
+            zip.setMmapThreshold(config.getLong("compression.mmap-threshold-mb", 64L) * 1024L * 1024L);
+            zip.setThrottle(throttle);
+            zip.setManifest(manifest);
+            return zip;
+        }
+        TarArchiveWriter.TimedOutputStream timed = new TarArchiveWriter.TimedOutputStream(disk);
+        OutputStream sink = manifest != null ? manifest.digesting(timed) : timed;
+        OutputStream buffered = new BufferedOutputStream(cipher != null ? encrypt(cipher, sink) : sink, bufferSize);
+        OutputStream out;
+        try {
+            switch (this) {
+                case TAR_ZSTD:
+                    int workers = config.getInt("compression.zstd.workers", 0);
+                    out = Zstd.wrap(buffered, config.getInt("compression.zstd.level", 3),
+                            config.getBoolean("compression.zstd.long", true) ? config.getInt("compression.zstd.window-log", 27) : 0,
+                            workers > 0 ? workers : threads);
+                    break;
+                case TAR_LZ4:
+                    out = Lz4.wrap(buffered, config.getInt("compression.lz4.block-size-kb", 4096));
+                    break;
+                default:
+                    out = buffered;
+                    break;
+            }
+        } catch (IOException | RuntimeException | LinkageError e) {
+            buffered.close();
+            throw new IOException("无法创建 " + id + " 压缩流: " + e, e);
+        }
+        TarArchiveWriter tar = new TarArchiveWriter(out, timed, this != TAR, bufferSize, logger);
+        tar.setThrottle(throttle);
+        tar.setManifest(manifest);
+        return tar;
+    }
+
+    private static OutputStream encrypt(ArchiveCipher cipher, OutputStream sink) throws IOException {
+        try {
+            return cipher.encrypt(sink);
+        } catch (IOException | RuntimeException e) {
+            sink.close();
+            throw e;
+        }
+    }
+
+    /** 打开 tar 类归档，返回解压后的 tar 流（ZIP 不适用，应使用 ZipFile 随机访问）。 */
+    InputStream openTarInput(File archive, int bufferSize) throws IOException {
+        return openTarInput(archive, bufferSize, null);
+    }
+
+    /** 同上；加密的归档先经 cipher 解密（没有密钥时抛出 IOException）。 */
+    InputStream openTarInput(File archive, int bufferSize, ArchiveCipher cipher) throws IOException {
+        if (this == ZIP) throw new IllegalStateException("zip 不是 tar 流");
+        boolean encrypted = ArchiveCipher.isEncrypted(archive);
+        if (encrypted && cipher == null) throw new IOException("归档已加密，但没有可用的密钥（encryption.key-file）");
+        InputStream in = new BufferedInputStream(new FileInputStream(archive), bufferSize);
+        if (encrypted) {
+            try {
+                in = new BufferedInputStream(cipher.decrypt(in), bufferSize);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        try {
+            switch (this) {
+                case TAR_ZSTD:
+                    return Zstd.unwrap(in);
+                case TAR_LZ4:
+                    return Lz4.unwrap(in);
+                default:
+                    return in;
+            }
+        } catch (IOException | RuntimeException | LinkageError e) {
+            in.close();
+            throw new IOException("无法读取 " + id + " 归档（缺少压缩库？）: " + e, e);
+        }
+    }
+
+    /** zstd-jni。 */
+    private static final class Zstd {
+        static OutputStream wrap(OutputStream out, int level, int windowLog, int workers) throws IOException {
+            com.github.luben.zstd.ZstdOutputStream z = new com.github.luben.zstd.ZstdOutputStream(out, level);
+            z.setChecksum(true);
+            // 长距离匹配：窗口超过 2^27 时，命令行解压需要 --long=<window-log>
+            if (windowLog > 0) z.setLong(windowLog);
+            if (workers > 1) z.setWorkers(workers);
+            return z;
+        }
+
+        static InputStream unwrap(InputStream in) throws IOException {
+            // 允许任意 window-log 写出的长距离匹配归档
+            return new com.github.luben.zstd.ZstdInputStream(in).setLongMax(31);
+        }
+    }
+
+    /** lz4-java 的帧格式（与 lz4 命令行兼容）。 */
+    private static final class Lz4 {
+        static OutputStream wrap(OutputStream out, int blockSizeKB) throws IOException {
+            net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE size;
+            if (blockSizeKB >= 4096) {
+                size = net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB;
+            } else if (blockSizeKB >= 1024) {
+                size = net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE.SIZE_1MB;
+            } else if (blockSizeKB >= 256) {
+                size = net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB;
+            } else {
+                size = net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB;
+            }
+            return new net.jpountz.lz4.LZ4FrameOutputStream(out, size);
+        }
+
+        static InputStream unwrap(InputStream in) throws IOException {
+            return new net.jpountz.lz4.LZ4FrameInputStream(in);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 归档旁的校验清单 {@code <归档名>.manifest}：整个归档文件的 SHA-256，以及每个文件内容的 CRC32 与大小。
+ * <p>
+ * 两者都在写出归档的同时计算（ZIP 本来就要算 CRC32，tar 在读取文件时顺带计算；SHA-256 挂在落盘的文件流上），
+ * 不需要再读一遍。{@link BackupVerifier} 据此校验：SHA-256 发现归档文件被截断或位翻转，逐文件 CRC 证明每个条目都能完整解压。
+ * <p>
+ * 格式：首行为版本，随后 {@code sha256\t<十六进制>}，之后每行 {@code <crc32 八位十六进制>\t<大小>\t<条目名>}。
+ */
+final class ArchiveManifest {
+
+    static final String SUFFIX = ".manifest";
+    private static final String HEADER = "EasyBackUp-Manifest v1";
+
+    /** 一个条目。 */
+    static final class Record {
+        final String name;
+        final long size;
+        final long crc;
+
+        Record(String name, long size, long crc) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    private final List<Record> records = new ArrayList<>();
+    private MessageDigest digest;
+    private String sha256;
+
+    static File fileFor(File archive) {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    /** 写出器在每个条目写完时调用。 */
+    synchronized void add(String name, long size, long crc) {
+        records.add(new Record(name, size, crc & 0xFFFFFFFFL));
+    }
+
+    synchronized List<Record> records() {
+        return Collections.unmodifiableList(new ArrayList<>(records));
+    }
+
+    /** 包装落盘的文件流：写出的每个字节同时进入 SHA-256。 */
+    OutputStream digesting(OutputStream out) {
+        digest = newSha256();
+        return new java.security.DigestOutputStream(out, digest);
+    }
+
+    /** 归档文件的 SHA-256；归档尚未关闭或未挂接文件流时为 null。 */
+    String getSha256() {
+        return sha256;
+    }
+
+    /** 归档关闭后调用：固定 SHA-256 并写出清单（先写临时文件再原子替换）。 */
+    void finish(File archive) throws IOException {
+        if (digest != null) sha256 = toHex(digest.digest());
+        File target = fileFor(archive);
+        File tmp = new File(target.getPath() + ".tmp");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            w.write(HEADER + "\n");
+            w.write("sha256\t" + (sha256 != null ? sha256 : "-") + "\n");
+            for (Record r : records()) {
+                w.write(String.format("%08x", r.crc) + "\t" + r.size + "\t" + r.name + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** 读取归档旁的清单；不存在返回 null。 */
+    static ArchiveManifest read(File archive) throws IOException {
+        File f = fileFor(archive);
+        if (!f.isFile()) return null;
+        ArchiveManifest m = new ArchiveManifest();
+        try (BufferedReader r = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine())) throw new IOException("校验清单格式错误: " + f.getName());
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] parts = line.split("\t", 3);
+                try {
+                    if ("sha256".equals(parts[0])) {
+                        m.sha256 = "-".equals(parts[1]) ? null : parts[1];
+                    } else {
+                        m.records.add(new Record(parts[2], Long.parseLong(parts[1]), Long.parseLong(parts[0], 16)));
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("校验清单格式错误: " + f.getName() + " - " + line, e);
+                }
+            }
+        }
+        return m;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 一种归档格式的写出器（由 {@link ArchiveCodec#create} 创建）。
+ * 打不开的文件记录警告并跳过；写到一半出错则抛出 IOException，整个归档作废。
+ */
+interface ArchiveWriter extends Closeable {
+
+    void addFile(String entryName, File file, long size, long lastModified) throws IOException;
+
+    /** 每个条目写完时把内容的 CRC32 与大小记入 manifest（跳过的文件不记）。 */
+    void setManifest(ArchiveManifest manifest);
+
+    long getBytesRead();
+
+    long getSkippedEntries();
+
+    /** 压缩耗时（纳秒）；无法单独统计时返回 -1。 */
+    long getCompressNanos();
+
+    /** 写出到磁盘的耗时（纳秒）；无法单独统计时返回 -1。 */
+    long getWriteNanos();
+
+    /** 等待已提交的文件全部读完（在后台读取的写出器需要覆盖）；之后可以安全地恢复其所在世界的自动保存。 */
+    default void sync() throws IOException {
+    }
+}
@@ -0,0 +1,335 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 备份目录的持久化目录（catalog）：保留策略、/ebu status 与 /ebu list 都从内存中的记录读取，不再扫描输出目录。
+ * <p>
+ * 文件为追加写的文本，每行 {@code <crc32> <类型>\t<字段...>}：
+ * <ul>
+ *   <li>{@code add}：名称、时间戳、大小、文件数、耗时、哈希（归档的 SHA-256）、格式、保留层、校验状态；</li>
+ *   <li>{@code del}：名称；</li>
+ *   <li>{@code tier}：名称、保留层（保留策略每次运行后更新）；</li>
+ *   <li>{@code verify}：名称、校验状态（后台校验完成后写入）。</li>
+ * </ul>
+ * 最后一行不完整（写入时崩溃）直接忽略；其余任何一行校验失败或文件缺失，则从目录重建。
+ * 作废记录过多时整体重写（先写临时文件再原子替换）。
+ */
+public final class BackupCatalog {
+
+    static final String FILE_NAME = ".catalog";
+    private static final String HEADER = "EasyBackUp-Catalog v1";
+    private static final String NONE = "-";
+    static final String VERIFIED_OK = "ok";
+    static final String VERIFIED_CORRUPT = "corrupt";
+
+    /** 一条备份记录。未知的数值为 -1，未知的文本为 "-"。 */
+    public static final class Entry {
+        public final String name;
+        public final long timestamp;
+        public final long size;
+        public final long files;
+        public final long durationMillis;
+        public final String hash;
+        public final String codec;
+        public final String tier;
+        /** 校验状态：{@code ok}、{@code corrupt}，或 "-" 表示尚未校验。 */
+        public final String verified;
+
+        public Entry(String name, long timestamp, long size, long files, long durationMillis, String hash, String codec, String tier) {
+            this(name, timestamp, size, files, durationMillis, hash, codec, tier, null);
+        }
+
+        public Entry(String name, long timestamp, long size, long files, long durationMillis, String hash, String codec, String tier, String verified) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.size = size;
+            this.files = files;
+            this.durationMillis = durationMillis;
+            this.hash = orNone(hash);
+            this.codec = orNone(codec);
+            this.tier = orNone(tier);
+            this.verified = orNone(verified);
+        }
+
+        public boolean isCorrupt() {
+            return VERIFIED_CORRUPT.equals(verified);
+        }
+
+        Entry withTier(String newTier) {
+            return new Entry(name, timestamp, size, files, durationMillis, hash, codec, newTier, verified);
+        }
+
+        Entry withVerified(String status) {
+            return new Entry(name, timestamp, size, files, durationMillis, hash, codec, tier, status);
+        }
+    }
+
+    private final File dir;
+    private final List<String> suffixes;
+    private final File file;
+    private final Logger logger;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int records;
+
+    private BackupCatalog(File dir, List<String> suffixes, Logger logger) {
+        this.dir = dir;
+        this.suffixes = new ArrayList<>(suffixes);
+        this.file = new File(dir, FILE_NAME);
+        this.logger = logger;
+    }
+
+    public static BackupCatalog open(File dir, String suffix, Logger logger) {
+        return open(dir, Collections.singletonList(suffix), logger);
+    }
+
+    /** 打开目录下的 catalog；缺失或损坏时扫描目录重建（识别 suffixes 中的任一扩展名）。 */
+    public static BackupCatalog open(File dir, List<String> suffixes, Logger logger) {
+        BackupCatalog c = new BackupCatalog(dir, suffixes, logger);
+        boolean ok = false;
+        if (c.file.isFile()) {
+            try {
+                ok = c.load();
+                if (!ok) c.warn("备份目录记录已损坏，将从目录重建: " + c.file.getPath());
+            } catch (IOException e) {
+                c.warn("读取备份目录记录失败，将从目录重建: " + e.getMessage());
+            }
+        }
+        if (!ok) c.rebuild();
+        return c;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public List<String> getSuffixes() {
+        return Collections.unmodifiableList(suffixes);
+    }
+
+    /** 按时间从新到旧排列的全部记录。 */
+    public synchronized List<Entry> list() {
+        List<Entry> out = new ArrayList<>(entries.values());
+        out.sort((a, b) -> Long.compare(b.timestamp, a.timestamp));
+        return out;
+    }
+
+    public synchronized Entry latest() {
+        Entry best = null;
+        for (Entry e : entries.values()) {
+            if (best == null || e.timestamp > best.timestamp) best = e;
+        }
+        return best;
+    }
+
+    public synchronized Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long totalBytes() {
+        long sum = 0;
+        for (Entry e : entries.values()) if (e.size > 0) sum += e.size;
+        return sum;
+    }
+
+    public synchronized void add(Entry e) {
+        entries.put(e.name, e);
+        append(addRecord(e));
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) == null) return;
+        append("del\t" + name);
+    }
+
+    /** 记录某个备份当前由哪一层保留；没有变化时不写入。 */
+    public synchronized void setTier(String name, String tier) {
+        Entry e = entries.get(name);
+        if (e == null || e.tier.equals(orNone(tier))) return;
+        entries.put(name, e.withTier(tier));
+        append("tier\t" + name + "\t" + orNone(tier));
+    }
+
+    /** 记录后台校验的结果；没有变化时不写入。 */
+    public synchronized void setVerified(String name, String status) {
+        Entry e = entries.get(name);
+        if (e == null || e.verified.equals(orNone(status))) return;
+        entries.put(name, e.withVerified(status));
+        append("verify\t" + name + "\t" + orNone(status));
+    }
+
+    /** 作废记录明显多于有效记录时整体重写。 */
+    public synchronized void compactIfNeeded() {
+        if (records > entries.size() * 2 + 64) {
+            try {
+                rewrite();
+            } catch (IOException e) {
+                warn("压缩备份目录记录失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean load() throws IOException {
+        byte[] raw = Files.readAllBytes(file.toPath());
+        String text = new String(raw, StandardCharsets.UTF_8);
+        int end = text.lastIndexOf('\n');
+        // 末尾没有换行的半行是写入中途崩溃留下的，丢弃后重写一次以免后续追加接在半行后面
+        boolean torn = end != text.length() - 1;
+        String[] lines = end < 0 ? new String[0] : text.substring(0, end).split("\n", -1);
+        if (lines.length == 0 || !HEADER.equals(lines[0])) return false;
+        Map<String, Entry> loaded = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            String payload = verify(lines[i]);
+            if (payload == null || !applyRecord(loaded, payload)) return false;
+        }
+        entries.clear();
+        entries.putAll(loaded);
+        records = lines.length - 1;
+        if (torn) rewrite();
+        return true;
+    }
+
+    private static boolean applyRecord(Map<String, Entry> map, String payload) {
+        String[] f = payload.split("\t", -1);
+        try {
+            switch (f[0]) {
+                case "add":
+                    // 早期版本没有校验状态字段
+                    if (f.length != 9 && f.length != 10) return false;
+                    map.put(f[1], new Entry(f[1], Long.parseLong(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4]),
+                            Long.parseLong(f[5]), f[6], f[7], f[8], f.length == 10 ? f[9] : NONE));
+                    return true;
+                case "del":
+                    if (f.length != 2) return false;
+                    map.remove(f[1]);
+                    return true;
+                case "tier":
+                    if (f.length != 3) return false;
+                    Entry e = map.get(f[1]);
+                    if (e != null) map.put(f[1], e.withTier(f[2]));
+                    return true;
+                case "verify":
+                    if (f.length != 3) return false;
+                    Entry v = map.get(f[1]);
+                    if (v != null) map.put(f[1], v.withVerified(f[2]));
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** 扫描目录重建（仅在缺失或损坏时调用）。文件数与耗时无从得知，记为未知；哈希取自归档旁的校验清单（如有）。 */
+    private void rebuild() {
+        entries.clear();
+        File[] files = dir.listFiles((d, n) -> n.startsWith("EasyBackUp_") && suffixOf(n) != null);
+        if (files != null) {
+            for (File f : files) {
+                Long ts = BackupTask.parseTimestampFromName(f.getName());
+                String hash = NONE;
+                try {
+                    ArchiveManifest m = ArchiveManifest.read(f);
+                    if (m != null && m.getSha256() != null) hash = m.getSha256();
+                } catch (IOException e) {
+                    warn("读取校验清单失败: " + e.getMessage());
+                }
+                long size = f.isDirectory() ? ShardedArchive.totalSize(f) : f.length();
+                entries.put(f.getName(), new Entry(f.getName(), ts != null ? ts : f.lastModified(), size, -1, -1,
+                        hash, codecOf(suffixOf(f.getName())), NONE));
+            }
+        }
+        try {
+            rewrite();
+            if (logger != null) logger.info("已从目录重建备份目录记录：" + entries.size() + " 个备份。");
+        } catch (IOException e) {
+            warn("写入备份目录记录失败: " + e.getMessage());
+        }
+    }
+
+    private void rewrite() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建目录 " + dir);
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             Writer w = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            w.write(HEADER);
+            w.write('\n');
+            for (Entry e : list()) {
+                w.write(line(addRecord(e)));
+            }
+            w.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+    }
+
+    private void append(String payload) {
+        try {
+            if (!file.isFile()) {
+                rewrite();
+                return;
+            }
+            try (FileOutputStream fos = new FileOutputStream(file, true)) {
+                fos.write(line(payload).getBytes(StandardCharsets.UTF_8));
+                fos.getFD().sync();
+            }
+            records++;
+        } catch (IOException e) {
+            warn("写入备份目录记录失败: " + e.getMessage());
+        }
+    }
+
+    private static String addRecord(Entry e) {
+        return "add\t" + e.name + "\t" + e.timestamp + "\t" + e.size + "\t" + e.files + "\t" + e.durationMillis
+                + "\t" + e.hash + "\t" + e.codec + "\t" + e.tier + "\t" + e.verified;
+    }
+
+    private static String line(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue()) + " " + payload + "\n";
+    }
+
+    /** 校验一行，返回其中的记录内容；校验失败返回 null。 */
+    private static String verify(String line) {
+        if (line.length() < 10 || line.charAt(8) != ' ') return null;
+        String payload = line.substring(9);
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        try {
+            return Long.parseLong(line.substring(0, 8), 16) == crc.getValue() ? payload : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String suffixOf(String name) {
+        for (String s : suffixes) if (name.endsWith(s)) return s;
+        return null;
+    }
+
+    /** 扩展名对应的格式名：.zip → zip，.tar.zst → tar.zst。 */
+    static String codecOf(String suffix) {
+        return suffix.startsWith(".") ? suffix.substring(1) : suffix;
+    }
+
+    private static String orNone(String s) {
+        return s == null || s.isEmpty() ? NONE : s;
+    }
+
+    private void warn(String msg) {
+        if (logger != null) logger.warning(msg);
+    }
+}
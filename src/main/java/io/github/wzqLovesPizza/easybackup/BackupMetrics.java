@@ -0,0 +1,388 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * 备份运行的分阶段指标，以及最近若干次运行的滚动历史。
+ * <p>
+ * 每次 {@link BackupTask#runOnce()} 填写一个 {@link Run}，结束后交给 {@link #record(Run)}：
+ * 历史保存在插件数据目录的 {@code metrics-history.tsv}（每行一次运行，{@code 键=值} 以制表符分隔，
+ * 超出容量时丢弃最旧的），重启后仍可计算百分位数。同一份数据通过 JMX、Prometheus 文本格式与 /ebu stats 展示。
+ */
+final class BackupMetrics implements BackupMetricsMXBean {
+
+    static final String FILE_NAME = "metrics-history.tsv";
+
+    /** 阶段的固定展示顺序；未列出的阶段排在后面。 */
+    static final List<String> PHASES = Arrays.asList("wait-space", "tune", "save", "scan", "staging", "archive", "compress", "write", "upload", "save-on", "retention");
+
+    /** 一次备份运行。阶段耗时为墙钟时间，唯独 compress 是各压缩线程耗时之和（含读取），可能大于 archive。 */
+    static final class Run {
+        final long startedAt;
+        final Map<String, Long> phases = new LinkedHashMap<>();
+        boolean success;
+        long durationMillis;
+        long bytesRead;
+        long bytesWritten;
+        long files;
+        long filesSkipped;
+        long mainThreadMillis;
+        long saveDisabledMillis;
+        /** 自动调优选出的级别、预测的归档用时与当时的校准系数；未调优时 predictedMillis 为 -1。 */
+        int tunedLevel = -1;
+        long predictedMillis = -1L;
+        double calibration = 1.0;
+
+        Run(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /** 记录一个阶段的耗时（自 startNanos 起），同名阶段累加。 */
+        void end(String phase, long startNanos) {
+            addPhase(phase, (System.nanoTime() - startNanos) / 1_000_000L);
+        }
+
+        void addPhase(String phase, long millis) {
+            phases.merge(phase, Math.max(0L, millis), Long::sum);
+        }
+
+        long phase(String name) {
+            Long v = phases.get(name);
+            return v != null ? v : -1L;
+        }
+
+        /** 读取吞吐（MB/s），按归档阶段的墙钟时间计算。 */
+        double throughputMBps() {
+            long ms = phase("archive");
+            if (ms <= 0 || bytesRead <= 0) return 0.0;
+            return bytesRead / 1048576.0 / (ms / 1000.0);
+        }
+
+        /** 压缩比 = 读取字节 / 写出字节；未知时为 0。 */
+        double compressionRatio() {
+            return bytesWritten > 0 && bytesRead > 0 ? (double) bytesRead / bytesWritten : 0.0;
+        }
+
+        String toLine() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("ts=").append(startedAt)
+                    .append("\tok=").append(success ? 1 : 0)
+                    .append("\tdur=").append(durationMillis)
+                    .append("\tread=").append(bytesRead)
+                    .append("\twritten=").append(bytesWritten)
+                    .append("\tfiles=").append(files)
+                    .append("\tskipped=").append(filesSkipped)
+                    .append("\tmain=").append(mainThreadMillis)
+                    .append("\tsaveoff=").append(saveDisabledMillis);
+            if (predictedMillis >= 0) {
+                sb.append("\ttune.level=").append(tunedLevel)
+                        .append("\ttune.predicted=").append(predictedMillis)
+                        .append("\ttune.calibration=").append(String.format(Locale.ROOT, "%.3f", calibration));
+            }
+            for (Map.Entry<String, Long> e : phases.entrySet()) {
+                sb.append("\tphase.").append(e.getKey()).append('=').append(e.getValue());
+            }
+            return sb.toString();
+        }
+
+        /** 解析一行历史；无法识别返回 null。未知的键忽略，便于以后增加字段。 */
+        static Run parse(String line) {
+            Map<String, String> kv = new LinkedHashMap<>();
+            for (String part : line.split("\t")) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) return null;
+                kv.put(part.substring(0, eq), part.substring(eq + 1));
+            }
+            try {
+                String ts = kv.get("ts");
+                if (ts == null) return null;
+                Run r = new Run(Long.parseLong(ts));
+                r.success = "1".equals(kv.get("ok"));
+                r.durationMillis = num(kv, "dur");
+                r.bytesRead = num(kv, "read");
+                r.bytesWritten = num(kv, "written");
+                r.files = num(kv, "files");
+                r.filesSkipped = num(kv, "skipped");
+                r.mainThreadMillis = num(kv, "main");
+                r.saveDisabledMillis = num(kv, "saveoff");
+                if (kv.containsKey("tune.predicted")) {
+                    r.tunedLevel = (int) num(kv, "tune.level");
+                    r.predictedMillis = num(kv, "tune.predicted");
+                    r.calibration = kv.containsKey("tune.calibration") ? Double.parseDouble(kv.get("tune.calibration")) : 1.0;
+                }
+                for (Map.Entry<String, String> e : kv.entrySet()) {
+                    if (e.getKey().startsWith("phase.")) {
+                        r.phases.put(e.getKey().substring(6), Long.parseLong(e.getValue()));
+                    }
+                }
+                return r;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static long num(Map<String, String> kv, String key) {
+            String v = kv.get(key);
+            return v != null ? Long.parseLong(v) : -1L;
+        }
+    }
+
+    private final File file;
+    private final Logger logger;
+    private final ArrayDeque<Run> history = new ArrayDeque<>();
+    private int capacity;
+    private long runCount;
+    private long failedRunCount;
+
+    BackupMetrics(File file, int capacity, Logger logger) {
+        this.file = file;
+        this.capacity = Math.max(1, capacity);
+        this.logger = logger;
+        load();
+    }
+
+    private void load() {
+        if (file == null || !file.isFile()) return;
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) continue;
+                Run r = Run.parse(line);
+                if (r != null) history.addLast(r);
+            }
+            trim();
+        } catch (IOException e) {
+            if (logger != null) logger.warning("读取备份指标历史失败: " + e.getMessage());
+        }
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        trim();
+    }
+
+    private void trim() {
+        while (history.size() > capacity) history.removeFirst();
+    }
+
+    /** 记录一次运行并重写历史文件（文件只有几十行，整体重写最简单也最不容易留下半行）。 */
+    synchronized void record(Run run) {
+        runCount++;
+        if (!run.success) failedRunCount++;
+        history.addLast(run);
+        trim();
+        if (file == null) return;
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建目录 " + dir);
+            File tmp = new File(dir, file.getName() + ".tmp");
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (Run r : history) {
+                    w.write(r.toLine());
+                    w.write('\n');
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (logger != null) logger.warning("写入备份指标历史失败: " + e.getMessage());
+        }
+    }
+
+    synchronized Run last() {
+        return history.peekLast();
+    }
+
+    /** 历史中的运行，从旧到新。 */
+    synchronized List<Run> recent() {
+        return new ArrayList<>(history);
+    }
+
+    /** 最近成功运行中某项指标的百分位数（最近秩法）；没有样本或指标缺失时返回 -1。 */
+    synchronized long percentile(ToLongFunction<Run> metric, double p) {
+        long[] values = new long[history.size()];
+        int n = 0;
+        for (Run r : history) {
+            if (!r.success) continue;
+            long v = metric.applyAsLong(r);
+            if (v >= 0) values[n++] = v;
+        }
+        return percentile(Arrays.copyOf(values, n), p);
+    }
+
+    static long percentile(long[] values, double p) {
+        if (values.length == 0) return -1L;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+    }
+
+    /** 阶段名按固定顺序排列，其余按出现顺序。 */
+    static List<String> orderedPhases(Collection<Run> runs) {
+        Set<String> seen = new LinkedHashSet<>();
+        for (Run r : runs) seen.addAll(r.phases.keySet());
+        List<String> out = new ArrayList<>();
+        for (String p : PHASES) if (seen.remove(p)) out.add(p);
+        out.addAll(seen);
+        return out;
+    }
+
+    /** Prometheus 文本格式（0.0.4）。 */
+    synchronized String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        metric(sb, "easybackup_runs_total", "counter", "本次启动以来的备份次数");
+        sb.append("easybackup_runs_total{result=\"success\"} ").append(runCount - failedRunCount).append('\n');
+        sb.append("easybackup_runs_total{result=\"failure\"} ").append(failedRunCount).append('\n');
+
+        Run last = history.peekLast();
+        if (last != null) {
+            gauge(sb, "easybackup_last_run_timestamp_seconds", "最近一次备份的开始时间", last.startedAt / 1000.0);
+            gauge(sb, "easybackup_last_success", "最近一次备份是否成功", last.success ? 1 : 0);
+            gauge(sb, "easybackup_last_duration_seconds", "最近一次备份总耗时", last.durationMillis / 1000.0);
+            metric(sb, "easybackup_last_phase_seconds", "gauge", "最近一次备份各阶段耗时（compress 为各压缩线程之和）");
+            for (String phase : orderedPhases(Collections.singletonList(last))) {
+                sb.append("easybackup_last_phase_seconds{phase=\"").append(phase).append("\"} ")
+                        .append(last.phases.get(phase) / 1000.0).append('\n');
+            }
+            gauge(sb, "easybackup_last_bytes_read", "最近一次备份读取的字节数", last.bytesRead);
+            gauge(sb, "easybackup_last_bytes_written", "最近一次备份写出的字节数", last.bytesWritten);
+            gauge(sb, "easybackup_last_throughput_bytes_per_second", "最近一次备份的读取吞吐", last.throughputMBps() * 1048576.0);
+            gauge(sb, "easybackup_last_compression_ratio", "最近一次备份的压缩比（读取/写出）", last.compressionRatio());
+            gauge(sb, "easybackup_last_files", "最近一次备份的文件数", last.files);
+            gauge(sb, "easybackup_last_files_skipped", "最近一次备份跳过的文件数", last.filesSkipped);
+            gauge(sb, "easybackup_last_main_thread_seconds", "最近一次备份在主线程执行保存命令的耗时", last.mainThreadMillis / 1000.0);
+            gauge(sb, "easybackup_last_save_disabled_seconds", "最近一次备份自动保存关闭的时长", last.saveDisabledMillis / 1000.0);
+        }
+
+        metric(sb, "easybackup_duration_seconds", "summary", "最近若干次成功备份的耗时");
+        long sum = 0;
+        int count = 0;
+        for (Run r : history) {
+            if (!r.success) continue;
+            sum += r.durationMillis;
+            count++;
+        }
+        for (double q : new double[]{0.5, 0.9, 0.99}) {
+            long v = percentile(r -> r.durationMillis, q);
+            sb.append("easybackup_duration_seconds{quantile=\"").append(q).append("\"} ")
+                    .append(v < 0 ? "NaN" : String.valueOf(v / 1000.0)).append('\n');
+        }
+        sb.append("easybackup_duration_seconds_sum ").append(sum / 1000.0).append('\n');
+        sb.append("easybackup_duration_seconds_count ").append(count).append('\n');
+        return sb.toString();
+    }
+
+    private static void metric(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        metric(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    // ---- JMX ----
+
+    @Override
+    public synchronized long getRunCount() {
+        return runCount;
+    }
+
+    @Override
+    public synchronized long getFailedRunCount() {
+        return failedRunCount;
+    }
+
+    @Override
+    public long getLastRunTimestamp() {
+        Run r = last();
+        return r != null ? r.startedAt : -1L;
+    }
+
+    @Override
+    public boolean isLastRunSuccessful() {
+        Run r = last();
+        return r != null && r.success;
+    }
+
+    @Override
+    public long getLastDurationMillis() {
+        Run r = last();
+        return r != null ? r.durationMillis : -1L;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getLastPhaseMillis() {
+        Run r = history.peekLast();
+        return r != null ? new LinkedHashMap<>(r.phases) : Collections.emptyMap();
+    }
+
+    @Override
+    public long getLastBytesRead() {
+        Run r = last();
+        return r != null ? r.bytesRead : -1L;
+    }
+
+    @Override
+    public long getLastBytesWritten() {
+        Run r = last();
+        return r != null ? r.bytesWritten : -1L;
+    }
+
+    @Override
+    public double getLastThroughputMBps() {
+        Run r = last();
+        return r != null ? r.throughputMBps() : 0.0;
+    }
+
+    @Override
+    public double getLastCompressionRatio() {
+        Run r = last();
+        return r != null ? r.compressionRatio() : 0.0;
+    }
+
+    @Override
+    public long getLastFilesCount() {
+        Run r = last();
+        return r != null ? r.files : -1L;
+    }
+
+    @Override
+    public long getLastFilesSkipped() {
+        Run r = last();
+        return r != null ? r.filesSkipped : -1L;
+    }
+
+    @Override
+    public long getLastMainThreadMillis() {
+        Run r = last();
+        return r != null ? r.mainThreadMillis : -1L;
+    }
+
+    @Override
+    public long getLastSaveDisabledMillis() {
+        Run r = last();
+        return r != null ? r.saveDisabledMillis : -1L;
+    }
+
+    @Override
+    public long getDurationP50Millis() {
+        return percentile(r -> r.durationMillis, 0.5);
+    }
+
+    @Override
+    public long getDurationP95Millis() {
+        return percentile(r -> r.durationMillis, 0.95);
+    }
+
+    @Override
+    public synchronized int getHistorySize() {
+        return history.size();
+    }
+}
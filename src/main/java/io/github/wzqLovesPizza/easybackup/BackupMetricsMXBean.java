@@ -0,0 +1,45 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.util.Map;
+
+/**
+ * 备份指标的 JMX 视图，注册名为 {@code io.github.wzqLovesPizza.easybackup:type=BackupMetrics}。
+ * “Last” 开头的属性描述最近一次备份；百分位数按磁盘上保存的最近若干次成功备份计算。
+ */
+public interface BackupMetricsMXBean {
+
+    long getRunCount();
+
+    long getFailedRunCount();
+
+    long getLastRunTimestamp();
+
+    boolean isLastRunSuccessful();
+
+    long getLastDurationMillis();
+
+    /** 各阶段耗时（毫秒），键为阶段名：save、scan、staging、archive、compress、write、save-on、retention。 */
+    Map<String, Long> getLastPhaseMillis();
+
+    long getLastBytesRead();
+
+    long getLastBytesWritten();
+
+    double getLastThroughputMBps();
+
+    double getLastCompressionRatio();
+
+    long getLastFilesCount();
+
+    long getLastFilesSkipped();
+
+    long getLastMainThreadMillis();
+
+    long getLastSaveDisabledMillis();
+
+    long getDurationP50Millis();
+
+    long getDurationP95Millis();
+
+    int getHistorySize();
+}
@@ -0,0 +1,94 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 备份配置档案。顶层配置本身是档案 {@value #DEFAULT}；profiles 下的每一项是一个额外的档案，
+ * 只需写出与顶层不同的键（targets、interval、output-format、max-backups、retention 等），其余沿用顶层配置。
+ * <p>
+ * 额外档案默认写到 &lt;output-dir&gt;/&lt;档案名&gt;、远程副本放在 &lt;remote.prefix&gt;&lt;档案名&gt;/ 下；
+ * 顶层写了 repository.dir 或 staging.dir 时同样改为其下的 &lt;档案名&gt; 子目录（留空时本就位于各自的输出目录下）。
+ * 这样各档案的分块仓库、快照记录与暂存目录互不共享：保留策略与分块回收只处理自己的备份，
+ * 暂存前的清理也不会删掉另一个正在进行的备份的暂存文件。档案自己写出这些键时按原样使用，需自行保证不与其它档案重复。
+ */
+final class BackupProfile {
+
+    static final String DEFAULT = "default";
+
+    final String name;
+    /** 排队时的优先级，大者先运行。 */
+    final int priority;
+    /** 自动备份间隔（秒），0 为只手动备份。 */
+    final int intervalSeconds;
+    /** 合并了顶层配置后的完整配置。 */
+    final FileConfiguration config;
+
+    private BackupProfile(String name, int priority, int intervalSeconds, FileConfiguration config) {
+        this.name = name;
+        this.priority = priority;
+        this.intervalSeconds = intervalSeconds;
+        this.config = config;
+    }
+
+    boolean isDefault() {
+        return DEFAULT.equals(name);
+    }
+
+    /** 默认档案在前，其后按 profiles 中的顺序。 */
+    static List<BackupProfile> fromConfig(FileConfiguration root, Logger logger) {
+        List<BackupProfile> out = new ArrayList<>();
+        out.add(new BackupProfile(DEFAULT, 0,
+                BackupTask.safeParseDurationSeconds(root.getString("interval", "6H")), root));
+        ConfigurationSection section = root.getConfigurationSection("profiles");
+        if (section == null) return out;
+        for (String name : section.getKeys(false)) {
+            ConfigurationSection p = section.getConfigurationSection(name);
+            if (p == null) continue;
+            if (DEFAULT.equalsIgnoreCase(name) || !name.matches("[A-Za-z0-9_-]+")) {
+                if (logger != null) logger.warning("忽略备份档案 " + name + "：名称只能包含字母、数字、- 与 _，且不能是 " + DEFAULT + "。");
+                continue;
+            }
+            FileConfiguration merged = merge(root, p, name);
+            out.add(new BackupProfile(name, merged.getInt("priority", 0),
+                    BackupTask.safeParseDurationSeconds(merged.getString("interval", "0S")), merged));
+        }
+        return out;
+    }
+
+    static BackupProfile find(List<BackupProfile> profiles, String name) {
+        for (BackupProfile p : profiles) if (p.name.equalsIgnoreCase(name)) return p;
+        return null;
+    }
+
+    /** 顶层配置的各项叠加档案自己的设置（子节点逐项合并，列表整体替换）。 */
+    private static FileConfiguration merge(FileConfiguration root, ConfigurationSection profile, String name) {
+        YamlConfiguration merged = new YamlConfiguration();
+        for (String key : root.getKeys(true)) {
+            if (key.equals("profiles") || key.startsWith("profiles.") || root.isConfigurationSection(key)) continue;
+            merged.set(key, root.get(key));
+        }
+        // interval 与 priority 不继承：没有写出 interval 的档案只手动备份
+        merged.set("interval", "0S");
+        merged.set("priority", 0);
+        merged.set("output-dir", root.getString("output-dir", "backups") + "/" + name);
+        for (String key : new String[]{"repository.dir", "staging.dir"}) {
+            String dir = root.getString(key, "");
+            if (dir != null && !dir.trim().isEmpty()) merged.set(key, dir.trim() + "/" + name);
+        }
+        String prefix = root.getString("remote.prefix", "easybackup/");
+        prefix = prefix == null ? "" : prefix.trim();
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) prefix += "/";
+        merged.set("remote.prefix", prefix + name + "/");
+        for (String key : profile.getKeys(true)) {
+            if (profile.isConfigurationSection(key)) continue;
+            merged.set(key, profile.get(key));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * 备份任务队列：按优先级（大者先）、同优先级按提交顺序出队，最多 max-parallel 个任务同时运行。
+ * <p>
+ * 每个配置档案同时只有一个任务在排队：重复的请求合并到已排队的任务（取较高的优先级，完成时一并通知发起者）；
+ * 同一档案正在运行时新的请求不排队，由调用方提示“正在进行中”。
+ */
+final class BackupQueue {
+
+    enum Outcome {
+        /** 立即开始运行。 */
+        STARTED,
+        /** 已排队，等待空闲的并发名额。 */
+        QUEUED,
+        /** 合并到已在排队的同一档案的任务。 */
+        MERGED,
+        /** 同一档案正在运行，本次请求未排队。 */
+        RUNNING
+    }
+
+    static final class Job {
+        final String key;
+        final long enqueuedAt;
+        private final long seq;
+        private final Consumer<Job> work;
+        private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+        private volatile int priority;
+        private volatile long startedAt = -1L;
+
+        private Job(String key, int priority, long seq, long enqueuedAt, Consumer<Job> work) {
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+            this.enqueuedAt = enqueuedAt;
+            this.work = work;
+        }
+
+        int priority() {
+            return priority;
+        }
+
+        /** 开始运行的时间，尚在排队时为 -1。 */
+        long startedAt() {
+            return startedAt;
+        }
+
+        /** 已等待（排队中）或曾等待（已开始）的时长。 */
+        long waitMillis(long now) {
+            long s = startedAt;
+            return (s < 0 ? now : s) - enqueuedAt;
+        }
+
+        /** 发消息给所有合并到这个任务的发起者。 */
+        void notify(String message) {
+            for (Consumer<String> l : listeners) {
+                try {
+                    l.accept(message);
+                } catch (RuntimeException ignored) {
+                    // 发起者已离线
+                }
+            }
+        }
+    }
+
+    private static final Comparator<Job> ORDER = (a, b) -> a.priority != b.priority
+            ? Integer.compare(b.priority, a.priority) : Long.compare(a.seq, b.seq);
+
+    private final Executor executor;
+    private final PriorityQueue<Job> pending = new PriorityQueue<>(ORDER);
+    private final Map<String, Job> pendingByKey = new HashMap<>();
+    private final Map<String, Job> running = new LinkedHashMap<>();
+    private int maxParallel;
+    private long seq;
+    private long started;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    BackupQueue(int maxParallel, Executor executor) {
+        this.maxParallel = Math.max(1, maxParallel);
+        this.executor = executor;
+    }
+
+    synchronized void setMaxParallel(int maxParallel) {
+        this.maxParallel = Math.max(1, maxParallel);
+        dispatch();
+    }
+
+    /**
+     * 提交一个档案的备份。
+     *
+     * @param listener 接收开始与完成消息的发起者（定时任务为 null）
+     * @param work     在后台线程运行，结束后释放并发名额
+     */
+    synchronized Outcome submit(String key, int priority, Consumer<String> listener, Consumer<Job> work) {
+        if (running.containsKey(key)) return Outcome.RUNNING;
+        Job job = pendingByKey.get(key);
+        if (job != null) {
+            if (listener != null) job.listeners.add(listener);
+            if (priority > job.priority) {
+                pending.remove(job);
+                job.priority = priority;
+                pending.add(job);
+            }
+            return Outcome.MERGED;
+        }
+        job = new Job(key, priority, seq++, System.currentTimeMillis(), work);
+        if (listener != null) job.listeners.add(listener);
+        pending.add(job);
+        pendingByKey.put(key, job);
+        dispatch();
+        return job.startedAt >= 0 ? Outcome.STARTED : Outcome.QUEUED;
+    }
+
+    /** 排队中的任务数。 */
+    synchronized int depth() {
+        return pending.size();
+    }
+
+    /** 排在某个档案前面的任务数（该档案未排队时为 -1）。 */
+    synchronized int position(String key) {
+        Job job = pendingByKey.get(key);
+        if (job == null) return -1;
+        int ahead = 0;
+        for (Job j : pending) if (ORDER.compare(j, job) < 0) ahead++;
+        return ahead;
+    }
+
+    /** 按出队顺序排列的排队任务。 */
+    synchronized List<Job> pendingJobs() {
+        List<Job> out = new ArrayList<>(pending);
+        out.sort(ORDER);
+        return out;
+    }
+
+    synchronized List<Job> runningJobs() {
+        return new ArrayList<>(running.values());
+    }
+
+    synchronized boolean isIdle() {
+        return running.isEmpty() && pending.isEmpty();
+    }
+
+    /** 已开始的任务的平均排队时长（毫秒），尚无任务时为 -1。 */
+    synchronized long averageWaitMillis() {
+        return started == 0 ? -1L : totalWaitMillis / started;
+    }
+
+    synchronized long maxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /** 丢弃所有排队的任务（插件停用时）。 */
+    synchronized void clear() {
+        pending.clear();
+        pendingByKey.clear();
+    }
+
+    private synchronized void dispatch() {
+        while (running.size() < maxParallel && !pending.isEmpty()) {
+            Job job = pending.poll();
+            pendingByKey.remove(job.key);
+            running.put(job.key, job);
+            job.startedAt = System.currentTimeMillis();
+            long wait = job.waitMillis(job.startedAt);
+            started++;
+            totalWaitMillis += wait;
+            maxWaitMillis = Math.max(maxWaitMillis, wait);
+            try {
+                executor.execute(() -> {
+                    try {
+                        job.work.accept(job);
+                    } finally {
+                        finished(job);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 调度器已关闭（插件停用中）
+                running.remove(job.key);
+                throw e;
+            }
+        }
+    }
+
+    private synchronized void finished(Job job) {
+        running.remove(job.key);
+        dispatch();
+    }
+}
@@ -0,0 +1,325 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * 后台删除过期备份（retention.reaper）。
+ * <p>
+ * 保留策略只把要删除的归档改名为 {@code <名称>.deleting}（不再被备份目录记录识别）并记入插件数据目录的
+ * {@code pending-deletions.tsv}，随即返回；后台线程按 bytes-per-second-mb 与 files-per-second 的预算删除：
+ * 大文件先按 truncate-step-mb 逐段截短再删除，把 ext4 / XFS 释放大量区段的开销分摊开，不再一次 unlink 几十 GB。
+ * 清单在每次变化后整体重写，重启后继续删除未完成的项。
+ * <p>
+ * 有备份在 {@link #awaitFreeSpace} 中等待空间时忽略预算，全速删除。
+ */
+final class BackupReaper {
+
+    static final String FILE_NAME = "pending-deletions.tsv";
+    static final String SUFFIX = ".deleting";
+    /** 单项删除失败后的重试次数。 */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** 一项待删除的备份（文件或分片目录）。 */
+    static final class Pending {
+        final File file;
+        final long bytes;
+        final long queuedAt;
+        int attempts;
+
+        Pending(File file, long bytes, long queuedAt) {
+            this.file = file;
+            this.bytes = bytes;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final File listFile;
+    private final Logger logger;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final Thread worker;
+    private long pendingBytes;
+    private int waiters;
+    private volatile long bytesPerSecond;
+    private volatile int filesPerSecond;
+    private volatile long truncateStep = 256L * 1024 * 1024;
+    private volatile boolean stopped;
+
+    BackupReaper(File listFile, Logger logger) {
+        this.listFile = listFile;
+        this.logger = logger;
+        load();
+        worker = new Thread(this::run, "EasyBackUp-Reaper");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * @param bytesPerSecond 每秒最多释放的字节数，0 为不限
+     * @param filesPerSecond 每秒最多删除的文件数，0 为不限
+     */
+    void configure(long bytesPerSecond, int filesPerSecond, long truncateStep) {
+        this.bytesPerSecond = Math.max(0L, bytesPerSecond);
+        this.filesPerSecond = Math.max(0, filesPerSecond);
+        this.truncateStep = Math.max(1024L * 1024, truncateStep);
+    }
+
+    void configure(FileConfiguration config) {
+        configure(config.getLong("retention.reaper.bytes-per-second-mb", 256L) * 1024L * 1024L,
+                config.getInt("retention.reaper.files-per-second", 50),
+                config.getLong("retention.reaper.truncate-step-mb", 256L) * 1024L * 1024L);
+    }
+
+    /**
+     * 把归档改名并排入删除队列。改名失败（文件被占用等）时返回 false，由调用方决定是否直接删除。
+     */
+    boolean enqueue(File archive) {
+        if (!archive.exists()) return true;
+        File target = new File(archive.getParentFile(), archive.getName() + SUFFIX);
+        Pending p = new Pending(target, sizeOf(archive), System.currentTimeMillis());
+        synchronized (this) {
+            // 先记入清单再改名：中途崩溃最多留下一条指向不存在文件的记录，启动时丢弃
+            queue.addLast(p);
+            pendingBytes += p.bytes;
+            save();
+            if (!archive.renameTo(target)) {
+                queue.removeLast();
+                pendingBytes -= p.bytes;
+                save();
+                return false;
+            }
+            notifyAll();
+        }
+        return true;
+    }
+
+    synchronized int getPendingCount() {
+        return queue.size();
+    }
+
+    /** 尚未释放的字节数（正在截短的项按原大小计）。 */
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    synchronized List<Pending> pending() {
+        return new ArrayList<>(queue);
+    }
+
+    /**
+     * 等待 dir 所在分区的可用空间达到 needed 字节：期间后台删除不受预算限制。
+     * 队列已空、超时或被中断时提前返回。
+     *
+     * @return 返回时的可用空间
+     */
+    long awaitFreeSpace(File dir, long needed, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            waiters++;
+            notifyAll();
+            try {
+                while (true) {
+                    long usable = dir.getUsableSpace();
+                    long left = deadline - System.currentTimeMillis();
+                    if (usable >= needed || queue.isEmpty() || left <= 0) return usable;
+                    wait(Math.min(left, 200L));
+                }
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /** 停止后台线程；未删完的项留在清单中，下次启动继续。 */
+    void shutdown() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            Pending p;
+            synchronized (this) {
+                while (queue.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                p = queue.peekFirst();
+            }
+            if (p == null) return;
+            long start = System.currentTimeMillis();
+            boolean done;
+            try {
+                reap(p);
+                done = true;
+                if (logger != null) {
+                    logger.info("已删除旧备份：" + stripSuffix(p.file.getName()) + "（" + p.bytes + " 字节，用时 "
+                            + (System.currentTimeMillis() - start) + "ms）。");
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                done = ++p.attempts >= MAX_ATTEMPTS;
+                if (logger != null) {
+                    logger.warning("删除旧备份 " + p.file.getName() + " 失败" + (done ? "，已放弃，请手动删除" : "，稍后重试") + ": " + e.getMessage());
+                }
+            }
+            synchronized (this) {
+                queue.remove(p);
+                if (done) {
+                    pendingBytes -= p.bytes;
+                } else {
+                    queue.addLast(p);
+                }
+                save();
+                notifyAll();
+            }
+            if (!done) {
+                try {
+                    Thread.sleep(5000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** 按预算删除一项：目录由深到浅逐个删除其中的文件。 */
+    private void reap(Pending p) throws IOException, InterruptedException {
+        if (!p.file.exists()) return;
+        Budget budget = new Budget();
+        if (p.file.isDirectory()) {
+            List<Path> paths;
+            try (var walk = Files.walk(p.file.toPath())) {
+                paths = new ArrayList<>();
+                walk.forEach(paths::add);
+            }
+            paths.sort(Comparator.reverseOrder());
+            for (Path path : paths) {
+                if (Files.isRegularFile(path)) {
+                    deleteFile(path.toFile(), budget);
+                } else {
+                    Files.deleteIfExists(path);
+                    budget.spend(0L, 1);
+                }
+            }
+        } else {
+            deleteFile(p.file, budget);
+        }
+    }
+
+    private void deleteFile(File f, Budget budget) throws IOException, InterruptedException {
+        long size = f.length();
+        long step = truncateStep;
+        if (size > step) {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+                while (size > 0) {
+                    long next = Math.max(0L, size - step);
+                    ch.truncate(next);
+                    budget.spend(size - next, 0);
+                    size = next;
+                }
+            }
+        }
+        Files.deleteIfExists(f.toPath());
+        budget.spend(size, 1);
+    }
+
+    /** 一项删除的预算：已释放的字节与文件数超前于配置的速率时等待。 */
+    private final class Budget {
+        private final long start = System.nanoTime();
+        private long bytes;
+        private long files;
+
+        void spend(long b, int f) throws InterruptedException {
+            bytes += b;
+            files += f;
+            while (true) {
+                long bps = bytesPerSecond;
+                int fps = filesPerSecond;
+                double due = Math.max(bps > 0 ? bytes * 1000.0 / bps : 0.0, fps > 0 ? files * 1000.0 / fps : 0.0);
+                long ahead = (long) due - (System.nanoTime() - start) / 1_000_000L;
+                synchronized (BackupReaper.this) {
+                    if (ahead <= 0 || waiters > 0 || stopped) return;
+                    // 有备份开始等待空间时被唤醒
+                    BackupReaper.this.wait(Math.min(ahead, 1000L));
+                }
+            }
+        }
+    }
+
+    private static String stripSuffix(String name) {
+        return name.endsWith(SUFFIX) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    private static long sizeOf(File f) {
+        if (!f.isDirectory()) return f.length();
+        long total = 0;
+        try (var walk = Files.walk(f.toPath())) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(p)) total += Files.size(p);
+            }
+        } catch (IOException | UncheckedIOException ignored) {
+            // 估算值，只用于空间统计
+        }
+        return total;
+    }
+
+    private void load() {
+        if (listFile == null || !listFile.isFile()) return;
+        try {
+            for (String line : Files.readAllLines(listFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length < 3) continue;
+                File f = new File(parts[2]);
+                if (!f.exists()) continue;
+                try {
+                    Pending p = new Pending(f, Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                    queue.addLast(p);
+                    pendingBytes += p.bytes;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            if (logger != null) logger.warning("读取待删除清单失败: " + e.getMessage());
+        }
+        if (!queue.isEmpty() && logger != null) {
+            logger.info("继续删除上次未删完的旧备份 " + queue.size() + " 个（" + pendingBytes + " 字节）。");
+        }
+    }
+
+    /** 整体重写清单（只有几行）；调用时持有锁。 */
+    private void save() {
+        if (listFile == null) return;
+        try {
+            File dir = listFile.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建目录 " + dir);
+            if (queue.isEmpty()) {
+                Files.deleteIfExists(listFile.toPath());
+                return;
+            }
+            File tmp = new File(dir, listFile.getName() + ".tmp");
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (Pending p : queue) {
+                    w.write(p.bytes + "\t" + p.queuedAt + "\t" + p.file.getAbsolutePath() + "\n");
+                }
+            }
+            Files.move(tmp.toPath(), listFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (logger != null) logger.warning("写入待删除清单失败: " + e.getMessage());
+        }
+    }
+}
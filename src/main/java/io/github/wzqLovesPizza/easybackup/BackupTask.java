@@ -2,21 +2,27 @@ package io.github.wzqLovesPizza.easybackup;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.logging.Logger;
-import java.util.concurrent.Callable;
+import java.util.regex.PatternSyntaxException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
 
 public class BackupTask {
 
     private final EasyBackUp plugin;
+    private final String profile;
     private final FileConfiguration config;
     private volatile boolean broadcastProgress = false;
 
@@ -25,22 +31,36 @@ public class BackupTask {
         public final long filesCount;
         public final long totalBytes;
         public final String message;
+        public final long saveDisabledMillis;
 
         public Result(boolean success, long filesCount, long totalBytes, String message) {
+            this(success, filesCount, totalBytes, message, 0L);
+        }
+
+        public Result(boolean success, long filesCount, long totalBytes, String message, long saveDisabledMillis) {
             this.success = success;
             this.filesCount = filesCount;
             this.totalBytes = totalBytes;
             this.message = message;
+            this.saveDisabledMillis = saveDisabledMillis;
         }
     }
 
     public BackupTask(EasyBackUp plugin) {
         this.plugin = plugin;
+        this.profile = BackupProfile.DEFAULT;
         this.config = plugin.getConfig();
     }
 
+    BackupTask(EasyBackUp plugin, BackupProfile profile) {
+        this.plugin = plugin;
+        this.profile = profile.name;
+        this.config = profile.config;
+    }
+
     public Result runOnce() {
-        String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        long runStart = System.currentTimeMillis();
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date(runStart));
 
         boolean ifBroadcast = config.getBoolean("notify-players", true);
         this.broadcastProgress = ifBroadcast; // 进度广播跟随 notify-players
@@ -57,23 +77,52 @@ public class BackupTask {
     File serverRoot = resolveServerRoot();
 
         // 解析输出目录
-        String outPath = config.getString("output-dir", "backups");
-        File outputDir = new File(outPath);
-        if (!outputDir.isAbsolute()) {
-            outputDir = new File(serverRoot, outPath);
-        }
+        File outputDir = resolveOutputDir(serverRoot);
         if (!outputDir.exists() && !outputDir.mkdirs()) {
             plugin.getLogger().severe("无法创建备份输出目录: " + outputDir.getAbsolutePath());
             return new Result(false, 0, 0, "输出目录创建失败");
         }
 
-        File zipFile = new File(outputDir, "EasyBackUp_" + timestamp + ".zip");
-
-        // 解析排除
-        Set<String> excludeDirs = toLowerCaseSet(config.getStringList("exclude-dirs"));
-        Set<String> excludeFiles = toLowerCaseSet(config.getStringList("exclude-files"));
-        Set<String> excludeExts = toLowerCaseSet(config.getStringList("exclude-extensions"));
-        excludeFiles.add("session.lock"); // 总是排除
+        CompressionPolicy policy = CompressionPolicy.fromConfig(config);
+
+        // 输出格式: zip（默认）/ tar / tar.zst / tar.lz4（每次一个完整归档）/ repository（分块去重仓库，每次只写新增分块与一份快照清单）
+        ChunkRepository repository = null;
+        ArchiveCodec codec = null;
+        File archiveFile = null;
+        ArchiveManifest manifest = null;
+        boolean sharded = false;
+        if (isRepositoryFormat()) {
+            repository = new ChunkRepository(resolveRepositoryDir(serverRoot, outputDir), plugin.getLogger());
+            repository.setRegionAware(config.getBoolean("repository.region-aware", true));
+            repository.setCompressionPolicy(policy);
+        } else {
+            codec = ArchiveCodec.fromConfig(config, plugin.getLogger());
+            // 分片：每个目标（组）各写一个归档，同时写出，整体放在一个 .shards 目录中
+            sharded = config.getBoolean("sharding.enabled", false);
+            archiveFile = new File(outputDir, "EasyBackUp_" + timestamp + (sharded ? ShardedArchive.SUFFIX : codec.extension));
+        }
+        // 远程副本：写出归档的同时分段上传到 S3 兼容存储
+        RemoteSink remote = null;
+        if (repository == null) {
+            remote = RemoteSink.fromConfig(config, plugin.getLogger());
+        } else if (config.getBoolean("remote.enabled", false)) {
+            plugin.getLogger().warning("repository 格式暂不支持远程副本，本次只写本地仓库。");
+        }
+        List<RemoteSink.Upload> uploads = Collections.synchronizedList(new ArrayList<>());
+        // 静态加密：压缩后的数据分段加密再落盘；密钥不可用时不写出未加密的备份
+        ArchiveCipher cipher = null;
+        if (config.getBoolean("encryption.enabled", false)) {
+            if (repository != null) {
+                plugin.getLogger().warning("repository 格式暂不支持加密，本次只写未加密的本地仓库。");
+            } else {
+                try {
+                    cipher = ArchiveCipher.fromConfig(config, plugin.getDataFolder(), plugin.getLogger(), true);
+                } catch (IOException e) {
+                    plugin.getLogger().severe("无法读取加密密钥，未执行备份: " + e.getMessage());
+                    return new Result(false, 0, 0, "加密密钥不可用");
+                }
+            }
+        }
 
         int progressEvery = Math.max(1, config.getInt("progress-every-files", 500));
         int bufferKB = Math.max(16, config.getInt("buffer-size-kb", 64));
@@ -93,47 +142,339 @@ public class BackupTask {
             return new Result(false, 0, 0, "无有效目标");
         }
 
-        long totalFiles = countFiles(serverRoot, targets, excludeDirs, excludeFiles, excludeExts);
-
         // 广播开始
         if (ifBroadcast) {
             String start = ChatColor.translateAlternateColorCodes('&', "&a[EasyBackUp] &3正在备份，可能引起短时间卡顿...");
             Bukkit.getScheduler().runTask(plugin, () -> Bukkit.broadcastMessage(start));
         }
 
-        // 主线程: save-all + save-off
+        BackupMetrics.Run metrics = new BackupMetrics.Run(runStart);
+        // 空间不足而后台还在删除旧备份时，先等它释放空间（在保存世界之前等，不延长自动保存关闭的时间）
+        if (repository == null) {
+            long waited = awaitFreeSpace(outputDir);
+            if (waited > 0) metrics.addPhase("wait-space", waited);
+        }
+
+        // 压缩级别自动调优：在保存世界之前采样，不延长自动保存关闭的时间。样本取自本档案上一次备份的文件清单，
+        // 启动后的第一次备份先单独扫描一遍
+        CompressionTuner tuner = codec == ArchiveCodec.ZIP ? CompressionTuner.fromConfig(config, LocalDateTime.now().getHour()) : null;
+        if (tuner != null) {
+            long tuneStart = System.nanoTime();
+            List<FileScanner.ScannedFile> previous = plugin.getLastFiles(profile);
+            if (previous == null) {
+                List<Path> paths = new ArrayList<>();
+                for (File t : targets) paths.add(t.toPath());
+                previous = newScanner(serverRoot, ParallelZipWriter.resolveThreads(config.getInt("scan.threads", 0))).scan(paths).files;
+            }
+            CompressionTuner.Decision d = tuner.tune(previous, policy,
+                    ParallelZipWriter.resolveThreads(config.getInt("compression.threads", 0)), plugin.getMetrics().recent());
+            policy = policy.withDefaultLevel(d.level);
+            metrics.tunedLevel = d.level;
+            metrics.predictedMillis = d.predictedMillis;
+            metrics.calibration = d.calibration;
+            metrics.end("tune", tuneStart);
+            StringBuilder sb = new StringBuilder();
+            for (CompressionTuner.Candidate c : d.candidates) {
+                sb.append(String.format(" %d=%.2fx/%s", c.level, c.ratio(d.sampleBytes), EasyBackUp.millisToHuman(c.predictedMillis)));
+            }
+            plugin.getLogger().info(String.format("压缩自动调优：样本 %d KB，校准系数 %.2f，各级别压缩比/预测用时:%s；选择级别 %d（预测 %s，目标 %s）。",
+                    d.sampleBytes / 1024, d.calibration, sb, d.level, EasyBackUp.millisToHuman(d.predictedMillis), EasyBackUp.millisToHuman(d.budgetMillis)));
+        }
+
+        // 主线程保存：默认 save-all flush + save-off；save.mode: per-world 时只保存目标涉及的世界（每 tick 一个），
+        // 只关闭这些世界的自动保存（不等写入线程落盘，一致性较弱），失败时同样退回 save-all
+        long phaseStart = System.nanoTime();
+        SaveCoordinator.Session saves = null;
+        if ("per-world".equalsIgnoreCase(config.getString("save.mode", "global"))) {
+            try {
+                saves = plugin.getSaveCoordinator().save(targets, Math.max(1, config.getInt("save.ticks-between", 1)),
+                        safeParseDurationSeconds(config.getString("save.flush-wait", "2S")) * 1000L);
+                metrics.mainThreadMillis += saves.getMainThreadMillis();
+                plugin.getLogger().info("分世界保存：" + formatSaves(saves) + "；单 tick 最长 " + saves.getLongestTickMillis() + "ms。");
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                plugin.getLogger().warning("分世界保存失败，改用 save-all: " + e.getMessage());
+                saves = null;
+            }
+        }
+        if (saves == null) {
+            try {
+                metrics.mainThreadMillis += runSyncCommand("save-all flush");
+            } catch (Exception e) {
+                plugin.getLogger().warning("调用 save-all 失败: " + e.getMessage());
+            }
+            try {
+                // 多个档案同时备份时，由第一个开始的关闭自动保存、最后一个结束的重新打开（结束时总会释放）
+                metrics.mainThreadMillis += plugin.holdSaves(true);
+            } catch (Exception e) {
+                plugin.getLogger().warning("调用 save-off 失败: " + e.getMessage());
+            }
+        }
+        metrics.end("save", phaseStart);
+        long saveOffAt = System.currentTimeMillis();
+        long saveDisabledMillis = -1L;
+
+        // 单次扫描（在 save-all 之后，保证记录的文件大小是落盘后的）：文件清单同时用于进度统计与归档
+        // 开启了变更日志时只修补上次的文件清单（或沿用轮询刚做完的扫描），不再遍历整个目标
+        int scanThreads = ParallelZipWriter.resolveThreads(config.getInt("scan.threads", 0));
+        List<Path> targetPaths = new ArrayList<>();
+        for (File t : targets) targetPaths.add(t.toPath());
+        FileScanner scanner = newScanner(serverRoot, scanThreads);
+        ChangeJournal journal = BackupProfile.DEFAULT.equals(profile) ? plugin.getJournal() : null;
+        ChangeJournal.Changes changes = null;
+        if (journal != null && journal.matches(targetPaths)) {
+            journal.catchUp();
+            changes = journal.drain();
+        }
+        FileScanner.ScanResult scan;
         try {
-            runSyncCommand("save-all flush");
-            runSyncCommand("save-off");
-        } catch (Exception e) {
-            plugin.getLogger().warning("调用 save-all/save-off 失败: " + e.getMessage());
+            if (changes != null && changes.current != null) {
+                scan = changes.current;
+            } else if (changes != null && changes.isIncremental()) {
+                scan = scanner.update(changes.baseline, targetPaths, changes.paths);
+                plugin.getLogger().info("按变更日志更新文件清单：" + changes.paths.size() + " 个变更路径。");
+            } else {
+                scan = scanner.scan(targetPaths);
+            }
+        } catch (RuntimeException e) {
+            if (journal != null && changes != null) journal.restore(changes);
+            throw e;
         }
+        long totalFiles = scan.files.size();
+        List<PathFilter.Rule> hits = scanner.getFilter().hits();
+        for (int i = 0; i < Math.min(10, hits.size()); i++) {
+            PathFilter.Rule r = hits.get(i);
+            plugin.getLogger().info("排除规则 " + r.text + "：跳过 " + r.dirs.get() + " 个目录、" + r.files.get()
+                    + " 个文件（" + r.bytes.get() + " 字节）。");
+        }
+        plugin.getLogger().info("扫描完成：" + totalFiles + " 个文件，共 " + scan.totalBytes + " 字节，" + scan.directories
+                + " 个目录，用时 " + scan.durationMillis + "ms。");
+        metrics.addPhase("scan", scan.durationMillis);
+        if (tuner != null) plugin.setLastFiles(profile, scan.files);
 
-        long processed = 0;
+        Progress progress = new Progress(totalFiles, scan.totalBytes, progressEvery);
         boolean success = false;
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(zipFile), bufferKB * 1024);
-             ZipOutputStream zos = new ZipOutputStream(bos)) {
+        long outputSize = 0L;
+        String shardsHash = null;
+        List<FileScanner.ScannedFile> sources = scan.files;
+        StagingSnapshot staging = null;
+        BackupThrottle throttle = null;
+        BukkitTask sampler = null;
+        try {
+            // 两阶段：先把文件快速暂存，立即 save-on，再从暂存目录压缩
+            if (config.getBoolean("staging.enabled", false)) {
+                String stagingPath = config.getString("staging.dir", "");
+                File stagingDir;
+                if (stagingPath == null || stagingPath.trim().isEmpty()) {
+                    stagingDir = new File(outputDir, ".staging");
+                } else {
+                    stagingDir = new File(stagingPath);
+                    if (!stagingDir.isAbsolute()) {
+                        stagingDir = new File(serverRoot, stagingPath);
+                    }
+                }
+                List<String> linkExts = config.isSet("staging.hardlink-extensions")
+                        ? config.getStringList("staging.hardlink-extensions") : Collections.singletonList("dat");
+                staging = new StagingSnapshot(stagingDir, linkExts, config.getBoolean("staging.reflink", true), scanThreads, plugin.getLogger());
+                phaseStart = System.nanoTime();
+                try {
+                    sources = staging.capture(serverRoot, scan.files);
+                    plugin.getLogger().info("暂存完成：硬链接 " + staging.linked.get() + " 个，reflink " + staging.reflinked.get()
+                            + " 个，复制 " + staging.copied.get() + " 个（" + staging.bytesCopied.get() + " 字节）。");
+                } catch (IOException e) {
+                    plugin.getLogger().warning("暂存失败，改为直接从世界目录压缩: " + e.getMessage());
+                    staging.cleanup();
+                    staging = null;
+                    sources = scan.files;
+                }
+                metrics.end("staging", phaseStart);
+                if (staging != null) {
+                    saveDisabledMillis = enableSave(saveOffAt, saves, metrics);
+                }
+            }
+
+            // 按服务器 MSPT 限速（主线程每 tick 采样）
+            int threads = ParallelZipWriter.resolveThreads(config.getInt("compression.threads", 0));
+            throttle = BackupThrottle.fromConfig(config, repository != null ? 1 : threads);
+            if (throttle != null) {
+                sampler = Bukkit.getScheduler().runTaskTimer(plugin,
+                        new BackupThrottle.TickSampler(throttle, config.getInt("throttle.sample-ticks", 20)), 1L, 1L);
+            }
 
-            byte[] buffer = new byte[bufferKB * 1024];
-            for (File t : targets) {
-                processed = zipAny(serverRoot, t, zos, excludeDirs, excludeFiles, excludeExts, buffer, processed, totalFiles, progressEvery);
+            phaseStart = System.nanoTime();
+            if (repository != null) {
+                try (ChunkRepository.SnapshotWriter writer = repository.openSnapshot("EasyBackUp_" + timestamp, bufferKB * 1024)) {
+                    boolean releasing = saves != null && staging == null && saves.isHolding();
+                    if (releasing) releaseWorlds(saves, saves.planRelease(sources), metrics);
+                    for (FileScanner.ScannedFile f : sources) {
+                        if (throttle != null) throttle.acquire(f.size);
+                        try {
+                            writer.addFile(f.entryName, f.path.toFile(), f.size, f.lastModified);
+                        } catch (FileNotFoundException e) {
+                            // 单个文件打不开（被锁定/已删除）只跳过该文件；写仓库本身出错则让整个快照失败
+                            plugin.getLogger().warning("跳过文件 " + f.path.getFileName() + ": " + e.getMessage());
+                            metrics.filesSkipped++;
+                        }
+                        reportProgress(progress, f.size);
+                        // 世界的最后一个文件读完即恢复它的自动保存
+                        if (releasing) releaseWorlds(saves, saves.captured(f), metrics);
+                    }
+                    writer.commit();
+                    outputSize = writer.bytesStored + writer.getSnapshotFile().length();
+                    metrics.bytesRead = writer.bytesRead;
+                    plugin.getLogger().info("快照完成：读取 " + writer.bytesRead + " 字节（沿用未变文件 " + writer.filesReused
+                            + " 个、未变区块 " + writer.chunksReused + " 个），分块 " + writer.chunksTotal
+                            + " 个，其中新分块 " + writer.chunksNew + " 个（写入 " + writer.bytesStored + " 字节）。");
+                }
+            } else if (sharded) {
+                shardsHash = writeShards(archiveFile, codec, serverRoot, targets, sources, bufferKB * 1024, threads, policy, throttle,
+                        remote, uploads, cipher, progress, metrics);
+                outputSize = ShardedArchive.totalSize(archiveFile);
+            } else {
+                manifest = config.getBoolean("verify.manifest", true) ? new ArchiveManifest() : null;
+                RemoteSink.Upload upload = remote != null ? remote.begin(archiveFile, archiveFile.getName()) : null;
+                if (upload != null) uploads.add(upload);
+                ArchiveWriter archive = codec.create(archiveFile, config, bufferKB * 1024, threads, null, policy, throttle, manifest, upload, cipher, plugin.getLogger());
+                long archiveStart = System.nanoTime();
+                try (archive) {
+                    if (archive instanceof ParallelZipWriter && config.getBoolean("compression.reuse.enabled", true)) {
+                        PreviousZip previous = openPreviousZip(outputDir, archiveFile);
+                        if (previous != null) {
+                            ((ParallelZipWriter) archive).setPrevious(previous, config.getBoolean("compression.reuse.verify-crc", true));
+                        }
+                    }
+                    boolean releasing = saves != null && staging == null && saves.isHolding();
+                    if (releasing) releaseWorlds(saves, saves.planRelease(sources), metrics);
+                    for (FileScanner.ScannedFile f : sources) {
+                        // 打不开的文件由写出器记录警告并跳过；写到一半出错才会抛出并使本次备份失败
+                        archive.addFile(f.entryName, f.path.toFile(), f.size, f.lastModified);
+                        reportProgress(progress, f.size);
+                        if (releasing) {
+                            List<String> done = saves.captured(f);
+                            if (!done.isEmpty()) {
+                                // 并行读取时先等已提交的文件读完，再恢复自动保存
+                                archive.sync();
+                                releaseWorlds(saves, done, metrics);
+                            }
+                        }
+                    }
+                }
+                // 关闭后才有完整的摘要与统计
+                if (manifest != null) manifest.finish(archiveFile);
+                metrics.bytesRead = archive.getBytesRead();
+                metrics.filesSkipped = archive.getSkippedEntries();
+                if (archive.getCompressNanos() >= 0) metrics.addPhase("compress", archive.getCompressNanos() / 1_000_000L);
+                if (archive.getWriteNanos() >= 0) metrics.addPhase("write", archive.getWriteNanos() / 1_000_000L);
+                double seconds = Math.max(1L, System.nanoTime() - archiveStart) / 1e9;
+                if (archive instanceof ParallelZipWriter) {
+                    ParallelZipWriter zip = (ParallelZipWriter) archive;
+                    plugin.getLogger().info("压缩完成：直接存储（未重新压缩）" + zip.getStoredEntries() + " 个文件，共 " + zip.getStoredBytes() + " 字节。");
+                    if (zip.getReusedEntries() > 0) {
+                        plugin.getLogger().info("沿用上一次备份中未变的文件 " + zip.getReusedEntries() + " 个（" + zip.getReusedBytes() + " 字节），直接复制已压缩的数据。");
+                    }
+                    long allocated = zip.getAllocatedBytes();
+                    plugin.getLogger().info(String.format("读取速率 %.1f MB/s；堆分配 %s（%.1f MB/s，平均每个文件 %s），直接缓冲区 %d 个。",
+                            zip.getBytesRead() / seconds / 1048576.0,
+                            allocated < 0 ? "未知" : (allocated / 1024) + " KB",
+                            allocated < 0 ? 0.0 : allocated / seconds / 1048576.0,
+                            allocated < 0 || totalFiles == 0 ? "未知" : (allocated / totalFiles) + " B",
+                            zip.getDirectBuffersAllocated()));
+                } else {
+                    plugin.getLogger().info(String.format("%s 归档完成：读取速率 %.1f MB/s。", codec.id, archive.getBytesRead() / seconds / 1048576.0));
+                }
+                outputSize = archiveFile.exists() ? archiveFile.length() : 0L;
+            }
+            metrics.end("archive", phaseStart);
+            if (metrics.predictedMillis >= 0) {
+                plugin.getLogger().info("归档用时 " + EasyBackUp.millisToHuman(metrics.phase("archive")) + "（自动调优预测 "
+                        + EasyBackUp.millisToHuman(metrics.predictedMillis) + "，级别 " + metrics.tunedLevel + "）。");
+            }
+            if (cipher != null) {
+                long cryptoMillis = cipher.getCryptoNanos() / 1_000_000L;
+                metrics.addPhase("encrypt", cryptoMillis);
+                plugin.getLogger().info(String.format("加密完成：%d 字节，%d 个线程累计 %dms（与压缩同时进行，约为本次备份用时的 %.1f%%）。",
+                        cipher.getBytesEncrypted(), cipher.getThreads(), cryptoMillis,
+                        100.0 * cryptoMillis / cipher.getThreads() / Math.max(1L, System.currentTimeMillis() - runStart)));
+            }
+            if (remote != null) {
+                phaseStart = System.nanoTime();
+                finishUploads(remote, uploads, outputDir, archiveFile);
+                metrics.end("upload", phaseStart);
             }
             success = true;
+            if (journal != null && changes != null) journal.commit(scan);
         } catch (IOException e) {
             plugin.getLogger().severe("备份失败: " + e.getMessage());
+            for (RemoteSink.Upload u : uploads) u.abort();
+            // 不完整的归档不会记入备份目录记录，直接删掉，免得成为无人清理的孤儿文件
+            if (archiveFile != null && archiveFile.exists() && !deleteArchive(archiveFile)) {
+                plugin.getLogger().warning("无法删除不完整的归档: " + archiveFile.getName());
+            }
+            if (archiveFile != null) ArchiveManifest.fileFor(archiveFile).delete();
         } finally {
-            // 主线程: save-on
+            // 失败（含运行时异常）时把变更放回日志，下次备份仍然包含它们
+            if (!success && journal != null && changes != null) journal.restore(changes);
+            if (saveDisabledMillis < 0) {
+                saveDisabledMillis = enableSave(saveOffAt, saves, metrics);
+            }
+            if (staging != null) {
+                staging.cleanup();
+            }
+            if (sampler != null) {
+                sampler.cancel();
+            }
+            if (cipher != null) {
+                cipher.close();
+            }
+            if (throttle != null) {
+                plugin.getLogger().info(throttle.summary());
+            }
+        }
+        plugin.getLogger().info("自动保存关闭时长: " + saveDisabledMillis + "ms");
+
+        // 记入备份目录记录，再按记录清理历史（不扫描输出目录）
+        File archiveDir = repository != null ? repository.getSnapshotsDir() : outputDir;
+        String suffix = repository != null ? ChunkRepository.SNAPSHOT_SUFFIX : sharded ? ShardedArchive.SUFFIX : codec.extension;
+        BackupCatalog catalog = plugin.getCatalog(archiveDir, repository != null
+                ? Collections.singletonList(ChunkRepository.SNAPSHOT_SUFFIX) : ArchiveCodec.EXTENSIONS);
+        if (success) {
+            String name = "EasyBackUp_" + timestamp + suffix;
+            Long ts = parseTimestampFromName(name);
+            catalog.add(new BackupCatalog.Entry(name, ts != null ? ts : runStart, outputSize, totalFiles,
+                    System.currentTimeMillis() - runStart, manifest != null ? manifest.getSha256() : shardsHash, BackupCatalog.codecOf(suffix), null));
+            // 后台重新读取并校验，不阻塞本次的保留策略与下一次备份
+            if (config.getBoolean("verify.after-backup", true)) {
+                plugin.getVerifier().submit(catalog, name, null);
+            }
+        }
+        phaseStart = System.nanoTime();
+        cleanOldBackups(catalog);
+        if (repository != null) {
+            repository.collectGarbage();
+        }
+        metrics.end("retention", phaseStart);
+        if (remote != null) {
+            // 续传以前没传完的备份，再让远程副本跟随本地的保留结果
+            phaseStart = System.nanoTime();
+            Set<String> live = new HashSet<>();
+            for (BackupCatalog.Entry e : catalog.list()) live.add(e.name);
+            remote.resumePending(archiveDir, live);
             try {
-                runSyncCommand("save-on");
-            } catch (Exception e) {
-                plugin.getLogger().warning("调用 save-on 失败: " + e.getMessage());
+                remote.prune(live);
+            } catch (IOException e) {
+                plugin.getLogger().warning("清理远程旧备份失败: " + e.getMessage());
             }
+            remote.shutdown();
+            metrics.end("upload", phaseStart);
         }
 
-        long zipSize = zipFile.exists() ? zipFile.length() : 0L;
-
-        // 清理历史
-        cleanOldBackups(outputDir);
+        metrics.success = success;
+        metrics.files = totalFiles;
+        metrics.bytesWritten = outputSize;
+        metrics.saveDisabledMillis = saveDisabledMillis;
+        metrics.durationMillis = System.currentTimeMillis() - runStart;
+        plugin.getMetrics().record(metrics);
+        plugin.getLogger().info("阶段耗时：" + formatPhases(metrics) + "；主线程保存命令 " + metrics.mainThreadMillis + "ms。");
 
         if (ifBroadcast) {
             final boolean ok = success;
@@ -143,130 +484,366 @@ public class BackupTask {
             });
         }
 
-        return new Result(success, totalFiles, zipSize, success ? "OK" : "FAILED");
+        return new Result(success, totalFiles, outputSize, success ? "OK" : "FAILED", saveDisabledMillis);
+    }
+
+    /** 进度：按文件计数触发输出，百分比按字节加权（大文件不会让进度停滞）。 */
+    private static final class Progress {
+        final long totalFiles;
+        final long totalBytes;
+        final int every;
+        long files;
+        long bytes;
+
+        Progress(long totalFiles, long totalBytes, int every) {
+            this.totalFiles = totalFiles;
+            this.totalBytes = totalBytes;
+            this.every = every;
+        }
     }
 
-    private long countFiles(File serverRoot, List<File> targets, Set<String> excludeDirs, Set<String> excludeFiles, Set<String> excludeExts) {
-        long count = 0;
+    /**
+     * 分片备份：按目标与 sharding.groups 划分分片，各分片同时写出（最多 sharding.max-parallel 个）。
+     * ZIP 分片共用一个压缩线程池，总压缩线程数仍为 compression.threads。返回各分片哈希合成的备份哈希（未生成清单时为 null）。
+     */
+    private String writeShards(File dir, ArchiveCodec codec, File serverRoot, List<File> targets, List<FileScanner.ScannedFile> sources,
+                               int bufferSize, int threads, CompressionPolicy policy, BackupThrottle throttle,
+                               RemoteSink remote, List<RemoteSink.Upload> uploads, ArchiveCipher cipher,
+                               Progress progress, BackupMetrics.Run metrics) throws IOException {
+        List<String> prefixes = new ArrayList<>();
         for (File t : targets) {
-            count += countRec(t, excludeDirs, excludeFiles, excludeExts);
+            prefixes.add(serverRoot.toPath().toAbsolutePath().normalize()
+                    .relativize(t.toPath().toAbsolutePath().normalize()).toString().replace('\\', '/'));
+        }
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        ConfigurationSection groupsCfg = config.getConfigurationSection("sharding.groups");
+        if (groupsCfg != null) {
+            for (String key : groupsCfg.getKeys(false)) groups.put(key, groupsCfg.getStringList(key));
+        }
+        List<ShardedArchive.Shard> shards = ShardedArchive.plan(prefixes, groups);
+        ShardedArchive.assign(shards, sources);
+        int parallel = config.getInt("sharding.max-parallel", 0);
+        int running = Math.max(1, Math.min(parallel > 0 ? parallel : shards.size(), shards.size()));
+        // 每个 ZIP 分片的在途块数按同时进行的分片数均分，压缩本身在共享线程池里进行
+        int perShard = Math.max(2, (threads + running - 1) / running);
+        boolean manifests = config.getBoolean("verify.manifest", true);
+        ExecutorService deflatePool = codec == ArchiveCodec.ZIP ? ParallelZipWriter.newPool(threads) : null;
+        try {
+            ShardedArchive.Result r = ShardedArchive.write(dir, shards, codec, manifests,
+                    (target, m) -> {
+                        RemoteSink.Upload u = remote != null ? remote.begin(target, dir.getName() + "/" + target.getName()) : null;
+                        if (u != null) uploads.add(u);
+                        return codec.create(target, config, bufferSize, perShard, deflatePool, policy, throttle, m, u, cipher, plugin.getLogger());
+                    },
+                    running, size -> reportProgress(progress, size), plugin.getLogger());
+            metrics.bytesRead = r.bytesRead;
+            metrics.filesSkipped = r.skippedEntries;
+            if (r.compressNanos > 0) metrics.addPhase("compress", r.compressNanos / 1_000_000L);
+            if (r.writeNanos > 0) metrics.addPhase("write", r.writeNanos / 1_000_000L);
+            plugin.getLogger().info("分片备份完成：" + shards.size() + " 个分片，同时写出 " + running + " 个，共 " + r.size + " 字节。");
+            return r.hash;
+        } finally {
+            if (deflatePool != null) deflatePool.shutdownNow();
         }
-        return count;
     }
 
-    private long countRec(File f, Set<String> excludeDirs, Set<String> excludeFiles, Set<String> excludeExts) {
-        if (!f.exists()) return 0;
-        if (f.isDirectory()) {
-            String name = f.getName().toLowerCase(Locale.ROOT);
-            if (excludeDirs.contains(name)) return 0;
-            long c = 0;
-            File[] list = f.listFiles();
-            if (list != null) {
-                for (File x : list) c += countRec(x, excludeDirs, excludeFiles, excludeExts);
-            }
-            return c;
-        } else {
-            String name = f.getName().toLowerCase(Locale.ROOT);
-            if (excludeFiles.contains(name)) return 0;
-            int dot = name.lastIndexOf('.');
-            if (dot >= 0) {
-                String ext = name.substring(dot + 1);
-                if (excludeExts.contains(ext)) return 0;
-            }
-            return 1;
-        }
-    }
-
-    private long zipAny(File serverRoot, File f, ZipOutputStream zos, Set<String> excludeDirs, Set<String> excludeFiles, Set<String> excludeExts,
-                        byte[] buffer, long processed, long totalFiles, int progressEvery) throws IOException {
-        if (!f.exists()) return processed;
-        if (f.isDirectory()) {
-            String name = f.getName().toLowerCase(Locale.ROOT);
-            if (excludeDirs.contains(name)) return processed;
-            File[] list = f.listFiles();
-            if (list != null) {
-                for (File x : list) {
-                    processed = zipAny(serverRoot, x, zos, excludeDirs, excludeFiles, excludeExts, buffer, processed, totalFiles, progressEvery);
-                }
-            }
-        } else {
-            String name = f.getName().toLowerCase(Locale.ROOT);
-            if (excludeFiles.contains(name)) return processed;
-            int dot = name.lastIndexOf('.');
-            if (dot >= 0) {
-                String ext = name.substring(dot + 1);
-                if (excludeExts.contains(ext)) return processed;
-            }
-            String entryName;
+    /**
+     * 归档写完后：等待各归档剩余的分段传完并合并，再上传清单与分片索引。
+     * 上传失败不影响本地备份，未完成的部分留有续传记录。
+     */
+    private void finishUploads(RemoteSink remote, List<RemoteSink.Upload> uploads, File outputDir, File archiveFile) {
+        int ok = 0;
+        for (RemoteSink.Upload u : uploads) if (u.finish()) ok++;
+        List<File> sidecars = new ArrayList<>();
+        if (ShardedArchive.isSharded(archiveFile)) {
+            File[] files = archiveFile.listFiles((d, n) -> n.endsWith(ArchiveManifest.SUFFIX) || n.equals(ShardedArchive.INDEX));
+            if (files != null) sidecars.addAll(Arrays.asList(files));
+        } else if (ArchiveManifest.fileFor(archiveFile).isFile()) {
+            sidecars.add(ArchiveManifest.fileFor(archiveFile));
+        }
+        for (File f : sidecars) {
+            String rel = outputDir.toPath().relativize(f.toPath()).toString().replace('\\', '/');
+            remote.uploadFile(f, rel);
+        }
+        if (ok == uploads.size()) {
+            plugin.getLogger().info("远程副本已上传：" + archiveFile.getName() + "（" + ok + " 个归档）。");
+        }
+    }
+
+    /** 删除归档文件或分片目录。 */
+    private static boolean deleteArchive(File f) {
+        return ShardedArchive.isSharded(f) ? ShardedArchive.delete(f) : f.delete();
+    }
+
+    private synchronized void reportProgress(Progress p, long fileBytes) {
+        p.files++;
+        p.bytes += fileBytes;
+        if (p.files % p.every != 0) return;
+        String msg = "备份进度: " + p.files + (p.totalFiles > 0 ? ("/" + p.totalFiles) : "") + " 文件"
+                + (p.totalBytes > 0 ? (" (" + percent(p.bytes, p.totalBytes) + ")") : "") + "...";
+        plugin.getLogger().info(msg);
+        if (broadcastProgress) {
+            final String bmsg = org.bukkit.ChatColor.translateAlternateColorCodes('&', "&a[EasyBackUp] &3" + msg);
+            Bukkit.getScheduler().runTask(plugin, () -> Bukkit.broadcastMessage(bmsg));
+        }
+    }
+
+    /**
+     * 同一输出目录中最近一次未被判定损坏的 ZIP 备份，用于沿用未变文件的已压缩数据；没有或无法读取时返回 null。
+     */
+    private PreviousZip openPreviousZip(File outputDir, File archiveFile) {
+        BackupCatalog catalog = plugin.getCatalog(outputDir, ArchiveCodec.EXTENSIONS);
+        for (BackupCatalog.Entry e : catalog.list()) {
+            if (e.isCorrupt() || !e.name.endsWith(ArchiveCodec.ZIP.extension)) continue;
+            File f = new File(outputDir, e.name);
+            if (f.equals(archiveFile) || !f.isFile()) continue;
+            // 加密的归档无法直接复制其中的压缩数据
+            if (ArchiveCipher.isEncrypted(f)) return null;
             try {
-                entryName = serverRoot != null ? serverRoot.toURI().relativize(f.toURI()).getPath() : f.getName();
-                if (entryName == null || entryName.isEmpty()) {
-                    entryName = f.getName();
-                }
-            } catch (Exception ex) {
-                entryName = f.getName();
+                PreviousZip previous = PreviousZip.open(f, e.timestamp);
+                plugin.getLogger().info("对照上一次备份 " + f.getName() + "（" + previous.size() + " 个条目），未变的文件直接沿用。");
+                return previous;
+            } catch (IOException ex) {
+                plugin.getLogger().warning("无法读取上一次备份 " + f.getName() + "，本次全部重新压缩: " + ex.getMessage());
+                return null;
             }
+        }
+        return null;
+    }
+
+    /**
+     * 主线程: save-on（分世界保存时恢复仍持有的世界）；返回自动保存关闭的毫秒数，
+     * 分世界保存时为关闭最久的那个世界的时长。
+     */
+    private long enableSave(long saveOffAt, SaveCoordinator.Session saves, BackupMetrics.Run metrics) {
+        long phaseStart = System.nanoTime();
+        if (saves != null) {
+            long before = saves.getMainThreadMillis();
             try {
-                zos.putNextEntry(new ZipEntry(entryName));
-                try (InputStream in = new BufferedInputStream(new FileInputStream(f), buffer.length)) {
-                    int len;
-                    while ((len = in.read(buffer)) != -1) {
-                        zos.write(buffer, 0, len);
-                    }
-                }
-                zos.closeEntry();
-                processed++;
-                if (processed % progressEvery == 0) {
-                    String msg = "备份进度: " + processed + (totalFiles > 0 ? ("/" + totalFiles + " (" + percent(processed, totalFiles) + ")") : "") + " 文件...";
-                    plugin.getLogger().info(msg);
-                    if (broadcastProgress) {
-                        final String bmsg = org.bukkit.ChatColor.translateAlternateColorCodes('&', "&a[EasyBackUp] &3" + msg);
-                        Bukkit.getScheduler().runTask(plugin, () -> Bukkit.broadcastMessage(bmsg));
-                    }
-                }
-            } catch (IOException e) {
-                if (!f.getName().equals("session.lock")) {
-                    plugin.getLogger().warning("跳过文件 " + f.getName() + ": " + e.getMessage());
-                }
+                saves.releaseAll();
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                plugin.getLogger().warning("恢复世界自动保存失败: " + e.getMessage());
             }
+            metrics.mainThreadMillis += saves.getMainThreadMillis() - before;
+            metrics.end("save-on", phaseStart);
+            return saves.getLongestDisabledMillis();
         }
-        return processed;
+        try {
+            metrics.mainThreadMillis += plugin.holdSaves(false);
+        } catch (Exception e) {
+            plugin.getLogger().warning("调用 save-on 失败: " + e.getMessage());
+        }
+        metrics.end("save-on", phaseStart);
+        return System.currentTimeMillis() - saveOffAt;
     }
 
-    private void runSyncCommand(String command) throws ExecutionException, InterruptedException {
-        Future<?> future = Bukkit.getScheduler().callSyncMethod(plugin, (Callable<Object>) () -> {
-            Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
-            return null;
-        });
-        future.get();
+    /** 恢复已读完的世界的自动保存。 */
+    private void releaseWorlds(SaveCoordinator.Session saves, List<String> worlds, BackupMetrics.Run metrics) throws IOException {
+        if (worlds.isEmpty()) return;
+        long before = saves.getMainThreadMillis();
+        try {
+            saves.release(worlds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("备份被中断", e);
+        } catch (ExecutionException e) {
+            plugin.getLogger().warning("恢复世界自动保存失败: " + e.getMessage());
+        }
+        metrics.mainThreadMillis += saves.getMainThreadMillis() - before;
+        plugin.getLogger().info("已读完世界 " + String.join(", ", worlds) + "，恢复其自动保存。");
     }
 
-    private void cleanOldBackups(File outputDir) {
-        File[] files = outputDir.listFiles((dir, name) -> name.startsWith("EasyBackUp_") && name.endsWith(".zip"));
-        if (files == null || files.length == 0) return;
+    private static String formatSaves(SaveCoordinator.Session saves) {
+        if (saves.saveMillis.isEmpty()) return "目标不含已加载的世界";
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : saves.saveMillis.entrySet()) {
+            if (sb.length() > 0) sb.append("，");
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+
+    /** 在主线程执行命令并等待完成；返回命令本身在主线程上占用的毫秒数（不含排队等待下一 tick 的时间）。 */
+    private long runSyncCommand(String command) throws ExecutionException, InterruptedException {
+        return plugin.dispatchSync(command).get();
+    }
+
+    static String formatPhases(BackupMetrics.Run run) {
+        StringBuilder sb = new StringBuilder();
+        for (String phase : BackupMetrics.orderedPhases(Collections.singletonList(run))) {
+            if (sb.length() > 0) sb.append("，");
+            sb.append(phase).append(' ').append(run.phases.get(phase)).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private void cleanOldBackups(BackupCatalog catalog) {
+        // 校验失败的备份不参与保留（不占用任何一层的名额）；只要还有未损坏的备份就删除它们
+        List<BackupCatalog.Entry> entries = new ArrayList<>();
+        List<BackupCatalog.Entry> corrupt = new ArrayList<>();
+        for (BackupCatalog.Entry e : catalog.list()) (e.isCorrupt() ? corrupt : entries).add(e);
+        if (entries.isEmpty()) {
+            if (!corrupt.isEmpty()) plugin.getLogger().warning("所有备份都未通过校验，暂不清理。");
+            return;
+        }
+        for (BackupCatalog.Entry e : corrupt) {
+            plugin.getLogger().warning("删除未通过校验的备份：" + e.name);
+            deleteBackup(catalog, new File(catalog.getDir(), e.name));
+        }
+        File[] files = new File[entries.size()];
+        for (int i = 0; i < files.length; i++) files[i] = new File(catalog.getDir(), entries.get(i).name);
 
         // 如果配置了分层保留策略，则优先使用
         List<Map<String, Object>> tiers = getRetentionTiers();
         int maxTotal = config.getInt("retention.max-total", -1);
 
         if (tiers != null && !tiers.isEmpty() && maxTotal != 0) {
-            applyTieredRetention(files, tiers, maxTotal, plugin.getLogger(), System.currentTimeMillis());
+            Map<File, String> keptBy = new HashMap<>();
+            Set<File> keep = selectTieredRetention(files, tiers, maxTotal, System.currentTimeMillis(), keptBy);
+            for (File f : files) {
+                if (keep.contains(f)) {
+                    catalog.setTier(f.getName(), keptBy.get(f));
+                } else {
+                    deleteBackup(catalog, f);
+                }
+            }
+            catalog.compactIfNeeded();
             return;
         }
 
-        // 否则退回到简单的 max-backups 逻辑
+        // 否则退回到简单的 max-backups 逻辑（记录已按时间从新到旧排列）
         int maxBackups = Math.max(0, config.getInt("max-backups", 10));
         if (maxBackups == 0) return; // 0 表示不清理
-        if (files.length > maxBackups) {
-            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
-            for (int i = 0; i < files.length - maxBackups; i++) {
-                if (!files[i].delete()) {
-                    plugin.getLogger().warning("无法删除旧备份：" + files[i].getName());
-                } else {
-                    plugin.getLogger().info("已删除旧备份：" + files[i].getName());
-                }
+        for (int i = maxBackups; i < files.length; i++) {
+            deleteBackup(catalog, files[i]);
+        }
+        catalog.compactIfNeeded();
+    }
+
+    private void deleteBackup(BackupCatalog catalog, File f) {
+        ArchiveManifest.fileFor(f).delete();
+        // 大文件交给后台按预算删除，改名失败时才当场删除
+        if (config.getBoolean("retention.reaper.enabled", true) && plugin.getReaper().enqueue(f)) {
+            catalog.remove(f.getName());
+            plugin.getLogger().info("旧备份已移入后台删除队列：" + f.getName());
+        } else if (deleteArchive(f) || !f.exists()) {
+            catalog.remove(f.getName());
+            plugin.getLogger().info("已删除旧备份：" + f.getName());
+        } else {
+            plugin.getLogger().warning("无法删除旧备份：" + f.getName());
+        }
+    }
+
+    /**
+     * 按上一个备份的大小估算本次所需空间；可用空间不足且还有待删除的旧备份时，
+     * 最多等待 retention.wait-for-space。
+     *
+     * @return 等待的毫秒数，未等待为 0
+     */
+    private long awaitFreeSpace(File outputDir) {
+        long timeout = safeParseDurationSeconds(config.getString("retention.wait-for-space", "10M")) * 1000L;
+        BackupReaper reaper = plugin.getReaper();
+        if (timeout <= 0 || reaper.getPendingCount() == 0) return 0L;
+        BackupCatalog.Entry latest = plugin.getCatalog(outputDir, ArchiveCodec.EXTENSIONS).latest();
+        if (latest == null || latest.size <= 0) return 0L;
+        long needed = latest.size + latest.size / 10;
+        if (outputDir.getUsableSpace() >= needed) return 0L;
+        plugin.getLogger().info("输出目录可用空间不足（需要约 " + needed + " 字节），等待后台删除旧备份（待删除 "
+                + reaper.getPendingCount() + " 个，" + reaper.getPendingBytes() + " 字节）...");
+        long start = System.currentTimeMillis();
+        try {
+            long usable = reaper.awaitFreeSpace(outputDir, needed, timeout);
+            if (usable < needed) {
+                plugin.getLogger().warning("等待后仍只有 " + usable + " 字节可用空间，继续备份。");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return System.currentTimeMillis() - start;
+    }
+
+    /** 当前配置下的输出目录（相对路径相对服务器根目录）。 */
+    private File resolveOutputDir(File serverRoot) {
+        String outPath = config.getString("output-dir", "backups");
+        File outputDir = new File(outPath);
+        if (!outputDir.isAbsolute()) {
+            outputDir = new File(serverRoot, outPath);
+        }
+        return outputDir;
+    }
+
+    private File resolveRepositoryDir(File serverRoot, File outputDir) {
+        String repoPath = config.getString("repository.dir", "");
+        File repoDir = repoPath == null || repoPath.trim().isEmpty() ? new File(outputDir, "repository") : new File(repoPath);
+        if (!repoDir.isAbsolute()) {
+            repoDir = new File(serverRoot, repoPath);
+        }
+        return repoDir;
+    }
+
+    private boolean isRepositoryFormat() {
+        return "repository".equalsIgnoreCase(config.getString("output-format", "zip"));
+    }
+
+    /** 当前配置下归档所在目录的备份目录记录（ZIP：输出目录；仓库：快照目录）。 */
+    public BackupCatalog openCatalog() {
+        File serverRoot = resolveServerRoot();
+        File outputDir = resolveOutputDir(serverRoot);
+        if (isRepositoryFormat()) {
+            File snapshots = new ChunkRepository(resolveRepositoryDir(serverRoot, outputDir), plugin.getLogger()).getSnapshotsDir();
+            return plugin.getCatalog(snapshots, Collections.singletonList(ChunkRepository.SNAPSHOT_SUFFIX));
+        }
+        return plugin.getCatalog(outputDir, ArchiveCodec.EXTENSIONS);
+    }
+
+    /** 同 {@link #openCatalog()}，但只返回已经载入的记录（尚未载入时为 null），供主线程使用。 */
+    public BackupCatalog loadedCatalog() {
+        File serverRoot = resolveServerRoot();
+        File outputDir = resolveOutputDir(serverRoot);
+        if (isRepositoryFormat()) {
+            File snapshots = new ChunkRepository(resolveRepositoryDir(serverRoot, outputDir), plugin.getLogger()).getSnapshotsDir();
+            return plugin.getLoadedCatalog(snapshots, Collections.singletonList(ChunkRepository.SNAPSHOT_SUFFIX));
+        }
+        return plugin.getLoadedCatalog(outputDir, ArchiveCodec.EXTENSIONS);
+    }
+
+    /** 按当前配置创建变更日志（schedule.change-driven 关闭或没有有效目标时返回 null）。 */
+    public ChangeJournal openJournal() {
+        if (!config.getBoolean("schedule.change-driven", false)) return null;
+        List<String> targetsCfg = config.getStringList("target-save-paths");
+        if (targetsCfg == null || targetsCfg.isEmpty()) targetsCfg = config.getStringList("target-save-dir");
+        File serverRoot = resolveServerRoot();
+        List<Path> targets = new ArrayList<>();
+        for (String p : targetsCfg) {
+            if (p == null || p.trim().isEmpty()) continue;
+            File f = new File(serverRoot, p);
+            if (f.exists()) targets.add(f.toPath());
+        }
+        if (targets.isEmpty()) return null;
+        int scanThreads = ParallelZipWriter.resolveThreads(config.getInt("scan.threads", 0));
+        ChangeJournal journal = new ChangeJournal(targets, () -> newScanner(serverRoot, scanThreads),
+                safeParseDurationSeconds(config.getString("schedule.poll-interval", "5M")) * 1000L, plugin.getLogger());
+        journal.start(config.getBoolean("schedule.watch", true));
+        return journal;
+    }
+
+    /** 按 exclude-* / include-paths 配置创建扫描器（每次扫描都需要新的实例）。 */
+    private FileScanner newScanner(File serverRoot, int scanThreads) {
+        Set<String> excludeDirs = toLowerCaseSet(config.getStringList("exclude-dirs"));
+        Set<String> excludeFiles = toLowerCaseSet(config.getStringList("exclude-files"));
+        Set<String> excludeExts = toLowerCaseSet(config.getStringList("exclude-extensions"));
+        excludeFiles.add("session.lock"); // 总是排除
+        excludeDirs.add(RestoreEngine.WORK_DIR); // 还原的暂存与撤销目录
+        PathFilter filter;
+        try {
+            filter = new PathFilter(excludeDirs, excludeFiles, excludeExts,
+                    config.getStringList("exclude-paths"), config.getStringList("include-paths"));
+        } catch (PatternSyntaxException e) {
+            plugin.getLogger().warning("exclude-paths / include-paths 中的正则无效，本次只按名称排除: " + e.getMessage());
+            filter = new PathFilter(excludeDirs, excludeFiles, excludeExts, null, null);
+        }
+        return new FileScanner(serverRoot.toPath(), filter, scanThreads, plugin.getLogger());
     }
 
     @SuppressWarnings("unchecked")
@@ -283,25 +860,68 @@ public class BackupTask {
     }
 
     static void applyTieredRetention(File[] files, List<Map<String, Object>> tiers, int maxTotal, Logger logger, long now) {
+        // 需要删除的 = 未被选中的
+        Set<File> keepFiles = selectTieredRetention(files, tiers, maxTotal, now);
+        for (File f : files) {
+            if (!keepFiles.contains(f)) {
+                if (!f.delete()) {
+                    if (logger != null) {
+                        logger.warning("无法删除旧备份：" + f.getName());
+                    }
+                } else {
+                    if (logger != null) {
+                        logger.info("已删除旧备份：" + f.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 分层保留的选择部分：返回应当保留的文件，不做任何删除（便于测试与基准测试）。
+     * <p>
+     * 备份按时间从新到旧排成 long[] 时间索引（同一时间保持输入顺序），窗口边界与间隔条件用二分查找定位；
+     * 已选中的位置用两个并查集跳过（分别找“之后第一个未选中”和“之前最后一个未选中”），
+     * 每次选取近似 O(log n)，与逐个线性扫描的旧实现选出完全相同的结果。
+     */
+    static Set<File> selectTieredRetention(File[] files, List<Map<String, Object>> tiers, int maxTotal, long now) {
+        return selectTieredRetention(files, tiers, maxTotal, now, null);
+    }
+
+    /** 同上；keptBy 不为 null 时记录每个保留的文件由哪一层选中（层的 window，补齐的为 "fill"）。 */
+    static Set<File> selectTieredRetention(File[] files, List<Map<String, Object>> tiers, int maxTotal, long now, Map<File, String> keptBy) {
+        int n = files.length;
 
         // 解析文件的时间戳
-        List<BackupEntry> entries = new ArrayList<>();
-        for (File f : files) {
-            Long ts = parseTimestampFromName(f.getName());
-            if (ts == null) ts = f.lastModified();
-            entries.add(new BackupEntry(f, ts));
+        long[] parsed = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            Long ts = parseTimestampFromName(files[i].getName());
+            parsed[i] = ts != null ? ts : files[i].lastModified();
+            order[i] = i;
+        }
+        // 按时间从新到旧排序（稳定排序，同一时间保持输入顺序）
+        Arrays.sort(order, (a, b) -> Long.compare(parsed[b], parsed[a]));
+        long[] ts = new long[n];
+        File[] byTime = new File[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = parsed[order[i]];
+            byTime[i] = files[order[i]];
         }
-        // 按时间从新到旧排序
-        entries.sort((a, b) -> Long.compare(b.timestamp, a.timestamp));
 
-        List<BackupEntry> selected = new ArrayList<>();
-        Set<BackupEntry> selectedSet = new HashSet<>();
+        boolean[] taken = new boolean[n];
+        String[] takenBy = new String[n];
+        FreeSlots free = new FreeSlots(n);
+        List<Integer> selected = new ArrayList<>();
+        int tierNo = 0;
 
         long upperBoundExclusive = Long.MAX_VALUE; // 确保下一层只触及更久远的窗口
 
         for (Map<String, Object> tier : tiers) {
             String windowStr = asString(tier.get("window"), null);
             int windowSec = windowStr != null ? safeParseDurationSeconds(windowStr) : 0;
+            tierNo++;
+            String tierLabel = windowStr != null ? windowStr : "tier" + tierNo;
 
             // 支持两种策略：
             // 1) spacings: 非均匀间隔序列（优先）
@@ -322,12 +942,13 @@ public class BackupTask {
             if (keep <= 0) continue;
             long windowStart = windowSec > 0 ? now - windowSec * 1000L : Long.MIN_VALUE;
 
+            // 窗口 [windowStart, upperBoundExclusive) 在索引中对应的下标区间 [lo, hi]
+            int lo = firstBelow(ts, upperBoundExclusive);
+            int hi = firstBelow(ts, windowStart) - 1;
+
             int keptInTier = 0;
             long lastKeptInTier = Long.MAX_VALUE;
-            while (keptInTier < keep) {
-                BackupEntry chosen = null;
-                BackupEntry oldestCandidate = null;
-
+            while (keptInTier < keep && lo <= hi) {
                 int spacingForPickSec;
                 if (keptInTier == 0) {
                     spacingForPickSec = 0; // 第一个永远保留最新的一个
@@ -339,31 +960,25 @@ public class BackupTask {
                 }
                 long spacingMs = spacingForPickSec * 1000L;
 
-                for (BackupEntry e : entries) {
-                    if (selectedSet.contains(e)) continue;
-                    if (e.timestamp < windowStart) continue;
-                    if (e.timestamp >= upperBoundExclusive) continue;
-
-                    oldestCandidate = e; // 由于按时间降序遍历，最后一次赋值即为窗口内最老的备份
-
-                    if (lastKeptInTier == Long.MAX_VALUE || e.timestamp <= lastKeptInTier - spacingMs) {
-                        chosen = e;
-                        break;
-                    }
+                // 满足间隔的最新一个：时间不晚于 lastKeptInTier - spacingMs 的第一个未选中位置
+                int from = lo;
+                if (lastKeptInTier != Long.MAX_VALUE) {
+                    long bound = lastKeptInTier - spacingMs;
+                    from = bound == Long.MAX_VALUE ? lo : Math.max(lo, firstBelow(ts, bound + 1));
                 }
-
-                if (chosen == null) {
-                    if (oldestCandidate != null) {
-                        chosen = oldestCandidate; // 没有满足间隔，也先占位以便后续老化
-                    } else {
-                        break; // 窗口内没有可用候选，结束该层
-                    }
+                int chosen = from <= hi ? free.nextFree(from) : n;
+                if (chosen > hi) {
+                    // 没有满足间隔，也先占位以便后续老化：窗口内最老的未选中备份
+                    chosen = free.prevFree(hi);
+                    if (chosen < lo) break; // 窗口内没有可用候选，结束该层
                 }
 
                 selected.add(chosen);
-                selectedSet.add(chosen);
+                taken[chosen] = true;
+                takenBy[chosen] = tierLabel;
+                free.take(chosen);
                 keptInTier++;
-                lastKeptInTier = chosen.timestamp;
+                lastKeptInTier = ts[chosen];
             }
 
             if (windowSec > 0) {
@@ -372,70 +987,134 @@ public class BackupTask {
         }
 
         // 若选中的数量少于 maxTotal，保留最老的若干作为“候补”，让它们有机会晋升到更高层
+        // （从最老的一组开始；同一时间的备份按输入顺序）
         if (maxTotal > 0 && selected.size() < maxTotal) {
-            List<BackupEntry> oldestFirst = new ArrayList<>(entries);
-            oldestFirst.sort(Comparator.comparingLong(e -> e.timestamp));
-            for (BackupEntry e : oldestFirst) {
-                if (selected.size() >= maxTotal) break;
-                if (selectedSet.contains(e)) continue;
-                selected.add(e);
-                selectedSet.add(e);
+            int i = n - 1;
+            while (i >= 0 && selected.size() < maxTotal) {
+                int groupStart = i;
+                while (groupStart > 0 && ts[groupStart - 1] == ts[i]) groupStart--;
+                for (int j = groupStart; j <= i && selected.size() < maxTotal; j++) {
+                    if (taken[j]) continue;
+                    selected.add(j);
+                    taken[j] = true;
+                    takenBy[j] = "fill";
+                }
+                i = groupStart - 1;
             }
         }
 
         // 如果配置的总量上限小于选中数量，截断为最新的 maxTotal 个
         if (maxTotal > 0 && selected.size() > maxTotal) {
-            selected.sort((a, b) -> Long.compare(b.timestamp, a.timestamp));
-            List<BackupEntry> trimmed = new ArrayList<>(selected.subList(0, maxTotal));
-            selected = trimmed;
-            selectedSet = new HashSet<>(trimmed);
+            selected.sort((a, b) -> Long.compare(ts[b], ts[a]));
+            selected = new ArrayList<>(selected.subList(0, maxTotal));
         }
 
-        // 需要删除的 = 未被选中的
         Set<File> keepFiles = new HashSet<>();
-        for (BackupEntry e : selected) keepFiles.add(e.file);
-        for (BackupEntry e : entries) {
-            if (!keepFiles.contains(e.file)) {
-                if (!e.file.delete()) {
-                    if (logger != null) {
-                        logger.warning("无法删除旧备份：" + e.file.getName());
-                    }
-                } else {
-                    if (logger != null) {
-                        logger.info("已删除旧备份：" + e.file.getName());
-                    }
-                }
-            }
+        for (int idx : selected) {
+            keepFiles.add(byTime[idx]);
+            if (keptBy != null) keptBy.put(byTime[idx], takenBy[idx]);
         }
+        return keepFiles;
     }
 
-    private static class BackupEntry {
-        final File file;
-        final long timestamp;
-        BackupEntry(File file, long timestamp) { this.file = file; this.timestamp = timestamp; }
+    /** 在按时间降序排列的索引中，返回第一个时间严格早于 t 的下标（不存在则为长度）。 */
+    private static int firstBelow(long[] ts, long t) {
+        int lo = 0;
+        int hi = ts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] >= t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
     }
 
-    private static Long parseTimestampFromName(String name) {
-        // 期望格式: EasyBackUp_yyyy-MM-dd_HH-mm-ss.zip
-        try {
-            int us = name.indexOf('_');
-            int dot = name.lastIndexOf('.')
-;            if (us >= 0 && dot > us) {
-                String ts = name.substring(us + 1, dot);
-                java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
-                sdf.setLenient(false);
-                Date d = sdf.parse(ts);
-                return d.getTime();
+    /** 跳过已选中位置的并查集：next 指向右侧第一个空位（n 为哨兵），prev 指向左侧最后一个空位（-1 为哨兵，数组整体右移一位）。 */
+    private static final class FreeSlots {
+        private final int[] next;
+        private final int[] prev;
+
+        FreeSlots(int n) {
+            next = new int[n + 1];
+            prev = new int[n + 1];
+            for (int i = 0; i <= n; i++) {
+                next[i] = i;
+                prev[i] = i;
             }
-        } catch (Exception ignored) {}
-        return null;
+        }
+
+        int nextFree(int i) {
+            int root = i;
+            while (next[root] != root) root = next[root];
+            while (next[i] != root) {
+                int up = next[i];
+                next[i] = root;
+                i = up;
+            }
+            return root;
+        }
+
+        int prevFree(int i) {
+            int j = i + 1;
+            int root = j;
+            while (prev[root] != root) root = prev[root];
+            while (prev[j] != root) {
+                int up = prev[j];
+                prev[j] = root;
+                j = up;
+            }
+            return root - 1;
+        }
+
+        void take(int i) {
+            next[i] = i + 1;
+            prev[i + 1] = i;
+        }
+    }
+
+    private static final char[] TIMESTAMP_SEPARATORS = {'-', '-', '_', '-', '-'};
+
+    /**
+     * 解析文件名中的时间：EasyBackUp_yyyy-MM-dd_HH-mm-ss.zip（或 .tar.zst 等其他归档扩展名，按系统时区）；无法解析时返回 null。
+     * <p>
+     * 手写解析，不再每个文件创建一个 SimpleDateFormat；行为与原先非宽松模式的 SimpleDateFormat 保持一致：
+     * 数字位数不固定、忽略时间之后的多余内容、拒绝不存在的日期与夏令时跳过的时刻，重叠时刻取标准时间（较晚的那个）。
+     */
+    static Long parseTimestampFromName(String name) {
+        int us = name.indexOf('_');
+        int dot = name.lastIndexOf('.');
+        if (us < 0 || dot <= us) return null;
+        int[] fields = new int[6];
+        int p = us + 1;
+        for (int i = 0; i < 6; i++) {
+            int start = p;
+            long v = 0;
+            while (p < dot && name.charAt(p) >= '0' && name.charAt(p) <= '9') {
+                v = v * 10 + (name.charAt(p) - '0');
+                if (++p - start > 9) return null;
+            }
+            if (p == start) return null;
+            fields[i] = (int) v;
+            if (i < 5) {
+                if (p >= dot || name.charAt(p) != TIMESTAMP_SEPARATORS[i]) return null;
+                p++;
+            }
+        }
+        try {
+            LocalDateTime t = LocalDateTime.of(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+            ZonedDateTime z = ZonedDateTime.ofLocal(t, ZoneId.systemDefault(), null).withLaterOffsetAtOverlap();
+            if (!z.toLocalDateTime().equals(t)) return null; // 夏令时跳过的时刻
+            return z.toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return null;
+        }
     }
 
-    private static String asString(Object o, String def) {
+    static String asString(Object o, String def) {
         return o == null ? def : String.valueOf(o);
     }
 
-    private static int asInt(Object o, int def) {
+    static int asInt(Object o, int def) {
         try {
             if (o instanceof Number) return ((Number) o).intValue();
             if (o != null) return Integer.parseInt(String.valueOf(o));
@@ -443,7 +1122,7 @@ public class BackupTask {
         return def;
     }
 
-    private static double asDouble(Object o, double def) {
+    static double asDouble(Object o, double def) {
         try {
             if (o instanceof Number) return ((Number) o).doubleValue();
             if (o != null) return Double.parseDouble(String.valueOf(o));
@@ -451,7 +1130,7 @@ public class BackupTask {
         return def;
     }
 
-    private static List<Integer> parseSpacingList(Object o) {
+    static List<Integer> parseSpacingList(Object o) {
         List<Integer> list = new ArrayList<>();
         if (o instanceof List) {
             for (Object it : (List<?>) o) {
@@ -464,7 +1143,7 @@ public class BackupTask {
         return list;
     }
 
-    private static int safeParseDurationSeconds(String s) {
+    static int safeParseDurationSeconds(String s) {
         try {
             return parseDurationSeconds(s);
         } catch (Exception e) {
@@ -516,7 +1195,7 @@ public class BackupTask {
         return String.format(java.util.Locale.ROOT, "%.1f%%", p);
     }
 
-    private File resolveServerRoot() {
+    File resolveServerRoot() {
         try {
             File wc = Bukkit.getWorldContainer();
             if (wc != null) return wc.getAbsoluteFile();
@@ -0,0 +1,234 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+
+/**
+ * 按服务器 MSPT（每 tick 耗时）闭环调节备份速度。
+ * <p>
+ * 主线程上的 {@link TickSampler} 每 tick 记录一次时间，每隔若干 tick 把估算出的 MSPT 交给 {@link #update(double)}：
+ * <ul>
+ *   <li>MSPT 达到 pause-mspt：暂停读取与压缩，直到回落；</li>
+ *   <li>MSPT 高于 target-mspt：速率乘以 0.7（不低于 min-rate）；</li>
+ *   <li>MSPT 低于 target-mspt 的 80%：速率乘以 1.25（不超过 max-rate）。</li>
+ * </ul>
+ * 速率以令牌桶限制读取的字节数；同时允许并行压缩的线程数按“当前速率 / 最大速率”同比缩放。
+ */
+final class BackupThrottle {
+
+    private static final long STALE_NANOS = 10_000_000_000L;
+
+    private final double targetMspt;
+    private final double pauseMspt;
+    private final double minRate;
+    private final double maxRate;
+    private final int maxWorkers;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private boolean paused;
+    private int allowedWorkers;
+    private int activeWorkers;
+
+    private long lastUpdate;
+    private double lastMspt;
+    private double lowestRate;
+    private long pausedSince;
+    private long pausedNanos;
+    private long pauseCount;
+
+    BackupThrottle(double targetMspt, double pauseMspt, long minRateBytes, long maxRateBytes, int maxWorkers) {
+        this.targetMspt = targetMspt;
+        this.pauseMspt = Math.max(targetMspt, pauseMspt);
+        this.minRate = Math.max(1024, minRateBytes);
+        this.maxRate = Math.max(this.minRate, maxRateBytes);
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.rate = this.maxRate;
+        this.lowestRate = this.maxRate;
+        this.allowedWorkers = this.maxWorkers;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /** 读取 throttle.* 配置；未启用时返回 null。 */
+    static BackupThrottle fromConfig(FileConfiguration config, int maxWorkers) {
+        if (!config.getBoolean("throttle.enabled", false)) return null;
+        double target = config.getDouble("throttle.target-mspt", 40.0);
+        return new BackupThrottle(target, config.getDouble("throttle.pause-mspt", 55.0),
+                config.getLong("throttle.min-rate-mb", 4L) * 1024L * 1024L,
+                config.getLong("throttle.max-rate-mb", 200L) * 1024L * 1024L, maxWorkers);
+    }
+
+    /** 根据最新的 MSPT 调整速率、并行度与暂停状态（主线程调用，不阻塞）。 */
+    synchronized void update(double mspt) {
+        lastUpdate = System.nanoTime();
+        lastMspt = mspt;
+        if (mspt >= pauseMspt) {
+            setPaused(true);
+            rate = Math.max(minRate, rate * 0.5);
+        } else {
+            setPaused(false);
+            if (mspt > targetMspt) {
+                rate = Math.max(minRate, rate * 0.7);
+            } else if (mspt < targetMspt * 0.8) {
+                rate = Math.min(maxRate, rate * 1.25);
+            }
+        }
+        lowestRate = Math.min(lowestRate, rate);
+        allowedWorkers = Math.max(1, (int) Math.ceil(maxWorkers * rate / maxRate));
+        notifyAll();
+    }
+
+    private void setPaused(boolean p) {
+        if (p == paused) return;
+        paused = p;
+        long now = System.nanoTime();
+        if (p) {
+            pausedSince = now;
+            pauseCount++;
+        } else {
+            pausedNanos += now - pausedSince;
+        }
+    }
+
+    /**
+     * 申请读取 bytes 字节的配额。允许透支：大文件一次申请后按速率等待还清，
+     * 因此单次申请不会因超过桶容量而永远等不到。暂停期间一直阻塞。
+     */
+    synchronized void acquire(long bytes) throws InterruptedIOException {
+        try {
+            while (true) {
+                refill();
+                if (isHolding()) {
+                    wait(250);
+                    continue;
+                }
+                if (tokens >= 0) break;
+                long waitMs = (long) Math.ceil(-tokens / rate * 1000.0);
+                wait(Math.max(1L, Math.min(waitMs, 250L)));
+            }
+            tokens -= bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("备份限速等待被中断");
+        }
+    }
+
+    /** 处于暂停且采样仍在进行。采样任务停止（插件卸载、服务器关闭）后不再暂停，以免备份线程永远挂起。 */
+    private boolean isHolding() {
+        return paused && System.nanoTime() - lastUpdate < STALE_NANOS;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        // 桶容量为 0.25 秒的配额，避免空闲后瞬间突发
+        tokens = Math.min(rate * 0.25, tokens + rate * (now - lastRefill) / 1e9);
+        lastRefill = now;
+    }
+
+    /** 压缩线程开始处理一个块前调用：暂停或并行度已满时等待。 */
+    synchronized void beginWork() throws InterruptedIOException {
+        try {
+            while (isHolding() || activeWorkers >= allowedWorkers) wait(250);
+            activeWorkers++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("备份限速等待被中断");
+        }
+    }
+
+    synchronized void endWork() {
+        activeWorkers--;
+        notifyAll();
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    synchronized int getAllowedWorkers() {
+        return allowedWorkers;
+    }
+
+    synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /** 本次备份的限速汇总，用于日志。 */
+    synchronized String summary() {
+        long totalPaused = pausedNanos + (paused ? System.nanoTime() - pausedSince : 0L);
+        return String.format("限速：最近 MSPT %.1fms，当前速率 %.1f MB/s，最低速率 %.1f MB/s，暂停 %d 次共 %.1fs。",
+                lastMspt, rate / 1048576.0, lowestRate / 1048576.0, pauseCount, totalPaused / 1e9);
+    }
+
+    /**
+     * 主线程每 tick 运行一次的采样任务。
+     * <p>
+     * 优先使用 Paper 提供的 {@code Server#getAverageTickTime()}（真实的 tick 耗时）；
+     * Spigot 上没有该接口，则以相邻两个 tick 的间隔近似：服务器不卡时间隔恒为 50ms，
+     * 所以只有超过 50ms 的 MSPT 能被观察到。
+     */
+    static final class TickSampler implements Runnable {
+        private static final double TICK_MILLIS = 50.0;
+
+        private final BackupThrottle throttle;
+        private final int sampleTicks;
+        private final Method averageTickTime;
+        private long lastTick;
+        private long windowStart;
+        private long longestInterval;
+        private int intervals;
+
+        TickSampler(BackupThrottle throttle, int sampleTicks) {
+            this.throttle = throttle;
+            this.sampleTicks = Math.max(1, sampleTicks);
+            this.averageTickTime = findAverageTickTime();
+        }
+
+        private static Method findAverageTickTime() {
+            try {
+                Object server = Bukkit.getServer();
+                if (server == null) return null;
+                return server.getClass().getMethod("getAverageTickTime");
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            if (lastTick == 0L) {
+                lastTick = now;
+                windowStart = now;
+                return;
+            }
+            longestInterval = Math.max(longestInterval, now - lastTick);
+            lastTick = now;
+            if (++intervals < sampleTicks) return;
+
+            double mspt = -1;
+            if (averageTickTime != null) {
+                try {
+                    mspt = ((Number) averageTickTime.invoke(Bukkit.getServer())).doubleValue();
+                } catch (ReflectiveOperationException | RuntimeException ignored) {
+                    // 退回到 tick 间隔估算
+                }
+            }
+            if (mspt < 0) {
+                // 平均间隔反映持续卡顿，最长间隔反映单次尖峰；取两者的折中
+                double average = (now - windowStart) / 1e6 / intervals;
+                mspt = (average + longestInterval / 1e6) / 2;
+                // 间隔不超过一个 tick（含调度抖动）时真实 MSPT 未知，只能视为空闲
+                if (mspt <= TICK_MILLIS + 2.0) mspt = 0.0;
+            }
+            throttle.update(mspt);
+            intervals = 0;
+            longestInterval = 0L;
+            windowStart = now;
+        }
+    }
+}
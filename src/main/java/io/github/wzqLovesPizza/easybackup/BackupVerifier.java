@@ -0,0 +1,294 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 备份完成后在后台重新读取归档并校验（不阻塞下一次备份）：
+ * <ul>
+ *   <li>ZIP：经中央目录多线程读取每个条目，CRC32 与大小须与 {@link ArchiveManifest} 一致（没有清单时与中央目录一致）；</li>
+ *   <li>tar 类：顺序读完整条流，逐条目核对 CRC32；</li>
+ *   <li>仓库快照：多线程读取引用到的每个分块并核对其 SHA-256。</li>
+ * </ul>
+ * 有清单时同时重算整个归档文件的 SHA-256；分片备份逐个校验其中的每个分片。校验排在一个后台线程上依次执行，结果记入备份目录记录。
+ */
+final class BackupVerifier {
+
+    /** 校验结果。 */
+    static final class Result {
+        final boolean ok;
+        final long entries;
+        final long bytes;
+        final long durationMillis;
+        final String message;
+
+        Result(boolean ok, long entries, long bytes, long durationMillis, String message) {
+            this.ok = ok;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.durationMillis = durationMillis;
+            this.message = message;
+        }
+    }
+
+    private final int threads;
+    private final Logger logger;
+    private final ExecutorService queue;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private volatile ArchiveCipher cipher;
+
+    BackupVerifier(int threads, Logger logger) {
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+        this.queue = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "EasyBackUp-Verify");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /** 排队校验 catalog 中的某个备份，完成后写回校验状态并回调（回调可为 null）。已在队列中的不重复排队。 */
+    void submit(BackupCatalog catalog, String name, Consumer<Result> callback) {
+        File archive = new File(catalog.getDir(), name);
+        if (!pending.add(archive.getAbsolutePath())) return;
+        queue.execute(() -> {
+            try {
+                // 排队期间可能已被保留策略删除
+                if (catalog.get(name) == null || !archive.exists()) return;
+                Result r = verify(archive);
+                catalog.setVerified(name, r.ok ? BackupCatalog.VERIFIED_OK : BackupCatalog.VERIFIED_CORRUPT);
+                if (logger != null) {
+                    if (r.ok) {
+                        logger.info("校验通过：" + name + "，" + r.entries + " 项，" + r.bytes + " 字节，用时 " + r.durationMillis + "ms。");
+                    } else {
+                        logger.severe("校验失败：" + name + " - " + r.message + "。此备份不会再被保留策略当作有效备份。");
+                    }
+                }
+                if (callback != null) callback.accept(r);
+            } finally {
+                pending.remove(archive.getAbsolutePath());
+            }
+        });
+    }
+
+    boolean isPending(File archive) {
+        return pending.contains(archive.getAbsolutePath());
+    }
+
+    /** 解密加密归档所用的密钥（可为 null：遇到加密归档时校验失败）。 */
+    void setCipher(ArchiveCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    void shutdown() {
+        queue.shutdownNow();
+    }
+
+    /** 立即在当前线程校验（内部仍按 threads 并行读取）。 */
+    Result verify(File archive) {
+        if (ShardedArchive.isSharded(archive)) return verifyShards(archive);
+        long start = System.currentTimeMillis();
+        AtomicLong entries = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        try {
+            String name = archive.getName();
+            if (name.endsWith(ChunkRepository.SNAPSHOT_SUFFIX)) {
+                verifyRepository(archive, entries, bytes);
+            } else {
+                ArchiveCodec codec = ArchiveCodec.forFileName(name);
+                if (codec == null) throw new IOException("无法识别的归档格式: " + name);
+                ArchiveManifest manifest = ArchiveManifest.read(archive);
+                List<Callable<Void>> tasks = new ArrayList<>();
+                if (manifest != null && manifest.getSha256() != null) {
+                    tasks.add(() -> {
+                        String actual = sha256(archive);
+                        if (!actual.equals(manifest.getSha256())) throw new IOException("归档文件的 SHA-256 与清单不符");
+                        return null;
+                    });
+                }
+                ArchiveCipher key = cipher;
+                if (codec == ArchiveCodec.ZIP && ArchiveCipher.isEncrypted(archive)) {
+                    // 加密的 ZIP 先解密到临时文件，再按条目并行校验
+                    if (key == null) throw new IOException("归档已加密，但没有可用的密钥（encryption.key-file）");
+                    File plain = new File(archive.getParentFile(), "." + archive.getName() + ".verify");
+                    try {
+                        key.decryptTo(archive, plain);
+                        verifyZip(plain, manifest, tasks, entries, bytes);
+                    } finally {
+                        plain.delete();
+                    }
+                } else if (codec == ArchiveCodec.ZIP) {
+                    verifyZip(archive, manifest, tasks, entries, bytes);
+                } else {
+                    tasks.add(() -> {
+                        verifyTar(archive, codec, key, manifest, entries, bytes);
+                        return null;
+                    });
+                    runAll(tasks);
+                }
+            }
+            return new Result(true, entries.get(), bytes.get(), System.currentTimeMillis() - start, "OK");
+        } catch (IOException | RuntimeException e) {
+            return new Result(false, entries.get(), bytes.get(), System.currentTimeMillis() - start, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Result verifyShards(File dir) {
+        long start = System.currentTimeMillis();
+        long entries = 0;
+        long bytes = 0;
+        try {
+            Set<File> shards = ShardedArchive.readIndex(dir).keySet();
+            if (shards.isEmpty()) throw new IOException("分片目录为空");
+            for (File shard : shards) {
+                Result r = verify(shard);
+                entries += r.entries;
+                bytes += r.bytes;
+                if (!r.ok) return new Result(false, entries, bytes, System.currentTimeMillis() - start, shard.getName() + ": " + r.message);
+            }
+        } catch (IOException e) {
+            return new Result(false, entries, bytes, System.currentTimeMillis() - start, String.valueOf(e.getMessage()));
+        }
+        return new Result(true, entries, bytes, System.currentTimeMillis() - start, "OK");
+    }
+
+    private void verifyZip(File archive, ArchiveManifest manifest, List<Callable<Void>> tasks,
+                           AtomicLong entries, AtomicLong bytes) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            List<ZipEntry> list = new ArrayList<>();
+            Map<String, ArchiveManifest.Record> expected = new HashMap<>();
+            if (manifest != null) {
+                for (ArchiveManifest.Record r : manifest.records()) {
+                    ZipEntry e = zip.getEntry(r.name);
+                    if (e == null) throw new IOException("归档中缺少条目: " + r.name);
+                    expected.put(r.name, r);
+                    list.add(e);
+                }
+            } else {
+                Enumeration<? extends ZipEntry> en = zip.entries();
+                while (en.hasMoreElements()) {
+                    ZipEntry e = en.nextElement();
+                    if (!e.isDirectory()) list.add(e);
+                }
+            }
+            list.sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+            for (ZipEntry e : list) {
+                ArchiveManifest.Record r = expected.get(e.getName());
+                long wantCrc = r != null ? r.crc : e.getCrc();
+                long wantSize = r != null ? r.size : e.getSize();
+                tasks.add(() -> {
+                    CRC32 crc = new CRC32();
+                    long n;
+                    try (InputStream in = zip.getInputStream(e)) {
+                        n = drain(in, crc);
+                    }
+                    if ((wantSize >= 0 && n != wantSize) || (wantCrc >= 0 && crc.getValue() != wantCrc)) {
+                        throw new IOException("条目内容校验失败: " + e.getName());
+                    }
+                    entries.incrementAndGet();
+                    bytes.addAndGet(n);
+                    return null;
+                });
+            }
+            runAll(tasks);
+        }
+    }
+
+    private static void verifyTar(File archive, ArchiveCodec codec, ArchiveCipher cipher, ArchiveManifest manifest,
+                                  AtomicLong entries, AtomicLong bytes) throws IOException {
+        Map<String, ArchiveManifest.Record> expected = new HashMap<>();
+        if (manifest != null) for (ArchiveManifest.Record r : manifest.records()) expected.put(r.name, r);
+        try (TarArchiveReader tar = new TarArchiveReader(codec.openTarInput(archive, 1024 * 1024, cipher))) {
+            TarArchiveReader.Entry e;
+            CRC32 crc = new CRC32();
+            while ((e = tar.next()) != null) {
+                if (!e.regularFile) continue;
+                crc.reset();
+                long n = drain(tar.content(), crc);
+                if (n != e.size) throw new IOException("tar 条目被截断: " + e.name);
+                ArchiveManifest.Record r = expected.remove(e.name);
+                if (manifest != null && (r == null || r.size != n || r.crc != crc.getValue())) {
+                    throw new IOException("条目内容校验失败: " + e.name);
+                }
+                entries.incrementAndGet();
+                bytes.addAndGet(n);
+            }
+        }
+        if (!expected.isEmpty()) throw new IOException("归档中缺少条目: " + expected.keySet().iterator().next());
+    }
+
+    private void verifyRepository(File snapshot, AtomicLong entries, AtomicLong bytes) throws IOException {
+        ChunkRepository repo = new ChunkRepository(snapshot.getAbsoluteFile().getParentFile().getParentFile(), logger);
+        Set<String> hashes = new LinkedHashSet<>();
+        for (ChunkRepository.FileRecord r : ChunkRepository.readSnapshot(snapshot)) hashes.addAll(r.allHashes());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String h : hashes) {
+            tasks.add(() -> {
+                bytes.addAndGet(repo.verifyChunk(h));
+                entries.incrementAndGet();
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
+
+    /** 并行执行，任何一个失败则取消其余任务并抛出。 */
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty()) return;
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), r -> {
+            Thread t = new Thread(r, "EasyBackUp-Verify-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        ExecutorCompletionService<Void> ecs = new ExecutorCompletionService<>(pool);
+        try {
+            for (Callable<Void> t : tasks) ecs.submit(t);
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    ecs.take().get();
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    throw c instanceof IOException ? (IOException) c : new IOException(String.valueOf(c), c);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("校验被中断");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long drain(InputStream in, CRC32 crc) throws IOException {
+        byte[] buf = new byte[128 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            crc.update(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest md = ArchiveManifest.newSha256();
+        byte[] buf = new byte[1024 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+        }
+        return ArchiveManifest.toHex(md.digest());
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 固定容量的直接缓冲区池。
+ * <p>
+ * 取用时优先复用空闲缓冲区，没有则新分配；归还时空闲数量超过上限的缓冲区直接丢弃（交给 GC 回收）。
+ * 取用从不阻塞：暂时攒着的块（如多块 STORED 条目）可能让同时在用的缓冲区超过上限，但稳定状态下不会再分配。
+ */
+final class BufferPool {
+
+    private final int capacity;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+
+    BufferPool(int capacity, int maxIdle) {
+        this.capacity = capacity;
+        this.maxIdle = Math.max(1, maxIdle);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** 取一个已清空（position=0, limit=capacity）的缓冲区。 */
+    ByteBuffer acquire() {
+        ByteBuffer b = idle.poll();
+        if (b != null) {
+            idleCount.decrementAndGet();
+            b.clear();
+            return b;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /** 归还缓冲区；不是本池容量的（例如扩容得到的）直接丢弃。 */
+    void release(ByteBuffer b) {
+        if (b == null || !b.isDirect() || b.capacity() != capacity) return;
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(b);
+    }
+
+    /** 累计新分配的缓冲区个数。 */
+    long getAllocated() {
+        return allocated.get();
+    }
+
+    void clear() {
+        idle.clear();
+        idleCount.set(0);
+    }
+}
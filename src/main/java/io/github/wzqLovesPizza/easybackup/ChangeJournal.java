@@ -0,0 +1,306 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * 变更日志（schedule.change-driven）：记录两次备份之间目标目录里变动过的路径。
+ * <p>
+ * 优先用 {@link WatchService} 监视目标下的每个目录（新建的目录随即加入监视）；不支持、监视数量超出系统上限或关闭了
+ * schedule.watch 时，改为每隔 schedule.poll-interval 在后台扫描一次元数据，按大小与修改时间比较。
+ * 调度器据此跳过没有变化的备份、在变更量超过阈值时提前备份；备份时 {@link FileScanner#update} 只修补变更的路径，
+ * 不再遍历整个目标。事件丢失（OVERFLOW）或变更过多时退回完整扫描。
+ */
+final class ChangeJournal implements Closeable {
+
+    /** 单次间隔内记录的路径上限，超过后下次备份改为完整扫描。 */
+    static final int MAX_DIRTY = 200_000;
+
+    /** 一次备份取走的变更。 */
+    static final class Changes {
+        final Set<Path> paths;
+        /** 为 true 时需要完整扫描（尚无基准、事件丢失或变更过多）。 */
+        final boolean full;
+        final FileScanner.ScanResult baseline;
+        /** 轮询模式下刚刚完成的一次完整元数据扫描，可直接作为本次的文件清单。 */
+        final FileScanner.ScanResult current;
+
+        Changes(Set<Path> paths, boolean full, FileScanner.ScanResult baseline, FileScanner.ScanResult current) {
+            this.paths = paths;
+            this.full = full;
+            this.baseline = baseline;
+            this.current = current;
+        }
+
+        boolean isIncremental() {
+            return !full && baseline != null;
+        }
+    }
+
+    private final List<Path> targets;
+    private final Supplier<FileScanner> scanners;
+    private final FileScanner filter;
+    private final long pollMillis;
+    private final Logger logger;
+    /** 变更路径 → 最近一次看到的大小（删除为 0）。 */
+    private final Map<Path, Long> dirty = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private volatile boolean full = true;
+    private volatile FileScanner.ScanResult baseline;
+    private volatile boolean closed;
+    private volatile WatchService watcher;
+    private Thread thread;
+    /** 轮询模式：上一次扫描到的文件 → {大小, 修改时间}。 */
+    private Map<Path, long[]> polled;
+    private FileScanner.ScanResult lastPoll;
+
+    /**
+     * @param scanners 创建与备份时排除设置相同的扫描器（用于排除规则与轮询扫描）
+     */
+    ChangeJournal(List<Path> targets, Supplier<FileScanner> scanners, long pollMillis, Logger logger) {
+        List<Path> abs = new ArrayList<>();
+        for (Path t : targets) abs.add(t.toAbsolutePath().normalize());
+        this.targets = Collections.unmodifiableList(abs);
+        this.scanners = scanners;
+        this.filter = scanners.get();
+        this.pollMillis = Math.max(1000L, pollMillis);
+        this.logger = logger;
+    }
+
+    /** 开始记录。watch 为 false 或注册监视失败时使用轮询。 */
+    void start(boolean watch) {
+        if (watch) {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                for (Path t : targets) {
+                    if (Files.isDirectory(t)) {
+                        register(t);
+                    } else {
+                        // 单个文件目标只监视其所在目录这一层
+                        keys.put(t.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), t.getParent());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                warn("无法监视目标目录（" + e.getMessage() + "），改为每 " + pollMillis / 1000 + " 秒轮询修改时间。");
+                closeWatcher();
+            }
+        }
+        thread = new Thread(watcher != null ? this::watchLoop : this::pollLoop, "EasyBackUp-Journal");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    boolean isWatching() {
+        return watcher != null;
+    }
+
+    /** 是否有需要备份的变化（尚无基准时总是 true）。 */
+    boolean hasChanges() {
+        return full || !dirty.isEmpty();
+    }
+
+    int dirtyCount() {
+        return dirty.size();
+    }
+
+    long dirtyBytes() {
+        long sum = 0;
+        for (long v : dirty.values()) sum += v;
+        return sum;
+    }
+
+    /** 与备份时的目标是否一致（目标改变后需要完整扫描）。 */
+    boolean matches(List<Path> paths) {
+        List<Path> abs = new ArrayList<>();
+        for (Path t : paths) abs.add(t.toAbsolutePath().normalize());
+        return abs.equals(targets);
+    }
+
+    /** save-all 之后调用：处理已经排队的事件（轮询模式下立即轮询一次），使变更集合包含刚刚落盘的文件。 */
+    void catchUp() {
+        WatchService w = watcher;
+        if (w == null) {
+            poll();
+            return;
+        }
+        long deadline = System.currentTimeMillis() + 2000L;
+        try {
+            // 等到连续 100ms 没有新事件
+            WatchKey key;
+            while (System.currentTimeMillis() < deadline && (key = w.poll(100, TimeUnit.MILLISECONDS)) != null) {
+                process(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            // 已关闭
+        }
+    }
+
+    /** 取走当前的变更；备份失败时用 {@link #restore} 放回。 */
+    synchronized Changes drain() {
+        Set<Path> paths = new HashSet<>(dirty.keySet());
+        dirty.keySet().removeAll(paths);
+        Changes c = new Changes(paths, full, baseline, watcher == null ? lastPoll : null);
+        full = false;
+        return c;
+    }
+
+    synchronized void restore(Changes c) {
+        for (Path p : c.paths) dirty.putIfAbsent(p, 0L);
+        if (c.full) full = true;
+    }
+
+    /** 备份成功后记下本次的文件清单，作为下次增量更新的基准。 */
+    void commit(FileScanner.ScanResult scan) {
+        baseline = scan;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeWatcher();
+        if (thread != null) thread.interrupt();
+    }
+
+    private void closeWatcher() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {
+                // 忽略
+            }
+            watcher = null;
+        }
+        keys.clear();
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchService w = watcher;
+        if (w == null) return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                if (!d.equals(dir) && filter.isExcludedDir(d)) return FileVisitResult.SKIP_SUBTREE;
+                keys.put(d.register(w, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        WatchService w = watcher;
+        while (!closed && w != null) {
+            try {
+                WatchKey key = w.poll(1, TimeUnit.SECONDS);
+                if (key != null) process(key);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void process(WatchKey key) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                markFull();
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (!isTracked(child)) continue;
+            boolean isDir = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+            // 目录自身的修改（其中增删了文件）由该目录的监视单独报告
+            if (isDir && event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) continue;
+            if (isDir && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (filter.isExcludedDir(child)) continue;
+                try {
+                    register(child);
+                } catch (IOException e) {
+                    // 监视数量达到上限：丢失这个子树的事件，下次完整扫描
+                    markFull();
+                }
+            }
+            mark(child);
+        }
+        if (!key.reset()) keys.remove(key);
+    }
+
+    private void pollLoop() {
+        while (!closed) {
+            poll();
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** 轮询：扫描一次元数据，与上一次比较。 */
+    private synchronized void poll() {
+        FileScanner.ScanResult scan = scanners.get().scan(targets);
+        Map<Path, long[]> now = new HashMap<>();
+        for (FileScanner.ScannedFile f : scan.files) now.put(f.path, new long[]{f.size, f.lastModified});
+        if (polled != null) {
+            for (Map.Entry<Path, long[]> e : now.entrySet()) {
+                long[] old = polled.get(e.getKey());
+                if (old == null || old[0] != e.getValue()[0] || old[1] != e.getValue()[1]) put(e.getKey(), e.getValue()[0]);
+            }
+            for (Path p : polled.keySet()) if (!now.containsKey(p)) put(p, 0L);
+        }
+        polled = now;
+        lastPoll = scan;
+    }
+
+    private boolean isTracked(Path p) {
+        for (Path t : targets) {
+            if (p.startsWith(t)) return !filter.isExcludedFile(p) || Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS);
+        }
+        return false;
+    }
+
+    private void mark(Path p) {
+        long size = 0L;
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (a.isRegularFile()) size = a.size();
+        } catch (IOException ignored) {
+            // 已删除
+        }
+        put(p, size);
+    }
+
+    private void put(Path p, long size) {
+        if (full) return;
+        if (dirty.size() >= MAX_DIRTY && !dirty.containsKey(p)) {
+            markFull();
+            return;
+        }
+        dirty.put(p, size);
+    }
+
+    private void markFull() {
+        full = true;
+        dirty.clear();
+    }
+
+    private void warn(String msg) {
+        if (logger != null) logger.warning(msg);
+    }
+}
@@ -0,0 +1,583 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 内容定义分块（CDC）去重仓库。
+ * <p>
+ * 目录结构：
+ * <pre>
+ * repository/
+ *   chunks/ab/abcdef...   每个唯一分块只存一份，文件名为 SHA-256
+ *   snapshots/EasyBackUp_yyyy-MM-dd_HH-mm-ss.snapshot   每次备份的快照清单（gzip 文本）
+ * </pre>
+ * 分块边界由 Gear 滚动哈希决定（FastCDC 归一化分块），文件中间插入/修改只会影响附近的少量分块。
+ * <p>
+ * 增量：与上一个快照相比大小与修改时间都没变的文件直接沿用旧清单，不再读取；
+ * 区域文件（.mca）按区块切分，时间戳与扇区数都没变的区块沿用旧哈希，只读取真正被改写的区块。
+ */
+public class ChunkRepository {
+
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String MANIFEST_HEADER = "EasyBackUp-Snapshot v1";
+
+    // 分块大小：最小 16 KiB、平均 64 KiB、最大 256 KiB
+    static final int MIN_CHUNK = 16 * 1024;
+    static final int AVG_CHUNK = 64 * 1024;
+    static final int MAX_CHUNK = 256 * 1024;
+    // 归一化分块：平均值之前用更“难”的掩码，之后用更“易”的掩码，使分块大小集中在平均值附近
+    private static final long MASK_SMALL = topBits(18);
+    private static final long MASK_LARGE = topBits(14);
+
+    // Gear 表必须在各版本间保持不变，否则新旧快照的分块边界无法对齐
+    private static final long[] GEAR = new long[256];
+    static {
+        SplittableRandom r = new SplittableRandom(0x4541535942414B55L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = r.nextLong();
+    }
+
+    // 修改时间距上一个快照开始不足此值的文件/区块不做沿用判断（同一秒内可能又被写过）
+    private static final long REUSE_GUARD_MS = 2000L;
+
+    private static final byte STORED_RAW = 0;
+    private static final byte STORED_DEFLATE = 1;
+
+    private final File root;
+    private final File chunksDir;
+    private final File snapshotsDir;
+    private final Logger logger;
+    private boolean regionAware = true;
+    private CompressionPolicy policy;
+
+    public ChunkRepository(File root, Logger logger) {
+        this.root = root;
+        this.chunksDir = new File(root, "chunks");
+        this.snapshotsDir = new File(root, "snapshots");
+        this.logger = logger;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public File getSnapshotsDir() {
+        return snapshotsDir;
+    }
+
+    /** 是否按 Anvil 区块切分 .mca 文件（默认开启）。 */
+    public void setRegionAware(boolean regionAware) {
+        this.regionAware = regionAware;
+    }
+
+    /** 策略判定为直接存储的文件，其分块不再尝试 deflate。 */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public boolean init() {
+        return (chunksDir.isDirectory() || chunksDir.mkdirs()) && (snapshotsDir.isDirectory() || snapshotsDir.mkdirs());
+    }
+
+    /** 开始写一个新快照；写入完成后必须调用 {@link SnapshotWriter#commit()}，否则快照不会出现。 */
+    public SnapshotWriter openSnapshot(String name, int bufferSize) throws IOException {
+        if (!init()) throw new IOException("无法创建仓库目录: " + root.getAbsolutePath());
+        return new SnapshotWriter(name, bufferSize, listChunkHashes(), loadLatestSnapshot());
+    }
+
+    /** 读取最新的快照作为增量基准；没有或读取失败时返回 null（本次按全量处理）。 */
+    private Snapshot loadLatestSnapshot() {
+        File[] snaps = snapshotsDir.listFiles((d, n) -> n.endsWith(SNAPSHOT_SUFFIX));
+        if (snaps == null || snaps.length == 0) return null;
+        // 文件名中的时间戳按字典序即时间序
+        File latest = Collections.max(Arrays.asList(snaps), Comparator.comparing(File::getName));
+        try {
+            return loadSnapshot(latest);
+        } catch (IOException e) {
+            logger.warning("读取上一个快照失败，本次按全量处理: " + latest.getName() + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    public class SnapshotWriter implements Closeable {
+        private final File target;
+        private final File temp;
+        private final Writer manifest;
+        private final Set<String> knownChunks;
+        private final byte[] readBuffer;
+        private final byte[] chunkBuffer = new byte[MAX_CHUNK];
+        private final byte[] deflateBuffer = new byte[MAX_CHUNK + 1024];
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final MessageDigest sha256 = newSha256();
+        private final Map<String, FileRecord> previous = new HashMap<>();
+        private final long reuseBefore;
+        private boolean committed;
+
+        long filesWritten;
+        long filesReused;
+        long bytesRead;
+        long chunksTotal;
+        long chunksNew;
+        long chunksReused;
+        long bytesStored;
+
+        private SnapshotWriter(String name, int bufferSize, Set<String> knownChunks, Snapshot base) throws IOException {
+            this.target = new File(snapshotsDir, name + SNAPSHOT_SUFFIX);
+            this.temp = new File(snapshotsDir, name + SNAPSHOT_SUFFIX + ".tmp");
+            this.knownChunks = knownChunks;
+            if (base != null) {
+                for (FileRecord rec : base.files) previous.put(rec.path, rec);
+                // 沿用的分块必须仍然存在；GC 之后若分块缺失则退回到重新读取
+                previous.values().removeIf(rec -> !knownChunks.containsAll(rec.allHashes()));
+            }
+            this.reuseBefore = base != null ? base.createdAt - REUSE_GUARD_MS : Long.MIN_VALUE;
+            this.readBuffer = new byte[Math.max(8192, bufferSize)];
+            this.manifest = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp)), StandardCharsets.UTF_8));
+            manifest.write(MANIFEST_HEADER + "\n");
+            manifest.write("time\t" + System.currentTimeMillis() + "\n");
+        }
+
+        public void addFile(String entryName, File f) throws IOException {
+            addFile(entryName, f, f.length(), f.lastModified());
+        }
+
+        /** 添加文件；size / mtime 取自扫描结果，用于与上一个快照比对以决定是否沿用。 */
+        public void addFile(String entryName, File f, long size, long mtime) throws IOException {
+            FileRecord prev = previous.get(entryName);
+            if (prev != null && mtime > 0 && prev.size == size && prev.lastModified == mtime && mtime < reuseBefore) {
+                writeRecord(prev);
+                filesReused++;
+                return;
+            }
+            if (regionAware && AnvilRegion.isRegionFile(entryName) && addRegion(entryName, f, mtime, prev)) {
+                return;
+            }
+            addContent(entryName, f, mtime);
+        }
+
+        /** 按区块切分区域文件；头部不合法时返回 false，由调用方退回到内容分块。 */
+        private boolean addRegion(String entryName, File f, long mtime, FileRecord prev) throws IOException {
+            RegionLayout prevLayout = prev != null ? prev.region : null;
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                long size = raf.length();
+                AnvilRegion region = AnvilRegion.readHeader(raf);
+                if (region == null) return false;
+                FileRecord rec = new FileRecord(entryName, size, mtime);
+                RegionLayout layout = new RegionLayout();
+                rec.region = layout;
+                long read = AnvilRegion.HEADER_SIZE;
+                layout.headerHash = storeChunk(region.header, region.header.length, true);
+                for (int i = 0; i < AnvilRegion.CHUNKS; i++) {
+                    if (!region.isPresent(i)) continue;
+                    int ts = region.timestamp(i);
+                    int sectors = region.sectorCount(i);
+                    int p = prevLayout != null ? prevLayout.find(i) : -1;
+                    if (p >= 0 && prevLayout.timestamps.get(p) == ts && prevLayout.sectors.get(p) == sectors
+                            && ts * 1000L < reuseBefore) {
+                        layout.add(i, ts, sectors, prevLayout.hashes.get(p), prevLayout.lengths.get(p));
+                        chunksReused++;
+                        continue;
+                    }
+                    byte[] recBytes;
+                    try {
+                        recBytes = region.readChunkRecord(raf, i);
+                    } catch (IOException e) {
+                        logger.fine("区域文件 " + entryName + " 区块异常，退回整文件分块: " + e.getMessage());
+                        return false;
+                    }
+                    read += recBytes.length;
+                    // 区块记录本身是 zlib/lz4 压缩过的，不再尝试 deflate
+                    layout.add(i, ts, sectors, storeChunk(recBytes, recBytes.length, false), recBytes.length);
+                }
+                writeRecord(rec);
+                filesWritten++;
+                bytesRead += read;
+                return true;
+            }
+        }
+
+        private void addContent(String entryName, File f, long mtime) throws IOException {
+            FileRecord rec = new FileRecord(entryName, 0, mtime);
+            boolean tryDeflate = policy == null || !Objects.equals(policy.levelForPath(entryName), CompressionPolicy.STORE);
+            long size = 0;
+            try (InputStream in = new FileInputStream(f)) {
+                int fill = 0;
+                long fp = 0;
+                int len;
+                while ((len = in.read(readBuffer)) != -1) {
+                    for (int i = 0; i < len; i++) {
+                        byte b = readBuffer[i];
+                        chunkBuffer[fill++] = b;
+                        fp = (fp << 1) + GEAR[b & 0xff];
+                        if (fill < MIN_CHUNK) continue;
+                        long mask = fill < AVG_CHUNK ? MASK_SMALL : MASK_LARGE;
+                        if ((fp & mask) == 0 || fill >= MAX_CHUNK) {
+                            rec.addChunk(storeChunk(chunkBuffer, fill, tryDeflate), fill);
+                            size += fill;
+                            fill = 0;
+                            fp = 0;
+                        }
+                    }
+                }
+                if (fill > 0) {
+                    rec.addChunk(storeChunk(chunkBuffer, fill, tryDeflate), fill);
+                    size += fill;
+                }
+            }
+            // 先写完分块，再写清单行；读取中途失败时清单里不会出现半个文件
+            writeRecord(new FileRecord(rec, size));
+            filesWritten++;
+            bytesRead += size;
+        }
+
+        private void writeRecord(FileRecord rec) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            if (rec.region != null) {
+                RegionLayout l = rec.region;
+                sb.append("region\t").append(rec.lastModified).append('\t').append(rec.size).append('\t').append(rec.path).append('\n');
+                sb.append("header\t").append(l.headerHash).append('\n');
+                for (int i = 0; i < l.indices.size(); i++) {
+                    sb.append("rchunk\t").append(l.indices.get(i)).append('\t').append(l.timestamps.get(i)).append('\t')
+                            .append(l.sectors.get(i)).append('\t').append(l.hashes.get(i)).append('\t').append(l.lengths.get(i)).append('\n');
+                }
+            } else {
+                sb.append("file\t").append(rec.lastModified).append('\t').append(rec.size).append('\t').append(rec.path).append('\n');
+                for (int i = 0; i < rec.chunks.size(); i++) {
+                    sb.append("chunk\t").append(rec.chunks.get(i)).append('\t').append(rec.chunkLengths.get(i)).append('\n');
+                }
+            }
+            manifest.write(sb.toString());
+        }
+
+        private String storeChunk(byte[] data, int len, boolean tryDeflate) throws IOException {
+            sha256.update(data, 0, len);
+            String hash = toHex(sha256.digest());
+            chunksTotal++;
+            if (knownChunks.add(hash)) {
+                bytesStored += writeChunkFile(hash, data, len, tryDeflate);
+                chunksNew++;
+            }
+            return hash;
+        }
+
+        private long writeChunkFile(String hash, byte[] data, int len, boolean tryDeflate) throws IOException {
+            int clen = 0;
+            boolean useDeflate = false;
+            if (tryDeflate) {
+                deflater.reset();
+                deflater.setInput(data, 0, len);
+                deflater.finish();
+                while (!deflater.finished() && clen < deflateBuffer.length) {
+                    clen += deflater.deflate(deflateBuffer, clen, deflateBuffer.length - clen);
+                }
+                // 已压缩的数据（如区块、png）再压缩收益极小，节省不足 1/32 时直接原样存储
+                useDeflate = deflater.finished() && clen < len - (len >> 5);
+            }
+
+            File dir = new File(chunksDir, hash.substring(0, 2));
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建分块目录: " + dir);
+            File out = new File(dir, hash);
+            File tmp = new File(dir, hash + ".tmp");
+            try (OutputStream os = new FileOutputStream(tmp)) {
+                os.write(useDeflate ? STORED_DEFLATE : STORED_RAW);
+                if (useDeflate) os.write(deflateBuffer, 0, clen);
+                else os.write(data, 0, len);
+            }
+            Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return 1L + (useDeflate ? clen : len);
+        }
+
+        /** 完成快照：清单落盘并原子改名，此后快照才对保留策略与恢复可见。 */
+        public void commit() throws IOException {
+            manifest.close();
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        public File getSnapshotFile() {
+            return target;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            if (!committed) {
+                try {
+                    manifest.close();
+                } finally {
+                    if (temp.exists() && !temp.delete()) {
+                        logger.warning("无法删除未完成的快照: " + temp.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /** 一个快照：创建时间与文件清单。 */
+    public static class Snapshot {
+        public final long createdAt;
+        public final List<FileRecord> files;
+
+        Snapshot(long createdAt, List<FileRecord> files) {
+            this.createdAt = createdAt;
+            this.files = files;
+        }
+    }
+
+    /** 快照清单中的一个文件；区域文件额外带有区块布局。 */
+    public static class FileRecord {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final List<String> chunks;
+        final List<Integer> chunkLengths;
+        RegionLayout region;
+
+        FileRecord(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.chunks = new ArrayList<>();
+            this.chunkLengths = new ArrayList<>();
+        }
+
+        FileRecord(FileRecord src, long size) {
+            this.path = src.path;
+            this.size = size;
+            this.lastModified = src.lastModified;
+            this.chunks = src.chunks;
+            this.chunkLengths = src.chunkLengths;
+            this.region = src.region;
+        }
+
+        void addChunk(String hash, int len) {
+            chunks.add(hash);
+            chunkLengths.add(len);
+        }
+
+        /** 此文件引用的全部分块（区域文件包括头部与各区块）。 */
+        Collection<String> allHashes() {
+            if (region == null) return chunks;
+            List<String> all = new ArrayList<>(region.hashes.size() + 1);
+            all.add(region.headerHash);
+            all.addAll(region.hashes);
+            return all;
+        }
+    }
+
+    /** 区域文件的区块布局：头部分块 + 每个存在的区块（索引、时间戳、扇区数、分块哈希、记录长度）。 */
+    static class RegionLayout {
+        String headerHash;
+        final List<Integer> indices = new ArrayList<>();
+        final List<Integer> timestamps = new ArrayList<>();
+        final List<Integer> sectors = new ArrayList<>();
+        final List<String> hashes = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+
+        void add(int index, int timestamp, int sectorCount, String hash, int length) {
+            indices.add(index);
+            timestamps.add(timestamp);
+            sectors.add(sectorCount);
+            hashes.add(hash);
+            lengths.add(length);
+        }
+
+        int find(int index) {
+            // indices 按区块索引升序写入
+            int pos = Collections.binarySearch(indices, index);
+            return pos >= 0 ? pos : -1;
+        }
+    }
+
+    public static List<FileRecord> readSnapshot(File snapshot) throws IOException {
+        return loadSnapshot(snapshot).files;
+    }
+
+    public static Snapshot loadSnapshot(File snapshot) throws IOException {
+        List<FileRecord> files = new ArrayList<>();
+        long createdAt = snapshot.lastModified();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(snapshot)), StandardCharsets.UTF_8))) {
+            String line = r.readLine();
+            if (!MANIFEST_HEADER.equals(line)) throw new IOException("不是有效的快照清单: " + snapshot.getName());
+            FileRecord current = null;
+            while ((line = r.readLine()) != null) {
+                String[] p = line.split("\t", 6);
+                try {
+                    switch (p[0]) {
+                        case "time":
+                            createdAt = Long.parseLong(p[1]);
+                            break;
+                        case "file":
+                        case "region":
+                            p = line.split("\t", 4);
+                            current = new FileRecord(p[3], Long.parseLong(p[2]), Long.parseLong(p[1]));
+                            if ("region".equals(p[0])) current.region = new RegionLayout();
+                            files.add(current);
+                            break;
+                        case "chunk":
+                            if (current != null) current.addChunk(p[1], Integer.parseInt(p[2]));
+                            break;
+                        case "header":
+                            if (current != null && current.region != null) current.region.headerHash = p[1];
+                            break;
+                        case "rchunk":
+                            if (current != null && current.region != null) {
+                                current.region.add(Integer.parseInt(p[1]), Integer.parseInt(p[2]), Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5]));
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("快照清单格式错误: " + snapshot.getName() + " - " + line, e);
+                }
+            }
+        }
+        return new Snapshot(createdAt, files);
+    }
+
+    /** 将快照中的全部文件还原到 destRoot 下（按清单中的相对路径）。 */
+    public void extract(File snapshot, File destRoot) throws IOException {
+        for (FileRecord rec : readSnapshot(snapshot)) {
+            extractFile(rec, new File(destRoot, rec.path));
+        }
+    }
+
+    /** 还原清单中的单个文件到 out（可在多个线程中同时调用）。 */
+    public void extractFile(FileRecord rec, File out) throws IOException {
+        File parent = out.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        if (rec.region != null) {
+            RegionLayout l = rec.region;
+            AnvilRegion.rebuild(out, rec.size, readChunk(l.headerHash), index -> {
+                int p = l.find(index);
+                return p >= 0 ? readChunk(l.hashes.get(p)) : null;
+            });
+        } else {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+                for (String hash : rec.chunks) os.write(readChunk(hash));
+            }
+        }
+        if (rec.lastModified > 0 && !out.setLastModified(rec.lastModified)) {
+            logger.fine("无法设置修改时间: " + out);
+        }
+    }
+
+    byte[] readChunk(String hash) throws IOException {
+        byte[] raw = Files.readAllBytes(chunkFile(hash).toPath());
+        if (raw.length == 0) throw new IOException("分块损坏: " + hash);
+        if (raw[0] == STORED_RAW) return Arrays.copyOfRange(raw, 1, raw.length);
+        Inflater inf = new Inflater();
+        try {
+            inf.setInput(raw, 1, raw.length - 1);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(MAX_CHUNK);
+            byte[] buf = new byte[64 * 1024];
+            while (!inf.finished()) {
+                int n = inf.inflate(buf);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary())) throw new IOException("分块损坏: " + hash);
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } catch (java.util.zip.DataFormatException e) {
+            throw new IOException("分块损坏: " + hash, e);
+        } finally {
+            inf.end();
+        }
+    }
+
+    /** 读取分块并核对 SHA-256 与名称一致；缺失或不一致时抛出 IOException（可在多个线程中同时调用）。 */
+    long verifyChunk(String hash) throws IOException {
+        byte[] data = readChunk(hash);
+        if (!toHex(newSha256().digest(data)).equals(hash)) throw new IOException("分块内容与哈希不符: " + hash);
+        return data.length;
+    }
+
+    private File chunkFile(String hash) {
+        return new File(new File(chunksDir, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * 垃圾回收：删除所有不被任何现存快照引用的分块。
+     * 须在保留策略删除快照之后、且没有快照正在写入时调用。
+     */
+    public long collectGarbage() {
+        Set<String> referenced = new HashSet<>();
+        File[] snaps = snapshotsDir.listFiles((d, n) -> n.endsWith(SNAPSHOT_SUFFIX));
+        if (snaps != null) {
+            for (File s : snaps) {
+                try {
+                    for (FileRecord rec : readSnapshot(s)) referenced.addAll(rec.allHashes());
+                } catch (IOException e) {
+                    // 读不了的快照无法判断引用关系，本次放弃回收以免误删
+                    logger.warning("读取快照失败，跳过分块回收: " + s.getName() + " - " + e.getMessage());
+                    return 0;
+                }
+            }
+        }
+        long freed = 0;
+        long removed = 0;
+        for (String hash : listChunkHashes()) {
+            if (referenced.contains(hash)) continue;
+            File f = chunkFile(hash);
+            long len = f.length();
+            if (f.delete()) {
+                freed += len;
+                removed++;
+            } else {
+                logger.warning("无法删除分块: " + hash);
+            }
+        }
+        if (removed > 0) {
+            logger.info("已回收 " + removed + " 个未引用分块，释放 " + freed + " 字节。");
+        }
+        return freed;
+    }
+
+    private Set<String> listChunkHashes() {
+        Set<String> set = new HashSet<>();
+        if (!chunksDir.isDirectory()) return set;
+        try (Stream<Path> walk = Files.walk(chunksDir.toPath(), 2)) {
+            walk.filter(Files::isRegularFile)
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> n.length() == 64)
+                    .forEach(set::add);
+        } catch (IOException | UncheckedIOException e) {
+            logger.warning("列出分块失败: " + e.getMessage());
+        }
+        return set;
+    }
+
+    private static long topBits(int bits) {
+        return ((1L << bits) - 1) << (64 - bits);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = hex[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = hex[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 逐文件的压缩策略：决定一个条目是直接存储（STORED）还是按某个级别 deflate。
+ * <p>
+ * 判定顺序：路径规则（按配置顺序，先匹配者生效）→ 直接存储的后缀名 → 采样熵（已压缩数据接近 8 bit/字节）→ 默认级别。
+ */
+public class CompressionPolicy {
+
+    /** 表示直接存储的“级别”。 */
+    public static final int STORE = -2;
+
+    // 区域文件、NBT（gzip）、图片、压缩包、字节码包等本身已经压缩过
+    static final List<String> DEFAULT_STORE_EXTENSIONS = Arrays.asList(
+            "mca", "mcc", "dat", "dat_old", "nbt", "png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3",
+            "jar", "zip", "gz", "tgz", "xz", "bz2", "7z", "zst", "lz4", "rar");
+
+    private final int defaultLevel;
+    private final Set<String> storeExtensions;
+    private final List<Rule> rules;
+    private final double entropyThreshold;
+    private final int entropyMinBytes;
+    private final int entropySampleBytes;
+
+    private static final class Rule {
+        final Pattern pattern;
+        final int level;
+
+        Rule(Pattern pattern, int level) {
+            this.pattern = pattern;
+            this.level = level;
+        }
+    }
+
+    public CompressionPolicy(int defaultLevel, Collection<String> storeExtensions, List<Map<?, ?>> rules,
+                             double entropyThreshold, int entropyMinBytes, int entropySampleBytes) {
+        this.defaultLevel = clampLevel(defaultLevel);
+        this.storeExtensions = new HashSet<>();
+        if (storeExtensions != null) {
+            for (String e : storeExtensions) if (e != null) this.storeExtensions.add(e.toLowerCase(Locale.ROOT));
+        }
+        this.rules = new ArrayList<>();
+        if (rules != null) {
+            for (Map<?, ?> r : rules) {
+                Object pattern = r.get("pattern");
+                if (pattern == null) continue;
+                this.rules.add(new Rule(Pattern.compile(globToRegex(String.valueOf(pattern)), Pattern.CASE_INSENSITIVE), parseLevel(r.get("level"))));
+            }
+        }
+        this.entropyThreshold = entropyThreshold;
+        this.entropyMinBytes = Math.max(0, entropyMinBytes);
+        this.entropySampleBytes = Math.max(1024, entropySampleBytes);
+    }
+
+    private CompressionPolicy(CompressionPolicy base, int defaultLevel) {
+        this.defaultLevel = clampLevel(defaultLevel);
+        this.storeExtensions = base.storeExtensions;
+        this.rules = base.rules;
+        this.entropyThreshold = base.entropyThreshold;
+        this.entropyMinBytes = base.entropyMinBytes;
+        this.entropySampleBytes = base.entropySampleBytes;
+    }
+
+    /** 其余判定不变、只替换默认级别的副本（自动调优选出级别后使用）。 */
+    public CompressionPolicy withDefaultLevel(int level) {
+        return new CompressionPolicy(this, level);
+    }
+
+    /** 全部按同一级别压缩（不做任何判定）。 */
+    public static CompressionPolicy uniform(int level) {
+        return new CompressionPolicy(level, Collections.emptyList(), Collections.emptyList(), 9.0, Integer.MAX_VALUE, 1024);
+    }
+
+    public static CompressionPolicy fromConfig(FileConfiguration config) {
+        int level = config.getInt("compression.level", -1);
+        List<String> exts = config.isSet("compression.policy.store-extensions")
+                ? config.getStringList("compression.policy.store-extensions")
+                : DEFAULT_STORE_EXTENSIONS;
+        return new CompressionPolicy(level, exts, config.getMapList("compression.policy.rules"),
+                config.getDouble("compression.policy.entropy-threshold", 7.5),
+                config.getInt("compression.policy.entropy-min-kb", 64) * 1024,
+                config.getInt("compression.policy.entropy-sample-kb", 16) * 1024);
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /** 仅凭路径即可确定的级别（规则或后缀名）；无法确定时返回 null，交给采样判断。 */
+    public Integer levelForPath(String entryName) {
+        for (Rule r : rules) {
+            if (r.pattern.matcher(entryName).matches()) return r.level;
+        }
+        String lower = entryName.toLowerCase(Locale.ROOT);
+        int slash = lower.lastIndexOf('/');
+        int dot = lower.lastIndexOf('.');
+        if (dot > slash && storeExtensions.contains(lower.substring(dot + 1))) return STORE;
+        return null;
+    }
+
+    /** 文件是否大到值得采样熵。 */
+    public boolean shouldSample(long size) {
+        return size >= entropyMinBytes;
+    }
+
+    public int getSampleBytes() {
+        return entropySampleBytes;
+    }
+
+    /** 根据样本决定级别：熵高于阈值则直接存储，否则使用默认级别。 */
+    public int levelForSample(byte[] data, int off, int len) {
+        if (len <= 0) return defaultLevel;
+        return entropy(data, off, Math.min(len, entropySampleBytes)) >= entropyThreshold ? STORE : defaultLevel;
+    }
+
+    /** 同 {@link #levelForSample(byte[], int, int)}，样本为缓冲区 position 到 limit 之间的内容（不移动 position）。 */
+    public int levelForSample(ByteBuffer data) {
+        int len = Math.min(data.remaining(), entropySampleBytes);
+        if (len <= 0) return defaultLevel;
+        int[] hist = new int[256];
+        int pos = data.position();
+        for (int i = pos; i < pos + len; i++) hist[data.get(i) & 0xff]++;
+        return entropy(hist, len) >= entropyThreshold ? STORE : defaultLevel;
+    }
+
+    /** 字节直方图的香农熵，单位 bit/字节（0~8）。 */
+    static double entropy(byte[] data, int off, int len) {
+        int[] hist = new int[256];
+        for (int i = off; i < off + len; i++) hist[data[i] & 0xff]++;
+        return entropy(hist, len);
+    }
+
+    private static double entropy(int[] hist, int len) {
+        double h = 0;
+        for (int c : hist) {
+            if (c == 0) continue;
+            double p = (double) c / len;
+            h -= p * (Math.log(p) / Math.log(2));
+        }
+        return h;
+    }
+
+    private static int parseLevel(Object o) {
+        if (o == null) return -1;
+        String s = String.valueOf(o).trim().toLowerCase(Locale.ROOT);
+        if ("store".equals(s) || "stored".equals(s) || "none".equals(s)) return STORE;
+        try {
+            return clampLevel(Integer.parseInt(s));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int clampLevel(int level) {
+        if (level == STORE) return STORE;
+        return Math.max(-1, Math.min(9, level));
+    }
+
+    /** 通配符转正则：** 跨目录，* 与 ? 不跨目录。 */
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    i++;
+                    // "**/" 可匹配零层目录
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                        i++;
+                        sb.append("(?:.*/)?");
+                    } else {
+                        sb.append(".*");
+                    }
+                } else {
+                    sb.append("[^/]*");
+                }
+            } else if (c == '?') {
+                sb.append("[^/]");
+            } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                sb.append('\\').append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
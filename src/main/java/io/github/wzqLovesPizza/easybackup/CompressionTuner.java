@@ -0,0 +1,284 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * 压缩级别自动调优（compression.auto-tune）：每次备份保存世界之前（采样不计入自动保存关闭的时间），
+ * 从上一次备份的文件清单中均匀取一小份样本，按各候选级别压缩一遍，得到各级别的单线程速度与压缩比，
+ * 再结合历史运行预测归档阶段的用时，
+ * 选出能在目标用时内完成的压缩比最高的级别；都放不下时选预测最快的。
+ * <p>
+ * 预测 = max(读取字节 / 历史最高读取吞吐, 需压缩字节 / (样本速度 × 线程数)) × 校准系数。
+ * 校准系数是最近几次调优运行实际与预测用时之比的中位数，用来吸收样本与整体数据、线程争用等的差异。
+ * 路径规则或后缀名决定直接存储的文件只计入读取，不参与采样；样本中被熵判断为已压缩的部分按同样比例扣除。
+ */
+final class CompressionTuner {
+
+    /** 每个采样点读取的字节数。 */
+    static final int CHUNK = 256 * 1024;
+    /** 参与校准的最近调优运行数。 */
+    static final int CALIBRATION_RUNS = 5;
+
+    /** 一个候选级别的样本结果与预测。 */
+    static final class Candidate {
+        final int level;
+        long sampleNanos;
+        long compressedBytes;
+        long predictedMillis;
+
+        Candidate(int level) {
+            this.level = level;
+        }
+
+        /** 样本压缩比（原始 / 压缩后）。 */
+        double ratio(long sampleBytes) {
+            return compressedBytes > 0 ? (double) sampleBytes / compressedBytes : 1.0;
+        }
+
+        /** 单线程压缩速度（字节/毫秒）。 */
+        double bytesPerMilli(long sampleBytes) {
+            return sampleBytes / Math.max(1e-3, sampleNanos / 1e6);
+        }
+    }
+
+    /** 调优结果。 */
+    static final class Decision {
+        final int level;
+        final long predictedMillis;
+        final long budgetMillis;
+        final long sampleBytes;
+        final double calibration;
+        final List<Candidate> candidates;
+
+        Decision(int level, long predictedMillis, long budgetMillis, long sampleBytes, double calibration, List<Candidate> candidates) {
+            this.level = level;
+            this.predictedMillis = predictedMillis;
+            this.budgetMillis = budgetMillis;
+            this.sampleBytes = sampleBytes;
+            this.calibration = calibration;
+            this.candidates = candidates;
+        }
+
+        Candidate chosen() {
+            for (Candidate c : candidates) if (c.level == level) return c;
+            return null;
+        }
+    }
+
+    private final int[] levels;
+    private final long budgetMillis;
+    private final long sampleBytes;
+
+    /**
+     * @param levels       候选 deflate 级别（0-9）
+     * @param budgetMillis 归档阶段的目标用时
+     * @param sampleBytes  样本总大小
+     */
+    CompressionTuner(int[] levels, long budgetMillis, long sampleBytes) {
+        this.levels = levels;
+        this.budgetMillis = budgetMillis;
+        this.sampleBytes = Math.max(CHUNK, sampleBytes);
+    }
+
+    /**
+     * 读取 compression.auto-tune；未开启或没有目标用时返回 null。
+     * 当前时刻落在 peak-hours 内时使用 peak-target-duration。
+     */
+    static CompressionTuner fromConfig(FileConfiguration config, int hourOfDay) {
+        if (!config.getBoolean("compression.auto-tune.enabled", false)) return null;
+        String target = config.getString("compression.auto-tune.target-duration", "10M");
+        String peak = config.getString("compression.auto-tune.peak-hours", "");
+        if (inHours(peak, hourOfDay) && config.isSet("compression.auto-tune.peak-target-duration")) {
+            target = config.getString("compression.auto-tune.peak-target-duration");
+        }
+        long budget = BackupTask.safeParseDurationSeconds(target) * 1000L;
+        if (budget <= 0) return null;
+        List<Integer> list = config.getIntegerList("compression.auto-tune.levels");
+        Set<Integer> levels = new TreeSet<>();
+        for (Integer l : list) if (l != null && l >= 0 && l <= 9) levels.add(l);
+        if (levels.isEmpty()) levels.addAll(Arrays.asList(1, 3, 6, 9));
+        int[] arr = new int[levels.size()];
+        int i = 0;
+        for (int l : levels) arr[i++] = l;
+        return new CompressionTuner(arr, budget, Math.max(1, config.getInt("compression.auto-tune.sample-mb", 8)) * 1024L * 1024L);
+    }
+
+    /** "18-23" 表示 18:00 到 23:59；起点大于终点时跨越午夜（如 "22-6"）。多段以逗号分隔。 */
+    static boolean inHours(String spec, int hour) {
+        if (spec == null) return false;
+        for (String part : spec.split(",")) {
+            String[] se = part.trim().split("-");
+            if (se.length != 2) continue;
+            try {
+                int start = Integer.parseInt(se[0].trim());
+                int end = Integer.parseInt(se[1].trim());
+                if (start <= end ? hour >= start && hour <= end : hour >= start || hour <= end) return true;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 采样并选出级别。
+     *
+     * @param files   上一次备份的文件清单（代表本次要归档的数据；扫描后已删除或变短的文件照常跳过）
+     * @param policy  压缩策略（用于排除直接存储的文件）
+     * @param threads 压缩线程数
+     * @param history 历史运行（从旧到新），用于读取吞吐与校准
+     */
+    Decision tune(List<FileScanner.ScannedFile> files, CompressionPolicy policy, int threads,
+                  List<BackupMetrics.Run> history) {
+        long totalBytes = 0;
+        long compressible = 0;
+        List<FileScanner.ScannedFile> eligible = new ArrayList<>();
+        for (FileScanner.ScannedFile f : files) {
+            totalBytes += f.size;
+            Integer fixed = policy.levelForPath(f.entryName);
+            if (fixed != null && fixed == CompressionPolicy.STORE) continue;
+            compressible += f.size;
+            if (fixed == null && f.size > 0) eligible.add(f);
+        }
+
+        List<byte[]> chunks = sample(eligible, sampleBytes);
+        long sampled = 0;
+        long storedSample = 0;
+        List<byte[]> deflatable = new ArrayList<>();
+        for (byte[] c : chunks) {
+            sampled += c.length;
+            if (policy.levelForSample(c, 0, c.length) == CompressionPolicy.STORE) {
+                storedSample += c.length;
+            } else {
+                deflatable.add(c);
+            }
+        }
+        if (sampled > 0) compressible -= (long) (compressible * ((double) storedSample / sampled));
+        long deflatableBytes = sampled - storedSample;
+
+        List<Candidate> candidates = new ArrayList<>();
+        byte[] out = new byte[CHUNK + 1024];
+        for (int level : levels) {
+            Candidate c = new Candidate(level);
+            Deflater deflater = new Deflater(level, true);
+            try {
+                long start = System.nanoTime();
+                for (byte[] chunk : deflatable) {
+                    deflater.reset();
+                    deflater.setInput(chunk);
+                    deflater.finish();
+                    while (!deflater.finished()) c.compressedBytes += deflater.deflate(out);
+                }
+                c.sampleNanos = System.nanoTime() - start;
+            } finally {
+                deflater.end();
+            }
+            candidates.add(c);
+        }
+
+        double readBytesPerMilli = readThroughput(history);
+        double calibration = calibration(history);
+        for (Candidate c : candidates) {
+            double readMillis = readBytesPerMilli > 0 ? totalBytes / readBytesPerMilli : 0.0;
+            double cpuMillis = deflatableBytes > 0 ? compressible / (c.bytesPerMilli(deflatableBytes) * Math.max(1, threads)) : 0.0;
+            c.predictedMillis = (long) Math.ceil(Math.max(readMillis, cpuMillis) * calibration);
+        }
+        int level = choose(candidates, budgetMillis);
+        return new Decision(level, predictedOf(candidates, level), budgetMillis, deflatableBytes, calibration, candidates);
+    }
+
+    /** 目标用时内压缩后最小的级别（相同时取更快的）；都超出时取预测最快的。 */
+    static int choose(List<Candidate> candidates, long budgetMillis) {
+        Candidate best = null;
+        for (Candidate c : candidates) {
+            if (c.predictedMillis > budgetMillis) continue;
+            if (best == null || c.compressedBytes < best.compressedBytes
+                    || c.compressedBytes == best.compressedBytes && c.predictedMillis < best.predictedMillis) {
+                best = c;
+            }
+        }
+        if (best == null) {
+            for (Candidate c : candidates) if (best == null || c.predictedMillis < best.predictedMillis) best = c;
+        }
+        return best != null ? best.level : -1;
+    }
+
+    private static long predictedOf(List<Candidate> candidates, int level) {
+        for (Candidate c : candidates) if (c.level == level) return c.predictedMillis;
+        return -1L;
+    }
+
+    /** 历史成功运行中最高的读取吞吐（字节/毫秒）；没有历史时为 0，只按压缩耗时预测。 */
+    static double readThroughput(List<BackupMetrics.Run> history) {
+        double best = 0.0;
+        for (BackupMetrics.Run r : history) {
+            long ms = r.phase("archive");
+            if (!r.success || ms <= 0 || r.bytesRead <= 0) continue;
+            best = Math.max(best, (double) r.bytesRead / ms);
+        }
+        return best;
+    }
+
+    /** 最近几次调优运行的实际 / 预测用时的中位数，限制在 0.5~4；没有时为 1。 */
+    static double calibration(List<BackupMetrics.Run> history) {
+        List<Double> ratios = new ArrayList<>();
+        for (int i = history.size() - 1; i >= 0 && ratios.size() < CALIBRATION_RUNS; i--) {
+            BackupMetrics.Run r = history.get(i);
+            long actual = r.phase("archive");
+            if (!r.success || r.predictedMillis <= 0 || actual <= 0) continue;
+            // 预测值已含当时的校准系数，除掉后才是模型本身的偏差
+            ratios.add(actual / (r.predictedMillis / Math.max(0.01, r.calibration)));
+        }
+        if (ratios.isEmpty()) return 1.0;
+        Collections.sort(ratios);
+        int n = ratios.size();
+        double median = n % 2 == 1 ? ratios.get(n / 2) : (ratios.get(n / 2 - 1) + ratios.get(n / 2)) / 2;
+        return Math.max(0.5, Math.min(4.0, median));
+    }
+
+    /** 按字节均匀分布在 files 中的采样点，每点读取至多 {@link #CHUNK} 字节。读不到的文件跳过。 */
+    static List<byte[]> sample(List<FileScanner.ScannedFile> files, long sampleBytes) {
+        long total = 0;
+        for (FileScanner.ScannedFile f : files) total += f.size;
+        List<byte[]> out = new ArrayList<>();
+        if (total == 0) return out;
+        int points = (int) Math.max(1, Math.min(Integer.MAX_VALUE, sampleBytes / CHUNK));
+        if ((long) points * CHUNK > total) points = (int) Math.max(1, (total + CHUNK - 1) / CHUNK);
+        double stride = (double) total / points;
+        int fi = 0;
+        long fileStart = 0;
+        int lastFile = -1;
+        long lastEnd = 0;
+        for (int i = 0; i < points; i++) {
+            long pos = (long) ((i + 0.5) * stride);
+            while (fi < files.size() - 1 && fileStart + files.get(fi).size <= pos) {
+                fileStart += files.get(fi).size;
+                fi++;
+            }
+            FileScanner.ScannedFile f = files.get(fi);
+            long offset = Math.max(0, Math.min(pos - fileStart - CHUNK / 2, f.size - CHUNK));
+            // 小文件只取一次
+            if (fi == lastFile && offset < lastEnd) offset = lastEnd;
+            if (offset >= f.size) continue;
+            int len = (int) Math.min(CHUNK, f.size - offset);
+            try (FileChannel ch = FileChannel.open(f.path, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(len);
+                while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) {
+                    // 读到文件末尾（文件在扫描后变短）为止
+                }
+                if (buf.position() > 0) out.add(Arrays.copyOf(buf.array(), buf.position()));
+            } catch (IOException ignored) {
+                continue;
+            }
+            lastFile = fi;
+            lastEnd = offset + len;
+        }
+        return out;
+    }
+}
@@ -6,9 +6,23 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitTask;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -17,10 +31,39 @@ public class EasyBackUp extends JavaPlugin {
     private Logger log;
 
     private BukkitTask scheduledTask;
-    private long nextRunAtMillis = -1L;
+    private volatile long nextRunAtMillis = -1L;
+    /** 变更驱动调度：上一次自动备份（或因无变化跳过）的时间。 */
+    private volatile long lastScheduledAt;
+    private volatile ChangeJournal journal;
+    /** profiles 中各档案的定时任务与下次运行时间。 */
+    private final List<BukkitTask> profileTasks = new ArrayList<>();
+    private final Map<String, Long> profileNextRun = new ConcurrentHashMap<>();
+    private volatile List<BackupProfile> profiles = new ArrayList<>();
+    private BackupQueue backupQueue;
+    /** 正在备份、需要关闭自动保存的任务数。 */
+    private int saveHolds;
+    private final SaveCoordinator saveCoordinator = new SaveCoordinator(this);
     private volatile LastBackupInfo lastBackupInfo;
-    private final Object backupLock = new Object();
-    private volatile boolean isBackingUp = false;
+    private final Map<String, BackupCatalog> catalogs = new ConcurrentHashMap<>();
+    private BackupMetrics metrics;
+    private ObjectName metricsName;
+    private MetricsExporter metricsExporter;
+    private BackupVerifier verifier;
+    private BackupReaper reaper;
+    private final Map<String, List<FileScanner.ScannedFile>> lastFiles = new ConcurrentHashMap<>();
+    private volatile boolean isRestoring = false;
+    /** 等待 /ebu restore confirm 的还原计划（按执行者名称）。 */
+    private final Map<String, PendingRestore> pendingRestores = new ConcurrentHashMap<>();
+
+    private static final class PendingRestore {
+        final RestoreEngine.Plan plan;
+        final long expiresAt;
+
+        PendingRestore(RestoreEngine.Plan plan, long expiresAt) {
+            this.plan = plan;
+            this.expiresAt = expiresAt;
+        }
+    }
 
     public static class LastBackupInfo {
         public final long timestampMillis;
@@ -29,21 +72,43 @@ public class EasyBackUp extends JavaPlugin {
         public final long totalBytes;
         public final long durationMillis;
         public final String message;
+        public final long saveDisabledMillis;
 
         public LastBackupInfo(long timestampMillis, boolean success, long filesCount, long totalBytes, long durationMillis, String message) {
+            this(timestampMillis, success, filesCount, totalBytes, durationMillis, message, 0L);
+        }
+
+        public LastBackupInfo(long timestampMillis, boolean success, long filesCount, long totalBytes, long durationMillis, String message, long saveDisabledMillis) {
             this.timestampMillis = timestampMillis;
             this.success = success;
             this.filesCount = filesCount;
             this.totalBytes = totalBytes;
             this.durationMillis = durationMillis;
             this.message = message;
+            this.saveDisabledMillis = saveDisabledMillis;
         }
     }
 
+    @Override
+    public void onLoad() {
+        // 在世界加载之前执行上次 /ebu restore 暂存的替换
+        RestoreEngine.applyPending(new BackupTask(this).resolveServerRoot(), getLogger());
+    }
+
     @Override
     public void onEnable() {
         log = getLogger();
         saveDefaultConfig();
+        metrics = new BackupMetrics(new File(getDataFolder(), BackupMetrics.FILE_NAME),
+                getConfig().getInt("metrics.history-size", 50), getLogger());
+        applyMetricsConfig();
+        verifier = new BackupVerifier(Math.max(1, getConfig().getInt("verify.threads", 2)), getLogger());
+        verifier.setCipher(readCipher());
+        reaper = new BackupReaper(new File(getDataFolder(), BackupReaper.FILE_NAME), getLogger());
+        reaper.configure(getConfig());
+        backupQueue = new BackupQueue(1, r -> Bukkit.getScheduler().runTaskAsynchronously(this, r));
+        // 预先异步载入备份目录记录，之后 status/list/保留策略都只读内存
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> new BackupTask(this).openCatalog());
         scheduleFromConfig();
         log.info("EasyBackUp 插件已启用。");
     }
@@ -53,6 +118,95 @@ public class EasyBackUp extends JavaPlugin {
         if (scheduledTask != null) {
             scheduledTask.cancel();
         }
+        for (BukkitTask t : profileTasks) t.cancel();
+        if (backupQueue != null) {
+            backupQueue.clear();
+        }
+        closeJournal();
+        stopMetricsExport();
+        if (verifier != null) {
+            verifier.shutdown();
+        }
+        if (reaper != null) {
+            reaper.shutdown();
+        }
+    }
+
+    /** 按 metrics.* 配置注册 JMX MBean、启动/停止 Prometheus 端点（启用与重载时调用）。 */
+    private void applyMetricsConfig() {
+        stopMetricsExport();
+        metrics.setCapacity(getConfig().getInt("metrics.history-size", 50));
+        if (getConfig().getBoolean("metrics.jmx", true)) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("io.github.wzqLovesPizza.easybackup:type=BackupMetrics");
+                // 插件被热重载时旧实例可能还没注销
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(metrics, name);
+                metricsName = name;
+            } catch (JMException | RuntimeException e) {
+                log.warning("注册 JMX 指标失败: " + e.getMessage());
+            }
+        }
+        if (getConfig().getBoolean("metrics.prometheus.enabled", false)) {
+            String bind = getConfig().getString("metrics.prometheus.bind", "127.0.0.1");
+            int port = getConfig().getInt("metrics.prometheus.port", 9464);
+            try {
+                metricsExporter = MetricsExporter.start(bind, port, metrics);
+                log.info("Prometheus 指标端点已启动: http://" + bind + ":" + metricsExporter.getPort() + "/metrics");
+            } catch (IOException | RuntimeException | LinkageError e) {
+                // LinkageError：运行时缺少 jdk.httpserver 模块
+                log.warning("启动 Prometheus 指标端点失败: " + e);
+            }
+        }
+    }
+
+    private void stopMetricsExport() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException | RuntimeException ignored) {
+                // 已被注销
+            }
+            metricsName = null;
+        }
+    }
+
+    BackupMetrics getMetrics() {
+        return metrics;
+    }
+
+    BackupVerifier getVerifier() {
+        return verifier;
+    }
+
+    /** 档案上一次备份的文件清单，供压缩自动调优在保存世界之前采样；没有时为 null。 */
+    List<FileScanner.ScannedFile> getLastFiles(String profile) {
+        return lastFiles.get(profile);
+    }
+
+    void setLastFiles(String profile, List<FileScanner.ScannedFile> files) {
+        lastFiles.put(profile, files);
+    }
+
+    BackupReaper getReaper() {
+        return reaper;
+    }
+
+    /** 当前的变更日志（未开启 schedule.change-driven 时为 null）。 */
+    ChangeJournal getJournal() {
+        return journal;
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
     }
 
     private void scheduleFromConfig() {
@@ -60,6 +214,25 @@ public class EasyBackUp extends JavaPlugin {
             scheduledTask.cancel();
             scheduledTask = null;
         }
+        for (BukkitTask t : profileTasks) t.cancel();
+        profileTasks.clear();
+        profileNextRun.clear();
+        closeJournal();
+
+        // 各档案排队运行，最多 queue.max-parallel 个同时备份
+        backupQueue.setMaxParallel(getConfig().getInt("queue.max-parallel", 2));
+        profiles = BackupProfile.fromConfig(getConfig(), log);
+        for (BackupProfile profile : profiles) {
+            if (profile.isDefault() || profile.intervalSeconds <= 0) continue;
+            long periodMillis = TimeUnit.SECONDS.toMillis(profile.intervalSeconds);
+            profileNextRun.put(profile.name, System.currentTimeMillis() + periodMillis);
+            profileTasks.add(Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+                profileNextRun.put(profile.name, System.currentTimeMillis() + periodMillis);
+                runBackupNow(null, profile.name);
+            }, 20L * profile.intervalSeconds, Math.max(20L, 20L * profile.intervalSeconds)));
+            log.info("档案 " + profile.name + "：每隔 " + profile.intervalSeconds + " 秒自动备份（优先级 " + profile.priority + "）："
+                    + profile.config.getStringList("target-save-paths"));
+        }
 
         int intervalSeconds = getIntervalSecondsFromConfig();
         if (intervalSeconds <= 0) {
@@ -68,14 +241,19 @@ public class EasyBackUp extends JavaPlugin {
             return;
         }
 
-        long periodTicks = Math.max(20L, 20L * intervalSeconds);
-        nextRunAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(intervalSeconds);
-        scheduledTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
-            // 每次开始前更新下一次时间（近似）
-            int sec = getIntervalSecondsFromConfig();
-            nextRunAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.max(1, sec));
-            runBackupNow(null);
-        }, 0L, periodTicks);
+        journal = new BackupTask(this).openJournal();
+        if (journal != null) {
+            scheduleChangeDriven(intervalSeconds);
+        } else {
+            long periodTicks = Math.max(20L, 20L * intervalSeconds);
+            nextRunAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(intervalSeconds);
+            scheduledTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+                // 每次开始前更新下一次时间（近似）
+                int sec = getIntervalSecondsFromConfig();
+                nextRunAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.max(1, sec));
+                runBackupNow(null);
+            }, 0L, periodTicks);
+        }
 
         List<String> targets = getConfig().getStringList("target-save-paths");
         if (targets == null || targets.isEmpty()) {
@@ -85,10 +263,60 @@ public class EasyBackUp extends JavaPlugin {
         log.info("计划每隔 " + intervalSeconds + " 秒自动备份：" + targets);
     }
 
+    /**
+     * 变更驱动：每隔 schedule.check-interval 检查一次变更日志。到了 interval 且有变化才备份，没有变化就跳过这一轮；
+     * 变更量达到 schedule.dirty-threshold-mb 时，只要距上次备份超过 schedule.min-interval 就提前备份。
+     */
+    private void scheduleChangeDriven(int intervalSeconds) {
+        long intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        long minMillis = TimeUnit.SECONDS.toMillis(BackupTask.safeParseDurationSeconds(getConfig().getString("schedule.min-interval", "10M")));
+        long thresholdBytes = getConfig().getLong("schedule.dirty-threshold-mb", 512L) * 1024L * 1024L;
+        long checkTicks = Math.max(20L, 20L * BackupTask.safeParseDurationSeconds(getConfig().getString("schedule.check-interval", "1M")));
+        ChangeJournal current = journal;
+        // 与固定间隔一样启用后立即备份一次，建立变更日志的基准
+        lastScheduledAt = 0L;
+        nextRunAtMillis = System.currentTimeMillis();
+        scheduledTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            long now = System.currentTimeMillis();
+            long elapsed = now - lastScheduledAt;
+            boolean due = elapsed >= intervalMillis;
+            boolean early = thresholdBytes > 0 && elapsed >= minMillis && current.dirtyBytes() >= thresholdBytes;
+            if (!due && !early) return;
+            lastScheduledAt = now;
+            nextRunAtMillis = now + intervalMillis;
+            if (current.hasChanges()) {
+                if (early && !due) log.info("变更量已达 " + bytesToHuman(current.dirtyBytes()) + "，提前备份。");
+                runBackupNow(null);
+            } else {
+                log.info("自上次备份以来目标没有变化，跳过本次自动备份。");
+            }
+        }, 0L, checkTicks);
+        log.info("变更驱动备份已启用（" + (current.isWatching() ? "监视文件系统事件" : "轮询修改时间") + "）。");
+    }
+
+    /** 某个归档目录的备份目录记录（按目录与扩展名缓存，首次访问时载入）。 */
+    public BackupCatalog getCatalog(File dir, List<String> suffixes) {
+        return catalogs.computeIfAbsent(dir.getAbsolutePath() + "|" + String.join(",", suffixes),
+                k -> BackupCatalog.open(dir, suffixes, getLogger()));
+    }
+
+    /** 已载入的备份目录记录；尚未载入时返回 null，不阻塞调用线程。 */
+    BackupCatalog getLoadedCatalog(File dir, List<String> suffixes) {
+        return catalogs.get(dir.getAbsolutePath() + "|" + String.join(",", suffixes));
+    }
+
     public void setLastBackupInfo(LastBackupInfo info) {
         this.lastBackupInfo = info;
     }
 
+    private static String formatTime(long millis) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(millis));
+    }
+
+    static String millisToHuman(long millis) {
+        return millis < 0 ? "-" : millis < 10_000 ? millis + "ms" : new DecimalFormat("0.0").format(millis / 1000.0) + "s";
+    }
+
     private static String bytesToHuman(long bytes) {
         if (bytes < 1024) return bytes + " B";
         double kb = bytes / 1024.0;
@@ -100,41 +328,98 @@ public class EasyBackUp extends JavaPlugin {
     }
 
     public void runBackupNow(CommandSender initiator) {
-        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
-            if (isBackingUp) {
-                if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 备份正在进行中，请稍候...");
-                return;
-            }
-            synchronized (backupLock) {
-                if (isBackingUp) {
-                    if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 备份正在进行中，请稍候...");
-                    return;
-                }
-                isBackingUp = true;
-            }
-            if (initiator != null) initiator.sendMessage("§a[EasyBackUp] 开始备份...");
-            BackupTask task = new BackupTask(this);
-            long start = System.currentTimeMillis();
-            BackupTask.Result result = task.runOnce();
-            long dur = System.currentTimeMillis() - start;
-            setLastBackupInfo(new LastBackupInfo(System.currentTimeMillis(), result.success, result.filesCount, result.totalBytes, dur, result.message));
-
-            String summary = (result.success ? "§a备份完成" : "§c备份失败") +
-                    "，文件数: " + result.filesCount +
-                    "，压缩包大小: " + bytesToHuman(result.totalBytes) +
-                    "，耗时: " + (dur / 1000.0) + "s";
-            if (initiator != null) initiator.sendMessage("§a[EasyBackUp] " + summary);
-            log.info("[EasyBackUp] " + summary);
-            isBackingUp = false;
+        runBackupNow(initiator, BackupProfile.DEFAULT);
+    }
+
+    /** 把一个档案的备份放入队列；同一档案已在排队时合并，正在运行时提示稍候。 */
+    void runBackupNow(CommandSender initiator, String profileName) {
+        BackupProfile profile = BackupProfile.find(profiles, profileName);
+        if (profile == null) {
+            if (initiator != null) initiator.sendMessage("§c[EasyBackUp] 没有名为 " + profileName + " 的备份档案。");
+            return;
+        }
+        if (isRestoring) {
+            if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 正在还原，本次备份跳过。");
+            return;
+        }
+        String label = profile.isDefault() ? "" : "（" + profile.name + "）";
+        BackupQueue.Outcome outcome = backupQueue.submit(profile.name, profile.priority,
+                initiator != null ? initiator::sendMessage : null, job -> runJob(profile, job));
+        switch (outcome) {
+            case RUNNING:
+                if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 备份" + label + "正在进行中，请稍候...");
+                break;
+            case MERGED:
+                if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 备份" + label + "已在队列中，开始与完成时会通知你。");
+                break;
+            case QUEUED:
+                if (initiator != null) initiator.sendMessage("§e[EasyBackUp] 备份" + label + "已加入队列，前面还有 "
+                        + backupQueue.position(profile.name) + " 个任务。");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void runJob(BackupProfile profile, BackupQueue.Job job) {
+        String label = profile.isDefault() ? "" : "（" + profile.name + "）";
+        if (isRestoring) {
+            job.notify("§e[EasyBackUp] 正在还原，本次备份" + label + "跳过。");
+            return;
+        }
+        long waited = job.waitMillis(job.startedAt());
+        if (waited >= 1000L) log.info("备份" + label + "排队等待了 " + millisToHuman(waited) + "。");
+        job.notify("§a[EasyBackUp] 开始备份" + label + "...");
+        BackupTask task = new BackupTask(this, profile);
+        long start = System.currentTimeMillis();
+        BackupTask.Result result = task.runOnce();
+        long dur = System.currentTimeMillis() - start;
+        if (profile.isDefault()) {
+            setLastBackupInfo(new LastBackupInfo(System.currentTimeMillis(), result.success, result.filesCount, result.totalBytes, dur, result.message, result.saveDisabledMillis));
+        }
+
+        String summary = (result.success ? "§a备份" + label + "完成" : "§c备份" + label + "失败") +
+                "，文件数: " + result.filesCount +
+                "，压缩包大小: " + bytesToHuman(result.totalBytes) +
+                "，耗时: " + (dur / 1000.0) + "s";
+        job.notify("§a[EasyBackUp] " + summary);
+        log.info("[EasyBackUp] " + summary);
+    }
+
+    /** 在主线程执行一条控制台命令，结果为主线程耗时（毫秒）。 */
+    Future<Long> dispatchSync(String command) {
+        return Bukkit.getScheduler().callSyncMethod(this, (Callable<Long>) () -> {
+            long start = System.nanoTime();
+            Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+            return (System.nanoTime() - start) / 1_000_000L;
         });
     }
 
+    SaveCoordinator getSaveCoordinator() {
+        return saveCoordinator;
+    }
+
+    /**
+     * 多个档案同时备份时按持有数开关自动保存：第一个开始的执行 save-off，最后一个结束的执行 save-on，
+     * 免得先结束的备份在别的备份读取世界时重新打开自动保存。返回主线程耗时（未执行命令时为 0）。
+     */
+    long holdSaves(boolean hold) throws ExecutionException, InterruptedException {
+        Future<Long> future;
+        synchronized (this) {
+            // 在锁内提交，保证 save-off / save-on 按计数变化的顺序在主线程执行
+            if (hold ? saveHolds++ > 0 : --saveHolds > 0) return 0L;
+            if (saveHolds < 0) saveHolds = 0;
+            future = dispatchSync(hold ? "save-off" : "save-on");
+        }
+        return future.get();
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (!Objects.equals(command.getName(), "ebu")) return false;
 
         if (args.length == 0) {
-            sender.sendMessage("§e用法: /ebu now|status|reload|set <key> <value>");
+            sender.sendMessage("§e用法: /ebu now|status|list|stats|verify|restore|reload|set <key> <value>");
             return true;
         }
 
@@ -146,21 +431,32 @@ public class EasyBackUp extends JavaPlugin {
                     sender.sendMessage("§c你没有权限执行此命令。");
                     return true;
                 }
-                runBackupNow(sender);
+                runBackupNow(sender, args.length >= 2 ? args[1] : BackupProfile.DEFAULT);
                 return true;
             case "status":
                 if (!sender.hasPermission("ebu.status")) {
                     sender.sendMessage("§c你没有权限。");
                     return true;
                 }
-                if (lastBackupInfo == null) {
-                    sender.sendMessage("§e暂无备份记录。");
-                } else {
-                    sender.sendMessage("§a上次备份: " + (lastBackupInfo.success ? "成功" : "失败"));
-                    sender.sendMessage("§7文件数: " + lastBackupInfo.filesCount + ", 大小: " + bytesToHuman(lastBackupInfo.totalBytes) + ", 用时: " + (lastBackupInfo.durationMillis/1000.0) + "s");
+                // 备份目录记录可能尚未载入（需要扫描目录、读取清单），可用空间在网络文件系统上也可能很慢：都放到异步线程，
+                // 队列与调度状态在主线程取好，最后回到主线程一起发送
+                List<String> tail = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                for (BackupQueue.Job job : backupQueue.runningJobs()) {
+                    tail.add("§6正在备份: " + job.key + "（已运行 " + millisToHuman(now - job.startedAt()) + "）");
                 }
-                if (isBackingUp) {
-                    sender.sendMessage("§6当前状态: 正在备份中...");
+                List<BackupQueue.Job> waiting = backupQueue.pendingJobs();
+                if (!waiting.isEmpty()) {
+                    StringBuilder sb = new StringBuilder("§7排队中 " + waiting.size() + " 个:");
+                    for (BackupQueue.Job job : waiting) {
+                        sb.append(' ').append(job.key).append("（优先级 ").append(job.priority())
+                                .append("，已等待 ").append(millisToHuman(job.waitMillis(now))).append('）');
+                    }
+                    tail.add(sb.toString());
+                }
+                if (backupQueue.averageWaitMillis() >= 0) {
+                    tail.add("§7排队等待: 平均 " + millisToHuman(backupQueue.averageWaitMillis())
+                            + "，最长 " + millisToHuman(backupQueue.maxWaitMillis()));
                 }
                 if (nextRunAtMillis > 0) {
                     long left = nextRunAtMillis - System.currentTimeMillis();
@@ -168,10 +464,125 @@ public class EasyBackUp extends JavaPlugin {
                     long h = TimeUnit.MILLISECONDS.toHours(left);
                     long m = TimeUnit.MILLISECONDS.toMinutes(left - TimeUnit.HOURS.toMillis(h));
                     long s = TimeUnit.MILLISECONDS.toSeconds(left - TimeUnit.HOURS.toMillis(h) - TimeUnit.MINUTES.toMillis(m));
-                    sender.sendMessage("§7距离下次自动备份还有: " + h + "h " + m + "m " + s + "s");
+                    tail.add("§7距离下次自动备份还有: " + h + "h " + m + "m " + s + "s");
                 } else {
-                    sender.sendMessage("§7自动备份: 已关闭");
+                    tail.add("§7自动备份: 已关闭");
+                }
+                for (BackupProfile profile : profiles) {
+                    Long next = profileNextRun.get(profile.name);
+                    if (next != null) {
+                        tail.add("§7档案 " + profile.name + " 下次备份: " + formatTime(next));
+                    }
+                }
+                ChangeJournal j = journal;
+                if (j != null) {
+                    tail.add("§7变更日志（" + (j.isWatching() ? "监视" : "轮询") + "）: "
+                            + (j.hasChanges() && j.dirtyCount() == 0 ? "等待完整扫描" : j.dirtyCount() + " 个路径变更，约 " + bytesToHuman(j.dirtyBytes())));
+                }
+                Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                    List<String> out = new ArrayList<>();
+                    BackupCatalog catalog = new BackupTask(this).openCatalog();
+                    if (lastBackupInfo == null) {
+                        // 重启后内存中没有上次备份的信息：从备份目录记录中取最新一条
+                        BackupCatalog.Entry latest = catalog.latest();
+                        if (latest == null) {
+                            out.add("§e暂无备份记录。");
+                        } else {
+                            out.add("§a上次备份: " + latest.name + "（" + formatTime(latest.timestamp) + "）");
+                            out.add("§7文件数: " + (latest.files >= 0 ? latest.files : "未知") + ", 大小: " + bytesToHuman(latest.size)
+                                    + (latest.durationMillis >= 0 ? ", 用时: " + (latest.durationMillis / 1000.0) + "s" : ""));
+                            out.add("§7校验: " + verifyStatus(catalog, latest));
+                        }
+                    } else {
+                        out.add("§a上次备份: " + (lastBackupInfo.success ? "成功" : "失败"));
+                        out.add("§7文件数: " + lastBackupInfo.filesCount + ", 大小: " + bytesToHuman(lastBackupInfo.totalBytes) + ", 用时: " + (lastBackupInfo.durationMillis/1000.0) + "s");
+                        out.add("§7自动保存关闭时长: " + (lastBackupInfo.saveDisabledMillis/1000.0) + "s");
+                        BackupCatalog.Entry latest = catalog.latest();
+                        if (latest != null) out.add("§7最新备份校验: " + verifyStatus(catalog, latest));
+                    }
+                    BackupMetrics.Run lastRun = metrics.last();
+                    if (lastRun != null && lastRun.predictedMillis >= 0) {
+                        out.add("§7压缩级别: 自动选择 " + lastRun.tunedLevel + "（预测归档 " + millisToHuman(lastRun.predictedMillis)
+                                + "，实际 " + millisToHuman(lastRun.phase("archive")) + "）");
+                    }
+                    int corruptCount = 0;
+                    for (BackupCatalog.Entry e : catalog.list()) if (e.isCorrupt()) corruptCount++;
+                    if (corruptCount > 0) out.add("§c有 " + corruptCount + " 个备份未通过校验，下次清理时删除。");
+                    out.add("§7现有备份: " + catalog.size() + " 个，共 " + bytesToHuman(catalog.totalBytes()));
+                    if (reaper.getPendingCount() > 0) {
+                        out.add("§7后台删除中: " + reaper.getPendingCount() + " 个旧备份，待释放 " + bytesToHuman(reaper.getPendingBytes()));
+                    }
+                    out.add("§7输出目录可用空间: " + bytesToHuman(catalog.getDir().getUsableSpace()));
+                    out.addAll(tail);
+                    sendLater(sender, out);
+                });
+                return true;
+            case "list":
+                if (!sender.hasPermission("ebu.list")) {
+                    sender.sendMessage("§c你没有权限。");
+                    return true;
+                }
+                int limit = 10;
+                if (args.length >= 2) {
+                    try {
+                        limit = Math.max(1, Integer.parseInt(args[1]));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage("§e用法: /ebu list [数量]");
+                        return true;
+                    }
+                }
+                int shown = limit;
+                Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                    List<BackupCatalog.Entry> entries = new BackupTask(this).openCatalog().list();
+                    if (entries.isEmpty()) {
+                        sendLater(sender, List.of("§e暂无备份记录。"));
+                        return;
+                    }
+                    List<String> out = new ArrayList<>();
+                    out.add("§a共 " + entries.size() + " 个备份，最近 " + Math.min(shown, entries.size()) + " 个：");
+                    for (int i = 0; i < Math.min(shown, entries.size()); i++) {
+                        BackupCatalog.Entry e = entries.get(i);
+                        out.add("§7" + formatTime(e.timestamp) + "  " + bytesToHuman(e.size)
+                                + (e.files >= 0 ? "  " + e.files + " 个文件" : "")
+                                + (e.durationMillis >= 0 ? "  " + (e.durationMillis / 1000.0) + "s" : "")
+                                + ("-".equals(e.tier) ? "" : "  [" + e.tier + "]")
+                                + (e.isCorrupt() ? "  §c[损坏]" : BackupCatalog.VERIFIED_OK.equals(e.verified) ? "  [已校验]" : ""));
+                    }
+                    sendLater(sender, out);
+                });
+                return true;
+            case "stats":
+                if (!sender.hasPermission("ebu.stats")) {
+                    sender.sendMessage("§c你没有权限。");
+                    return true;
+                }
+                sendStats(sender);
+                return true;
+            case "verify":
+                if (!sender.hasPermission("ebu.verify")) {
+                    sender.sendMessage("§c你没有权限。");
+                    return true;
+                }
+                String which = args.length >= 2 ? args[1] : "latest";
+                Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                    BackupCatalog verifyCatalog = new BackupTask(this).openCatalog();
+                    BackupCatalog.Entry target = findBackup(verifyCatalog, which);
+                    if (target == null) {
+                        sendLater(sender, List.of("§c找不到备份: " + which + "（用 /ebu list 查看）"));
+                        return;
+                    }
+                    sendLater(sender, List.of("§a已加入后台校验队列: " + target.name));
+                    verifier.submit(verifyCatalog, target.name, r -> sendLater(sender, List.of(r.ok
+                            ? "§a校验通过: " + target.name + "（" + r.entries + " 项，" + millisToHuman(r.durationMillis) + "）"
+                            : "§c校验失败: " + target.name + " - " + r.message)));
+                });
+                return true;
+            case "restore":
+                if (!sender.hasPermission("ebu.restore")) {
+                    sender.sendMessage("§c你没有权限。");
+                    return true;
                 }
+                handleRestore(sender, args);
                 return true;
             case "reload":
                 if (!sender.hasPermission("ebu.reload")) {
@@ -180,6 +591,9 @@ public class EasyBackUp extends JavaPlugin {
                 }
                 reloadConfig();
                 scheduleFromConfig();
+                applyMetricsConfig();
+                verifier.setCipher(readCipher());
+                reaper.configure(getConfig());
                 sender.sendMessage("§a配置已重载并应用。");
                 return true;
             case "set":
@@ -232,17 +646,201 @@ public class EasyBackUp extends JavaPlugin {
                         return true;
                 }
             default:
-                sender.sendMessage("§e未知子命令。用法: /ebu now|status|reload|set <key> <value>");
+                sender.sendMessage("§e未知子命令。用法: /ebu now|status|list|stats|verify|restore|reload|set <key> <value>");
                 return true;
         }
     }
 
+    /**
+     * /ebu restore &lt;名称|latest&gt; [路径...] 先列出计划，/ebu restore confirm 执行，/ebu restore cancel 取消。
+     * 解压在异步线程进行；涉及已加载的世界时只暂存，下次启动（世界加载前）再替换。
+     */
+    private void handleRestore(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage("§e用法: /ebu restore <备份名|latest> [路径...] ，然后 /ebu restore confirm；/ebu restore cancel 取消");
+            sender.sendMessage("§7路径: world | world/region/r.0.0.mca | world/region/r.*.-1.mca | world@1200,-340");
+            return;
+        }
+        File serverRoot = new BackupTask(this).resolveServerRoot();
+        String action = args[1].toLowerCase();
+        if ("cancel".equals(action) || "取消".equals(action)) {
+            boolean had = pendingRestores.remove(sender.getName()) != null;
+            try {
+                if (RestoreEngine.cancelPending(serverRoot)) {
+                    had = true;
+                    sender.sendMessage("§a已取消等待重启执行的还原，暂存内容已删除。");
+                }
+            } catch (IOException e) {
+                sender.sendMessage("§c取消失败: " + e.getMessage());
+                return;
+            }
+            sender.sendMessage(had ? "§a已取消还原。" : "§e没有待执行的还原。");
+            return;
+        }
+        if ("confirm".equals(action) || "确认".equals(action)) {
+            PendingRestore pending = pendingRestores.remove(sender.getName());
+            if (pending == null || pending.expiresAt < System.currentTimeMillis()) {
+                sender.sendMessage("§e没有待确认的还原（或已超过 60 秒），请重新执行 /ebu restore。");
+                return;
+            }
+            if (!backupQueue.isIdle() || isRestoring) {
+                sender.sendMessage("§e正在备份或还原，请稍后再试。");
+                return;
+            }
+            isRestoring = true;
+            // 已加载的世界目录（相对服务器根目录），只能在主线程读取
+            List<String> loadedWorlds = new ArrayList<>();
+            for (org.bukkit.World w : Bukkit.getWorlds()) {
+                loadedWorlds.add(serverRoot.toPath().relativize(w.getWorldFolder().getAbsoluteFile().toPath()).toString().replace('\\', '/'));
+            }
+            Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                try {
+                    runRestore(sender, serverRoot, pending.plan, loadedWorlds);
+                } finally {
+                    isRestoring = false;
+                }
+            });
+            return;
+        }
+
+        List<String> selectors = new ArrayList<>(java.util.Arrays.asList(args).subList(2, args.length));
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            BackupCatalog catalog = new BackupTask(this).openCatalog();
+            BackupCatalog.Entry entry = findBackup(catalog, args[1]);
+            if (entry == null) {
+                sendLater(sender, List.of("§c找不到备份: " + args[1] + "（用 /ebu list 查看）"));
+                return;
+            }
+            List<String> out = new ArrayList<>();
+            try {
+                RestoreEngine.Plan plan = restoreEngine(serverRoot).plan(new File(catalog.getDir(), entry.name), selectors);
+                pendingRestores.put(sender.getName(), new PendingRestore(plan, System.currentTimeMillis() + 60_000L));
+                out.add("§a还原计划: " + entry.name + "（" + formatTime(entry.timestamp) + "）");
+                if (entry.isCorrupt()) out.add("§c注意：此备份未通过校验，部分文件可能无法还原。");
+                if (plan.isIndexed()) {
+                    out.add("§7" + plan.entries.size() + " 个文件，" + bytesToHuman(plan.bytes) + "，替换: " + plan.units);
+                } else {
+                    out.add("§7" + plan.codec.id + " 归档需要完整读一遍，替换的内容在解压后确定。");
+                }
+                out.add("§e60 秒内执行 /ebu restore confirm 确认；被替换的内容会保留在 " + RestoreEngine.WORK_DIR + " 中。");
+            } catch (IOException | IllegalArgumentException e) {
+                out.add("§c无法还原: " + e.getMessage());
+            }
+            sendLater(sender, out);
+        });
+    }
+
+    /** 在异步线程解压并替换；进度消息交回主线程发送。 */
+    private void runRestore(CommandSender sender, File serverRoot, RestoreEngine.Plan plan, List<String> loadedWorlds) {
+        RestoreEngine engine = restoreEngine(serverRoot);
+        try {
+            long start = System.currentTimeMillis();
+            sendLater(sender, List.of("§a[EasyBackUp] 开始解压 " + plan.archive.getName() + " ..."));
+            RestoreEngine.Staged staged = engine.extract(plan);
+            sendLater(sender, List.of("§a[EasyBackUp] 已解压 " + staged.files + " 个文件（" + bytesToHuman(staged.bytes) + "），用时 "
+                    + millisToHuman(System.currentTimeMillis() - start)));
+            List<String> busy = new ArrayList<>();
+            for (String unit : staged.units) {
+                for (String world : loadedWorlds) {
+                    if (unit.equals(world) || unit.startsWith(world + "/") || world.startsWith(unit + "/")) busy.add(world);
+                }
+            }
+            if (busy.isEmpty()) {
+                engine.swap(staged);
+                sendLater(sender, List.of("§a[EasyBackUp] 还原完成: " + staged.units + "；原有内容在 " + staged.oldDir()));
+            } else {
+                engine.schedule(staged);
+                sendLater(sender, List.of("§e[EasyBackUp] 世界 " + busy + " 正在使用，已暂存；重启服务器后自动替换（/ebu restore cancel 可取消）。"));
+            }
+        } catch (IOException e) {
+            log.severe("还原失败: " + e.getMessage());
+            sendLater(sender, List.of("§c[EasyBackUp] 还原失败: " + e.getMessage()));
+        }
+    }
+
+    private RestoreEngine restoreEngine(File serverRoot) {
+        int threads = getConfig().getInt("restore.threads", 0);
+        RestoreEngine engine = new RestoreEngine(serverRoot, threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), getLogger());
+        engine.setCipher(readCipher());
+        return engine;
+    }
+
+    /** 解密已有备份用的密钥（关闭加密后仍能还原以前加密的备份）；密钥文件不存在时为 null。 */
+    private ArchiveCipher readCipher() {
+        try {
+            return ArchiveCipher.fromConfig(getConfig(), getDataFolder(), getLogger(), false);
+        } catch (IOException e) {
+            getLogger().warning("无法读取加密密钥，加密的备份将无法校验与还原: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String verifyStatus(BackupCatalog catalog, BackupCatalog.Entry e) {
+        if (e.isCorrupt()) return "§c未通过";
+        if (BackupCatalog.VERIFIED_OK.equals(e.verified)) return "§a通过";
+        return verifier.isPending(new File(catalog.getDir(), e.name)) ? "校验中" : "未校验";
+    }
+
+    /** latest、完整名称，或名称中唯一包含的片段（如 2024-05-01_12）。 */
+    private static BackupCatalog.Entry findBackup(BackupCatalog catalog, String query) {
+        if ("latest".equalsIgnoreCase(query) || "最新".equals(query)) return catalog.latest();
+        BackupCatalog.Entry exact = catalog.get(query);
+        if (exact != null) return exact;
+        BackupCatalog.Entry found = null;
+        for (BackupCatalog.Entry e : catalog.list()) {
+            if (e.name.contains(query)) {
+                if (found != null) return null;
+                found = e;
+            }
+        }
+        return found;
+    }
+
+    /** 从异步线程把消息交回主线程发送。 */
+    private void sendLater(CommandSender sender, List<String> lines) {
+        Bukkit.getScheduler().runTask(this, () -> {
+            for (String line : lines) sender.sendMessage(line);
+        });
+    }
+
+    /** /ebu stats：最近一次备份的分阶段指标，以及历史中成功备份的 p50 / p90 / 最大值。 */
+    private void sendStats(CommandSender sender) {
+        BackupMetrics.Run last = metrics.last();
+        if (last == null) {
+            sender.sendMessage("§e暂无备份指标。");
+            return;
+        }
+        sender.sendMessage("§a最近一次备份: " + formatTime(last.startedAt) + "，" + (last.success ? "成功" : "失败")
+                + "，用时 " + millisToHuman(last.durationMillis));
+        sender.sendMessage("§7阶段: " + BackupTask.formatPhases(last));
+        sender.sendMessage("§7读取 " + bytesToHuman(last.bytesRead) + "，写出 " + bytesToHuman(last.bytesWritten)
+                + "，吞吐 " + new DecimalFormat("0.0").format(last.throughputMBps()) + " MB/s"
+                + "，压缩比 " + new DecimalFormat("0.00").format(last.compressionRatio()));
+        sender.sendMessage("§7文件 " + last.files + " 个，跳过 " + last.filesSkipped + " 个；主线程保存命令 "
+                + millisToHuman(last.mainThreadMillis) + "，自动保存关闭 " + millisToHuman(last.saveDisabledMillis));
+
+        List<BackupMetrics.Run> runs = metrics.recent();
+        int ok = 0;
+        for (BackupMetrics.Run r : runs) if (r.success) ok++;
+        sender.sendMessage("§a最近 " + runs.size() + " 次备份（成功 " + ok + " 次）p50 / p90 / 最大:");
+        sender.sendMessage("§7总耗时: " + percentiles(r -> r.durationMillis));
+        for (String phase : BackupMetrics.orderedPhases(runs)) {
+            sender.sendMessage("§7" + phase + ": " + percentiles(r -> r.phase(phase)));
+        }
+    }
+
+    private String percentiles(java.util.function.ToLongFunction<BackupMetrics.Run> metric) {
+        List<String> parts = new ArrayList<>();
+        for (double p : new double[]{0.5, 0.9, 1.0}) parts.add(millisToHuman(metrics.percentile(metric, p)));
+        return String.join(" / ", parts);
+    }
+
     @Override
     public java.util.List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (!Objects.equals(command.getName(), "ebu")) return java.util.Collections.emptyList();
         java.util.List<String> out = new java.util.ArrayList<>();
         if (args.length == 1) {
-            java.util.List<String> subs = java.util.Arrays.asList("now", "status", "reload", "set", "backup", "立即", "状态", "重载", "设置");
+            java.util.List<String> subs = java.util.Arrays.asList("now", "status", "list", "stats", "verify", "restore", "reload", "set", "backup", "立即", "状态", "列表", "统计", "校验", "还原", "重载", "设置");
             for (String s : subs) if (startsWithIgnoreCase(s, args[0])) out.add(s);
             return out;
         }
@@ -253,6 +851,20 @@ public class EasyBackUp extends JavaPlugin {
                 for (String k : keys) if (startsWithIgnoreCase(k, args[1])) out.add(k);
                 return out;
             }
+            if ("now".equals(first)) {
+                for (BackupProfile p : profiles) if (startsWithIgnoreCase(p.name, args[1])) out.add(p.name);
+                return out;
+            }
+            if ("restore".equals(first) || "verify".equals(first)) {
+                java.util.List<String> opts = new java.util.ArrayList<>("restore".equals(first)
+                        ? java.util.Arrays.asList("latest", "confirm", "cancel") : java.util.Collections.singletonList("latest"));
+                // 补全在主线程执行：只用已载入的记录
+                BackupCatalog loaded = new BackupTask(this).loadedCatalog();
+                java.util.List<BackupCatalog.Entry> entries = loaded != null ? loaded.list() : java.util.Collections.emptyList();
+                for (int i = 0; i < Math.min(20, entries.size()); i++) opts.add(entries.get(i).name);
+                for (String o : opts) if (startsWithIgnoreCase(o, args[1])) out.add(o);
+                return out;
+            }
             return java.util.Collections.emptyList();
         }
         if (args.length == 3 && "set".equals(first)) {
@@ -291,6 +903,18 @@ public class EasyBackUp extends JavaPlugin {
             case "状态":
             case "状态查看":
                 return "status";
+            case "列表":
+            case "备份列表":
+                return "list";
+            case "统计":
+            case "性能":
+                return "stats";
+            case "还原":
+            case "恢复":
+                return "restore";
+            case "校验":
+            case "验证":
+                return "verify";
             case "重载":
             case "重载配置":
                 return "reload";
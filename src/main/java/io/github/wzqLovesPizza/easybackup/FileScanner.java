@@ -0,0 +1,289 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 单次遍历的文件扫描器。
+ * <p>
+ * 每个目录由一个 Fork/Join 任务用 {@code Files.walkFileTree(dir, depth=1)} 列出，
+ * 子目录再分叉为新任务并行处理；文件的大小与修改时间直接取自遍历得到的 {@link BasicFileAttributes}，
+ * 条目名由父目录前缀拼接而成。结果是一份不可变的文件清单，供进度统计与归档共同使用。
+ * 排除规则由 {@link PathFilter} 在列出每一项时判断，被排除的目录不会被列出。
+ * <p>
+ * 有 {@link ChangeJournal} 时，{@link #update} 只按变更路径修补上一次的清单，不再遍历整个目标。
+ */
+public class FileScanner {
+
+    /** 扫描得到的一个文件。 */
+    public static final class ScannedFile {
+        public final Path path;
+        public final String entryName;
+        public final long size;
+        public final long lastModified;
+
+        ScannedFile(Path path, String entryName, long size, long lastModified) {
+            this.path = path;
+            this.entryName = entryName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** 扫描结果：按目录顺序排列的文件清单与汇总。 */
+    public static final class ScanResult {
+        public final List<ScannedFile> files;
+        public final long totalBytes;
+        public final long directories;
+        public final long errors;
+        public final long durationMillis;
+
+        ScanResult(List<ScannedFile> files, long directories, long errors, long durationMillis) {
+            this.files = Collections.unmodifiableList(files);
+            long bytes = 0;
+            for (ScannedFile f : files) bytes += f.size;
+            this.totalBytes = bytes;
+            this.directories = directories;
+            this.errors = errors;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    private final Path serverRoot;
+    private final PathFilter filter;
+    private final int parallelism;
+    private final Logger logger;
+
+    private final Set<Object> visitedDirs = ConcurrentHashMap.newKeySet();
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public FileScanner(Path serverRoot, Set<String> excludeDirs, Set<String> excludeFiles, Set<String> excludeExts, int parallelism, Logger logger) {
+        this(serverRoot, new PathFilter(excludeDirs, excludeFiles, excludeExts, null, null), parallelism, logger);
+    }
+
+    FileScanner(Path serverRoot, PathFilter filter, int parallelism, Logger logger) {
+        this.serverRoot = serverRoot.toAbsolutePath().normalize();
+        this.filter = filter;
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+    }
+
+    /** 本扫描器使用的排除规则（含命中计数）。 */
+    PathFilter getFilter() {
+        return filter;
+    }
+
+    public ScanResult scan(List<Path> targets) {
+        long start = System.nanoTime();
+        List<ScannedFile> out = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Path t : targets) {
+                Path abs = t.toAbsolutePath().normalize();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(abs, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    warn("无法读取目标 " + t + ": " + e.getMessage());
+                    continue;
+                }
+                String entry = entryNameOf(abs);
+                if (attrs.isDirectory()) {
+                    PathFilter.Scope scope = enter(abs, true);
+                    if (scope == null) continue;
+                    out.addAll(pool.invoke(new DirTask(abs, entry.isEmpty() ? "" : entry + "/", attrs, scope)));
+                } else if (attrs.isRegularFile()) {
+                    PathFilter.Scope parent = scopeOf(abs.getParent());
+                    if (parent == null || filter.excludesFile(parent, abs.getFileName().toString(), attrs.size(), true)) continue;
+                    out.add(new ScannedFile(abs, entry.isEmpty() ? abs.getFileName().toString() : entry, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new ScanResult(out, directories.get(), errors.get(), (System.nanoTime() - start) / 1_000_000L);
+    }
+
+    /**
+     * 按变更路径更新上一次的扫描结果：变更的文件重新读取属性，变更或新建的目录重新扫描其子树，
+     * 已不存在的路径连同其下的条目一起移除。结果按条目名排序。
+     */
+    public ScanResult update(ScanResult previous, List<Path> targets, Collection<Path> changed) {
+        long start = System.nanoTime();
+        TreeMap<String, ScannedFile> byEntry = new TreeMap<>();
+        for (ScannedFile f : previous.files) byEntry.put(f.entryName, f);
+        List<Path> roots = new ArrayList<>();
+        for (Path t : targets) roots.add(t.toAbsolutePath().normalize());
+        // 排序后父目录先于其中的文件处理
+        TreeSet<Path> paths = new TreeSet<>();
+        for (Path p : changed) paths.add(p.toAbsolutePath().normalize());
+        // 已重新扫描的目录：其下的变更已包含在内（再扫一次会因 visitedDirs 得到空结果）
+        List<Path> rescanned = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Path p : paths) {
+                if (isUnder(rescanned, p)) continue;
+                Path target = null;
+                for (Path r : roots) {
+                    if (p.startsWith(r) && (target == null || r.getNameCount() > target.getNameCount())) target = r;
+                }
+                // 位于被排除的目录中：从未进入清单
+                if (target == null || (!p.equals(serverRoot) && scopeOf(p.getParent()) == null)) continue;
+                String targetEntry = entryNameOf(target);
+                String entry;
+                if (p.equals(target)) {
+                    entry = targetEntry;
+                } else {
+                    String rel = target.relativize(p).toString().replace('\\', '/');
+                    entry = targetEntry.isEmpty() ? rel : targetEntry + "/" + rel;
+                }
+                if (entry.isEmpty()) {
+                    byEntry.clear();
+                } else {
+                    byEntry.remove(entry);
+                    // 以 "/" 的下一个字符 '0' 作上界，取出该目录下的全部条目
+                    byEntry.subMap(entry + "/", entry + "0").clear();
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    warn("无法读取 " + p + ": " + e.getMessage());
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    PathFilter.Scope scope = enter(p, false);
+                    if (scope == null) continue;
+                    for (ScannedFile f : pool.invoke(new DirTask(p, entry.isEmpty() ? "" : entry + "/", attrs, scope))) byEntry.put(f.entryName, f);
+                    rescanned.add(p);
+                } else if (attrs.isRegularFile() && !isExcludedFile(p)) {
+                    String name = entry.isEmpty() ? p.getFileName().toString() : entry;
+                    byEntry.put(name, new ScannedFile(p, name, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new ScanResult(new ArrayList<>(byEntry.values()), directories.get(), errors.get(), (System.nanoTime() - start) / 1_000_000L);
+    }
+
+    private static boolean isUnder(List<Path> dirs, Path p) {
+        for (Path d : dirs) if (p.startsWith(d)) return true;
+        return false;
+    }
+
+    /**
+     * 进入目录 dir 时的规则作用域（从服务器根目录逐级判断，dir 或其祖先被整个排除时为 null）。
+     * 服务器根目录之外的路径只适用名称规则。
+     */
+    private PathFilter.Scope scopeOf(Path dir) {
+        if (dir == null || !dir.startsWith(serverRoot)) return filter.outside();
+        PathFilter.Scope scope = filter.root();
+        for (Path name : serverRoot.relativize(dir)) {
+            if (name.toString().isEmpty()) break;
+            scope = filter.dir(scope, name.toString(), false);
+            if (scope == null) return null;
+        }
+        return scope;
+    }
+
+    /** 单独进入一个目录（扫描目标或变更的目录）；count 为是否计入规则命中。 */
+    private PathFilter.Scope enter(Path dir, boolean count) {
+        Path name = dir.getFileName();
+        if (dir.equals(serverRoot) || name == null) return scopeOf(dir);
+        PathFilter.Scope parent = scopeOf(dir.getParent());
+        return parent == null ? null : filter.dir(parent, name.toString(), count);
+    }
+
+    private final class DirTask extends RecursiveTask<List<ScannedFile>> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final String prefix;
+        private final BasicFileAttributes attrs;
+        private final PathFilter.Scope scope;
+
+        DirTask(Path dir, String prefix, BasicFileAttributes attrs, PathFilter.Scope scope) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.attrs = attrs;
+            this.scope = scope;
+        }
+
+        @Override
+        protected List<ScannedFile> compute() {
+            // 跟随符号链接时用 fileKey 防止目录环
+            Object key = attrs.fileKey();
+            if (key != null && !visitedDirs.add(key)) return Collections.emptyList();
+            directories.incrementAndGet();
+
+            List<ScannedFile> files = new ArrayList<>();
+            TreeMap<String, DirTask> subdirs = new TreeMap<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes a) {
+                        String name = file.getFileName().toString();
+                        if (a.isDirectory()) {
+                            PathFilter.Scope sub = filter.dir(scope, name, true);
+                            if (sub != null) subdirs.put(name, new DirTask(file, prefix + name + "/", a, sub));
+                        } else if (a.isRegularFile() && !filter.excludesFile(scope, name, a.size(), true)) {
+                            files.add(new ScannedFile(file, prefix + name, a.size(), a.lastModifiedTime().toMillis()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        errors.incrementAndGet();
+                        warn("无法访问 " + file + ": " + e.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                warn("无法列出目录 " + dir + ": " + e.getMessage());
+            }
+            files.sort(Comparator.comparing(f -> f.entryName));
+            for (DirTask t : subdirs.values()) t.fork();
+            for (DirTask t : subdirs.values()) files.addAll(t.join());
+            return files;
+        }
+    }
+
+    /** 目录（连同其子树）是否被整个排除。 */
+    boolean isExcludedDir(Path dir) {
+        Path abs = dir.toAbsolutePath().normalize();
+        return abs.getFileName() != null && enter(abs, false) == null;
+    }
+
+    boolean isExcludedFile(Path file) {
+        Path abs = file.toAbsolutePath().normalize();
+        PathFilter.Scope parent = scopeOf(abs.getParent());
+        return parent == null || filter.excludesFile(parent, abs.getFileName().toString(), 0L, false);
+    }
+
+    private String entryNameOf(Path abs) {
+        if (!abs.startsWith(serverRoot)) {
+            Path name = abs.getFileName();
+            return name != null ? name.toString() : "";
+        }
+        String rel = serverRoot.relativize(abs).toString();
+        return rel.replace('\\', '/');
+    }
+
+    private void warn(String msg) {
+        if (logger != null) logger.warning(msg);
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 以 Prometheus 文本格式暴露 {@link BackupMetrics} 的 HTTP 端点（{@code GET /metrics}）。
+ * 默认只监听 127.0.0.1；单个守护线程处理请求，不占用服务器线程。
+ */
+final class MetricsExporter {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private MetricsExporter(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    static MetricsExporter start(String bind, int port, BackupMetrics metrics) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                respond(exchange, metrics.prometheus().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                exchange.close();
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "EasyBackUp-Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        return new MetricsExporter(server, executor);
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(200, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
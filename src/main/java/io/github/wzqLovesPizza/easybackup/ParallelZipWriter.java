@@ -0,0 +1,939 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多线程 ZIP 写出器。
+ * <p>
+ * 每个文件（大文件则按 block-size 切块）交给工作线程独立压缩并计算 CRC，
+ * 调用线程按提交顺序把完成的块写入输出流，最终得到一个标准 ZIP（必要时启用 ZIP64）。
+ * 切块的做法与 pigz 类似：非末块以 SYNC_FLUSH 结束，拼接起来就是一条合法的 deflate 流；
+ * 整条目的 CRC 由各块 CRC 合并得到。与 pigz 不同，这里不用前一块末尾作为预设字典：
+ * 各块是分别读取的，文件若在两次读取之间被改动，字典与实际写出的前文就会不一致，流会损坏；
+ * 对 1 MiB 以上的块而言少了字典只损失很小的压缩率。
+ * <p>
+ * 每个条目的压缩方式由 {@link CompressionPolicy} 决定：已压缩的数据以 STORED 原样写入（CRC 仍由工作线程计算），
+ * 其余按规则选定的级别 deflate。
+ * <p>
+ * 读取走 {@link FileChannel}：普通块读入池化的直接缓冲区，大文件的块直接内存映射；
+ * deflate 输出同样写进池化的直接缓冲区，再经通道写出。稳定状态下每个文件几乎不产生堆分配。
+ * <p>
+ * 设置了上一次的备份（{@link #setPrevious}）时，名称、大小与修改时间都未变的文件直接从旧归档复制已压缩的数据，
+ * 不再读取与压缩（开启校验时仍读取文件核对 CRC，不一致则照常压缩）。结果仍是一个完整、独立的 ZIP。
+ * 为此每个条目的中央目录都带有 NTFS 扩展字段，记录精确到毫秒的修改时间。
+ */
+public class ParallelZipWriter implements ArchiveWriter {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // 预计大小超过此值的多块条目在本地头里预留 ZIP64 字段（给压缩膨胀留出余量）
+    private static final long ZIP64_PLANNED_THRESHOLD = 0xF0000000L;
+    private static final int FLAG_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    // 多块 STORED 条目不超过此大小时先攒齐再写带 CRC 的本地头（ZipInputStream 不支持 STORED + 数据描述符）
+    private static final long STORED_HOLD_LIMIT = 64L * 1024 * 1024;
+    private static final int NTFS_EXTRA_LEN = 4 + 32;
+    // 1601-01-01 到 1970-01-01 的毫秒数
+    private static final long FILETIME_EPOCH_MILLIS = 11644473600000L;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final Logger logger;
+    private final ExecutorService pool;
+    private final boolean ownsPool;
+    private final int blockSize;
+    private final CompressionPolicy policy;
+    private final int maxInFlight;
+    private final ThreadLocal<Deflater[]> deflaters;
+    private final List<Deflater> allDeflaters = new CopyOnWriteArrayList<>();
+    private final ArrayDeque<Future<Block>> inFlight = new ArrayDeque<>();
+    private final List<CentralRecord> central = new ArrayList<>();
+    private final byte[] header = new byte[256];
+    private final BufferPool buffers;
+    private final ByteBuffer sampleBuffer;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private long mmapThreshold = 64L * 1024 * 1024;
+    private volatile BackupThrottle throttle;
+    private ArchiveManifest manifest;
+    private PreviousZip previous;
+    private boolean verifyReused;
+
+    private long offset;
+    private long bytesRead;
+    private long storedEntries;
+    private long storedBytes;
+    private long skippedEntries;
+    private long reusedEntries;
+    private long reusedBytes;
+    private long writeNanos;
+    private CentralRecord current;
+    private final List<Block> held = new ArrayList<>();
+    private boolean closed;
+
+    public ParallelZipWriter(OutputStream out, int threads, int blockSize, CompressionPolicy policy, Logger logger) {
+        this(out, newPool(threads), true, threads, blockSize, policy, logger);
+    }
+
+    ParallelZipWriter(OutputStream out, ExecutorService pool, boolean ownsPool, int threads, int blockSize, CompressionPolicy policy, Logger logger) {
+        this.out = out;
+        this.channel = Channels.newChannel(out);
+        this.logger = logger;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.blockSize = Math.max(64 * 1024, blockSize);
+        this.policy = policy != null ? policy : CompressionPolicy.uniform(Deflater.DEFAULT_COMPRESSION);
+        this.maxInFlight = Math.max(2, threads * 2);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater[11]);
+        // 容量按 deflate 最坏情况的膨胀留出余量，输入与输出共用一种缓冲区
+        this.buffers = new BufferPool(this.blockSize + (this.blockSize >> 6) + 64, this.maxInFlight * 2 + 4);
+        this.sampleBuffer = ByteBuffer.allocateDirect(this.policy.getSampleBytes());
+    }
+
+    /** 不小于此大小的文件按块内存映射读取；0 或负数表示不使用内存映射。 */
+    public void setMmapThreshold(long bytes) {
+        this.mmapThreshold = bytes;
+    }
+
+    /** 按服务器负载限速：提交前申请读取配额，压缩线程受限于允许的并行数。 */
+    void setThrottle(BackupThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void setManifest(ArchiveManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * 沿用上一次备份中未变文件的已压缩数据；写出器关闭时一并关闭 previous。
+     *
+     * @param verifyCrc 读取文件核对 CRC 后才沿用（仍省去压缩），否则只比较大小与修改时间
+     */
+    void setPrevious(PreviousZip previous, boolean verifyCrc) {
+        this.previous = previous;
+        this.verifyReused = verifyCrc;
+    }
+
+    static ExecutorService newPool(int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "EasyBackUp-Deflate-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 解析配置的线程数：0 或负数表示使用全部 CPU 核心。 */
+    static int resolveThreads(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getStoredEntries() {
+        return storedEntries;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /** 从上一次备份原样复制的条目数。 */
+    public long getReusedEntries() {
+        return reusedEntries;
+    }
+
+    /** 从上一次备份原样复制的条目的原始大小之和。 */
+    public long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    /** 因打不开而跳过的文件数。 */
+    @Override
+    public long getSkippedEntries() {
+        return skippedEntries;
+    }
+
+    /** 各压缩线程读取并压缩数据块的耗时之和（不含限速等待）。 */
+    @Override
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    /** 调用线程写出数据（含最终 flush）的累计耗时。 */
+    @Override
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /** 调用线程与压缩线程在本写出器内累计分配的堆内存字节数；JVM 不支持统计时返回 -1。 */
+    public long getAllocatedBytes() {
+        return ALLOCATION_TRACKING ? allocatedBytes.get() : -1L;
+    }
+
+    /** 累计新分配的直接缓冲区个数（稳定状态下不再增长）。 */
+    public long getDirectBuffersAllocated() {
+        return buffers.getAllocated();
+    }
+
+    public void addFile(String entryName, File file) throws IOException {
+        addFile(entryName, file, file.length(), file.lastModified());
+    }
+
+    /**
+     * 提交一个文件。方法可能阻塞，以便把在途块数量限制在 threads*2 以内。
+     * 文件在读取第一块时就打不开（被锁定/已删除）会记录警告并跳过，不写入任何内容；
+     * 写到一半才出错则抛出 IOException，整个压缩包作废。
+     */
+    @Override
+    public void addFile(String entryName, File file, long size, long lastModified) throws IOException {
+        long allocStart = threadAllocatedBytes();
+        try {
+            submitFile(entryName, file, size, lastModified);
+        } finally {
+            allocatedBytes.addAndGet(threadAllocatedBytes() - allocStart);
+        }
+    }
+
+    private void submitFile(String entryName, File file, long size, long lastModified) throws IOException {
+        int blocks = size <= blockSize ? 1 : (int) ((size + blockSize - 1) / blockSize);
+        PreviousZip.Entry old = previous != null ? previous.find(entryName, size, lastModified) : null;
+        if (old != null) {
+            PendingEntry entry = new PendingEntry(entryName, file, lastModified, size, blocks, policy.levelForPath(entryName));
+            entry.reuse = old;
+            while (inFlight.size() >= maxInFlight) drainOne();
+            if (throttle != null) {
+                drainCompleted();
+                throttle.acquire(verifyReused ? size : old.compressedSize);
+            }
+            inFlight.add(verifyReused ? pool.submit(() -> checkReused(entry))
+                    : CompletableFuture.completedFuture(new Block(entry, false)));
+            drainCompleted();
+            return;
+        }
+        Integer level = policy.levelForPath(entryName);
+        if (level == null && blocks > 1) {
+            // 多块条目的方式必须在切块前确定：在调用线程读一小段样本
+            level = policy.shouldSample(size) ? sampleLevel(file) : policy.getDefaultLevel();
+        }
+        PendingEntry entry = new PendingEntry(entryName, file, lastModified, size, blocks, level);
+        for (int i = 0; i < blocks; i++) {
+            long start = (long) i * blockSize;
+            int len = (int) Math.min(blockSize, Math.max(0, size - start));
+            final int index = i;
+            while (inFlight.size() >= maxInFlight) drainOne();
+            if (throttle != null) {
+                // 等待配额前先写出已完成的块
+                drainCompleted();
+                throttle.acquire(len);
+            }
+            inFlight.add(pool.submit(() -> compressBlock(entry, index, start, len)));
+        }
+        drainCompleted();
+    }
+
+    private int sampleLevel(File file) {
+        ByteBuffer sample = sampleBuffer;
+        sample.clear();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (sample.hasRemaining() && ch.read(sample) > 0) {
+                // 读满样本或到达文件末尾
+            }
+        } catch (IOException e) {
+            // 打不开的文件交给第一块任务报告并跳过
+            return policy.getDefaultLevel();
+        }
+        sample.flip();
+        return policy.levelForSample(sample);
+    }
+
+    /** 读取整个文件核对 CRC：与旧条目一致时可以沿用，否则标记为已改变（由写出线程重新压缩）。 */
+    private Block checkReused(PendingEntry entry) {
+        long allocStart = threadAllocatedBytes();
+        BackupThrottle t = throttle;
+        ByteBuffer buf = buffers.acquire();
+        try {
+            if (t != null) t.beginWork();
+            long workStart = System.nanoTime();
+            try (FileChannel ch = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+                CRC32 crc = new CRC32();
+                long pos = 0;
+                while (true) {
+                    buf.clear();
+                    int n = ch.read(buf, pos);
+                    if (n < 0) break;
+                    buf.flip();
+                    crc.update(buf);
+                    pos += n;
+                }
+                return new Block(entry, pos != entry.reuse.size || crc.getValue() != entry.reuse.crc);
+            } finally {
+                compressNanos.addAndGet(System.nanoTime() - workStart);
+                if (t != null) t.endWork();
+            }
+        } catch (IOException e) {
+            return new Block(entry, 0, e);
+        } finally {
+            buffers.release(buf);
+            allocatedBytes.addAndGet(threadAllocatedBytes() - allocStart);
+        }
+    }
+
+    private Block compressBlock(PendingEntry entry, int index, long start, int len) {
+        long allocStart = threadAllocatedBytes();
+        BackupThrottle t = throttle;
+        try {
+            if (t != null) t.beginWork();
+            long workStart = System.nanoTime();
+            try {
+                return doCompressBlock(entry, index, start, len);
+            } finally {
+                compressNanos.addAndGet(System.nanoTime() - workStart);
+                if (t != null) t.endWork();
+            }
+        } catch (IOException e) {
+            return new Block(entry, index, e);
+        } catch (InternalError e) {
+            // 映射区域所在的文件被截短时，访问映射内存会以 InternalError 的形式报告
+            return new Block(entry, index, new IOException("文件在读取期间被截短: " + e.getMessage(), e));
+        } finally {
+            allocatedBytes.addAndGet(threadAllocatedBytes() - allocStart);
+        }
+    }
+
+    private Block doCompressBlock(PendingEntry entry, int index, long start, int len) throws IOException {
+        boolean last = index == entry.blockCount - 1;
+        ByteBuffer in;
+        boolean pooled;
+        try (FileChannel ch = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+            if (mmapThreshold > 0 && entry.plannedSize >= mmapThreshold) {
+                // 文件在备份期间变短：只映射仍然存在的部分
+                long avail = Math.max(0L, Math.min(len, ch.size() - start));
+                in = ch.map(FileChannel.MapMode.READ_ONLY, start, avail);
+                pooled = false;
+            } else {
+                in = buffers.acquire();
+                pooled = true;
+                try {
+                    in.limit(len);
+                    while (in.hasRemaining()) {
+                        if (ch.read(in, start + in.position()) < 0) break; // 文件在备份期间变短：按实际读到的内容写入
+                    }
+                } catch (IOException e) {
+                    buffers.release(in);
+                    throw e;
+                }
+                in.flip();
+            }
+        }
+        int dataLen = in.remaining();
+
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+
+        int level;
+        if (entry.level != null) {
+            level = entry.level;
+        } else {
+            // 单块条目：数据已在内存里，直接拿它采样
+            level = policy.shouldSample(dataLen) ? policy.levelForSample(in) : policy.getDefaultLevel();
+        }
+        if (level == CompressionPolicy.STORE) {
+            return new Block(entry, index, in, pooled, dataLen, crc.getValue(), METHOD_STORED);
+        }
+
+        Deflater[] perLevel = deflaters.get();
+        Deflater d = perLevel[level + 1];
+        if (d == null) {
+            d = new Deflater(level, true);
+            perLevel[level + 1] = d;
+            allDeflaters.add(d);
+        }
+        ByteBuffer buf = buffers.acquire();
+        try {
+            d.reset();
+            d.setInput(in);
+            if (last) {
+                d.finish();
+                while (!d.finished()) {
+                    if (!buf.hasRemaining()) buf = grow(buf);
+                    d.deflate(buf);
+                }
+            } else {
+                // SYNC_FLUSH 把块结束在字节边界上；输出缓冲被填满时需要继续调用
+                while (true) {
+                    if (!buf.hasRemaining()) buf = grow(buf);
+                    d.deflate(buf, Deflater.SYNC_FLUSH);
+                    if (buf.hasRemaining() && d.needsInput()) break;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            buffers.release(buf);
+            throw e;
+        } finally {
+            // 解除 Deflater 对输入缓冲区的引用，之后该缓冲区会被别的线程复用
+            d.setInput(EMPTY);
+            if (pooled) buffers.release(in);
+        }
+        buf.flip();
+        return new Block(entry, index, buf, true, dataLen, crc.getValue(), METHOD_DEFLATED);
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /** 输出超出池化缓冲区的容量（几乎不会发生）：换一个两倍大的非池化缓冲区。 */
+    private ByteBuffer grow(ByteBuffer buf) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(buf.capacity() * 2);
+        buf.flip();
+        bigger.put(buf);
+        buffers.release(buf);
+        return bigger;
+    }
+
+    /** 写出所有在途的块：返回后已提交的文件都已读完。 */
+    @Override
+    public void sync() throws IOException {
+        while (!inFlight.isEmpty()) drainOne();
+    }
+
+    private void drainCompleted() throws IOException {
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) drainOne();
+    }
+
+    private void drainOne() throws IOException {
+        long allocStart = threadAllocatedBytes();
+        try {
+            drainNext();
+        } finally {
+            allocatedBytes.addAndGet(threadAllocatedBytes() - allocStart);
+        }
+    }
+
+    private void drainNext() throws IOException {
+        Future<Block> f = inFlight.poll();
+        if (f == null) return;
+        Block b;
+        try {
+            b = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("压缩被中断");
+        } catch (ExecutionException e) {
+            throw new IOException("压缩失败: " + e.getCause(), e.getCause());
+        }
+        writeBlock(b);
+    }
+
+    private void writeBlock(Block b) throws IOException {
+        PendingEntry e = b.entry;
+        if (e.skipped) {
+            release(b);
+            return;
+        }
+        if (b.error != null) {
+            if (b.index == 0) {
+                e.skipped = true;
+                skippedEntries++;
+                if (logger != null && !e.file.getName().equals("session.lock")) {
+                    logger.warning("跳过文件 " + e.file.getName() + ": " + b.error.getMessage());
+                }
+                return;
+            }
+            throw new IOException("读取 " + e.file.getPath() + " 失败: " + b.error.getMessage(), b.error);
+        }
+        if (b.reuse) {
+            if (b.changed) {
+                recompress(e);
+            } else {
+                writeReused(e);
+            }
+            return;
+        }
+        if (b.method == METHOD_STORED && e.blockCount > 1 && e.plannedSize <= STORED_HOLD_LIMIT) {
+            held.add(b);
+            if (b.index == e.blockCount - 1) writeHeldStored(e);
+            return;
+        }
+        if (b.index == 0) {
+            current = new CentralRecord(e.name, e.lastModified, offset);
+            current.method = b.method;
+            if (b.method == METHOD_STORED) {
+                storedEntries++;
+                storedBytes += e.plannedSize;
+            }
+            if (e.blockCount == 1) {
+                current.crc = b.crc;
+                current.compressedSize = b.length;
+                current.size = b.uncompressedLength;
+                writeLocalHeader(current, false, false);
+            } else {
+                current.zip64Local = e.plannedSize >= ZIP64_PLANNED_THRESHOLD;
+                writeLocalHeader(current, true, current.zip64Local);
+            }
+        }
+        writeData(b);
+        bytesRead += b.uncompressedLength;
+        if (e.blockCount > 1) {
+            current.crc = b.index == 0 ? b.crc : crc32Combine(current.crc, b.crc, b.uncompressedLength);
+            current.compressedSize += b.length;
+            current.size += b.uncompressedLength;
+            if (b.index == e.blockCount - 1) writeDataDescriptor(current);
+        }
+        if (b.index == e.blockCount - 1) {
+            central.add(current);
+            if (manifest != null) manifest.add(current.name, current.size, current.crc);
+            current = null;
+        }
+    }
+
+    /** 把旧归档中的已压缩数据原样写出：本地头里直接带上旧条目的 CRC 与大小。 */
+    private void writeReused(PendingEntry e) throws IOException {
+        PreviousZip.Entry old = e.reuse;
+        CentralRecord r = new CentralRecord(e.name, e.lastModified, offset);
+        r.method = old.method;
+        r.crc = old.crc;
+        r.compressedSize = old.compressedSize;
+        r.size = old.size;
+        writeLocalHeader(r, false, false);
+        long writeStart = System.nanoTime();
+        try {
+            previous.copy(old, channel);
+        } finally {
+            writeNanos += System.nanoTime() - writeStart;
+        }
+        offset += old.compressedSize;
+        if (verifyReused) bytesRead += old.size;
+        reusedEntries++;
+        reusedBytes += old.size;
+        if (old.method == METHOD_STORED) {
+            storedEntries++;
+            storedBytes += old.size;
+        }
+        central.add(r);
+        if (manifest != null) manifest.add(r.name, r.size, r.crc);
+    }
+
+    /** 大小与修改时间相同但内容已变（很少见）：在写出线程依次压缩各块，保持条目顺序。 */
+    private void recompress(PendingEntry reused) throws IOException {
+        Integer level = reused.level;
+        if (level == null && reused.blockCount > 1) {
+            level = policy.shouldSample(reused.plannedSize) ? sampleLevel(reused.file) : policy.getDefaultLevel();
+        }
+        PendingEntry e = new PendingEntry(reused.name, reused.file, reused.lastModified, reused.plannedSize, reused.blockCount, level);
+        for (int i = 0; i < e.blockCount && !e.skipped; i++) {
+            long start = (long) i * blockSize;
+            writeBlock(compressBlock(e, i, start, (int) Math.min(blockSize, Math.max(0, e.plannedSize - start))));
+        }
+    }
+
+    /** 多块 STORED 条目攒齐后一次写出：本地头里带上合并后的 CRC 与大小，无需数据描述符。 */
+    private void writeHeldStored(PendingEntry e) throws IOException {
+        CentralRecord r = new CentralRecord(e.name, e.lastModified, offset);
+        r.method = METHOD_STORED;
+        for (Block b : held) {
+            r.crc = b.index == 0 ? b.crc : crc32Combine(r.crc, b.crc, b.uncompressedLength);
+            r.size += b.uncompressedLength;
+        }
+        r.compressedSize = r.size;
+        writeLocalHeader(r, false, false);
+        for (Block b : held) {
+            writeData(b);
+            bytesRead += b.uncompressedLength;
+        }
+        held.clear();
+        storedEntries++;
+        storedBytes += r.size;
+        central.add(r);
+        if (manifest != null) manifest.add(r.name, r.size, r.crc);
+    }
+
+    /** 把块数据经通道写出并归还缓冲区。 */
+    private void writeData(Block b) throws IOException {
+        long writeStart = System.nanoTime();
+        try {
+            while (b.data.hasRemaining()) channel.write(b.data);
+            offset += b.length;
+        } finally {
+            writeNanos += System.nanoTime() - writeStart;
+            release(b);
+        }
+    }
+
+    private void release(Block b) {
+        if (b.pooled) buffers.release(b.data);
+    }
+
+    private void writeLocalHeader(CentralRecord r, boolean descriptor, boolean zip64) throws IOException {
+        byte[] name = r.name.getBytes(StandardCharsets.UTF_8);
+        int p = 0;
+        byte[] h = header.length >= 30 + name.length + 20 ? header : new byte[30 + name.length + 20];
+        p = putInt(h, p, 0x04034b50);
+        p = putShort(h, p, zip64 ? 45 : 20);
+        p = putShort(h, p, FLAG_UTF8 | (descriptor ? FLAG_DESCRIPTOR : 0));
+        p = putShort(h, p, r.method);
+        p = putInt(h, p, (int) r.dosTime);
+        if (descriptor) {
+            p = putInt(h, p, 0);
+            p = putInt(h, p, zip64 ? -1 : 0);
+            p = putInt(h, p, zip64 ? -1 : 0);
+        } else {
+            p = putInt(h, p, (int) r.crc);
+            p = putInt(h, p, (int) r.compressedSize);
+            p = putInt(h, p, (int) r.size);
+        }
+        p = putShort(h, p, name.length);
+        p = putShort(h, p, zip64 ? 20 : 0);
+        out.write(h, 0, p);
+        out.write(name);
+        offset += p + name.length;
+        if (zip64) {
+            p = putShort(h, 0, 0x0001);
+            p = putShort(h, p, 16);
+            p = putLong(h, p, 0);
+            p = putLong(h, p, 0);
+            out.write(h, 0, p);
+            offset += p;
+        }
+    }
+
+    private void writeDataDescriptor(CentralRecord r) throws IOException {
+        int p = putInt(header, 0, 0x08074b50);
+        p = putInt(header, p, (int) r.crc);
+        if (r.zip64Local) {
+            p = putLong(header, p, r.compressedSize);
+            p = putLong(header, p, r.size);
+        } else {
+            if (r.compressedSize >= ZIP64_LIMIT || r.size >= ZIP64_LIMIT) {
+                throw new IOException("条目超出 4 GiB 且未预留 ZIP64 字段: " + r.name);
+            }
+            p = putInt(header, p, (int) r.compressedSize);
+            p = putInt(header, p, (int) r.size);
+        }
+        out.write(header, 0, p);
+        offset += p;
+        r.flags = FLAG_DESCRIPTOR;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            while (!inFlight.isEmpty()) drainOne();
+            writeCentralDirectory();
+            long flushStart = System.nanoTime();
+            out.flush();
+            writeNanos += System.nanoTime() - flushStart;
+        } finally {
+            for (Future<Block> f : inFlight) f.cancel(true);
+            if (ownsPool) pool.shutdownNow();
+            for (Deflater d : allDeflaters) d.end();
+            held.clear();
+            buffers.clear();
+            if (previous != null) previous.close();
+            out.close();
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long cdStart = offset;
+        for (CentralRecord r : central) {
+            byte[] name = r.name.getBytes(StandardCharsets.UTF_8);
+            boolean bigSize = r.size >= ZIP64_LIMIT || r.compressedSize >= ZIP64_LIMIT || r.zip64Local;
+            boolean bigOffset = r.localOffset >= ZIP64_LIMIT;
+            int extraLen = (bigSize ? 16 : 0) + (bigOffset ? 8 : 0);
+            int zip64Len = extraLen > 0 ? 4 + extraLen : 0;
+            byte[] h = new byte[46 + name.length + zip64Len + NTFS_EXTRA_LEN];
+            int p = putInt(h, 0, 0x02014b50);
+            p = putShort(h, p, extraLen > 0 ? 45 : 20);
+            p = putShort(h, p, extraLen > 0 ? 45 : 20);
+            p = putShort(h, p, FLAG_UTF8 | r.flags);
+            p = putShort(h, p, r.method);
+            p = putInt(h, p, (int) r.dosTime);
+            p = putInt(h, p, (int) r.crc);
+            p = putInt(h, p, bigSize ? -1 : (int) r.compressedSize);
+            p = putInt(h, p, bigSize ? -1 : (int) r.size);
+            p = putShort(h, p, name.length);
+            p = putShort(h, p, zip64Len + NTFS_EXTRA_LEN);
+            p = putShort(h, p, 0); // comment
+            p = putShort(h, p, 0); // disk
+            p = putShort(h, p, 0); // internal attrs
+            p = putInt(h, p, 0);   // external attrs
+            p = putInt(h, p, bigOffset ? -1 : (int) r.localOffset);
+            System.arraycopy(name, 0, h, p, name.length);
+            p += name.length;
+            if (extraLen > 0) {
+                p = putShort(h, p, 0x0001);
+                p = putShort(h, p, extraLen);
+                if (bigSize) {
+                    p = putLong(h, p, r.size);
+                    p = putLong(h, p, r.compressedSize);
+                }
+                if (bigOffset) p = putLong(h, p, r.localOffset);
+            }
+            // NTFS 时间戳：精确的修改时间，下次备份据此判断文件是否未变
+            long fileTime = toFileTime(r.lastModified);
+            p = putShort(h, p, 0x000a);
+            p = putShort(h, p, NTFS_EXTRA_LEN - 4);
+            p = putInt(h, p, 0);
+            p = putShort(h, p, 0x0001);
+            p = putShort(h, p, 24);
+            p = putLong(h, p, fileTime);
+            p = putLong(h, p, fileTime);
+            p = putLong(h, p, fileTime);
+            out.write(h, 0, p);
+            offset += p;
+        }
+        long cdSize = offset - cdStart;
+        boolean zip64 = central.size() >= 0xFFFF || cdStart >= ZIP64_LIMIT || cdSize >= ZIP64_LIMIT;
+        byte[] h = new byte[56 + 20 + 22];
+        int p = 0;
+        if (zip64) {
+            long eocd64 = offset;
+            p = putInt(h, p, 0x06064b50);
+            p = putLong(h, p, 44);
+            p = putShort(h, p, 45);
+            p = putShort(h, p, 45);
+            p = putInt(h, p, 0);
+            p = putInt(h, p, 0);
+            p = putLong(h, p, central.size());
+            p = putLong(h, p, central.size());
+            p = putLong(h, p, cdSize);
+            p = putLong(h, p, cdStart);
+            p = putInt(h, p, 0x07064b50);
+            p = putInt(h, p, 0);
+            p = putLong(h, p, eocd64);
+            p = putInt(h, p, 1);
+        }
+        p = putInt(h, p, 0x06054b50);
+        p = putShort(h, p, 0);
+        p = putShort(h, p, 0);
+        p = putShort(h, p, zip64 ? 0xFFFF : central.size());
+        p = putShort(h, p, zip64 ? 0xFFFF : central.size());
+        p = putInt(h, p, zip64 ? -1 : (int) cdSize);
+        p = putInt(h, p, zip64 ? -1 : (int) cdStart);
+        p = putShort(h, p, 0);
+        out.write(h, 0, p);
+        offset += p;
+    }
+
+    private static final class PendingEntry {
+        final String name;
+        final File file;
+        final long lastModified;
+        final long plannedSize;
+        final int blockCount;
+        // null 表示由第一块任务采样决定（只用于单块条目）
+        final Integer level;
+        boolean skipped;
+        /** 上一次备份中可以沿用的条目。 */
+        PreviousZip.Entry reuse;
+
+        PendingEntry(String name, File file, long lastModified, long plannedSize, int blockCount, Integer level) {
+            this.name = name;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.plannedSize = plannedSize;
+            this.blockCount = blockCount;
+            this.level = level;
+        }
+    }
+
+    private static final class Block {
+        final PendingEntry entry;
+        final int index;
+        final ByteBuffer data;
+        final boolean pooled;
+        final int length;
+        final int uncompressedLength;
+        final long crc;
+        final int method;
+        final IOException error;
+        /** 沿用旧条目的占位块（不含数据）；changed 表示核对 CRC 后发现内容已变。 */
+        final boolean reuse;
+        final boolean changed;
+
+        Block(PendingEntry entry, int index, ByteBuffer data, boolean pooled, int uncompressedLength, long crc, int method) {
+            this.entry = entry;
+            this.index = index;
+            this.data = data;
+            this.pooled = pooled;
+            this.length = data.remaining();
+            this.uncompressedLength = uncompressedLength;
+            this.crc = crc;
+            this.method = method;
+            this.error = null;
+            this.reuse = false;
+            this.changed = false;
+        }
+
+        Block(PendingEntry entry, boolean changed) {
+            this.entry = entry;
+            this.index = 0;
+            this.data = null;
+            this.pooled = false;
+            this.length = 0;
+            this.uncompressedLength = 0;
+            this.crc = 0;
+            this.method = METHOD_STORED;
+            this.error = null;
+            this.reuse = true;
+            this.changed = changed;
+        }
+
+        Block(PendingEntry entry, int index, IOException error) {
+            this.entry = entry;
+            this.index = index;
+            this.data = null;
+            this.pooled = false;
+            this.length = 0;
+            this.uncompressedLength = 0;
+            this.crc = 0;
+            this.method = METHOD_DEFLATED;
+            this.error = error;
+            this.reuse = false;
+            this.changed = false;
+        }
+    }
+
+    private static final class CentralRecord {
+        final String name;
+        final long lastModified;
+        final long dosTime;
+        final long localOffset;
+        int method;
+        int flags;
+        long crc;
+        long compressedSize;
+        long size;
+        boolean zip64Local;
+
+        CentralRecord(String name, long lastModified, long localOffset) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.dosTime = toDosTime(lastModified);
+            this.localOffset = localOffset;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = threadBean();
+    private static final boolean ALLOCATION_TRACKING = THREAD_BEAN != null;
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+                if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) return b;
+            }
+        } catch (LinkageError | RuntimeException ignored) {
+            // 非 HotSpot JVM：不统计分配量
+        }
+        return null;
+    }
+
+    /** 当前线程累计分配的堆内存字节数（HotSpot 的 TLAB 计数，开销很小）。 */
+    private static long threadAllocatedBytes() {
+        return ALLOCATION_TRACKING ? THREAD_BEAN.getCurrentThreadAllocatedBytes() : 0L;
+    }
+
+    /** 毫秒时间戳 → Windows FILETIME（1601 年起的 100 纳秒数）。 */
+    static long toFileTime(long millis) {
+        return (millis + FILETIME_EPOCH_MILLIS) * 10_000L;
+    }
+
+    static long fromFileTime(long fileTime) {
+        return fileTime / 10_000L - FILETIME_EPOCH_MILLIS;
+    }
+
+    static long toDosTime(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (t.getYear() < 1980) return (1 << 21) | (1 << 16);
+        return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21) | ((long) t.getDayOfMonth() << 16)
+                | ((long) t.getHour() << 11) | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    // zlib crc32_combine：由 crc(A)、crc(B)、len(B) 得到 crc(A||B)
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) return crc1;
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) crc1 = gf2MatrixTimes(even, crc1);
+            len2 >>= 1;
+            if (len2 == 0) break;
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) crc1 = gf2MatrixTimes(odd, crc1);
+            len2 >>= 1;
+        } while (len2 != 0);
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) sum ^= mat[i];
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) square[n] = gf2MatrixTimes(mat, mat[n]);
+    }
+
+    private static int putShort(byte[] b, int p, int v) {
+        b[p] = (byte) v;
+        b[p + 1] = (byte) (v >>> 8);
+        return p + 2;
+    }
+
+    private static int putInt(byte[] b, int p, int v) {
+        b[p] = (byte) v;
+        b[p + 1] = (byte) (v >>> 8);
+        b[p + 2] = (byte) (v >>> 16);
+        b[p + 3] = (byte) (v >>> 24);
+        return p + 4;
+    }
+
+    private static int putLong(byte[] b, int p, long v) {
+        p = putInt(b, p, (int) v);
+        return putInt(b, p, (int) (v >>> 32));
+    }
+}
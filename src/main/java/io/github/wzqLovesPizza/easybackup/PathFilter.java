@@ -0,0 +1,249 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 编译好的排除规则，供 {@link FileScanner} 在遍历时逐个目录判断。
+ * <p>
+ * 规则有两类：exclude-dirs / exclude-files / exclude-extensions 只按名称匹配（哈希表查找）；
+ * exclude-paths / include-paths 是相对服务器根目录的通配符（** 跨目录，* 与 ? 不跨目录）或 {@code regex:} 开头的正则。
+ * 路径规则按开头不含通配符的各级目录放进一棵前缀树，遍历到某个目录时只需检查挂在它和它祖先上的规则；
+ * 完全没有通配符的规则只是树上的一个节点。
+ * <p>
+ * 被排除的目录在列出之前就整个跳过；只有其下可能有 include-paths 命中时才继续列出，
+ * 其中的文件默认随目录排除，被 include 命中的重新包含。每条规则记录命中了多少目录与文件，扫描后输出到日志。
+ */
+final class PathFilter {
+
+    /** 一条排除或包含规则及其命中计数。 */
+    static final class Rule {
+        final String text;
+        final boolean include;
+        /** 含通配符的路径规则；名称规则与完全字面的路径规则为 null。 */
+        final Pattern pattern;
+        final AtomicLong dirs = new AtomicLong();
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        Rule(String text, boolean include, Pattern pattern) {
+            this.text = text;
+            this.include = include;
+            this.pattern = pattern;
+        }
+
+        boolean matches(String rel, boolean dir) {
+            return pattern.matcher(rel).matches() || dir && pattern.matcher(rel + "/").matches();
+        }
+    }
+
+    /** 前缀树节点：一级字面目录。 */
+    private static final class Node {
+        final Map<String, Node> children = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        /** 路径恰好是本节点的规则。 */
+        final List<Rule> exact = new ArrayList<>();
+        /** 字面前缀是本节点、其后含通配符的规则，需要对其下每一项检查。 */
+        final List<Rule> patterns = new ArrayList<>();
+        /** 本节点或其下挂有 include 规则。 */
+        boolean includeBelow;
+    }
+
+    /** 一个已进入的目录：规则树中的位置、祖先上仍需检查的通配规则、排除了该目录的规则（未排除为 null）。 */
+    static final class Scope {
+        final Node node;
+        final List<Rule> active;
+        final Rule excluded;
+        /** 相对服务器根目录的路径（根目录为 ""，根目录之外为 null）。 */
+        final String rel;
+
+        private Scope(Node node, List<Rule> active, Rule excluded, String rel) {
+            this.node = node;
+            this.active = active;
+            this.excluded = excluded;
+            this.rel = rel;
+        }
+    }
+
+    // 名称不区分大小写，查找时不必为每个名称生成小写副本
+    private final Map<String, Rule> dirNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Rule> fileNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Rule> extensions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Rule> rules = new ArrayList<>();
+    private final Node root = new Node();
+    private final Scope rootScope;
+    private final Scope outsideScope;
+
+    /**
+     * @param excludePaths 相对服务器根目录的通配符或 regex: 规则
+     * @param includePaths 重新包含被排除路径的规则，优先于所有排除规则
+     */
+    PathFilter(Set<String> excludeDirs, Set<String> excludeFiles, Set<String> excludeExts,
+               List<String> excludePaths, List<String> includePaths) {
+        addNames(dirNames, excludeDirs, "exclude-dirs: ");
+        addNames(fileNames, excludeFiles, "exclude-files: ");
+        addNames(extensions, excludeExts, "exclude-extensions: ");
+        if (excludePaths != null) for (String p : excludePaths) addPath(p, false);
+        if (includePaths != null) for (String p : includePaths) addPath(p, true);
+        rootScope = new Scope(root, root.patterns.isEmpty() ? Collections.emptyList() : root.patterns, null, "");
+        outsideScope = new Scope(null, Collections.emptyList(), null, null);
+    }
+
+    /** 服务器根目录下的路径从 {@link #root()} 开始；根目录之外的目标只适用名称规则。 */
+    Scope root() {
+        return rootScope;
+    }
+
+    Scope outside() {
+        return outsideScope;
+    }
+
+    /**
+     * 判断 parent 目录中的子目录 name。
+     *
+     * @param count 是否计入规则命中（单独检查某个路径时不计）
+     * @return 进入该目录后的作用域；整个子树都被排除时返回 null
+     */
+    Scope dir(Scope parent, String name, boolean count) {
+        Node child = parent.node != null ? parent.node.children.get(name) : null;
+        String rel = relOf(parent, name, child);
+        // 随祖先排除时命中记在祖先的规则上
+        Rule excludedBy = parent.excluded;
+        if (excludedBy == null) {
+            excludedBy = lookup(dirNames, name);
+            if (excludedBy == null) excludedBy = firstMatch(parent.active, child, rel, true, false);
+        }
+        if (excludedBy != null && firstMatch(parent.active, child, rel, true, true) != null) excludedBy = null;
+        List<Rule> active = parent.active;
+        if (child != null && !child.patterns.isEmpty()) {
+            active = new ArrayList<>(parent.active);
+            active.addAll(child.patterns);
+        }
+        if (excludedBy != null && !includePossible(active, child)) {
+            if (count) excludedBy.dirs.incrementAndGet();
+            return null;
+        }
+        return new Scope(child, active, excludedBy, rel);
+    }
+
+    /** 判断 parent 目录中的文件 name 是否被排除。 */
+    boolean excludesFile(Scope parent, String name, long size, boolean count) {
+        Node child = parent.node != null ? parent.node.children.get(name) : null;
+        String rel = relOf(parent, name, child);
+        Rule excludedBy = parent.excluded;
+        if (excludedBy == null) {
+            excludedBy = lookup(fileNames, name);
+            if (excludedBy == null && !extensions.isEmpty()) excludedBy = extensionRule(name);
+            if (excludedBy == null) excludedBy = firstMatch(parent.active, child, rel, false, false);
+            if (excludedBy == null) return false;
+        }
+        if (firstMatch(parent.active, child, rel, false, true) != null) return false;
+        if (count) {
+            excludedBy.files.incrementAndGet();
+            excludedBy.bytes.addAndGet(size);
+        }
+        return true;
+    }
+
+    /** 各条排除规则的命中数，按跳过的目录数与文件数从多到少排列；没有命中的规则不列出。 */
+    List<Rule> hits() {
+        List<Rule> out = new ArrayList<>();
+        for (Rule r : allRules()) if (!r.include && (r.dirs.get() > 0 || r.files.get() > 0)) out.add(r);
+        out.sort((a, b) -> a.dirs.get() != b.dirs.get() ? Long.compare(b.dirs.get(), a.dirs.get())
+                : Long.compare(b.files.get(), a.files.get()));
+        return out;
+    }
+
+    private List<Rule> allRules() {
+        List<Rule> all = new ArrayList<>(dirNames.values());
+        all.addAll(fileNames.values());
+        all.addAll(extensions.values());
+        all.addAll(rules);
+        return all;
+    }
+
+    private static Rule lookup(Map<String, Rule> names, String name) {
+        return names.isEmpty() ? null : names.get(name);
+    }
+
+    private Rule extensionRule(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return null;
+        int len = name.length() - dot - 1;
+        for (Map.Entry<String, Rule> e : extensions.entrySet()) {
+            String ext = e.getKey();
+            if (ext.length() == len && name.regionMatches(true, dot + 1, ext, 0, len)) return e.getValue();
+        }
+        return null;
+    }
+
+    /** 只有需要检查路径规则时才拼接相对路径。 */
+    private static String relOf(Scope parent, String name, Node child) {
+        if (parent.rel == null || (parent.active.isEmpty() && child == null)) return null;
+        return parent.rel.isEmpty() ? name : parent.rel + "/" + name;
+    }
+
+    private static Rule firstMatch(List<Rule> active, Node child, String rel, boolean dir, boolean include) {
+        if (child != null) {
+            for (Rule r : child.exact) if (r.include == include) return r;
+            for (Rule r : child.patterns) if (r.include == include && r.matches(rel, dir)) return r;
+        }
+        if (rel != null) {
+            for (Rule r : active) if (r.include == include && r.matches(rel, dir)) return r;
+        }
+        return null;
+    }
+
+    private static boolean includePossible(List<Rule> active, Node child) {
+        if (child != null && child.includeBelow) return true;
+        for (Rule r : active) if (r.include) return true;
+        return false;
+    }
+
+    private static void addNames(Map<String, Rule> map, Set<String> names, String label) {
+        if (names == null) return;
+        for (String n : names) {
+            if (n == null || n.isEmpty()) continue;
+            String key = n.toLowerCase(Locale.ROOT);
+            map.putIfAbsent(key, new Rule(label + key, false, null));
+        }
+    }
+
+    private void addPath(String text, boolean include) {
+        if (text == null || text.trim().isEmpty()) return;
+        String t = text.trim();
+        Rule rule;
+        // 规则所在节点及其祖先（用于标记其下有 include 规则）
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        if (t.regionMatches(true, 0, "regex:", 0, 6)) {
+            rule = new Rule(t, include, Pattern.compile(t.substring(6), Pattern.CASE_INSENSITIVE));
+            root.patterns.add(rule);
+        } else {
+            String glob = t.replace('\\', '/');
+            while (glob.startsWith("./")) glob = glob.substring(2);
+            while (glob.startsWith("/")) glob = glob.substring(1);
+            while (glob.endsWith("/")) glob = glob.substring(0, glob.length() - 1);
+            if (glob.isEmpty()) return;
+            String[] segments = glob.split("/");
+            int literal = 0;
+            while (literal < segments.length && segments[literal].indexOf('*') < 0 && segments[literal].indexOf('?') < 0) literal++;
+            Node node = root;
+            for (int i = 0; i < literal; i++) {
+                node = node.children.computeIfAbsent(segments[i], k -> new Node());
+                path.add(node);
+            }
+            if (literal == segments.length) {
+                rule = new Rule(t, include, null);
+                node.exact.add(rule);
+            } else {
+                rule = new Rule(t, include, Pattern.compile(CompressionPolicy.globToRegex(glob), Pattern.CASE_INSENSITIVE));
+                node.patterns.add(rule);
+            }
+        }
+        rules.add(rule);
+        if (include) {
+            for (Node n : path) n.includeBelow = true;
+        }
+    }
+}
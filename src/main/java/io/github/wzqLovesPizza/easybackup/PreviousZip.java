@@ -0,0 +1,195 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 上一次的 ZIP 备份，供 {@link ParallelZipWriter} 沿用其中未变文件的已压缩数据。
+ * <p>
+ * 只读取中央目录：每个条目的方法、CRC、大小、本地头位置，以及 NTFS 扩展字段中的精确修改时间
+ * （{@link ParallelZipWriter} 为每个条目写出；没有该字段的条目只有 2 秒精度的 DOS 时间，不参与沿用）。
+ * 条目数据按需从本地头之后原样复制，不解压。
+ * <p>
+ * 修改时间距上一次备份开始不足 {@link #REUSE_GUARD_MS} 的条目不沿用：文件可能在读取之后、同一个时间戳内又被改写为同样的长度，
+ * 只比较大小与修改时间（verify-crc: false）时会把旧数据复制进新的归档。
+ */
+final class PreviousZip implements Closeable {
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int FLAG_ENCRYPTED = 1;
+    // 修改时间距上一次备份开始不足此值的条目不做沿用判断（同一时间戳内可能又被写过）
+    static final long REUSE_GUARD_MS = 2000L;
+
+    /** 中央目录中的一个条目。 */
+    static final class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localOffset;
+        /** NTFS 扩展字段中的修改时间（毫秒），没有时为 -1。 */
+        final long lastModified;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localOffset, long lastModified) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+            this.lastModified = lastModified;
+        }
+    }
+
+    final File file;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+    private final long reuseBefore;
+    private final ByteBuffer localHeader = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+
+    private PreviousZip(File file, FileChannel channel, Map<String, Entry> entries, long reuseBefore) {
+        this.file = file;
+        this.channel = channel;
+        this.entries = entries;
+        this.reuseBefore = reuseBefore;
+    }
+
+    /**
+     * 打开并读取中央目录；不是合法的 ZIP 时抛出 IOException。
+     *
+     * @param startedAt 上一次备份开始的时间（毫秒），早于它读取任何文件
+     */
+    static PreviousZip open(File file, long startedAt) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new PreviousZip(file, ch, readCentralDirectory(ch), startedAt - REUSE_GUARD_MS);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("无法解析 " + file.getName() + ": " + e, e);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** 名称、大小与修改时间都相同、修改时间早于保护窗口、且可以原样复制的条目；没有时返回 null。 */
+    Entry find(String name, long size, long lastModified) {
+        Entry e = entries.get(name);
+        if (e == null || e.lastModified < 0 || e.lastModified != lastModified || e.size != size) return null;
+        if (lastModified >= reuseBefore) return null;
+        // 超过 4 GiB 的条目需要 ZIP64 本地头，交给正常流程重新压缩
+        if (e.size >= ZIP64_LIMIT || e.compressedSize >= ZIP64_LIMIT) return null;
+        return e;
+    }
+
+    /** 把条目的已压缩数据原样写到 out；由写出线程调用。 */
+    void copy(Entry e, WritableByteChannel out) throws IOException {
+        localHeader.clear();
+        readFully(channel, localHeader, e.localOffset);
+        if (localHeader.getInt(0) != 0x04034b50) throw new IOException("上一次备份中的本地头损坏: " + e.name);
+        long dataOffset = e.localOffset + 30 + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+        if (dataOffset + e.compressedSize > channel.size()) throw new EOFException("上一次备份已被截短: " + e.name);
+        long pos = dataOffset;
+        long end = dataOffset + e.compressedSize;
+        while (pos < end) {
+            long n = channel.transferTo(pos, end - pos, out);
+            if (n <= 0) throw new EOFException("上一次备份已被截短: " + e.name);
+            pos += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static Map<String, Entry> readCentralDirectory(FileChannel ch) throws IOException {
+        long fileSize = ch.size();
+        int tailLen = (int) Math.min(fileSize, 22 + 0xFFFF + 20);
+        ByteBuffer tail = ByteBuffer.allocate(tailLen).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, tail, fileSize - tailLen);
+        int eocd = -1;
+        for (int i = tailLen - 22; i >= 0; i--) {
+            if (tail.getInt(i) == 0x06054b50) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) throw new IOException("找不到 ZIP 中央目录结尾");
+        long count = tail.getShort(eocd + 10) & 0xFFFF;
+        long cdSize = tail.getInt(eocd + 12) & ZIP64_LIMIT;
+        long cdStart = tail.getInt(eocd + 16) & ZIP64_LIMIT;
+        if (eocd >= 20 && tail.getInt(eocd - 20) == 0x07064b50) {
+            ByteBuffer z = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, z, tail.getLong(eocd - 20 + 8));
+            if (z.getInt(0) != 0x06064b50) throw new IOException("ZIP64 中央目录结尾损坏");
+            count = z.getLong(32);
+            cdSize = z.getLong(40);
+            cdStart = z.getLong(48);
+        }
+        if (cdSize > Integer.MAX_VALUE || cdStart + cdSize > fileSize) throw new IOException("ZIP 中央目录大小无效");
+        ByteBuffer cd = ByteBuffer.allocate((int) cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, cd, cdStart);
+
+        Map<String, Entry> out = new HashMap<>((int) Math.min(count * 2, 1 << 20));
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (p + 46 > cd.limit() || cd.getInt(p) != 0x02014b50) throw new IOException("ZIP 中央目录损坏");
+            int flags = cd.getShort(p + 8) & 0xFFFF;
+            int method = cd.getShort(p + 10) & 0xFFFF;
+            long crc = cd.getInt(p + 16) & ZIP64_LIMIT;
+            long csize = cd.getInt(p + 20) & ZIP64_LIMIT;
+            long size = cd.getInt(p + 24) & ZIP64_LIMIT;
+            int nameLen = cd.getShort(p + 28) & 0xFFFF;
+            int extraLen = cd.getShort(p + 30) & 0xFFFF;
+            int commentLen = cd.getShort(p + 32) & 0xFFFF;
+            long localOffset = cd.getInt(p + 42) & ZIP64_LIMIT;
+            byte[] name = new byte[nameLen];
+            cd.position(p + 46);
+            cd.get(name);
+            long mtime = -1L;
+            int x = p + 46 + nameLen;
+            int xEnd = x + extraLen;
+            while (x + 4 <= xEnd) {
+                int id = cd.getShort(x) & 0xFFFF;
+                int len = cd.getShort(x + 2) & 0xFFFF;
+                int d = x + 4;
+                if (id == 0x0001) {
+                    // ZIP64：只有标记为 0xFFFFFFFF 的字段才依次出现
+                    if (size == ZIP64_LIMIT && d + 8 <= xEnd) { size = cd.getLong(d); d += 8; }
+                    if (csize == ZIP64_LIMIT && d + 8 <= xEnd) { csize = cd.getLong(d); d += 8; }
+                    if (localOffset == ZIP64_LIMIT && d + 8 <= xEnd) localOffset = cd.getLong(d);
+                } else if (id == 0x000a && len >= 32 && (cd.getShort(d + 4) & 0xFFFF) == 0x0001) {
+                    mtime = ParallelZipWriter.fromFileTime(cd.getLong(d + 8));
+                }
+                x += 4 + len;
+            }
+            p += 46 + nameLen + extraLen + commentLen;
+            if ((flags & FLAG_ENCRYPTED) != 0 || (method != ParallelZipWriter.METHOD_STORED && method != ParallelZipWriter.METHOD_DEFLATED)) {
+                continue;
+            }
+            String n = new String(name, StandardCharsets.UTF_8);
+            out.put(n, new Entry(n, method, crc, csize, size, localOffset, mtime));
+        }
+        return out;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new EOFException("ZIP 文件不完整");
+        }
+        buf.flip();
+    }
+}
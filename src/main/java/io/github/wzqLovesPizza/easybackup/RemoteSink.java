@@ -0,0 +1,468 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 远程副本（remote.enabled）：归档写到本地磁盘的同时，按固定大小切段，经 S3 分段上传并行发出。
+ * <p>
+ * 压缩还在进行时上传就已开始，不需要备份结束后再读一遍归档。全局最多 remote.parallel 个分段在途，
+ * 写出线程在没有空位时等待，所以内存上限约为 (parallel + 同时写出的归档数) × part-size。
+ * 每个分段失败后按指数退避重试；重试用尽时不影响本地备份，在归档旁留下 {@code <归档名>.upload} 记录已完成的分段，
+ * 下次备份时只从本地文件读出缺少的分段续传。保留策略删除本地备份后，远程不在备份目录记录中的副本也随之删除。
+ */
+final class RemoteSink {
+
+    static final String STATE_SUFFIX = ".upload";
+    private static final String STATE_HEADER = "EasyBackUp-Upload v1";
+
+    private final S3Client client;
+    private final String prefix;
+    private final int partSize;
+    private final int retries;
+    private final long retryDelayMillis;
+    private final Logger logger;
+    private final ExecutorService pool;
+    private final Semaphore inFlight;
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    RemoteSink(S3Client client, String prefix, int partSize, int parallel, int retries, long retryDelayMillis, Logger logger) {
+        this.client = client;
+        this.prefix = prefix;
+        this.partSize = partSize;
+        this.retries = Math.max(0, retries);
+        this.retryDelayMillis = retryDelayMillis;
+        this.logger = logger;
+        int threads = Math.max(1, parallel);
+        this.inFlight = new Semaphore(threads);
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "EasyBackUp-Upload-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 按配置创建；未启用或配置不完整时返回 null。 */
+    static RemoteSink fromConfig(FileConfiguration config, Logger logger) {
+        if (!config.getBoolean("remote.enabled", false)) return null;
+        String endpoint = config.getString("remote.endpoint", "");
+        String bucket = config.getString("remote.bucket", "");
+        if (endpoint == null || endpoint.trim().isEmpty() || bucket == null || bucket.trim().isEmpty()) {
+            logger.warning("remote.endpoint 或 remote.bucket 未配置，本次不上传远程副本。");
+            return null;
+        }
+        URI uri;
+        try {
+            uri = URI.create(endpoint.trim());
+            if (uri.getHost() == null) throw new IllegalArgumentException("缺少主机名");
+        } catch (IllegalArgumentException e) {
+            logger.warning("remote.endpoint 无效: " + endpoint + " - " + e.getMessage());
+            return null;
+        }
+        String prefix = config.getString("remote.prefix", "easybackup/");
+        prefix = prefix == null ? "" : prefix.trim();
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) prefix += "/";
+        // S3 要求除最后一段外每段至少 5 MB，且最多 10000 段
+        int partMB = Math.max(5, config.getInt("remote.part-size-mb", 16));
+        S3Client client = new S3Client(uri, config.getString("remote.region", "us-east-1"), bucket.trim(),
+                config.getBoolean("remote.path-style", true),
+                config.getString("remote.access-key", ""), config.getString("remote.secret-key", ""));
+        return new RemoteSink(client, prefix, partMB * 1024 * 1024, config.getInt("remote.parallel", 4),
+                config.getInt("remote.retries", 5), 1000L, logger);
+    }
+
+    /** 输出目录中的相对路径（如 EasyBackUp_x.zip、EasyBackUp_x.shards/world.zip）对应的对象键。 */
+    String keyFor(String relativePath) {
+        return prefix + relativePath;
+    }
+
+    /** 开始上传一个正在写出的本地归档；用 {@link Upload#tee} 包装写往磁盘的流。 */
+    Upload begin(File local, String relativePath) {
+        Upload u = new Upload(local, keyFor(relativePath), partSize);
+        try {
+            u.uploadId = client.createMultipartUpload(u.key);
+            u.saveState();
+        } catch (IOException e) {
+            u.fail(e);
+        }
+        return u;
+    }
+
+    /** 上传一个已写完的本地文件（清单、分片索引等）；失败时留下续传记录，返回是否已完成。 */
+    boolean uploadFile(File local, String relativePath) {
+        Upload u = new Upload(local, keyFor(relativePath), partSize);
+        try {
+            u.resume();
+            return true;
+        } catch (IOException e) {
+            warn("上传 " + relativePath + " 失败，将在下次备份时重试: " + e.getMessage());
+            u.saveStateQuietly();
+            return false;
+        }
+    }
+
+    /**
+     * 续传 dir（及其中的分片目录）里留下的上传记录。所属备份仍在 liveNames 中且本地文件存在的继续上传，
+     * 其余的放弃远程未完成的分段并删除记录。返回完成的数量。
+     */
+    int resumePending(File dir, Set<String> liveNames) {
+        List<File> states = new ArrayList<>();
+        collectStates(dir, states);
+        File[] sub = dir.listFiles(f -> ShardedArchive.isSharded(f));
+        if (sub != null) for (File d : sub) collectStates(d, states);
+        int done = 0;
+        for (File stateFile : states) {
+            File local = new File(stateFile.getPath().substring(0, stateFile.getPath().length() - STATE_SUFFIX.length()));
+            File parent = local.getParentFile();
+            String backup = ShardedArchive.isSharded(parent) ? parent.getName() : local.getName();
+            if (backup.endsWith(ArchiveManifest.SUFFIX)) backup = backup.substring(0, backup.length() - ArchiveManifest.SUFFIX.length());
+            Upload u;
+            try {
+                u = loadUpload(stateFile, local);
+            } catch (IOException e) {
+                warn("上传记录损坏，已删除: " + stateFile.getName() + " - " + e.getMessage());
+                stateFile.delete();
+                continue;
+            }
+            if (!liveNames.contains(backup) || !local.isFile()) {
+                u.abort();
+                continue;
+            }
+            try {
+                u.resume();
+                done++;
+                if (logger != null) logger.info("已续传远程副本: " + u.key);
+            } catch (IOException e) {
+                warn("续传 " + u.key + " 失败: " + e.getMessage());
+                u.saveStateQuietly();
+            }
+        }
+        return done;
+    }
+
+    private static void collectStates(File dir, List<File> out) {
+        File[] files = dir.listFiles((d, n) -> n.endsWith(STATE_SUFFIX));
+        if (files != null) out.addAll(Arrays.asList(files));
+    }
+
+    /**
+     * 远程保留：删除前缀下不在 keep 中的备份（包括其清单与分片）。只处理 EasyBackUp_ 开头的对象，不碰桶里的其他内容。
+     * 返回删除的对象数。
+     */
+    int prune(Set<String> keep) throws IOException {
+        int deleted = 0;
+        Set<String> removed = new TreeSet<>();
+        for (String key : client.listKeys(prefix)) {
+            String rel = key.substring(prefix.length());
+            String name = backupNameOf(rel);
+            if (!name.startsWith("EasyBackUp_") || keep.contains(name)) continue;
+            client.deleteObject(key);
+            deleted++;
+            removed.add(name);
+        }
+        if (logger != null && !removed.isEmpty()) logger.info("已删除远程旧备份：" + String.join(", ", removed));
+        return deleted;
+    }
+
+    /** 对象相对路径所属的备份名。 */
+    static String backupNameOf(String relativePath) {
+        int slash = relativePath.indexOf('/');
+        if (slash >= 0) return relativePath.substring(0, slash);
+        if (relativePath.endsWith(ArchiveManifest.SUFFIX)) {
+            return relativePath.substring(0, relativePath.length() - ArchiveManifest.SUFFIX.length());
+        }
+        return relativePath;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void warn(String msg) {
+        if (logger != null) logger.warning(msg);
+    }
+
+    private byte[] takeBuffer() {
+        byte[] b = buffers.poll();
+        return b != null && b.length == partSize ? b : new byte[partSize];
+    }
+
+    /** 带退避的重试；不可重试的错误立即抛出。 */
+    private String uploadPartWithRetry(Upload u, int partNumber, byte[] data, int len) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return client.uploadPart(u.key, u.uploadId, partNumber, data, len);
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof S3Client.S3Exception) || ((S3Client.S3Exception) e).isRetryable();
+                if (!retryable || attempt >= retries || e instanceof InterruptedIOException) throw e;
+                long delay = Math.min(30_000L, retryDelayMillis << Math.min(attempt, 5));
+                warn("上传分段 " + partNumber + " 失败（" + e.getMessage() + "），" + delay + "ms 后第 " + (attempt + 1) + " 次重试。");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("上传被中断");
+                }
+            }
+        }
+    }
+
+    /** 读取续传记录。 */
+    private Upload loadUpload(File stateFile, File local) throws IOException {
+        List<String> lines = Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !STATE_HEADER.equals(lines.get(0))) throw new IOException("格式错误");
+        String key = null;
+        String uploadId = null;
+        int size = partSize;
+        Map<Integer, String> etags = new HashMap<>();
+        try {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] f = line.split("\t");
+                switch (f[0]) {
+                    case "key":
+                        key = f[1];
+                        break;
+                    case "upload-id":
+                        uploadId = "-".equals(f[1]) ? null : f[1];
+                        break;
+                    case "part-size":
+                        size = Integer.parseInt(f[1]);
+                        break;
+                    case "part":
+                        etags.put(Integer.parseInt(f[1]), f[2]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("格式错误", e);
+        }
+        if (key == null) throw new IOException("缺少对象键");
+        Upload u = new Upload(local, key, size);
+        u.uploadId = uploadId;
+        u.etags.putAll(etags);
+        return u;
+    }
+
+    /** 一个对象的分段上传。 */
+    final class Upload {
+        final File local;
+        final String key;
+        final int partSize;
+        final File stateFile;
+        volatile String uploadId;
+        final ConcurrentSkipListMap<Integer, String> etags = new ConcurrentSkipListMap<>();
+        private final List<Future<?>> pending = Collections.synchronizedList(new ArrayList<>());
+        private volatile IOException failure;
+        private boolean finished;
+
+        private Upload(File local, String key, int partSize) {
+            this.local = local;
+            this.key = key;
+            this.partSize = partSize;
+            this.stateFile = new File(local.getPath() + STATE_SUFFIX);
+        }
+
+        /** 包装写往本地文件的流：写出的字节同时切段上传。上传失败不会让本地写出失败。 */
+        OutputStream tee(OutputStream file) {
+            return new FilterOutputStream(file) {
+                private byte[] buf = takeBuffer();
+                private int len;
+                private int part;
+
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    if (failure != null) return;
+                    buf[len++] = (byte) b;
+                    if (len == buf.length) flushPart();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int n) throws IOException {
+                    out.write(b, off, n);
+                    while (n > 0 && failure == null) {
+                        int c = Math.min(n, buf.length - len);
+                        System.arraycopy(b, off, buf, len, c);
+                        len += c;
+                        off += c;
+                        n -= c;
+                        if (len == buf.length) flushPart();
+                    }
+                }
+
+                private void flushPart() throws InterruptedIOException {
+                    submit(++part, buf, len);
+                    buf = len == partSize ? takeBuffer() : null;
+                    len = 0;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // 最后一段（S3 允许最后一段小于 5 MB）；空归档也要有一段
+                        if (buf != null && failure == null && (len > 0 || part == 0)) flushPart();
+                    }
+                }
+            };
+        }
+
+        private void submit(int partNumber, byte[] data, int len) throws InterruptedIOException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("上传被中断");
+            }
+            try {
+                pending.add(pool.submit(() -> {
+                    try {
+                        if (failure == null) etags.put(partNumber, uploadPartWithRetry(this, partNumber, data, len));
+                    } catch (IOException e) {
+                        fail(e);
+                    } finally {
+                        inFlight.release();
+                        if (data.length == RemoteSink.this.partSize) buffers.offer(data);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                fail(new IOException("上传线程池已关闭"));
+            }
+        }
+
+        void fail(IOException e) {
+            if (failure == null) failure = e;
+        }
+
+        /**
+         * 归档关闭后调用：等待在途分段并合并。失败时保留续传记录并返回 false（本地备份不受影响）。
+         */
+        boolean finish() {
+            if (finished) return failure == null;
+            finished = true;
+            waitPending();
+            if (failure == null) {
+                try {
+                    client.completeMultipartUpload(key, uploadId, etags);
+                    stateFile.delete();
+                    return true;
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            warn("远程上传 " + key + " 未完成（" + failure.getMessage() + "），已完成 " + etags.size() + " 段，下次备份时续传。");
+            saveStateQuietly();
+            return false;
+        }
+
+        /** 本地写出失败时调用：丢弃远程已上传的分段与续传记录。 */
+        void abort() {
+            fail(new IOException("已取消"));
+            finished = true;
+            waitPending();
+            if (uploadId != null) {
+                try {
+                    client.abortMultipartUpload(key, uploadId);
+                } catch (IOException e) {
+                    warn("无法取消远程分段上传 " + key + ": " + e.getMessage());
+                }
+            }
+            stateFile.delete();
+        }
+
+        private void waitPending() {
+            List<Future<?>> list;
+            synchronized (pending) {
+                list = new ArrayList<>(pending);
+            }
+            for (Future<?> f : list) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(new InterruptedIOException("上传被中断"));
+                    return;
+                } catch (ExecutionException e) {
+                    fail(new IOException(String.valueOf(e.getCause()), e.getCause()));
+                }
+            }
+        }
+
+        /** 从本地文件补传缺少的分段并合并；远程的分段上传已失效时从头开始。 */
+        void resume() throws IOException {
+            long length = local.length();
+            int parts = (int) Math.max(1, (length + partSize - 1) / partSize);
+            for (int round = 0; ; round++) {
+                failure = null;
+                pending.clear();
+                if (uploadId == null) {
+                    etags.clear();
+                    uploadId = client.createMultipartUpload(key);
+                    saveState();
+                }
+                try (RandomAccessFile raf = new RandomAccessFile(local, "r")) {
+                    for (int p = 1; p <= parts && failure == null; p++) {
+                        if (etags.containsKey(p)) continue;
+                        int len = (int) Math.min(partSize, length - (long) (p - 1) * partSize);
+                        byte[] data = len == RemoteSink.this.partSize ? takeBuffer() : new byte[len];
+                        raf.seek((long) (p - 1) * partSize);
+                        raf.readFully(data, 0, len);
+                        submit(p, data, len);
+                    }
+                }
+                waitPending();
+                IOException e = failure;
+                if (e == null) {
+                    try {
+                        client.completeMultipartUpload(key, uploadId, etags);
+                        stateFile.delete();
+                        return;
+                    } catch (IOException ce) {
+                        e = ce;
+                    }
+                }
+                // 分段上传已过期或被清理（NoSuchUpload）：整个对象重新上传一次
+                if (round == 0 && e instanceof S3Client.S3Exception && "NoSuchUpload".equals(((S3Client.S3Exception) e).code)) {
+                    uploadId = null;
+                    continue;
+                }
+                failure = e;
+                throw e;
+            }
+        }
+
+        private void saveState() throws IOException {
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                w.write(STATE_HEADER + "\n");
+                w.write("key\t" + key + "\n");
+                w.write("upload-id\t" + (uploadId != null ? uploadId : "-") + "\n");
+                w.write("part-size\t" + partSize + "\n");
+                for (Map.Entry<Integer, String> e : etags.entrySet()) w.write("part\t" + e.getKey() + "\t" + e.getValue() + "\n");
+            }
+            Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void saveStateQuietly() {
+            try {
+                saveState();
+            } catch (IOException e) {
+                warn("无法写入上传记录 " + stateFile.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 还原引擎（不依赖 Bukkit，由 /ebu restore 与离线工具 {@link RestoreTool} 共用）。
+ * <p>
+ * {@link #plan} 按选择器挑出要还原的条目 → {@link #extract} 多线程解压到暂存目录
+ * {@code <服务器根目录>/.ebu-restore/<编号>/new} → {@link #swap} 把现有的目录或文件改名移到 {@code .../old}，
+ * 再把暂存的改名移入（同一文件系统内的原子改名）；任何一步失败都按相反顺序撤销。原有内容保留在 old 中，确认后手动删除。
+ * <p>
+ * ZIP 经中央目录随机访问、仓库快照按清单逐文件还原，耗时只与还原的内容成正比；tar 类归档只能顺序解压整条流。
+ * 加密的归档（{@link ArchiveCipher}）流式解密：tar 类边解密边解压，ZIP 先解密到暂存目录再随机访问。
+ * <p>
+ * 选择器：
+ * <ul>
+ *   <li>相对路径：{@code world}（整个目录）、{@code world/region/r.1.-2.mca}（单个文件）；</li>
+ *   <li>通配符：{@code world/region/r.*.-1.mca}（** 跨目录，* 不跨目录）；</li>
+ *   <li>方块坐标：{@code world@1200,-340} 或 {@code world_nether/DIM-1@0,0}，还原该坐标所在的区域文件（region、entities、poi）。</li>
+ * </ul>
+ * 不给选择器则还原归档中的全部顶层目录与文件。
+ */
+final class RestoreEngine {
+
+    static final String WORK_DIR = ".ebu-restore";
+    static final String PENDING_FILE = "pending";
+    private static final String UNITS_FILE = "units";
+
+    private final File serverRoot;
+    private final int threads;
+    private final Logger logger;
+    private ArchiveCipher cipher;
+
+    RestoreEngine(File serverRoot, int threads, Logger logger) {
+        this.serverRoot = serverRoot.getAbsoluteFile();
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+    }
+
+    /** 解密加密归档所用的密钥。 */
+    void setCipher(ArchiveCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    /** 解析后的选择器。 */
+    static final class Selection {
+        final List<String> selectors;
+        private final List<String> paths = new ArrayList<>();
+        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<String> patternSources = new ArrayList<>();
+        /** 每个通配符/坐标选择器中不含通配符的目录前缀，用于挑选分片。 */
+        private final List<String> patternRoots = new ArrayList<>();
+
+        private Selection(List<String> selectors) {
+            this.selectors = selectors;
+        }
+
+        boolean isAll() {
+            return paths.isEmpty() && patterns.isEmpty();
+        }
+
+        boolean matches(String name) {
+            if (isAll()) return true;
+            for (String p : paths) {
+                if (name.equals(p) || name.startsWith(p + "/")) return true;
+            }
+            for (Pattern p : patterns) {
+                if (p.matcher(name).matches()) return true;
+            }
+            return false;
+        }
+
+        /** 包含 prefixes 下文件的归档是否可能有匹配的条目；prefixes 为空表示未知（可能包含任何路径）。 */
+        boolean mayTouch(List<String> prefixes) {
+            if (isAll() || prefixes.isEmpty()) return true;
+            List<String> roots = new ArrayList<>(paths);
+            roots.addAll(patternRoots);
+            for (String r : roots) {
+                for (String p : prefixes) {
+                    if (r.isEmpty() || r.equals(p) || r.startsWith(p + "/") || p.startsWith(r + "/")) return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 根据实际匹配到的条目确定替换单元：路径选择器整体替换（目录或文件），通配符与坐标逐个文件替换。
+         * 某个选择器什么也没匹配到时抛出 IOException。
+         */
+        List<String> units(Collection<String> names) throws IOException {
+            Set<String> units = new TreeSet<>();
+            if (isAll()) {
+                for (String n : names) {
+                    int slash = n.indexOf('/');
+                    units.add(slash < 0 ? n : n.substring(0, slash));
+                }
+                return new ArrayList<>(units);
+            }
+            for (String p : paths) {
+                boolean any = false;
+                for (String n : names) {
+                    if (n.equals(p) || n.startsWith(p + "/")) {
+                        any = true;
+                        break;
+                    }
+                }
+                if (!any) throw new IOException("备份中没有: " + p);
+                units.add(p);
+            }
+            for (int i = 0; i < patterns.size(); i++) {
+                boolean any = false;
+                for (String n : names) {
+                    if (patterns.get(i).matcher(n).matches()) {
+                        units.add(n);
+                        any = true;
+                    }
+                }
+                if (!any) throw new IOException("备份中没有匹配 " + patternSources.get(i) + " 的文件");
+            }
+            // 去掉已被某个目录单元包含的单元
+            List<String> out = new ArrayList<>();
+            for (String u : units) {
+                boolean covered = false;
+                for (String o : out) {
+                    if (u.startsWith(o + "/")) {
+                        covered = true;
+                        break;
+                    }
+                }
+                if (!covered) out.add(u);
+            }
+            return out;
+        }
+    }
+
+    static Selection select(List<String> selectors) {
+        Selection s = new Selection(selectors);
+        for (String raw : selectors) {
+            String sel = normalize(raw);
+            if (sel.isEmpty()) continue;
+            int at = sel.lastIndexOf('@');
+            if (at > 0 && sel.indexOf(',', at) > 0) {
+                String dim = sel.substring(0, at);
+                String[] xz = sel.substring(at + 1).split(",");
+                if (xz.length != 2) throw new IllegalArgumentException("坐标格式应为 <目录>@<x>,<z>: " + raw);
+                int rx = Math.floorDiv(Integer.parseInt(xz[0].trim()), 512);
+                int rz = Math.floorDiv(Integer.parseInt(xz[1].trim()), 512);
+                s.patterns.add(Pattern.compile(Pattern.quote(dim + "/") + "(?:region|entities|poi)" + Pattern.quote("/r." + rx + "." + rz + ".mca")));
+                s.patternSources.add(raw);
+                s.patternRoots.add(dim);
+            } else if (sel.indexOf('*') >= 0 || sel.indexOf('?') >= 0) {
+                s.patterns.add(Pattern.compile(CompressionPolicy.globToRegex(sel)));
+                s.patternSources.add(raw);
+                int wild = 0;
+                while ("*?".indexOf(sel.charAt(wild)) < 0) wild++;
+                s.patternRoots.add(sel.substring(0, Math.max(0, sel.lastIndexOf('/', wild))));
+            } else {
+                s.paths.add(sel);
+            }
+        }
+        return s;
+    }
+
+    private static String normalize(String raw) {
+        String s = raw.trim().replace('\\', '/');
+        while (s.startsWith("./")) s = s.substring(2);
+        while (s.startsWith("/")) s = s.substring(1);
+        while (s.endsWith("/")) s = s.substring(0, s.length() - 1);
+        return s;
+    }
+
+    /** 还原计划：要解压的条目与要替换的单元。tar 类归档不列出条目，单元在解压后确定。 */
+    static final class Plan {
+        final File archive;
+        final ArchiveCodec codec;
+        final Selection selection;
+        final Map<String, Long> entries;
+        final List<String> units;
+        final long bytes;
+        /** 分片备份中要读取的分片；单个归档为 null。 */
+        final List<Plan> parts;
+
+        Plan(File archive, ArchiveCodec codec, Selection selection, Map<String, Long> entries, List<String> units) {
+            this(archive, codec, selection, entries, units, null);
+        }
+
+        Plan(File archive, ArchiveCodec codec, Selection selection, Map<String, Long> entries, List<String> units, List<Plan> parts) {
+            this.archive = archive;
+            this.codec = codec;
+            this.selection = selection;
+            this.entries = entries;
+            this.units = units;
+            this.parts = parts;
+            long sum = 0;
+            if (entries != null) for (long v : entries.values()) sum += v;
+            this.bytes = sum;
+        }
+
+        boolean isRepository() {
+            return archive.getName().endsWith(ChunkRepository.SNAPSHOT_SUFFIX);
+        }
+
+        /** 是否已知条目（ZIP 与仓库快照）；tar 类与加密的 ZIP 要解压时才知道。 */
+        boolean isIndexed() {
+            return entries != null;
+        }
+    }
+
+    Plan plan(File archive, List<String> selectors) throws IOException {
+        Selection selection = select(selectors);
+        if (!ShardedArchive.isSharded(archive)) {
+            Plan p = planArchive(archive, selection);
+            return p.isIndexed() ? new Plan(archive, p.codec, selection, p.entries, selection.units(p.entries.keySet())) : p;
+        }
+        // 分片备份：只读取可能包含所选路径的分片
+        List<Plan> parts = new ArrayList<>();
+        Map<String, Long> merged = new LinkedHashMap<>();
+        boolean indexed = true;
+        for (Map.Entry<File, List<String>> shard : ShardedArchive.readIndex(archive).entrySet()) {
+            if (!selection.mayTouch(shard.getValue())) continue;
+            Plan p = planArchive(shard.getKey(), selection);
+            if (p.isIndexed()) {
+                if (p.entries.isEmpty()) continue;
+                merged.putAll(p.entries);
+            } else {
+                indexed = false;
+            }
+            parts.add(p);
+        }
+        if (parts.isEmpty()) throw new IOException("备份中没有匹配的内容: " + selectors);
+        return new Plan(archive, parts.get(0).codec, selection, indexed ? merged : null,
+                indexed ? selection.units(merged.keySet()) : null, parts);
+    }
+
+    /** 单个归档中匹配的条目（不检查选择器是否都有匹配）。 */
+    private static Plan planArchive(File archive, Selection selection) throws IOException {
+        if (archive.getName().endsWith(ChunkRepository.SNAPSHOT_SUFFIX)) {
+            Map<String, Long> entries = new LinkedHashMap<>();
+            for (ChunkRepository.FileRecord r : ChunkRepository.readSnapshot(archive)) {
+                if (selection.matches(r.path)) entries.put(checkName(r.path), r.size);
+            }
+            return new Plan(archive, null, selection, entries, null);
+        }
+        ArchiveCodec codec = ArchiveCodec.forFileName(archive.getName());
+        if (codec == null) throw new IOException("无法识别的归档格式: " + archive.getName());
+        // 加密的 ZIP 要解密后才能读取中央目录：与 tar 一样到解压时才知道条目
+        if (codec != ArchiveCodec.ZIP || ArchiveCipher.isEncrypted(archive)) {
+            return new Plan(archive, codec, selection, null, null);
+        }
+        Map<String, Long> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> en = zip.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry e = en.nextElement();
+                if (e.isDirectory() || !selection.matches(e.getName())) continue;
+                entries.put(checkName(e.getName()), Math.max(0L, e.getSize()));
+            }
+        }
+        return new Plan(archive, codec, selection, entries, null);
+    }
+
+    /** 拒绝绝对路径与 ".."，防止条目写到暂存目录之外。 */
+    private static String checkName(String name) throws IOException {
+        if (name.startsWith("/") || name.contains("\\") || name.contains(":")) throw new IOException("非法的条目名: " + name);
+        for (String part : name.split("/")) {
+            if (part.equals("..")) throw new IOException("非法的条目名: " + name);
+        }
+        return name;
+    }
+
+    /** 已解压到暂存目录、等待替换的还原。 */
+    static final class Staged {
+        final File workDir;
+        final List<String> units;
+        final long files;
+        final long bytes;
+
+        Staged(File workDir, List<String> units, long files, long bytes) {
+            this.workDir = workDir;
+            this.units = units;
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        File newDir() {
+            return new File(workDir, "new");
+        }
+
+        File oldDir() {
+            return new File(workDir, "old");
+        }
+    }
+
+    /** 解压到新的暂存目录（分片备份的各分片同时解压）。失败时删除暂存目录并抛出。 */
+    Staged extract(Plan plan) throws IOException {
+        File workDir = new File(new File(serverRoot, WORK_DIR), new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+        for (int i = 2; workDir.exists(); i++) workDir = new File(workDir.getParentFile(), workDir.getName().replaceAll("_\\d+$", "") + "_" + i);
+        File newDir = new File(workDir, "new");
+        if (!newDir.mkdirs()) throw new IOException("无法创建暂存目录: " + newDir);
+        try {
+            List<String> names = Collections.synchronizedList(new ArrayList<>());
+            long bytes;
+            if (plan.parts == null) {
+                bytes = extractPart(plan, newDir, names);
+            } else {
+                List<Callable<Long>> tasks = new ArrayList<>();
+                for (Plan part : plan.parts) tasks.add(() -> extractPart(part, newDir, names));
+                bytes = 0;
+                for (long b : runAll(tasks, Math.min(threads, plan.parts.size()), "EasyBackUp-Restore-Shard-")) bytes += b;
+            }
+            Staged staged = new Staged(workDir, plan.selection.units(names), names.size(), bytes);
+            writeUnits(staged);
+            return staged;
+        } catch (IOException | RuntimeException e) {
+            deleteTree(workDir.toPath());
+            throw e;
+        }
+    }
+
+    /** 解压一个归档中选中的条目，条目名加入 names；返回解压的字节数。 */
+    private long extractPart(Plan plan, File newDir, List<String> names) throws IOException {
+        if (plan.isRepository()) {
+            extractRepository(plan, newDir);
+        } else if (plan.codec == ArchiveCodec.ZIP && !plan.isIndexed()) {
+            return extractEncryptedZip(plan, newDir, names);
+        } else if (plan.codec == ArchiveCodec.ZIP) {
+            extractZip(plan, newDir);
+        } else {
+            return extractTar(plan, newDir, names);
+        }
+        names.addAll(plan.entries.keySet());
+        return plan.bytes;
+    }
+
+    private void extractZip(Plan plan, File newDir) throws IOException {
+        extractZip(plan.archive, plan.entries.keySet(), newDir);
+    }
+
+    /** 加密的 ZIP：解密到暂存目录旁的临时文件，按选择器挑出条目后照常并行解压。 */
+    private long extractEncryptedZip(Plan plan, File newDir, List<String> names) throws IOException {
+        if (cipher == null) throw new IOException("归档已加密，但没有可用的密钥（encryption.key-file）");
+        File plain = new File(newDir.getParentFile(), plan.archive.getName() + ".plain");
+        try {
+            cipher.decryptTo(plan.archive, plain);
+            Map<String, Long> entries = new LinkedHashMap<>();
+            try (ZipFile zip = new ZipFile(plain)) {
+                Enumeration<? extends ZipEntry> en = zip.entries();
+                while (en.hasMoreElements()) {
+                    ZipEntry e = en.nextElement();
+                    if (e.isDirectory() || !plan.selection.matches(e.getName())) continue;
+                    entries.put(checkName(e.getName()), Math.max(0L, e.getSize()));
+                }
+            }
+            extractZip(plain, entries.keySet(), newDir);
+            names.addAll(entries.keySet());
+            long bytes = 0;
+            for (long v : entries.values()) bytes += v;
+            return bytes;
+        } finally {
+            plain.delete();
+        }
+    }
+
+    private void extractZip(File archive, Collection<String> selected, File newDir) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            List<ZipEntry> entries = new ArrayList<>();
+            for (String name : selected) entries.add(zip.getEntry(name));
+            // 大文件先开始，避免最后只剩一个线程在解压大文件
+            entries.sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (ZipEntry e : entries) {
+                File out = new File(newDir, e.getName());
+                tasks.add(() -> {
+                    CRC32 crc = new CRC32();
+                    try (InputStream in = zip.getInputStream(e); OutputStream os = new FileOutputStream(out)) {
+                        copy(in, os, crc);
+                    }
+                    if (e.getCrc() != -1 && crc.getValue() != e.getCrc()) throw new IOException("CRC 校验失败: " + e.getName());
+                    if (e.getTime() > 0) out.setLastModified(e.getTime());
+                    return null;
+                });
+            }
+            runParallel(newDir, selected, tasks);
+        }
+    }
+
+    private void extractRepository(Plan plan, File newDir) throws IOException {
+        // 快照位于 <仓库>/snapshots/ 下
+        ChunkRepository repo = new ChunkRepository(plan.archive.getAbsoluteFile().getParentFile().getParentFile(), logger);
+        List<ChunkRepository.FileRecord> records = new ArrayList<>();
+        for (ChunkRepository.FileRecord r : ChunkRepository.readSnapshot(plan.archive)) {
+            if (plan.entries.containsKey(r.path)) records.add(r);
+        }
+        records.sort((a, b) -> Long.compare(b.size, a.size));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (ChunkRepository.FileRecord r : records) {
+            tasks.add(() -> {
+                repo.extractFile(r, new File(newDir, r.path));
+                return null;
+            });
+        }
+        runParallel(newDir, plan.entries.keySet(), tasks);
+    }
+
+    private long extractTar(Plan plan, File newDir, List<String> names) throws IOException {
+        long bytes = 0;
+        try (TarArchiveReader tar = new TarArchiveReader(plan.codec.openTarInput(plan.archive, 1024 * 1024, cipher))) {
+            TarArchiveReader.Entry e;
+            while ((e = tar.next()) != null) {
+                if (!e.regularFile || !plan.selection.matches(e.name)) continue;
+                File out = new File(newDir, checkName(e.name));
+                File parent = out.getParentFile();
+                if (!parent.mkdirs() && !parent.isDirectory()) throw new IOException("无法创建目录: " + parent);
+                try (OutputStream os = new FileOutputStream(out)) {
+                    copy(tar.content(), os, null);
+                }
+                if (e.lastModified > 0) out.setLastModified(e.lastModified);
+                names.add(e.name);
+                bytes += e.size;
+            }
+        }
+        return bytes;
+    }
+
+    /** 先按顺序建好所有目录（避免多个线程同时 mkdirs），再并行执行解压任务。 */
+    private void runParallel(File newDir, Collection<String> names, List<Callable<Void>> tasks) throws IOException {
+        Set<File> dirs = new HashSet<>();
+        for (String n : names) dirs.add(new File(newDir, n).getParentFile());
+        for (File d : dirs) {
+            if (!d.mkdirs() && !d.isDirectory()) throw new IOException("无法创建目录: " + d);
+        }
+        runAll(tasks, threads, "EasyBackUp-Restore-");
+    }
+
+    /** 用 poolSize 个线程执行全部任务，按完成顺序返回结果；任何一个失败则取消其余任务并抛出。 */
+    private <T> List<T> runAll(List<Callable<T>> tasks, int poolSize, String threadName) throws IOException {
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(poolSize, tasks.size())), r -> {
+            Thread t = new Thread(r, threadName + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            ExecutorCompletionService<T> ecs = new ExecutorCompletionService<>(pool);
+            for (Callable<T> t : tasks) ecs.submit(t);
+            List<T> results = new ArrayList<>();
+            int every = Math.max(1, tasks.size() / 10);
+            for (int done = 1; done <= tasks.size(); done++) {
+                try {
+                    results.add(ecs.take().get());
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    throw c instanceof IOException ? (IOException) c : new IOException("解压失败: " + c, c);
+                }
+                if (logger != null && tasks.size() >= 100 && done % every == 0 && done < tasks.size()) {
+                    logger.info("还原进度: " + done + "/" + tasks.size() + " 个文件");
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("还原被中断");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, CRC32 crc) throws IOException {
+        byte[] buf = new byte[256 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+            if (crc != null) crc.update(buf, 0, n);
+        }
+    }
+
+    /**
+     * 用暂存的内容替换服务器中的对应目录/文件。每个单元：现有的移到 old，暂存的移入；
+     * 失败时已完成的单元按相反顺序撤销，然后抛出。
+     */
+    void swap(Staged staged) throws IOException {
+        Path root = serverRoot.toPath();
+        Path newDir = staged.newDir().toPath();
+        Path oldDir = staged.oldDir().toPath();
+        List<String> done = new ArrayList<>();
+        try {
+            for (String unit : staged.units) {
+                Path live = root.resolve(unit);
+                Path fresh = newDir.resolve(unit);
+                Path old = oldDir.resolve(unit);
+                Files.createDirectories(old.getParent());
+                boolean hadLive = Files.exists(live, LinkOption.NOFOLLOW_LINKS);
+                if (hadLive) Files.move(live, old, StandardCopyOption.ATOMIC_MOVE);
+                try {
+                    Files.createDirectories(live.getParent());
+                    Files.move(fresh, live, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    if (hadLive) Files.move(old, live, StandardCopyOption.ATOMIC_MOVE);
+                    throw e;
+                }
+                done.add(unit);
+            }
+        } catch (IOException e) {
+            for (int i = done.size() - 1; i >= 0; i--) {
+                String unit = done.get(i);
+                try {
+                    Files.move(root.resolve(unit), newDir.resolve(unit), StandardCopyOption.ATOMIC_MOVE);
+                    Path old = oldDir.resolve(unit);
+                    if (Files.exists(old, LinkOption.NOFOLLOW_LINKS)) Files.move(old, root.resolve(unit), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException undo) {
+                    if (logger != null) logger.severe("撤销 " + unit + " 失败，原有内容在 " + oldDir.resolve(unit) + ": " + undo.getMessage());
+                }
+            }
+            throw new IOException("替换失败，已撤销（暂存与服务器须在同一文件系统）: " + e.getMessage(), e);
+        }
+        deleteTree(newDir);
+        Files.deleteIfExists(staged.workDir.toPath().resolve(UNITS_FILE));
+        if (logger != null) {
+            logger.info("已还原 " + staged.units.size() + " 项：" + staged.units + "；原有内容已移至 " + oldDir + "，确认无误后可删除。");
+        }
+    }
+
+    /** 服务器运行中无法安全替换时：记下暂存目录，下次启动（插件 onLoad，世界加载之前）再替换。 */
+    void schedule(Staged staged) throws IOException {
+        Files.write(new File(new File(serverRoot, WORK_DIR), PENDING_FILE).toPath(),
+                staged.workDir.getName().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** 执行待替换的还原（如有）；返回是否执行了。 */
+    static boolean applyPending(File serverRoot, Logger logger) {
+        File pending = new File(new File(serverRoot, WORK_DIR), PENDING_FILE);
+        if (!pending.isFile()) return false;
+        try {
+            String id = new String(Files.readAllBytes(pending.toPath()), StandardCharsets.UTF_8).trim();
+            Files.delete(pending.toPath());
+            Staged staged = readUnits(new File(pending.getParentFile(), id));
+            if (logger != null) logger.info("执行上次暂存的还原: " + id);
+            new RestoreEngine(serverRoot, 1, logger).swap(staged);
+            return true;
+        } catch (IOException e) {
+            if (logger != null) logger.severe("执行暂存的还原失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** 取消待替换的还原并删除其暂存目录；没有时返回 false。 */
+    static boolean cancelPending(File serverRoot) throws IOException {
+        File pending = new File(new File(serverRoot, WORK_DIR), PENDING_FILE);
+        if (!pending.isFile()) return false;
+        String id = new String(Files.readAllBytes(pending.toPath()), StandardCharsets.UTF_8).trim();
+        Files.delete(pending.toPath());
+        if (!id.isEmpty()) deleteTree(new File(pending.getParentFile(), id).toPath());
+        return true;
+    }
+
+    private static void writeUnits(Staged staged) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(staged.files + "\t" + staged.bytes);
+        lines.addAll(staged.units);
+        Files.write(new File(staged.workDir, UNITS_FILE).toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    private static Staged readUnits(File workDir) throws IOException {
+        List<String> lines = Files.readAllLines(new File(workDir, UNITS_FILE).toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty()) throw new IOException("暂存目录不完整: " + workDir);
+        String[] counts = lines.get(0).split("\t");
+        return new Staged(workDir, new ArrayList<>(lines.subList(1, lines.size())),
+                Long.parseLong(counts[0]), Long.parseLong(counts[1]));
+    }
+
+    /**
+     * 被运行中的服务器锁定的世界（其 session.lock 无法加锁）。检查每个单元自身及其上级目录中的 session.lock，
+     * 供离线工具确认服务器已停止。
+     */
+    List<String> lockedWorlds(List<String> units) {
+        Set<String> locked = new TreeSet<>();
+        for (String unit : units) {
+            List<File> candidates = new ArrayList<>();
+            File f = new File(serverRoot, unit);
+            candidates.add(new File(f, "session.lock"));
+            for (File p = f.getParentFile(); p != null && p.getAbsolutePath().startsWith(serverRoot.getAbsolutePath()); p = p.getParentFile()) {
+                candidates.add(new File(p, "session.lock"));
+            }
+            for (File lock : candidates) {
+                if (lock.isFile() && isLocked(lock)) locked.add(lock.getParentFile().getAbsolutePath());
+            }
+        }
+        return new ArrayList<>(locked);
+    }
+
+    private static boolean isLocked(File lock) {
+        try (FileChannel ch = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+            FileLock l = ch.tryLock();
+            if (l == null) return true;
+            l.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            // Windows 上被占用的文件直接打不开
+            return true;
+        }
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) return;
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            List<Path> paths = new ArrayList<>();
+            walk.forEach(paths::add);
+            Collections.reverse(paths);
+            for (Path p : paths) Files.deleteIfExists(p);
+        }
+    }
+
+    static String describe(Staged staged) {
+        return staged.files + " 个文件（" + (staged.bytes / 1024 / 1024) + " MB），替换 " + staged.units;
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * 离线还原（服务器停止时使用）：
+ * <pre>
+ * java -jar EasyBackUp.jar &lt;归档&gt; [--root 服务器目录] [--threads N] [--key 密钥文件] [--dry-run] [--force] [路径...]
+ * </pre>
+ * 加密的归档需要用 --key 指定备份时的密钥文件（默认为 plugins/EasyBackUp/backup.key）。
+ * 路径的写法见 {@link RestoreEngine}；tar.zst / tar.lz4 需要把对应的压缩库 jar 加到 classpath
+ * （{@code java -cp EasyBackUp.jar:zstd-jni.jar io.github.wzqLovesPizza.easybackup.RestoreTool ...}）。
+ */
+public final class RestoreTool {
+
+    private RestoreTool() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        File archive = null;
+        File root = new File(".");
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean dryRun = false;
+        boolean force = false;
+        File keyFile = null;
+        List<String> selectors = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--root":
+                        root = new File(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--key":
+                        keyFile = new File(args[++i]);
+                        break;
+                    case "--dry-run":
+                        dryRun = true;
+                        break;
+                    case "--force":
+                        force = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage();
+                        return 0;
+                    default:
+                        if (archive == null) archive = new File(args[i]);
+                        else selectors.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+            return 2;
+        }
+        if (archive == null) {
+            usage();
+            return 2;
+        }
+        if (!archive.isFile()) {
+            System.err.println("找不到归档: " + archive);
+            return 2;
+        }
+
+        Logger logger = Logger.getLogger("EasyBackUp-Restore");
+        logger.setUseParentHandlers(false);
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setFormatter(new SimpleFormatter() {
+            @Override
+            public synchronized String format(java.util.logging.LogRecord r) {
+                return "[" + r.getLevel() + "] " + r.getMessage() + System.lineSeparator();
+            }
+        });
+        logger.addHandler(handler);
+
+        RestoreEngine engine = new RestoreEngine(root, threads, logger);
+        try {
+            if (keyFile == null) {
+                File defaultKey = new File(root, "plugins/EasyBackUp/backup.key");
+                if (defaultKey.isFile()) keyFile = defaultKey;
+            }
+            if (keyFile != null) engine.setCipher(ArchiveCipher.load(keyFile));
+            RestoreEngine.Plan plan = engine.plan(archive, selectors);
+            if (plan.isIndexed()) {
+                System.out.println("将还原 " + plan.entries.size() + " 个文件（" + plan.bytes / 1024 / 1024 + " MB），替换: " + plan.units);
+                if (!force) {
+                    List<String> locked = engine.lockedWorlds(plan.units);
+                    if (!locked.isEmpty()) {
+                        System.err.println("以下世界正被运行中的服务器使用，请先停止服务器（或加 --force）: " + locked);
+                        return 1;
+                    }
+                }
+            } else {
+                System.out.println(plan.codec.id + " 归档只能顺序读取，将完整读一遍并解压匹配的文件。");
+            }
+            if (dryRun) return 0;
+            long start = System.currentTimeMillis();
+            RestoreEngine.Staged staged = engine.extract(plan);
+            System.out.println("已解压 " + RestoreEngine.describe(staged) + "，用时 " + (System.currentTimeMillis() - start) / 1000.0 + "s");
+            if (!force) {
+                List<String> locked = engine.lockedWorlds(staged.units);
+                if (!locked.isEmpty()) {
+                    System.err.println("以下世界正被运行中的服务器使用，暂存内容保留在 " + staged.workDir + ": " + locked);
+                    return 1;
+                }
+            }
+            engine.swap(staged);
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("还原失败: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static void usage() {
+        System.out.println("用法: java -jar EasyBackUp.jar <归档> [--root 服务器目录] [--threads N] [--key 密钥文件] [--dry-run] [--force] [路径...]");
+        System.out.println("  路径: world | world/region/r.0.0.mca | 'world/region/r.*.-1.mca' | world@1200,-340");
+        System.out.println("  不给路径则还原归档中的全部内容；原有内容移到 <服务器目录>/" + RestoreEngine.WORK_DIR + "/<编号>/old");
+    }
+}
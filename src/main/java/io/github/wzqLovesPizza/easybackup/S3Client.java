@@ -0,0 +1,269 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 最小的 S3 兼容客户端（AWS S3、MinIO、R2 等）：分段上传、删除与列举，请求用 AWS Signature V4 签名。
+ * <p>
+ * 只用 JDK 自带的 HttpClient，不引入 SDK；每个分段的内容哈希写入 x-amz-content-sha256，服务端据此核对传输是否完整。
+ */
+final class S3Client {
+
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final Pattern ERROR_CODE = Pattern.compile("<Code>([^<]*)</Code>");
+
+    /** S3 返回的错误；5xx、429 与 SlowDown 可以重试。 */
+    static final class S3Exception extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        final String code;
+
+        S3Exception(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+
+        boolean isRetryable() {
+            return status >= 500 || status == 429 || "SlowDown".equals(code) || "RequestTimeout".equals(code);
+        }
+    }
+
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final boolean pathStyle;
+    private final String accessKey;
+    private final String secretKey;
+    private final HttpClient http;
+
+    S3Client(URI endpoint, String region, String bucket, boolean pathStyle, String accessKey, String secretKey) {
+        this.endpoint = endpoint;
+        this.region = region;
+        this.bucket = bucket;
+        this.pathStyle = pathStyle;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    String getBucket() {
+        return bucket;
+    }
+
+    /** 开始分段上传，返回 UploadId。 */
+    String createMultipartUpload(String key) throws IOException {
+        String body = send("POST", key, query("uploads", ""), null, 0, 0);
+        String id = xmlValue(body, "UploadId");
+        if (id == null) throw new IOException("CreateMultipartUpload 响应中没有 UploadId");
+        return id;
+    }
+
+    /** 上传一个分段（编号从 1 开始），返回 ETag。 */
+    String uploadPart(String key, String uploadId, int partNumber, byte[] data, int len) throws IOException {
+        HttpResponse<String> r = exchange("PUT", key, query("partNumber", Integer.toString(partNumber), "uploadId", uploadId), data, 0, len);
+        return r.headers().firstValue("ETag").orElseThrow(() -> new IOException("UploadPart 响应中没有 ETag"));
+    }
+
+    /** 按分段编号顺序合并。 */
+    void completeMultipartUpload(String key, String uploadId, SortedMap<Integer, String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (Map.Entry<Integer, String> e : etags.entrySet()) {
+            xml.append("<Part><PartNumber>").append(e.getKey()).append("</PartNumber><ETag>")
+                    .append(escapeXml(e.getValue())).append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        byte[] data = xml.toString().getBytes(StandardCharsets.UTF_8);
+        String body = send("POST", key, query("uploadId", uploadId), data, 0, data.length);
+        // 合并失败时 S3 也可能返回 200，错误写在响应体里
+        if (body.contains("<Error>")) throw error(200, body);
+    }
+
+    void abortMultipartUpload(String key, String uploadId) throws IOException {
+        send("DELETE", key, query("uploadId", uploadId), null, 0, 0);
+    }
+
+    void deleteObject(String key) throws IOException {
+        send("DELETE", key, Collections.emptySortedMap(), null, 0, 0);
+    }
+
+    /** 列出 prefix 下的全部对象键。 */
+    List<String> listKeys(String prefix) throws IOException {
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            SortedMap<String, String> q = query("list-type", "2", "prefix", prefix);
+            if (token != null) q.put("continuation-token", token);
+            String body = send("GET", null, q, null, 0, 0);
+            keys.addAll(xmlValues(body, "Key"));
+            token = "true".equals(xmlValue(body, "IsTruncated")) ? xmlValue(body, "NextContinuationToken") : null;
+        } while (token != null);
+        return keys;
+    }
+
+    private String send(String method, String key, SortedMap<String, String> query, byte[] data, int off, int len) throws IOException {
+        return exchange(method, key, query, data, off, len).body();
+    }
+
+    private HttpResponse<String> exchange(String method, String key, SortedMap<String, String> query,
+                                          byte[] data, int off, int len) throws IOException {
+        String host = endpoint.getHost();
+        if (!pathStyle) host = bucket + "." + host;
+        int port = endpoint.getPort();
+        boolean defaultPort = port == -1 || (port == 443 && "https".equals(endpoint.getScheme())) || (port == 80 && "http".equals(endpoint.getScheme()));
+        String hostHeader = defaultPort ? host : host + ":" + port;
+
+        String path = pathStyle ? "/" + bucket + "/" : "/";
+        if (key != null) path += key;
+        String canonicalUri = encode(path, false);
+        String canonicalQuery = canonicalQuery(query);
+        String payloadHash = data != null ? sha256Hex(data, off, len) : EMPTY_SHA256;
+        String amzDate = AMZ_DATE.format(ZonedDateTime.now(ZoneOffset.UTC));
+
+        SortedMap<String, String> signed = new TreeMap<>();
+        signed.put("host", hostHeader);
+        signed.put("x-amz-content-sha256", payloadHash);
+        signed.put("x-amz-date", amzDate);
+        String auth = authorization(method, canonicalUri, canonicalQuery, signed, payloadHash,
+                accessKey, secretKey, region, amzDate);
+
+        URI uri = URI.create(endpoint.getScheme() + "://" + hostHeader + canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+        HttpRequest.Builder b = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMinutes(5))
+                .header("x-amz-content-sha256", payloadHash)
+                .header("x-amz-date", amzDate)
+                .header("Authorization", auth)
+                .method(method, data != null ? HttpRequest.BodyPublishers.ofByteArray(data, off, len) : HttpRequest.BodyPublishers.noBody());
+        HttpResponse<String> r;
+        try {
+            r = http.send(b.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("S3 请求被中断");
+        }
+        if (r.statusCode() / 100 != 2) throw error(r.statusCode(), r.body());
+        return r;
+    }
+
+    private static S3Exception error(int status, String body) {
+        Matcher m = ERROR_CODE.matcher(body == null ? "" : body);
+        String code = m.find() ? m.group(1) : "";
+        return new S3Exception(status, code, "S3 请求失败: HTTP " + status + (code.isEmpty() ? "" : " " + code));
+    }
+
+    /**
+     * Signature V4 的 Authorization 头。headers 为参与签名的头（小写名称 → 去掉首尾空白的值）。
+     */
+    static String authorization(String method, String canonicalUri, String canonicalQuery, SortedMap<String, String> headers,
+                                String payloadHash, String accessKey, String secretKey, String region, String amzDate) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            canonicalHeaders.append(h.getKey()).append(':').append(h.getValue().trim()).append('\n');
+        }
+        String signedHeaders = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        byte[] request = canonicalRequest.getBytes(StandardCharsets.UTF_8);
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(request, 0, request.length);
+        byte[] k = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        k = hmac(k, region);
+        k = hmac(k, "s3");
+        k = hmac(k, "aws4_request");
+        String signature = ArchiveManifest.toHex(hmac(k, stringToSign));
+        return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ",SignedHeaders=" + signedHeaders + ",Signature=" + signature;
+    }
+
+    /** 规范查询串：按编码后的键排序，键与值都按 RFC 3986 编码。 */
+    static String canonicalQuery(SortedMap<String, String> query) {
+        SortedMap<String, String> encoded = new TreeMap<>();
+        for (Map.Entry<String, String> e : query.entrySet()) encoded.put(encode(e.getKey(), true), encode(e.getValue(), true));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : encoded.entrySet()) {
+            if (sb.length() > 0) sb.append('&');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /** RFC 3986 百分号编码；encodeSlash 为 false 时保留路径中的 '/'。 */
+    static String encode(String s, boolean encodeSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static SortedMap<String, String> query(String... kv) {
+        SortedMap<String, String> q = new TreeMap<>();
+        for (int i = 0; i < kv.length; i += 2) q.put(kv[i], kv[i + 1]);
+        return q;
+    }
+
+    static String sha256Hex(byte[] data, int off, int len) {
+        MessageDigest md = ArchiveManifest.newSha256();
+        md.update(data, off, len);
+        return ArchiveManifest.toHex(md.digest());
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String xmlValue(String xml, String tag) {
+        List<String> v = xmlValues(xml, tag);
+        return v.isEmpty() ? null : v.get(0);
+    }
+
+    /** 响应体很小且结构固定，按标签取值即可。 */
+    private static List<String> xmlValues(String xml, String tag) {
+        List<String> out = new ArrayList<>();
+        Matcher m = Pattern.compile("<" + tag + ">([^<]*)</" + tag + ">").matcher(xml == null ? "" : xml);
+        while (m.find()) out.add(unescapeXml(m.group(1)));
+        return out;
+    }
+
+    private static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescapeXml(String s) {
+        return s.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,242 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 分世界保存（save.mode: per-world）：代替全服 save-all flush 与 save-off。
+ * <p>
+ * 只保存备份目标涉及的世界，每个世界在单独的 tick 调用 {@link World#save()}（之间间隔 save.ticks-between 个 tick），
+ * 保存前关闭该世界的自动保存；目标只是 playerdata / stats / advancements 时只保存玩家数据。
+ * 世界的文件读取（或暂存）完毕后立即恢复它的自动保存，而不是等整个备份结束。
+ * 多个备份同时持有同一个世界时按持有数计数，最后一个释放的恢复原来的设置。
+ * <p>
+ * {@link World#save()} 不等区块写入完成，这里只能在保存后等待一段固定时间，写入线程未写完时读到的区域文件可能不完整；
+ * 因此默认仍使用 save-all flush，本方式需显式开启。
+ * <p>
+ * 持有数只在主线程读写；备份线程通过 {@link Session} 提交到主线程并等待。
+ */
+final class SaveCoordinator {
+
+    /** 只需保存玩家数据的世界子目录。 */
+    static final Set<String> PLAYER_DIRS = new HashSet<>(Arrays.asList("playerdata", "stats", "advancements"));
+
+    /** 需要保存的世界与是否需要保存玩家数据。 */
+    static final class Plan {
+        /** 世界名 → 世界目录，按 Bukkit.getWorlds() 的顺序。 */
+        final Map<String, Path> worlds = new LinkedHashMap<>();
+        boolean players;
+    }
+
+    private final Plugin plugin;
+    private final Map<String, Integer> holds = new HashMap<>();
+    private final Map<String, Boolean> autoSave = new HashMap<>();
+
+    SaveCoordinator(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 由世界目录与备份目标得出要保存的世界。目标包含世界目录（或就是世界目录）时保存整个世界；
+     * 目标位于世界目录中时，只在 playerdata 等玩家目录下才只保存玩家数据，否则同样保存整个世界。
+     *
+     * @param worldFolders 世界名 → 世界目录（绝对路径），第一个是主世界（玩家数据保存在其中）
+     */
+    static Plan plan(Map<String, Path> worldFolders, List<Path> targets) {
+        Plan plan = new Plan();
+        boolean first = true;
+        for (Map.Entry<String, Path> e : worldFolders.entrySet()) {
+            Path folder = e.getValue().toAbsolutePath().normalize();
+            for (Path t : targets) {
+                Path target = t.toAbsolutePath().normalize();
+                if (folder.startsWith(target)) {
+                    plan.worlds.put(e.getKey(), folder);
+                    if (first) plan.players = true;
+                } else if (target.startsWith(folder)) {
+                    if (PLAYER_DIRS.contains(folder.relativize(target).getName(0).toString().toLowerCase(Locale.ROOT))) {
+                        if (first) plan.players = true;
+                    } else {
+                        plan.worlds.put(e.getKey(), folder);
+                    }
+                }
+            }
+            first = false;
+        }
+        return plan;
+    }
+
+    /**
+     * 逐个 tick 保存与 targets 相关的世界并关闭它们的自动保存，阻塞到全部完成。
+     * World.save() 只把区块交给异步写入线程，之后再等 flushWaitMillis 让它落盘。
+     * 中途失败时释放已持有的世界并抛出异常（调用方可退回 save-all）。
+     */
+    Session save(List<File> targets, int ticksBetween, long flushWaitMillis) throws ExecutionException, InterruptedException {
+        List<Path> paths = new ArrayList<>();
+        for (File t : targets) paths.add(t.toPath());
+        Plan plan = callSync(() -> {
+            Map<String, Path> folders = new LinkedHashMap<>();
+            for (World w : Bukkit.getWorlds()) folders.put(w.getName(), w.getWorldFolder().toPath());
+            return plan(folders, paths);
+        });
+        Session session = new Session(plan);
+        try {
+            if (plan.players) {
+                session.record("players", callSync(() -> {
+                    long start = System.nanoTime();
+                    Bukkit.savePlayers();
+                    return (System.nanoTime() - start) / 1_000_000L;
+                }));
+            }
+            for (String name : plan.worlds.keySet()) {
+                if (ticksBetween > 1) Thread.sleep(50L * (ticksBetween - 1));
+                long millis = callSync(() -> {
+                    World w = Bukkit.getWorld(name);
+                    if (w == null) return -1L; // 已卸载
+                    hold(w);
+                    long start = System.nanoTime();
+                    try {
+                        w.save();
+                    } catch (RuntimeException e) {
+                        release(name);
+                        throw e;
+                    }
+                    return (System.nanoTime() - start) / 1_000_000L;
+                });
+                if (millis >= 0) {
+                    session.held.put(name, System.currentTimeMillis());
+                    session.record(name, millis);
+                }
+            }
+            if (!plan.worlds.isEmpty() && flushWaitMillis > 0) Thread.sleep(flushWaitMillis);
+        } catch (ExecutionException | InterruptedException | RuntimeException e) {
+            session.releaseAll();
+            throw e;
+        }
+        return session;
+    }
+
+    /** 一次备份持有的世界。 */
+    final class Session {
+        final Plan plan;
+        /** 各世界（与 "players"）保存的主线程耗时。 */
+        final Map<String, Long> saveMillis = new LinkedHashMap<>();
+        /** 仍持有的世界 → 关闭自动保存的时间。 */
+        private final Map<String, Long> held = new LinkedHashMap<>();
+        private final Map<FileScanner.ScannedFile, List<String>> lastFiles = new IdentityHashMap<>();
+        private long mainThreadMillis;
+        private long longestTickMillis;
+        private long longestDisabledMillis;
+
+        private Session(Plan plan) {
+            this.plan = plan;
+        }
+
+        private void record(String name, long millis) {
+            saveMillis.put(name, millis);
+            mainThreadMillis += millis;
+            longestTickMillis = Math.max(longestTickMillis, millis);
+        }
+
+        long getMainThreadMillis() {
+            return mainThreadMillis;
+        }
+
+        /** 单个 tick 中最长的保存耗时。 */
+        long getLongestTickMillis() {
+            return longestTickMillis;
+        }
+
+        /** 各世界中自动保存关闭最久的时长（全部释放后有效）。 */
+        long getLongestDisabledMillis() {
+            return longestDisabledMillis;
+        }
+
+        /**
+         * 按将要依次读取的文件清单记下每个世界的最后一个文件，之后每读完一个文件调用 {@link #captured}。
+         *
+         * @return 清单中没有文件、可以立即释放的世界
+         */
+        List<String> planRelease(List<FileScanner.ScannedFile> files) {
+            Map<String, FileScanner.ScannedFile> last = new HashMap<>();
+            for (FileScanner.ScannedFile f : files) {
+                for (String name : held.keySet()) {
+                    if (f.path.startsWith(plan.worlds.get(name))) last.put(name, f);
+                }
+            }
+            List<String> empty = new ArrayList<>();
+            for (String name : held.keySet()) {
+                FileScanner.ScannedFile f = last.get(name);
+                if (f == null) {
+                    empty.add(name);
+                } else {
+                    lastFiles.computeIfAbsent(f, k -> new ArrayList<>()).add(name);
+                }
+            }
+            return empty;
+        }
+
+        /** 以 f 为最后一个文件的世界（读完 f 后即可释放）。 */
+        List<String> captured(FileScanner.ScannedFile f) {
+            List<String> names = lastFiles.isEmpty() ? null : lastFiles.remove(f);
+            return names != null ? names : Collections.emptyList();
+        }
+
+        boolean isHolding() {
+            return !held.isEmpty();
+        }
+
+        /** 恢复这些世界的自动保存（在主线程执行并等待）。 */
+        void release(Collection<String> names) throws ExecutionException, InterruptedException {
+            List<String> list = new ArrayList<>();
+            for (String n : names) if (held.containsKey(n)) list.add(n);
+            if (list.isEmpty()) return;
+            long millis = callSync(() -> {
+                long start = System.nanoTime();
+                for (String n : list) SaveCoordinator.this.release(n);
+                return (System.nanoTime() - start) / 1_000_000L;
+            });
+            mainThreadMillis += millis;
+            long now = System.currentTimeMillis();
+            for (String n : list) longestDisabledMillis = Math.max(longestDisabledMillis, now - held.remove(n));
+        }
+
+        void releaseAll() throws ExecutionException, InterruptedException {
+            release(new ArrayList<>(held.keySet()));
+        }
+    }
+
+    /** 主线程：持有一个世界，第一个持有者关闭其自动保存。 */
+    private void hold(World w) {
+        String name = w.getName();
+        int n = holds.getOrDefault(name, 0);
+        if (n == 0) {
+            autoSave.put(name, w.isAutoSave());
+            w.setAutoSave(false);
+        }
+        holds.put(name, n + 1);
+    }
+
+    /** 主线程：释放一个世界，最后一个持有者恢复原来的自动保存设置。 */
+    private void release(String name) {
+        int n = holds.getOrDefault(name, 0) - 1;
+        if (n > 0) {
+            holds.put(name, n);
+            return;
+        }
+        holds.remove(name);
+        Boolean original = autoSave.remove(name);
+        World w = Bukkit.getWorld(name);
+        if (w != null && original != null) w.setAutoSave(original);
+    }
+
+    private <T> T callSync(Callable<T> task) throws ExecutionException, InterruptedException {
+        return Bukkit.getScheduler().callSyncMethod(plugin, task).get();
+    }
+}
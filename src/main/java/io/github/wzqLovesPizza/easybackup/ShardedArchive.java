@@ -0,0 +1,242 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * 分片备份（sharding.enabled）：每个目标（或 sharding.groups 中的一组目标）写入各自的归档，多个归档同时写出。
+ * <p>
+ * 一次备份是一个目录 {@code EasyBackUp_<时间>.shards/}，内含 {@code <分片名><扩展名>}（及各自的校验清单）
+ * 和索引 {@value #INDEX}（每行：分片文件名、该分片包含的目标前缀）。备份目录记录、保留策略与校验都把整个目录当作一个备份；
+ * 还原时按索引只读取与所选路径相关的分片，例如只还原下界时不会读取主世界的归档。
+ */
+final class ShardedArchive {
+
+    static final String SUFFIX = ".shards";
+    static final String INDEX = "shards.index";
+
+    /** 一个分片：名称、包含的目标前缀（相对服务器根目录）、要写入的文件。 */
+    static final class Shard {
+        final String name;
+        final List<String> prefixes;
+        final List<FileScanner.ScannedFile> files = new ArrayList<>();
+        long bytes;
+
+        Shard(String name, List<String> prefixes) {
+            this.name = name;
+            this.prefixes = prefixes;
+        }
+
+        boolean contains(String entryName) {
+            for (String p : prefixes) {
+                if (entryName.equals(p) || entryName.startsWith(p + "/")) return true;
+            }
+            return false;
+        }
+    }
+
+    /** 打开一个分片的写出器。 */
+    interface WriterFactory {
+        ArchiveWriter open(File target, ArchiveManifest manifest) throws IOException;
+    }
+
+    /** 汇总的写出结果。 */
+    static final class Result {
+        long bytesRead;
+        long skippedEntries;
+        long compressNanos;
+        long writeNanos;
+        long size;
+        String hash;
+    }
+
+    private ShardedArchive() {
+    }
+
+    /**
+     * 按分组划分分片：groups 中列出的目标归入对应的组，其余目标各自一个分片（以目标路径命名）。
+     * 名称冲突时追加序号。
+     */
+    static List<Shard> plan(List<String> targetPrefixes, Map<String, List<String>> groups) {
+        Map<String, Shard> byName = new LinkedHashMap<>();
+        Map<String, String> groupOf = new HashMap<>();
+        for (Map.Entry<String, List<String>> g : groups.entrySet()) {
+            for (String t : g.getValue()) groupOf.put(normalize(t), sanitize(g.getKey()));
+        }
+        for (String prefix : targetPrefixes) {
+            String name = groupOf.get(prefix);
+            if (name == null) {
+                name = sanitize(prefix);
+                for (int i = 2; byName.containsKey(name); i++) name = sanitize(prefix) + "_" + i;
+            }
+            byName.computeIfAbsent(name, n -> new Shard(n, new ArrayList<>())).prefixes.add(prefix);
+        }
+        return new ArrayList<>(byName.values());
+    }
+
+    /** 把文件分到各自的分片（最长前缀优先，便于 world 与 world/datapacks 分属不同分片）。不属于任何分片的文件归入第一个分片。 */
+    static void assign(List<Shard> shards, List<FileScanner.ScannedFile> files) {
+        for (FileScanner.ScannedFile f : files) {
+            Shard best = null;
+            int bestLen = -1;
+            for (Shard s : shards) {
+                for (String p : s.prefixes) {
+                    if ((f.entryName.equals(p) || f.entryName.startsWith(p + "/")) && p.length() > bestLen) {
+                        best = s;
+                        bestLen = p.length();
+                    }
+                }
+            }
+            if (best == null) best = shards.get(0);
+            best.files.add(f);
+            best.bytes += f.size;
+        }
+    }
+
+    /**
+     * 同时写出全部分片到 dir（最多 parallel 个同时进行，大分片先开始）。任何一个分片失败则整体失败。
+     *
+     * @param onFile 每写完一个文件回调（参数为文件大小），会在多个线程中调用
+     */
+    static Result write(File dir, List<Shard> shards, ArchiveCodec codec, boolean manifests, WriterFactory factory,
+                        int parallel, LongConsumer onFile, Logger logger) throws IOException {
+        if (!dir.mkdirs() && !dir.isDirectory()) throw new IOException("无法创建目录: " + dir);
+        List<Shard> order = new ArrayList<>();
+        for (Shard s : shards) if (!s.files.isEmpty()) order.add(s);
+        order.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        Result result = new Result();
+        Map<Shard, String> hashes = new ConcurrentHashMap<>();
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallel > 0 ? parallel : order.size(), order.size())), r -> {
+            Thread t = new Thread(r, "EasyBackUp-Shard-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorCompletionService<Void> ecs = new ExecutorCompletionService<>(pool);
+        try {
+            for (Shard s : order) {
+                ecs.submit(() -> {
+                    File target = new File(dir, s.name + codec.extension);
+                    ArchiveManifest manifest = manifests ? new ArchiveManifest() : null;
+                    long start = System.currentTimeMillis();
+                    ArchiveWriter w = factory.open(target, manifest);
+                    try (w) {
+                        for (FileScanner.ScannedFile f : s.files) {
+                            w.addFile(f.entryName, f.path.toFile(), f.size, f.lastModified);
+                            if (onFile != null) onFile.accept(f.size);
+                        }
+                    }
+                    // 关闭后才有完整的摘要与统计
+                    if (manifest != null) {
+                        manifest.finish(target);
+                        hashes.put(s, manifest.getSha256());
+                    }
+                    synchronized (result) {
+                        result.bytesRead += w.getBytesRead();
+                        result.skippedEntries += w.getSkippedEntries();
+                        if (w.getCompressNanos() > 0) result.compressNanos += w.getCompressNanos();
+                        if (w.getWriteNanos() > 0) result.writeNanos += w.getWriteNanos();
+                        result.size += target.length();
+                    }
+                    if (logger != null) {
+                        logger.info("分片 " + s.name + " 完成：" + s.files.size() + " 个文件，" + s.bytes + " 字节，用时 "
+                                + (System.currentTimeMillis() - start) + "ms。");
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < order.size(); i++) {
+                try {
+                    ecs.take().get();
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    throw c instanceof IOException ? (IOException) c : new IOException("写出分片失败: " + c, c);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("分片备份被中断");
+        } finally {
+            pool.shutdownNow();
+        }
+        writeIndex(dir, order, codec);
+        if (manifests) result.hash = combinedHash(order, hashes);
+        return result;
+    }
+
+    /** 分片哈希：按分片名排序后的 "名称:SHA-256" 再取 SHA-256。 */
+    private static String combinedHash(List<Shard> shards, Map<Shard, String> hashes) {
+        List<Shard> sorted = new ArrayList<>(shards);
+        sorted.sort(Comparator.comparing(s -> s.name));
+        MessageDigest md = ArchiveManifest.newSha256();
+        for (Shard s : sorted) {
+            md.update((s.name + ":" + hashes.get(s) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return ArchiveManifest.toHex(md.digest());
+    }
+
+    private static void writeIndex(File dir, List<Shard> shards, ArchiveCodec codec) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Shard s : shards) lines.add(s.name + codec.extension + "\t" + String.join("\t", s.prefixes));
+        Files.write(new File(dir, INDEX).toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    /** 读取索引：分片文件 → 目标前缀。索引缺失时列出目录中的归档，前缀未知（空列表，表示可能包含任何路径）。 */
+    static Map<File, List<String>> readIndex(File dir) throws IOException {
+        Map<File, List<String>> out = new LinkedHashMap<>();
+        File index = new File(dir, INDEX);
+        if (index.isFile()) {
+            for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) continue;
+                String[] parts = line.split("\t");
+                out.put(new File(dir, parts[0]), new ArrayList<>(Arrays.asList(parts).subList(1, parts.length)));
+            }
+            return out;
+        }
+        File[] files = dir.listFiles((d, n) -> ArchiveCodec.forFileName(n) != null);
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) out.put(f, Collections.emptyList());
+        }
+        return out;
+    }
+
+    static boolean isSharded(File f) {
+        return f.getName().endsWith(SUFFIX) && f.isDirectory();
+    }
+
+    /** 分片目录中所有文件的总大小。 */
+    static long totalSize(File dir) {
+        long sum = 0;
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) sum += f.length();
+        return sum;
+    }
+
+    /** 删除整个分片目录；返回是否已不存在。 */
+    static boolean delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        return dir.delete() || !dir.exists();
+    }
+
+    private static String normalize(String target) {
+        String s = target.trim().replace('\\', '/');
+        while (s.startsWith("./")) s = s.substring(2);
+        while (s.endsWith("/")) s = s.substring(0, s.length() - 1);
+        return s;
+    }
+
+    /** 分片名：只保留字母、数字、点、横线与下划线。 */
+    static String sanitize(String name) {
+        String s = normalize(name).replaceAll("[^A-Za-z0-9._-]", "_");
+        return s.isEmpty() ? "root" : s;
+    }
+}
@@ -0,0 +1,218 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 暂存快照：在 save-off 期间把待备份文件尽快复制到暂存目录，随后立即 save-on，再从暂存目录压缩。
+ * <p>
+ * 每个文件按以下顺序尝试：
+ * <ol>
+ *   <li>硬链接——只用于服务器“写临时文件再改名”的文件（如 playerdata/*.dat），原地改写的区域文件不能硬链接；</li>
+ *   <li>reflink（写时复制克隆，btrfs/XFS 等）——通过 {@code cp --reflink=always} 分批调用；</li>
+ *   <li>{@link FileChannel#transferTo} 复制（Linux 上走 copy_file_range/sendfile，不经过 Java 堆）。</li>
+ * </ol>
+ */
+final class StagingSnapshot {
+
+    private static final int REFLINK_BATCH = 256;
+
+    private final File stagingRoot;
+    private final Set<String> hardlinkExtensions;
+    private final boolean tryReflink;
+    private final int threads;
+    private final Logger logger;
+
+    final AtomicLong linked = new AtomicLong();
+    final AtomicLong reflinked = new AtomicLong();
+    final AtomicLong copied = new AtomicLong();
+    final AtomicLong bytesCopied = new AtomicLong();
+
+    StagingSnapshot(File stagingRoot, Collection<String> hardlinkExtensions, boolean tryReflink, int threads, Logger logger) {
+        this.stagingRoot = stagingRoot;
+        this.hardlinkExtensions = new HashSet<>();
+        for (String e : hardlinkExtensions) if (e != null) this.hardlinkExtensions.add(e.toLowerCase(Locale.ROOT));
+        this.tryReflink = tryReflink && System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux");
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+    }
+
+    File getStagingRoot() {
+        return stagingRoot;
+    }
+
+    /**
+     * 把扫描到的文件暂存下来，返回指向暂存副本的新清单（条目名、修改时间保持原值，大小为实际复制的字节数）。
+     */
+    List<FileScanner.ScannedFile> capture(File serverRoot, List<FileScanner.ScannedFile> files) throws IOException {
+        cleanup();
+        Files.createDirectories(stagingRoot.toPath());
+        Path root = serverRoot.toPath().toAbsolutePath().normalize();
+
+        FileScanner.ScannedFile[] result = new FileScanner.ScannedFile[files.size()];
+        List<Integer> needCopy = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            FileScanner.ScannedFile f = files.get(i);
+            Path dest = stagingRoot.toPath().resolve(f.entryName);
+            if (isHardlinkCandidate(f.entryName)) {
+                try {
+                    Files.createDirectories(dest.getParent());
+                    Files.createLink(dest, f.path);
+                    linked.incrementAndGet();
+                    result[i] = new FileScanner.ScannedFile(dest, f.entryName, f.size, f.lastModified);
+                    continue;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // 跨文件系统等情况：退回到复制
+                }
+            }
+            needCopy.add(i);
+        }
+
+        if (tryReflink && !needCopy.isEmpty()) {
+            needCopy = reflinkBatches(root, files, needCopy, result);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "EasyBackUp-Staging");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int idx : needCopy) {
+                futures.add(pool.submit(() -> {
+                    FileScanner.ScannedFile f = files.get(idx);
+                    Path dest = stagingRoot.toPath().resolve(f.entryName);
+                    try {
+                        long n = copy(f.path, dest);
+                        copied.incrementAndGet();
+                        bytesCopied.addAndGet(n);
+                        result[idx] = new FileScanner.ScannedFile(dest, f.entryName, n, f.lastModified);
+                    } catch (NoSuchFileException e) {
+                        // 扫描后被删除的文件直接略过
+                    } catch (IOException e) {
+                        logger.warning("暂存失败，跳过文件 " + f.entryName + ": " + e.getMessage());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> fu : futures) {
+                try {
+                    fu.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("暂存失败: " + e.getCause(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("暂存被中断", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<FileScanner.ScannedFile> out = new ArrayList<>(result.length);
+        for (FileScanner.ScannedFile f : result) if (f != null) out.add(f);
+        return out;
+    }
+
+    private boolean isHardlinkCandidate(String entryName) {
+        int slash = entryName.lastIndexOf('/');
+        int dot = entryName.lastIndexOf('.');
+        return dot > slash && hardlinkExtensions.contains(entryName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /** 分批 reflink；返回仍需普通复制的文件。第一批失败则认为文件系统不支持，本次不再尝试。 */
+    private List<Integer> reflinkBatches(Path root, List<FileScanner.ScannedFile> files, List<Integer> candidates, FileScanner.ScannedFile[] result) {
+        List<Integer> remaining = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        boolean supported = true;
+        boolean probed = false;
+        for (int idx : candidates) {
+            FileScanner.ScannedFile f = files.get(idx);
+            // 服务器根目录以外的文件没有可用的相对路径，直接复制
+            if (!supported || !f.path.startsWith(root)) {
+                remaining.add(idx);
+                continue;
+            }
+            batch.add(idx);
+            if (batch.size() >= (probed ? REFLINK_BATCH : 1)) {
+                supported = runReflink(root, files, batch, result, remaining);
+                probed = true;
+                batch.clear();
+                if (!supported) logger.info("暂存目录所在文件系统不支持 reflink，改用普通复制。");
+            }
+        }
+        if (!batch.isEmpty()) {
+            if (supported) runReflink(root, files, batch, result, remaining);
+            else remaining.addAll(batch);
+        }
+        return remaining;
+    }
+
+    private boolean runReflink(Path root, List<FileScanner.ScannedFile> files, List<Integer> batch, FileScanner.ScannedFile[] result, List<Integer> remaining) {
+        List<String> cmd = new ArrayList<>(Arrays.asList("cp", "--reflink=always", "--parents", "-t", stagingRoot.getAbsolutePath(), "--"));
+        for (int idx : batch) cmd.add(root.relativize(files.get(idx).path).toString());
+        boolean ok;
+        try {
+            Process p = new ProcessBuilder(cmd).directory(root.toFile()).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            ok = p.waitFor(10, TimeUnit.MINUTES) && p.exitValue() == 0;
+            if (!ok) p.destroyForcibly();
+        } catch (IOException e) {
+            ok = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        }
+        if (ok) {
+            for (int idx : batch) {
+                FileScanner.ScannedFile f = files.get(idx);
+                Path dest = stagingRoot.toPath().resolve(root.relativize(f.path));
+                result[idx] = new FileScanner.ScannedFile(dest, f.entryName, dest.toFile().length(), f.lastModified);
+                reflinked.incrementAndGet();
+            }
+        } else {
+            // 整批退回普通复制（复制时会覆盖可能已部分生成的文件）
+            remaining.addAll(batch);
+        }
+        return ok;
+    }
+
+    private static long copy(Path src, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                long n = in.transferTo(pos, size - pos, out);
+                if (n <= 0) break;
+                pos += n;
+            }
+            return pos;
+        }
+    }
+
+    /** 删除暂存目录（包括上次异常退出遗留的内容）。 */
+    void cleanup() {
+        if (!stagingRoot.exists()) return;
+        try (Stream<Path> walk = Files.walk(stagingRoot.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    logger.warning("无法删除暂存文件 " + p + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warning("清理暂存目录失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 顺序读取 tar 流：支持 ustar 的 prefix、PAX 扩展头（path、size、mtime）、GNU 长名称与 base-256 大小，
+ * 足以读回 {@link TarArchiveWriter} 以及常见工具写出的归档。头部校验和不符时抛出 IOException。
+ */
+final class TarArchiveReader implements Closeable {
+
+    private static final int BLOCK = 512;
+
+    /** 一个条目；目录、链接等非普通文件的 {@code regularFile} 为 false。 */
+    static final class Entry {
+        final String name;
+        final long size;
+        final long lastModified;
+        final boolean regularFile;
+
+        Entry(String name, long size, long lastModified, boolean regularFile) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.regularFile = regularFile;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private long remaining;
+    private long padding;
+
+    TarArchiveReader(InputStream in) {
+        this.in = in;
+    }
+
+    /** 读到下一个条目（跳过当前条目未读完的内容）；归档结束返回 null。 */
+    Entry next() throws IOException {
+        String paxPath = null;
+        long paxSize = -1;
+        long paxMtime = -1;
+        String longName = null;
+        while (true) {
+            skipFully(remaining + padding);
+            remaining = 0;
+            padding = 0;
+            if (!readBlock()) return null;
+            if (isZero(header)) return null;
+            verifyChecksum();
+            byte type = header[156];
+            long headerSize = parseSize();
+            if (type == 'x' || type == 'L') {
+                byte[] data = readFully(headerSize);
+                skipFully(pad(headerSize));
+                if (type == 'L') {
+                    longName = cString(data, 0, data.length);
+                    continue;
+                }
+                // PAX 记录："长度 键=值\n"
+                int p = 0;
+                while (p < data.length) {
+                    int sp = indexOf(data, (byte) ' ', p);
+                    if (sp < 0) break;
+                    int len = Integer.parseInt(new String(data, p, sp - p, StandardCharsets.US_ASCII));
+                    if (len <= 0 || p + len > data.length) throw new IOException("PAX 记录损坏");
+                    String kv = new String(data, sp + 1, p + len - sp - 2, StandardCharsets.UTF_8);
+                    int eq = kv.indexOf('=');
+                    if (eq > 0) {
+                        String key = kv.substring(0, eq);
+                        String value = kv.substring(eq + 1);
+                        if ("path".equals(key)) paxPath = value;
+                        else if ("size".equals(key)) paxSize = Long.parseLong(value);
+                        else if ("mtime".equals(key)) paxMtime = (long) (Double.parseDouble(value) * 1000);
+                    }
+                    p += len;
+                }
+                continue;
+            }
+            String name;
+            if (paxPath != null) {
+                name = paxPath;
+            } else if (longName != null) {
+                name = longName;
+            } else {
+                String base = cString(header, 0, 100);
+                String prefix = "ustar".equals(cString(header, 257, 6)) ? cString(header, 345, 155) : "";
+                name = prefix.isEmpty() ? base : prefix + "/" + base;
+            }
+            long size = paxSize >= 0 ? paxSize : headerSize;
+            long mtime = paxMtime >= 0 ? paxMtime : octal(136, 12) * 1000L;
+            boolean regular = type == '0' || type == 0 || type == '7';
+            remaining = size;
+            padding = pad(size);
+            return new Entry(name, size, mtime, regular);
+        }
+    }
+
+    /** 当前条目的内容；只能读到条目末尾。 */
+    InputStream content() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = in.read();
+                if (b < 0) throw new EOFException("tar 条目被截断");
+                remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0) throw new EOFException("tar 条目被截断");
+                remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    private boolean readBlock() throws IOException {
+        int off = 0;
+        while (off < BLOCK) {
+            int n = in.read(header, off, BLOCK - off);
+            if (n < 0) {
+                if (off == 0) return false;
+                throw new EOFException("tar 头部被截断");
+            }
+            off += n;
+        }
+        return true;
+    }
+
+    private byte[] readFully(long size) throws IOException {
+        if (size > 16L * 1024 * 1024) throw new IOException("扩展头过大: " + size);
+        byte[] data = new byte[(int) size];
+        int off = 0;
+        while (off < data.length) {
+            int n = in.read(data, off, data.length - off);
+            if (n < 0) throw new EOFException("tar 扩展头被截断");
+            off += n;
+        }
+        return data;
+    }
+
+    private void skipFully(long n) throws IOException {
+        byte[] buf = null;
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                // 压缩流的 skip 可能返回 0：改为读取丢弃
+                if (buf == null) buf = new byte[8192];
+                int r = in.read(buf, 0, (int) Math.min(buf.length, n));
+                if (r < 0) throw new EOFException("tar 条目被截断");
+                skipped = r;
+            }
+            n -= skipped;
+        }
+    }
+
+    private void verifyChecksum() throws IOException {
+        long stored = octal(148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) sum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xFF;
+        if (sum != stored) throw new IOException("tar 头部校验和不符");
+    }
+
+    private long parseSize() {
+        if ((header[124] & 0x80) != 0) {
+            // GNU base-256
+            long v = 0;
+            for (int i = 128; i < 136; i++) v = (v << 8) | (header[i] & 0xFF);
+            return v;
+        }
+        return octal(124, 12);
+    }
+
+    private long octal(int off, int len) {
+        long v = 0;
+        for (int i = off; i < off + len; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (v > 0) break;
+                continue;
+            }
+            v = (v << 3) + (b - '0');
+        }
+        return v;
+    }
+
+    private static long pad(long size) {
+        long rem = size % BLOCK;
+        return rem == 0 ? 0 : BLOCK - rem;
+    }
+
+    private static boolean isZero(byte[] b) {
+        for (byte x : b) if (x != 0) return false;
+        return true;
+    }
+
+    private static int indexOf(byte[] b, byte v, int from) {
+        for (int i = from; i < b.length; i++) if (b[i] == v) return i;
+        return -1;
+    }
+
+    private static String cString(byte[] b, int off, int len) {
+        int end = off;
+        while (end < off + len && b[end] != 0) end++;
+        return new String(b, off, end - off, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,278 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 流式 tar 写出器：每个文件写一个 512 字节的 ustar 头，随后是内容并补齐到 512 字节，
+ * 整条流交给外层的压缩流（zstd / lz4）或直接写出。
+ * <p>
+ * 名称放不进 ustar 的 name/prefix 字段（或含非 ASCII 字符）、文件超过 8GiB 时，先写一个 PAX 扩展头。
+ * 文件在备份期间变短时按头里声明的大小补零，变长时只写声明的部分，保证后续条目对齐。
+ */
+final class TarArchiveWriter implements ArchiveWriter {
+
+    private static final int BLOCK = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private final TimedOutputStream disk;
+    private final boolean compressed;
+    private final Logger logger;
+    private final byte[] buffer;
+    private final byte[] header = new byte[BLOCK];
+    private final CRC32 crc = new CRC32();
+    private BackupThrottle throttle;
+    private ArchiveManifest manifest;
+
+    private long bytesRead;
+    private long skippedEntries;
+    private long streamNanos;
+    private boolean closed;
+
+    /**
+     * @param out        写入 tar 数据的流（压缩流，或直接是缓冲后的文件流）
+     * @param disk       最底层的文件流，用于统计写盘耗时
+     * @param compressed out 是否为压缩流（决定能否拆分出压缩耗时）
+     */
+    TarArchiveWriter(OutputStream out, TimedOutputStream disk, boolean compressed, int bufferSize, Logger logger) {
+        this.out = out;
+        this.disk = disk;
+        this.compressed = compressed;
+        this.logger = logger;
+        this.buffer = new byte[Math.max(BLOCK * 16, bufferSize)];
+    }
+
+    void setThrottle(BackupThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void setManifest(ArchiveManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    @Override
+    public void addFile(String entryName, File file, long size, long lastModified) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            skippedEntries++;
+            if (logger != null && !file.getName().equals("session.lock")) {
+                logger.warning("跳过文件 " + file.getName() + ": " + e.getMessage());
+            }
+            return;
+        }
+        try (FileChannel in = ch) {
+            if (throttle != null) throttle.acquire(size);
+            writeHeaders(entryName, size, lastModified);
+            crc.reset();
+            long remaining = size;
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            while (remaining > 0) {
+                bb.clear();
+                bb.limit((int) Math.min(buffer.length, remaining));
+                int n = in.read(bb);
+                if (n < 0) break;
+                write(buffer, 0, n);
+                if (manifest != null) crc.update(buffer, 0, n);
+                remaining -= n;
+                bytesRead += n;
+            }
+            if (remaining > 0) {
+                if (logger != null) logger.warning("文件在备份期间变短，已补零: " + entryName);
+                writeZeros(remaining);
+                if (manifest != null) {
+                    // 归档里实际是补的零，清单记录与之一致
+                    byte[] zeros = new byte[(int) Math.min(buffer.length, remaining)];
+                    for (long left = remaining; left > 0; left -= zeros.length) crc.update(zeros, 0, (int) Math.min(zeros.length, left));
+                }
+            }
+            pad(size);
+            if (manifest != null) manifest.add(entryName, size, crc.getValue());
+        }
+    }
+
+    private void writeHeaders(String name, long size, long lastModified) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = ustarSplit(nameBytes);
+        boolean ascii = nameBytes.length == name.length();
+        boolean bigSize = size > MAX_OCTAL_SIZE;
+        if (split == -2 || !ascii || bigSize) {
+            StringBuilder pax = new StringBuilder();
+            if (split == -2 || !ascii) pax.append(paxRecord("path", name));
+            if (bigSize) pax.append(paxRecord("size", Long.toString(size)));
+            byte[] data = pax.toString().getBytes(StandardCharsets.UTF_8);
+            fillHeader(asciiName("PaxHeaders/" + name), null, data.length, lastModified, (byte) 'x');
+            write(header, 0, BLOCK);
+            write(data, 0, data.length);
+            pad(data.length);
+            // 实际条目头里放一个截断的 ASCII 名称，供不认识 PAX 的工具参考
+            fillHeader(asciiName(name), null, size, lastModified, (byte) '0');
+        } else if (split >= 0) {
+            fillHeader(Arrays.copyOfRange(nameBytes, split + 1, nameBytes.length), Arrays.copyOf(nameBytes, split), size, lastModified, (byte) '0');
+        } else {
+            fillHeader(nameBytes, null, size, lastModified, (byte) '0');
+        }
+        write(header, 0, BLOCK);
+    }
+
+    /**
+     * ustar 的名称拆分：-1 表示整个名称放得进 name 字段；-2 表示无法拆分；
+     * 否则返回分隔 prefix（≤155 字节）与 name（≤100 字节）的 '/' 下标。
+     */
+    static int ustarSplit(byte[] name) {
+        if (name.length <= 100) return -1;
+        int min = name.length - 101;
+        for (int i = Math.min(155, name.length - 2); i >= Math.max(1, min); i--) {
+            if (name[i] == '/') return i;
+        }
+        return -2;
+    }
+
+    /** PAX 记录 "长度 键=值\n"，长度包含它自己的十进制位数。 */
+    static String paxRecord(String key, String value) {
+        int body = 1 + key.length() + 1 + value.getBytes(StandardCharsets.UTF_8).length + 1;
+        int len = body + Integer.toString(body).length();
+        if (Integer.toString(len).length() != Integer.toString(body).length()) len++;
+        return len + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] asciiName(String name) {
+        byte[] out = new byte[Math.min(100, name.length())];
+        int start = name.length() - out.length;
+        for (int i = 0; i < out.length; i++) {
+            char c = name.charAt(start + i);
+            out[i] = c < 0x80 ? (byte) c : (byte) '_';
+        }
+        return out;
+    }
+
+    private void fillHeader(byte[] name, byte[] prefix, long size, long lastModified, byte type) {
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(name, 0, header, 0, Math.min(100, name.length));
+        octal(0644, 100, 8);
+        octal(0, 108, 8);
+        octal(0, 116, 8);
+        if (size > MAX_OCTAL_SIZE) {
+            // GNU 的 base-256 编码；真正的大小由 PAX 记录给出
+            header[124] = (byte) 0x80;
+            for (int i = 0; i < 8; i++) header[135 - i] = (byte) (size >>> (8 * i));
+        } else {
+            octal(size, 124, 12);
+        }
+        octal(Math.max(0L, lastModified / 1000L), 136, 12);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        if (prefix != null) System.arraycopy(prefix, 0, header, 345, Math.min(155, prefix.length));
+        long sum = 0;
+        for (byte b : header) sum += b & 0xFF;
+        octal(sum, 148, 7);
+        header[155] = ' ';
+    }
+
+    /** 写入定长的八进制字段（末尾一个 NUL）。 */
+    private void octal(long value, int offset, int length) {
+        String s = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int si = s.length() - digits + i;
+            header[offset + i] = (byte) (si >= 0 ? s.charAt(si) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+
+    private void pad(long written) throws IOException {
+        int rem = (int) (written % BLOCK);
+        if (rem != 0) writeZeros(BLOCK - rem);
+    }
+
+    private void writeZeros(long count) throws IOException {
+        Arrays.fill(buffer, 0, (int) Math.min(buffer.length, count), (byte) 0);
+        while (count > 0) {
+            int n = (int) Math.min(buffer.length, count);
+            write(buffer, 0, n);
+            count -= n;
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        streamNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        // 归档结尾：两个全零块
+        Arrays.fill(header, (byte) 0);
+        write(header, 0, BLOCK);
+        write(header, 0, BLOCK);
+        long start = System.nanoTime();
+        out.close();
+        streamNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public long getSkippedEntries() {
+        return skippedEntries;
+    }
+
+    /** 写入压缩流的耗时减去其中的写盘耗时。 */
+    @Override
+    public long getCompressNanos() {
+        return compressed ? Math.max(0L, streamNanos - disk.nanos) : -1L;
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return disk.nanos;
+    }
+
+    /** 统计写入耗时的文件流。 */
+    static final class TimedOutputStream extends FilterOutputStream {
+        long nanos;
+
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+    }
+}
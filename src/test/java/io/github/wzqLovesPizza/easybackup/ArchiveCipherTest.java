@@ -0,0 +1,155 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分段加密：任意长度（含恰好整段与空）都能还原；改动、截断、换密钥都在解密时报错；
+ * 加密的 ZIP 与 tar 能被校验与还原。
+ */
+class ArchiveCipherTest {
+
+    private static final int SEGMENT = 16 * 1024;
+
+    @Test
+    void segmentsRoundTripAndDetectTampering() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-cipher");
+        try {
+            ArchiveCipher cipher = ArchiveCipher.load(writeKey(tmp.resolve("a.key"), 1), SEGMENT, 3);
+            Random rnd = new Random(7);
+            for (int size : new int[]{0, 1, SEGMENT, SEGMENT * 3, SEGMENT * 5 + 123}) {
+                byte[] plain = new byte[size];
+                rnd.nextBytes(plain);
+                byte[] sealed = encrypt(cipher, plain);
+                assertEquals(ArchiveCipher.HEADER_LEN + plain.length + 16L * Math.max(1, (size + SEGMENT - 1) / SEGMENT), sealed.length);
+                assertArrayEquals(plain, decrypt(cipher, sealed), "size " + size);
+            }
+
+            byte[] plain = new byte[SEGMENT * 4 + 77];
+            rnd.nextBytes(plain);
+            byte[] sealed = encrypt(cipher, plain);
+            // 位翻转
+            byte[] flipped = sealed.clone();
+            flipped[ArchiveCipher.HEADER_LEN + SEGMENT * 2 + 5] ^= 1;
+            assertThrows(IOException.class, () -> decrypt(cipher, flipped));
+            // 在分段边界截断：前面的分段都是完整的，但最后一段的标记不对
+            byte[] truncated = Arrays.copyOf(sealed, ArchiveCipher.HEADER_LEN + 2 * (SEGMENT + 16));
+            assertThrows(IOException.class, () -> decrypt(cipher, truncated));
+            // 调换两个分段
+            byte[] swapped = sealed.clone();
+            int a = ArchiveCipher.HEADER_LEN;
+            int b = a + SEGMENT + 16;
+            System.arraycopy(sealed, b, swapped, a, SEGMENT + 16);
+            System.arraycopy(sealed, a, swapped, b, SEGMENT + 16);
+            assertThrows(IOException.class, () -> decrypt(cipher, swapped));
+            // 另一个密钥
+            ArchiveCipher other = ArchiveCipher.load(writeKey(tmp.resolve("b.key"), 2));
+            IOException e = assertThrows(IOException.class, () -> decrypt(other, sealed));
+            assertTrue(e.getMessage().contains("密钥"), e.getMessage());
+            cipher.close();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void encryptedArchivesAreVerifiedAndRestored() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-cipher");
+        try {
+            ArchiveCipher cipher = ArchiveCipher.load(writeKey(tmp.resolve("backup.key"), 3), SEGMENT, 2);
+            Path src = Files.createDirectories(tmp.resolve("src/world/region"));
+            byte[] region = new byte[200 * 1024];
+            new Random(9).nextBytes(region);
+            Files.write(src.resolve("r.0.0.mca"), region);
+            Files.write(src.getParent().resolve("level.dat"), "level".repeat(1000).getBytes(StandardCharsets.UTF_8));
+
+            for (String ext : new String[]{".zip", ".tar"}) {
+                File archive = tmp.resolve("EasyBackUp_1" + ext).toFile();
+                // 与 ArchiveCodec.create 相同的顺序：压缩 → 加密 → 磁盘
+                ArchiveWriter w = ext.equals(".zip")
+                        ? new ParallelZipWriter(new BufferedOutputStream(cipher.encrypt(new FileOutputStream(archive))), 2, 64 * 1024, CompressionPolicy.uniform(-1), null)
+                        : tarWriter(cipher, archive);
+                try (ArchiveWriter writer = w) {
+                    for (String name : new String[]{"world/level.dat", "world/region/r.0.0.mca"}) {
+                        File f = tmp.resolve("src").resolve(name).toFile();
+                        writer.addFile(name, f, f.length(), f.lastModified());
+                    }
+                }
+                assertTrue(ArchiveCipher.isEncrypted(archive), ext);
+
+                BackupVerifier verifier = new BackupVerifier(2, null);
+                assertFalse(verifier.verify(archive).ok, ext);
+                verifier.setCipher(cipher);
+                BackupVerifier.Result r = verifier.verify(archive);
+                assertTrue(r.ok, ext + ": " + r.message);
+                assertEquals(2, r.entries);
+                verifier.shutdown();
+
+                Path root = tmp.resolve("server" + ext);
+                RestoreEngine engine = new RestoreEngine(root.toFile(), 2, null);
+                engine.setCipher(cipher);
+                RestoreEngine.Plan plan = engine.plan(archive, Collections.singletonList("world"));
+                engine.swap(engine.extract(plan));
+                assertArrayEquals(region, Files.readAllBytes(root.resolve("world/region/r.0.0.mca")), ext);
+                assertEquals("level".repeat(1000), new String(Files.readAllBytes(root.resolve("world/level.dat")), StandardCharsets.UTF_8));
+                // 解密出的临时明文不留在备份目录
+                assertEquals(0, tmp.toFile().listFiles((d, n) -> n.startsWith(".") || n.endsWith(".plain")).length);
+            }
+            cipher.close();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static ArchiveWriter tarWriter(ArchiveCipher cipher, File archive) throws IOException {
+        TarArchiveWriter.TimedOutputStream disk = new TarArchiveWriter.TimedOutputStream(new FileOutputStream(archive));
+        return new TarArchiveWriter(new BufferedOutputStream(cipher.encrypt(disk)), disk, false, 64 * 1024, null);
+    }
+
+    private static File writeKey(Path file, int seed) throws IOException {
+        byte[] key = new byte[32];
+        new Random(seed).nextBytes(key);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : key) hex.append(String.format("%02x", b));
+        Files.write(file, (hex + "\n").getBytes(StandardCharsets.US_ASCII));
+        return file.toFile();
+    }
+
+    private static byte[] encrypt(ArchiveCipher cipher, byte[] plain) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = cipher.encrypt(bytes)) {
+            // 写入的块与分段边界错开
+            for (int p = 0; p < plain.length; p += 5000) out.write(plain, p, Math.min(5000, plain.length - p));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(ArchiveCipher cipher, byte[] sealed) throws IOException {
+        try (InputStream in = cipher.decrypt(new ByteArrayInputStream(sealed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 备份目录记录：追加写的记录重新打开后一致；半行被忽略；损坏时从目录重建。
+ */
+class BackupCatalogTest {
+
+    @Test
+    void recordsSurviveReopenAndCorruptionTriggersRebuild() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-catalog");
+        try {
+            File dir = tmp.toFile();
+            BackupCatalog c = BackupCatalog.open(dir, ".zip", null);
+            assertEquals(0, c.size());
+            c.add(new BackupCatalog.Entry("EasyBackUp_2024-11-15_10-00-00.zip", 1000L, 10, 3, 500, null, "zip", null));
+            c.add(new BackupCatalog.Entry("EasyBackUp_2024-11-15_11-00-00.zip", 2000L, 20, 4, 600, "abc", "zip", null));
+            c.add(new BackupCatalog.Entry("EasyBackUp_2024-11-15_12-00-00.zip", 3000L, 30, 5, 700, null, "zip", null));
+            c.remove("EasyBackUp_2024-11-15_10-00-00.zip");
+            c.setTier("EasyBackUp_2024-11-15_11-00-00.zip", "7D");
+
+            // 模拟写入中途崩溃留下的半行
+            Path file = tmp.resolve(BackupCatalog.FILE_NAME);
+            Files.write(file, "0badc0de add\tEasyBackUp_x".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            BackupCatalog reopened = BackupCatalog.open(dir, ".zip", null);
+            List<BackupCatalog.Entry> list = reopened.list();
+            assertEquals(2, list.size());
+            assertEquals("EasyBackUp_2024-11-15_12-00-00.zip", list.get(0).name);
+            assertEquals("7D", list.get(1).tier);
+            assertEquals("abc", list.get(1).hash);
+            assertEquals(600L, list.get(1).durationMillis);
+            assertNull(reopened.get("EasyBackUp_2024-11-15_10-00-00.zip"));
+            assertEquals(50L, reopened.totalBytes());
+
+            // 中间一行被篡改：整个记录作废，从目录重建（目录里只有一个实际文件）
+            Files.writeString(tmp.resolve("EasyBackUp_2024-11-16_08-00-00.zip"), "zipdata");
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            lines.set(1, lines.get(1).replace("EasyBackUp_", "EasyBackup_"));
+            Files.write(file, lines, StandardCharsets.UTF_8);
+            BackupCatalog rebuilt = BackupCatalog.open(dir, ".zip", null);
+            assertEquals(1, rebuilt.size());
+            BackupCatalog.Entry e = rebuilt.latest();
+            assertEquals("EasyBackUp_2024-11-16_08-00-00.zip", e.name);
+            assertEquals(7L, e.size);
+            assertEquals(-1L, e.files);
+            assertEquals("zip", e.codec);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 指标历史：落盘后重新载入一致、超出容量丢弃最旧、百分位数；以及 JMX 与 Prometheus 两个出口。
+ */
+class BackupMetricsTest {
+
+    @Test
+    void historySurvivesReloadAndIsTrimmed() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-metrics");
+        try {
+            File file = tmp.resolve(BackupMetrics.FILE_NAME).toFile();
+            BackupMetrics metrics = new BackupMetrics(file, 3, null);
+            for (int i = 1; i <= 5; i++) {
+                metrics.record(run(i * 1000L, i * 100L, i != 4));
+            }
+            assertEquals(5, metrics.getRunCount());
+            assertEquals(1, metrics.getFailedRunCount());
+
+            BackupMetrics reloaded = new BackupMetrics(file, 10, null);
+            assertEquals(3, reloaded.getHistorySize());
+            BackupMetrics.Run last = reloaded.last();
+            assertEquals(5000L, last.startedAt);
+            assertEquals(500L, last.durationMillis);
+            assertEquals(250L, last.phase("scan"));
+            assertEquals(-1L, last.phase("staging"));
+            assertEquals(2.0, last.compressionRatio(), 1e-9);
+            // 历史剩下第 3、4、5 次，其中第 4 次失败不计入
+            assertEquals(300L, reloaded.getDurationP50Millis());
+            assertEquals(500L, reloaded.getDurationP95Millis());
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void percentileUsesNearestRank() {
+        long[] values = {50, 10, 40, 20, 30};
+        assertEquals(30L, BackupMetrics.percentile(values, 0.5));
+        assertEquals(50L, BackupMetrics.percentile(values, 0.9));
+        assertEquals(10L, BackupMetrics.percentile(values, 0.0));
+        assertEquals(-1L, BackupMetrics.percentile(new long[0], 0.5));
+    }
+
+    @Test
+    void exposesJmxAndPrometheus() throws Exception {
+        BackupMetrics metrics = new BackupMetrics(null, 10, null);
+        metrics.record(run(1000L, 2500L, true));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("io.github.wzqLovesPizza.easybackup:type=BackupMetricsTest");
+        server.registerMBean(metrics, name);
+        try {
+            assertEquals(2500L, server.getAttribute(name, "LastDurationMillis"));
+            assertEquals(true, server.getAttribute(name, "LastRunSuccessful"));
+            TabularData phases = (TabularData) server.getAttribute(name, "LastPhaseMillis");
+            assertEquals(2, phases.size());
+        } finally {
+            server.unregisterMBean(name);
+        }
+
+        MetricsExporter exporter = MetricsExporter.start("127.0.0.1", 0, metrics);
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+            assertEquals(200, conn.getResponseCode());
+            String body;
+            try (InputStream in = conn.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(body.contains("easybackup_runs_total{result=\"success\"} 1\n"), body);
+            assertTrue(body.contains("easybackup_last_duration_seconds 2.5\n"), body);
+            assertTrue(body.contains("easybackup_last_phase_seconds{phase=\"scan\"} 1.25\n"), body);
+            assertTrue(body.contains("# TYPE easybackup_duration_seconds summary\n"), body);
+        } finally {
+            exporter.stop();
+        }
+    }
+
+    private static BackupMetrics.Run run(long startedAt, long durationMillis, boolean success) {
+        BackupMetrics.Run r = new BackupMetrics.Run(startedAt);
+        r.success = success;
+        r.durationMillis = durationMillis;
+        r.bytesRead = 2000;
+        r.bytesWritten = 1000;
+        r.files = 10;
+        r.addPhase("scan", durationMillis / 2);
+        r.addPhase("archive", durationMillis / 2);
+        return r;
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 备份档案：额外档案的输出目录、远程前缀、仓库与暂存目录都按档案名区分，互不共享；档案自己写出的键优先。
+ */
+class BackupProfileTest {
+
+    @Test
+    void profilesGetTheirOwnDirectories() {
+        YamlConfiguration root = new YamlConfiguration();
+        root.set("output-dir", "backups");
+        root.set("output-format", "repository");
+        root.set("repository.dir", "/data/repo");
+        root.set("staging.dir", "staging");
+        root.set("remote.prefix", "easybackup");
+        root.set("profiles.players.interval", "5M");
+        root.set("profiles.players.target-save-paths", Collections.singletonList("world/playerdata"));
+        root.set("profiles.world.target-save-paths", Collections.singletonList("world"));
+
+        List<BackupProfile> profiles = BackupProfile.fromConfig(root, null);
+        assertEquals(3, profiles.size());
+        BackupProfile def = BackupProfile.find(profiles, BackupProfile.DEFAULT);
+        BackupProfile players = BackupProfile.find(profiles, "players");
+        BackupProfile world = BackupProfile.find(profiles, "world");
+        assertTrue(def.isDefault());
+        assertEquals("/data/repo", def.config.getString("repository.dir"));
+
+        assertEquals("backups/players", players.config.getString("output-dir"));
+        assertEquals("/data/repo/players", players.config.getString("repository.dir"));
+        assertEquals("staging/players", players.config.getString("staging.dir"));
+        assertEquals("easybackup/players/", players.config.getString("remote.prefix"));
+        assertEquals(300, players.intervalSeconds);
+        assertEquals("repository", players.config.getString("output-format"));
+
+        assertEquals("/data/repo/world", world.config.getString("repository.dir"));
+        assertEquals("staging/world", world.config.getString("staging.dir"));
+        assertEquals(0, world.intervalSeconds);
+        Set<String> dirs = new HashSet<>();
+        for (BackupProfile p : profiles) {
+            assertTrue(dirs.add(p.config.getString("repository.dir")), p.name);
+            assertTrue(dirs.add(p.config.getString("staging.dir")), p.name);
+        }
+    }
+
+    @Test
+    void emptyDirsStayUnderTheProfileOutputAndOwnKeysWin() {
+        YamlConfiguration root = new YamlConfiguration();
+        root.set("output-dir", "backups");
+        root.set("repository.dir", "");
+        root.set("profiles.players.staging.dir", "/fast/staging-players");
+
+        BackupProfile players = BackupProfile.find(BackupProfile.fromConfig(root, null), "players");
+        // 留空时仓库位于 <output-dir>/repository，而 output-dir 已按档案区分
+        assertEquals("", players.config.getString("repository.dir"));
+        assertEquals("backups/players", players.config.getString("output-dir"));
+        assertEquals("/fast/staging-players", players.config.getString("staging.dir"));
+    }
+}
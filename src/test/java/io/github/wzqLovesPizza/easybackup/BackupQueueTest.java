@@ -0,0 +1,103 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 备份队列：并发名额用满后按优先级出队；同一档案排队时合并、运行时拒绝；合并的发起者都收到通知。
+ */
+class BackupQueueTest {
+
+    @Test
+    void runsByPriorityWithinConcurrencyLimit() throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            BackupQueue queue = new BackupQueue(1, pool);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(4);
+
+            assertEquals(BackupQueue.Outcome.STARTED, queue.submit("world", 0, null, job -> {
+                order.add(job.key);
+                await(release);
+                done.countDown();
+            }));
+            assertEquals(BackupQueue.Outcome.RUNNING, queue.submit("world", 5, null, job -> fail("不应重复运行")));
+            assertEquals(BackupQueue.Outcome.QUEUED, queue.submit("plugins", 0, null, job -> {
+                order.add(job.key);
+                done.countDown();
+            }));
+            assertEquals(BackupQueue.Outcome.QUEUED, queue.submit("nether", 1, null, job -> {
+                order.add(job.key);
+                done.countDown();
+            }));
+            List<String> messages = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(BackupQueue.Outcome.QUEUED, queue.submit("playerdata", 1, messages::add, job -> {
+                order.add(job.key);
+                job.notify("完成");
+                done.countDown();
+            }));
+            // 重复请求合并，并把优先级提到最高
+            assertEquals(BackupQueue.Outcome.MERGED, queue.submit("playerdata", 10, messages::add, job -> fail("合并的任务不应单独运行")));
+            assertEquals(3, queue.depth());
+            assertEquals(0, queue.position("playerdata"));
+            assertEquals(2, queue.position("plugins"));
+            assertEquals(Arrays.asList("playerdata", "nether", "plugins"), keys(queue.pendingJobs()));
+            assertEquals(1, queue.runningJobs().size());
+            assertFalse(queue.isIdle());
+
+            Thread.sleep(20);
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("world", "playerdata", "nether", "plugins"), order);
+            assertEquals(Arrays.asList("完成", "完成"), messages);
+            for (int i = 0; i < 100 && !queue.isIdle(); i++) Thread.sleep(10);
+            assertTrue(queue.isIdle());
+            assertTrue(queue.maxWaitMillis() >= 20);
+            assertTrue(queue.averageWaitMillis() >= 0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void smallJobsDoNotWaitBehindLargeOnesWhenSlotsAreFree() throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            BackupQueue queue = new BackupQueue(2, pool);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch small = new CountDownLatch(1);
+            assertEquals(BackupQueue.Outcome.STARTED, queue.submit("world", 0, null, job -> await(release)));
+            assertEquals(BackupQueue.Outcome.STARTED, queue.submit("playerdata", 10, null, job -> small.countDown()));
+            assertTrue(small.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 100 && queue.runningJobs().size() > 1; i++) Thread.sleep(10);
+            // 名额用满后排队，放宽上限后立即开始
+            assertEquals(BackupQueue.Outcome.STARTED, queue.submit("plugins", 0, null, job -> await(release)));
+            CountDownLatch third = new CountDownLatch(1);
+            assertEquals(BackupQueue.Outcome.QUEUED, queue.submit("nether", 0, null, job -> third.countDown()));
+            queue.setMaxParallel(3);
+            assertTrue(third.await(10, TimeUnit.SECONDS));
+            release.countDown();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<String> keys(List<BackupQueue.Job> jobs) {
+        List<String> out = new ArrayList<>();
+        for (BackupQueue.Job j : jobs) out.add(j.key);
+        return out;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
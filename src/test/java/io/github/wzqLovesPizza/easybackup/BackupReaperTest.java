@@ -0,0 +1,108 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 后台删除：排队时只改名并记入清单；清单在重启后继续删除；等待空间时不受预算限制；分片目录整个删除。
+ */
+class BackupReaperTest {
+
+    private static final long MB = 1024L * 1024;
+
+    @Test
+    void pendingDeletionsSurviveRestart() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-reaper");
+        try {
+            File list = tmp.resolve("data/" + BackupReaper.FILE_NAME).toFile();
+            File archive = sparse(tmp.resolve("backups/EasyBackUp_1.zip"), 3 * MB);
+            BackupReaper slow = new BackupReaper(list, null);
+            // 每秒 1 KB：截短第一段后就会长时间等待
+            slow.configure(1024, 0, MB);
+            assertTrue(slow.enqueue(archive));
+            File renamed = new File(archive.getParentFile(), archive.getName() + BackupReaper.SUFFIX);
+            assertFalse(archive.exists());
+            assertTrue(renamed.exists());
+            assertEquals(1, slow.getPendingCount());
+            assertEquals(3 * MB, slow.getPendingBytes());
+            String saved = new String(Files.readAllBytes(list.toPath()), StandardCharsets.UTF_8);
+            assertTrue(saved.contains(renamed.getAbsolutePath()), saved);
+            slow.shutdown();
+            Thread.sleep(100);
+            assertTrue(renamed.exists());
+
+            BackupReaper restarted = new BackupReaper(list, null);
+            restarted.configure(0, 0, MB);
+            waitUntilEmpty(restarted);
+            assertFalse(renamed.exists());
+            assertFalse(list.exists());
+            assertTrue(restarted.enqueue(archive), "不存在的文件视为已删除");
+            restarted.shutdown();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void waitingForSpaceLiftsTheBudget() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-reaper");
+        try {
+            BackupReaper reaper = new BackupReaper(tmp.resolve(BackupReaper.FILE_NAME).toFile(), null);
+            reaper.configure(1024, 1, MB);
+            File a = sparse(tmp.resolve("backups/EasyBackUp_1.zip"), 2 * MB);
+            // 分片目录：由深到浅删除其中的文件
+            Path shards = tmp.resolve("backups/EasyBackUp_2" + ShardedArchive.SUFFIX);
+            sparse(shards.resolve("world.zip"), MB);
+            sparse(shards.resolve("sub/plugins.zip"), 10);
+            assertTrue(reaper.enqueue(a));
+            assertTrue(reaper.enqueue(shards.toFile()));
+            assertEquals(3 * MB + 10, reaper.getPendingBytes());
+
+            long start = System.currentTimeMillis();
+            reaper.awaitFreeSpace(tmp.toFile(), Long.MAX_VALUE, 10_000L);
+            assertTrue(System.currentTimeMillis() - start < 10_000L);
+            assertEquals(0, reaper.getPendingCount());
+            assertEquals(0, reaper.getPendingBytes());
+            assertEquals(0, tmp.resolve("backups").toFile().list().length);
+            reaper.shutdown();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static void waitUntilEmpty(BackupReaper reaper) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (reaper.getPendingCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(0, reaper.getPendingCount());
+    }
+
+    private static File sparse(Path p, long size) throws IOException {
+        Files.createDirectories(p.getParent());
+        try (RandomAccessFile f = new RandomAccessFile(p.toFile(), "rw")) {
+            f.setLength(size);
+        }
+        return p.toFile();
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((a, b) -> b.compareTo(a))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
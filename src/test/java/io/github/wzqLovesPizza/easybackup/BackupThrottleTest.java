@@ -0,0 +1,44 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 限速器的闭环调节：高 MSPT 减速直至暂停，空闲时恢复到上限。
+ */
+class BackupThrottleTest {
+
+    @Test
+    void rateFollowsMspt() throws Exception {
+        long mb = 1024L * 1024L;
+        BackupThrottle t = new BackupThrottle(40, 55, 4 * mb, 64 * mb, 8);
+        assertEquals(64.0 * mb, t.getRate(), 1.0);
+        assertEquals(8, t.getAllowedWorkers());
+
+        t.update(45);
+        assertTrue(t.getRate() < 64.0 * mb);
+        assertTrue(t.getAllowedWorkers() < 8);
+        assertFalse(t.isPaused());
+
+        t.update(80);
+        assertTrue(t.isPaused());
+        for (int i = 0; i < 20; i++) t.update(80);
+        assertEquals(4.0 * mb, t.getRate(), 1.0);
+        assertEquals(1, t.getAllowedWorkers());
+
+        for (int i = 0; i < 30; i++) t.update(10);
+        assertFalse(t.isPaused());
+        assertEquals(64.0 * mb, t.getRate(), 1.0);
+        assertEquals(8, t.getAllowedWorkers());
+
+        // 速率 64 MB/s：申请 8 MB 的配额大约需要 0.125 秒
+        long start = System.nanoTime();
+        t.acquire(8 * mb);
+        t.acquire(1);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        assertTrue(elapsedMs >= 60 && elapsedMs < 2000, "elapsed " + elapsedMs);
+    }
+}
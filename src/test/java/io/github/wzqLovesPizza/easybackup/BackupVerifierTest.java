@@ -0,0 +1,181 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 校验：写出时生成的清单与归档一致；归档被截断、位翻转或条目内容损坏时校验失败；
+ * 没有清单的旧 ZIP 按中央目录的 CRC 校验；仓库快照核对分块哈希；后台校验结果写回备份目录记录。
+ */
+class BackupVerifierTest {
+
+    @Test
+    void zipWithManifestDetectsCorruption() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-verify");
+        try {
+            File zip = tmp.resolve("EasyBackUp_2024-01-01_00-00-00.zip").toFile();
+            ArchiveManifest manifest = new ArchiveManifest();
+            // 不可压缩的数据按 STORED 写入，便于直接改动条目内容
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(manifest.digesting(new FileOutputStream(zip))),
+                    3, 64 * 1024, CompressionPolicy.uniform(0), null)) {
+                w.setManifest(manifest);
+                writeSources(tmp, (name, f) -> w.addFile(name, f, f.length(), f.lastModified()));
+            }
+            manifest.finish(zip);
+            assertEquals(BackupVerifier.sha256(zip), manifest.getSha256());
+            assertEquals(4, ArchiveManifest.read(zip).records().size());
+
+            BackupVerifier verifier = new BackupVerifier(3, null);
+            BackupVerifier.Result ok = verifier.verify(zip);
+            assertTrue(ok.ok, ok.message);
+            assertEquals(4, ok.entries);
+
+            // 改动一个条目中间的一个字节：SHA-256 与该条目的 CRC 都不符
+            byte[] data = Files.readAllBytes(zip.toPath());
+            byte[] copy = data.clone();
+            copy[data.length / 2] ^= 0x40;
+            Files.write(zip.toPath(), copy);
+            assertFalse(verifier.verify(zip).ok);
+
+            // 没有清单时退回中央目录的 CRC，仍能发现损坏的条目
+            Files.delete(ArchiveManifest.fileFor(zip).toPath());
+            assertFalse(verifier.verify(zip).ok);
+            Files.write(zip.toPath(), data);
+            assertTrue(verifier.verify(zip).ok);
+
+            // 截断（中央目录丢失）
+            Files.write(zip.toPath(), java.util.Arrays.copyOf(data, data.length - 100));
+            assertFalse(verifier.verify(zip).ok);
+            verifier.shutdown();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void tarManifestMatchesStreamedContent() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-verify");
+        try {
+            File tar = tmp.resolve("EasyBackUp_2024-01-01_00-00-00.tar").toFile();
+            ArchiveManifest manifest = new ArchiveManifest();
+            TarArchiveWriter.TimedOutputStream disk = new TarArchiveWriter.TimedOutputStream(new FileOutputStream(tar));
+            try (TarArchiveWriter w = new TarArchiveWriter(new BufferedOutputStream(manifest.digesting(disk)), disk, false, 64 * 1024, null)) {
+                w.setManifest(manifest);
+                writeSources(tmp, (name, f) -> w.addFile(name, f, f.length(), f.lastModified()));
+            }
+            manifest.finish(tar);
+
+            BackupVerifier verifier = new BackupVerifier(2, null);
+            assertTrue(verifier.verify(tar).ok);
+            byte[] data = Files.readAllBytes(tar.toPath());
+            data[512 + 100] ^= 1; // 第一个条目的内容
+            Files.write(tar.toPath(), data);
+            BackupVerifier.Result bad = verifier.verify(tar);
+            assertFalse(bad.ok);
+            verifier.shutdown();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void repositoryChunksAreRehashed() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-verify");
+        try {
+            ChunkRepository repo = new ChunkRepository(tmp.resolve("repo").toFile(), Logger.getLogger("BackupVerifierTest"));
+            File src = tmp.resolve("data.bin").toFile();
+            byte[] bytes = new byte[600 * 1024];
+            new Random(3).nextBytes(bytes);
+            Files.write(src.toPath(), bytes);
+            File snapshot;
+            try (ChunkRepository.SnapshotWriter w = repo.openSnapshot("EasyBackUp_2024-01-01_00-00-00", 64 * 1024)) {
+                w.addFile("data.bin", src);
+                w.commit();
+                snapshot = w.getSnapshotFile();
+            }
+            BackupVerifier verifier = new BackupVerifier(2, null);
+            BackupVerifier.Result ok = verifier.verify(snapshot);
+            assertTrue(ok.ok, ok.message);
+            assertTrue(ok.entries > 1);
+
+            String hash = ChunkRepository.readSnapshot(snapshot).get(0).chunks.get(0);
+            Path chunk = tmp.resolve("repo/chunks").resolve(hash.substring(0, 2)).resolve(hash);
+            byte[] raw = Files.readAllBytes(chunk);
+            raw[raw.length - 1] ^= 1;
+            Files.write(chunk, raw);
+            assertFalse(verifier.verify(snapshot).ok);
+            verifier.shutdown();
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void backgroundResultIsRecordedInCatalog() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-verify");
+        try {
+            File zip = tmp.resolve("EasyBackUp_2024-01-01_00-00-00.zip").toFile();
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 2, 64 * 1024, CompressionPolicy.uniform(-1), null)) {
+                writeSources(tmp, (name, f) -> w.addFile(name, f, f.length(), f.lastModified()));
+            }
+            Files.write(tmp.resolve("EasyBackUp_2024-01-02_00-00-00.zip"), new byte[]{'P', 'K', 3, 4, 0});
+            BackupCatalog catalog = BackupCatalog.open(tmp.toFile(), ArchiveCodec.EXTENSIONS, null);
+            assertEquals(2, catalog.size());
+
+            BackupVerifier verifier = new BackupVerifier(2, null);
+            CompletableFuture<BackupVerifier.Result> good = new CompletableFuture<>();
+            CompletableFuture<BackupVerifier.Result> bad = new CompletableFuture<>();
+            verifier.submit(catalog, zip.getName(), good::complete);
+            verifier.submit(catalog, "EasyBackUp_2024-01-02_00-00-00.zip", bad::complete);
+            assertTrue(good.get(30, TimeUnit.SECONDS).ok);
+            assertFalse(bad.get(30, TimeUnit.SECONDS).ok);
+            verifier.shutdown();
+
+            BackupCatalog reopened = BackupCatalog.open(tmp.toFile(), ArchiveCodec.EXTENSIONS, null);
+            assertEquals(BackupCatalog.VERIFIED_OK, reopened.get(zip.getName()).verified);
+            assertTrue(reopened.get("EasyBackUp_2024-01-02_00-00-00.zip").isCorrupt());
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private interface Adder {
+        void add(String name, File f) throws IOException;
+    }
+
+    private static void writeSources(Path tmp, Adder adder) throws IOException {
+        Random rnd = new Random(11);
+        int[] sizes = {0, 1000, 200 * 1024, 70_000};
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] data = new byte[sizes[i]];
+            rnd.nextBytes(data);
+            Path p = tmp.resolve("src").resolve("f" + i);
+            Files.createDirectories(p.getParent());
+            Files.write(p, data);
+            adder.add("world/f" + i + ".bin", p.toFile());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 变更日志：监视模式记录新建、修改、删除与新建子目录中的文件；按变更修补的文件清单与完整扫描一致；
+ * 轮询模式比较大小与修改时间；备份失败时取走的变更可以放回。
+ */
+class ChangeJournalTest {
+
+    @Test
+    void watchRecordsChangesAndUpdateMatchesFullScan() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-journal");
+        Path world = tmp.resolve("world");
+        write(world.resolve("level.dat"), "level");
+        write(world.resolve("region/r.0.0.mca"), "r00");
+        write(world.resolve("region/r.0.1.mca"), "r01");
+        write(world.resolve("logs/latest.log"), "log");
+        write(tmp.resolve("server.properties"), "motd=a");
+        List<Path> targets = Arrays.asList(world, tmp.resolve("server.properties"));
+        try (ChangeJournal journal = new ChangeJournal(targets, () -> scanner(tmp), 60_000L, null)) {
+            journal.start(true);
+            if (!journal.isWatching()) return; // 平台不支持监视
+            assertTrue(journal.hasChanges()); // 尚无基准
+            ChangeJournal.Changes first = journal.drain();
+            assertFalse(first.isIncremental());
+            FileScanner.ScanResult baseline = scanner(tmp).scan(targets);
+            journal.commit(baseline);
+            assertFalse(journal.hasChanges());
+
+            write(world.resolve("region/r.0.0.mca"), "r00-changed");
+            Files.delete(world.resolve("region/r.0.1.mca"));
+            write(world.resolve("data/new/raids.dat"), "raids");
+            write(world.resolve("logs/other.log"), "excluded");
+            write(tmp.resolve("server.properties"), "motd=b");
+            write(tmp.resolve("ops.json"), "[]"); // 不在目标中
+
+            ChangeJournal.Changes changes = awaitChanges(journal, world.resolve("data"));
+            assertTrue(changes.isIncremental());
+            assertTrue(changes.baseline == baseline);
+            assertFalse(changes.paths.contains(tmp.resolve("ops.json")));
+            assertFalse(changes.paths.contains(world.resolve("logs/other.log")));
+
+            FileScanner.ScanResult updated = scanner(tmp).update(changes.baseline, targets, changes.paths);
+            FileScanner.ScanResult full = scanner(tmp).scan(targets);
+            assertEquals(listing(full), listing(updated));
+            assertTrue(listing(updated).containsKey("world/data/new/raids.dat"));
+            assertFalse(listing(updated).containsKey("world/region/r.0.1.mca"));
+            assertEquals(11L, (long) listing(updated).get("world/region/r.0.0.mca"));
+
+            // 备份失败：放回后下次仍能取到
+            journal.restore(changes);
+            assertTrue(journal.hasChanges());
+            assertTrue(journal.drain().paths.containsAll(changes.paths));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void pollComparesSizeAndModificationTime() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-journal-poll");
+        Path world = tmp.resolve("world");
+        write(world.resolve("level.dat"), "level");
+        write(world.resolve("region/r.0.0.mca"), "r00");
+        List<Path> targets = Collections.singletonList(world);
+        try (ChangeJournal journal = new ChangeJournal(targets, () -> scanner(tmp), 3_600_000L, null)) {
+            journal.start(false);
+            assertFalse(journal.isWatching());
+            journal.catchUp();
+            ChangeJournal.Changes first = journal.drain();
+            assertNotNull(first.current);
+            journal.commit(first.current);
+            journal.catchUp();
+            assertFalse(journal.hasChanges());
+
+            write(world.resolve("region/r.0.0.mca"), "r00-changed");
+            Files.delete(world.resolve("level.dat"));
+            journal.catchUp();
+            assertEquals(2, journal.dirtyCount());
+            assertEquals(11L, journal.dirtyBytes());
+            ChangeJournal.Changes changes = journal.drain();
+            assertTrue(changes.isIncremental());
+            // 轮询刚做完的扫描直接作为本次的文件清单
+            assertEquals(Collections.singletonMap("world/region/r.0.0.mca", 11L), listing(changes.current));
+            assertFalse(journal.hasChanges());
+            assertTrue(journal.matches(Collections.singletonList(world)));
+            assertFalse(journal.matches(Arrays.asList(world, tmp)));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    /** 等到某个路径出现在变更中（文件系统事件是异步送达的）。 */
+    private static ChangeJournal.Changes awaitChanges(ChangeJournal journal, Path expected) throws InterruptedException {
+        Set<Path> seen = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 20_000L;
+        ChangeJournal.Changes last = null;
+        while (System.currentTimeMillis() < deadline) {
+            journal.catchUp();
+            ChangeJournal.Changes c = journal.drain();
+            seen.addAll(c.paths);
+            last = new ChangeJournal.Changes(new HashSet<>(seen), c.full, c.baseline, c.current);
+            if (seen.contains(expected) && seen.size() >= 4) {
+                // 再等一会儿，收齐同一批的其余事件
+                Thread.sleep(500);
+                journal.catchUp();
+                seen.addAll(journal.drain().paths);
+                return new ChangeJournal.Changes(seen, last.full, last.baseline, last.current);
+            }
+            Thread.sleep(200);
+        }
+        fail("未收到 " + expected + " 的变更，已收到: " + (last != null ? last.paths : seen));
+        return null;
+    }
+
+    private static FileScanner scanner(Path root) {
+        return new FileScanner(root, new HashSet<>(Collections.singletonList("logs")), new HashSet<>(), new HashSet<>(), 2, null);
+    }
+
+    private static Map<String, Long> listing(FileScanner.ScanResult scan) {
+        Map<String, Long> m = new TreeMap<>();
+        for (FileScanner.ScannedFile f : scan.files) m.put(f.entryName, f.size);
+        return m;
+    }
+
+    private static void write(Path p, String content) throws IOException {
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
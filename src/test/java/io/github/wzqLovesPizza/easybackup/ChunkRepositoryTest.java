@@ -0,0 +1,170 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分块仓库：去重、还原与垃圾回收。
+ */
+class ChunkRepositoryTest {
+
+    @Test
+    void secondSnapshotOnlyStoresChangedChunks() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-repo");
+        try {
+            byte[] data = new byte[4 * 1024 * 1024];
+            new Random(42).nextBytes(data);
+            Path src = tmp.resolve("src");
+            Files.createDirectories(src);
+            Files.write(src.resolve("r.0.0.mca"), data);
+
+            ChunkRepository repo = new ChunkRepository(tmp.resolve("repo").toFile(), Logger.getLogger("ChunkRepositoryTest"));
+            long firstStored = snapshot(repo, "EasyBackUp_2024-01-01_00-00-00", src.resolve("r.0.0.mca").toFile());
+
+            // 中间插入几个字节：CDC 边界会在插入点之后重新对齐
+            byte[] edited = new byte[data.length + 7];
+            System.arraycopy(data, 0, edited, 0, 1_000_000);
+            System.arraycopy(data, 1_000_000, edited, 1_000_007, data.length - 1_000_000);
+            Files.write(src.resolve("r.0.0.mca"), edited);
+            long secondStored = snapshot(repo, "EasyBackUp_2024-01-01_01-00-00", src.resolve("r.0.0.mca").toFile());
+
+            assertTrue(firstStored >= data.length, "首次快照应写入全部数据");
+            assertTrue(secondStored < data.length / 8, "第二次只应写入改动附近的分块，实际: " + secondStored);
+
+            File restore = tmp.resolve("restore").toFile();
+            repo.extract(new File(repo.getSnapshotsDir(), "EasyBackUp_2024-01-01_01-00-00.snapshot"), restore);
+            assertArrayEquals(edited, Files.readAllBytes(new File(restore, "r.0.0.mca").toPath()));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void garbageCollectionKeepsReferencedChunksOnly() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-repo-gc");
+        try {
+            Random rnd = new Random(7);
+            byte[] a = new byte[512 * 1024];
+            byte[] b = new byte[512 * 1024];
+            rnd.nextBytes(a);
+            rnd.nextBytes(b);
+            Path fa = tmp.resolve("a.bin");
+            Path fb = tmp.resolve("b.bin");
+            Files.write(fa, a);
+            Files.write(fb, b);
+
+            ChunkRepository repo = new ChunkRepository(tmp.resolve("repo").toFile(), Logger.getLogger("ChunkRepositoryTest"));
+            snapshot(repo, "EasyBackUp_2024-01-01_00-00-00", fa.toFile());
+            snapshot(repo, "EasyBackUp_2024-01-01_01-00-00", fb.toFile());
+
+            File old = new File(repo.getSnapshotsDir(), "EasyBackUp_2024-01-01_00-00-00.snapshot");
+            assertTrue(old.delete());
+            long freed = repo.collectGarbage();
+            assertTrue(freed >= a.length, "被删除快照独占的分块应被回收");
+
+            File restore = tmp.resolve("restore").toFile();
+            File kept = new File(repo.getSnapshotsDir(), "EasyBackUp_2024-01-01_01-00-00.snapshot");
+            List<ChunkRepository.FileRecord> records = ChunkRepository.readSnapshot(kept);
+            assertEquals(1, records.size());
+            repo.extract(kept, restore);
+            assertArrayEquals(b, Files.readAllBytes(new File(restore, "b.bin").toPath()));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void regionFileStoresOnlyRewrittenChunks() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-repo-region");
+        try {
+            Random rnd = new Random(11);
+            byte[][] payloads = new byte[3][];
+            for (int i = 0; i < payloads.length; i++) {
+                payloads[i] = new byte[6000 + i * 1000];
+                rnd.nextBytes(payloads[i]);
+            }
+            File region = tmp.resolve("r.0.0.mca").toFile();
+            writeRegion(region, payloads, new int[]{1_600_000_000, 1_600_000_000, 1_600_000_000});
+            region.setLastModified(1_600_000_000_000L);
+
+            ChunkRepository repo = new ChunkRepository(tmp.resolve("repo").toFile(), Logger.getLogger("ChunkRepositoryTest"));
+            snapshot(repo, "EasyBackUp_2024-01-01_00-00-00", region);
+
+            // 只改写第 2 个区块（新时间戳）
+            rnd.nextBytes(payloads[1]);
+            writeRegion(region, payloads, new int[]{1_600_000_000, 1_600_000_500, 1_600_000_000});
+            region.setLastModified(1_600_000_500_000L);
+
+            ChunkRepository.SnapshotWriter w = repo.openSnapshot("EasyBackUp_2024-01-01_01-00-00", 64 * 1024);
+            try {
+                w.addFile(region.getName(), region);
+                w.commit();
+            } finally {
+                w.close();
+            }
+            assertEquals(2, w.chunksReused, "未改写的区块应沿用旧哈希");
+            assertEquals(1, w.chunksNew - 1, "只应新增被改写的区块（另加一份新头部）");
+            assertTrue(w.bytesRead < 8192 + payloads[1].length + 4096, "只应读取头部与被改写的区块");
+
+            File restore = tmp.resolve("restore").toFile();
+            repo.extract(w.getSnapshotFile(), restore);
+            assertArrayEquals(Files.readAllBytes(region.toPath()), Files.readAllBytes(new File(restore, region.getName()).toPath()));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    /** 按 Anvil 格式写一个只有前几个区块的区域文件（扇区填充为 0）。 */
+    private static void writeRegion(File file, byte[][] payloads, int[] timestamps) throws IOException {
+        java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(8192);
+        java.io.ByteArrayOutputStream body = new java.io.ByteArrayOutputStream();
+        int sector = 2;
+        for (int i = 0; i < payloads.length; i++) {
+            int recLen = payloads[i].length + 5;
+            int sectors = (recLen + 4095) / 4096;
+            header.putInt(i * 4, (sector << 8) | sectors);
+            header.putInt(4096 + i * 4, timestamps[i]);
+            java.nio.ByteBuffer rec = java.nio.ByteBuffer.allocate(sectors * 4096);
+            rec.putInt(payloads[i].length + 1).put((byte) 2).put(payloads[i]);
+            body.write(rec.array());
+            sector += sectors;
+        }
+        try (java.io.FileOutputStream out = new java.io.FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(body.toByteArray());
+        }
+    }
+
+    private static long snapshot(ChunkRepository repo, String name, File file) throws IOException {
+        try (ChunkRepository.SnapshotWriter w = repo.openSnapshot(name, 64 * 1024)) {
+            w.addFile(file.getName(), file);
+            w.commit();
+            return w.bytesStored;
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 自动调优：样本只取需要压缩的数据；目标用时宽裕时选压缩比最高的级别，放不下时选最快的；
+ * 历史运行提供读取吞吐与校准系数；高峰时段判断。
+ */
+class CompressionTunerTest {
+
+    @Test
+    void picksBestRatioWithinBudgetAndFastestOtherwise() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-tune");
+        try {
+            List<FileScanner.ScannedFile> files = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            Random rnd = new Random(3);
+            for (int i = 0; i < 40_000; i++) text.append("key").append(rnd.nextInt(500)).append(": value ").append(i % 97).append('\n');
+            files.add(file(tmp, "plugins/Foo/data.yml", text.toString().getBytes(StandardCharsets.UTF_8)));
+            byte[] region = new byte[512 * 1024];
+            rnd.nextBytes(region);
+            files.add(file(tmp, "world/region/r.0.0.mca", region));
+
+            CompressionPolicy policy = CompressionPolicy.uniform(-1);
+            CompressionTuner.Decision relaxed = new CompressionTuner(new int[]{1, 6, 9}, 3_600_000L, 1024 * 1024)
+                    .tune(files, policy, 2, Collections.emptyList());
+            assertEquals(3, relaxed.candidates.size());
+            assertTrue(relaxed.sampleBytes > 0);
+            CompressionTuner.Candidate fast = relaxed.candidates.get(0);
+            CompressionTuner.Candidate best = relaxed.candidates.get(2);
+            assertTrue(best.compressedBytes <= fast.compressedBytes);
+            assertEquals(CompressionTuner.choose(relaxed.candidates, 3_600_000L), relaxed.level);
+            assertTrue(relaxed.level > 1, "level " + relaxed.level);
+            assertEquals(relaxed.chosen().predictedMillis, relaxed.predictedMillis);
+
+            // 目标用时为 0：没有级别放得下，选预测最快的
+            List<CompressionTuner.Candidate> cs = new ArrayList<>();
+            cs.add(candidate(1, 1000, 50));
+            cs.add(candidate(6, 700, 80));
+            cs.add(candidate(9, 650, 400));
+            assertEquals(1, CompressionTuner.choose(cs, 0));
+            assertEquals(6, CompressionTuner.choose(cs, 100));
+            assertEquals(9, CompressionTuner.choose(cs, 400));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void samplesSpreadAcrossFilesAndSkipStoredOnes() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-tune");
+        try {
+            List<FileScanner.ScannedFile> files = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                byte[] data = new byte[300 * 1024];
+                Arrays.fill(data, (byte) ('a' + i));
+                files.add(file(tmp, "f" + i + ".txt", data));
+            }
+            List<byte[]> chunks = CompressionTuner.sample(files, 4 * CompressionTuner.CHUNK);
+            assertEquals(4, chunks.size());
+            Set<Byte> seen = new HashSet<>();
+            for (byte[] c : chunks) {
+                assertEquals(CompressionTuner.CHUNK, c.length);
+                seen.add(c[0]);
+            }
+            // 4 个采样点分布在 8 个文件中，落在不同文件上
+            assertEquals(4, seen.size());
+            // 总量不足时整份读完，不重复读取同一段
+            List<byte[]> small = CompressionTuner.sample(files.subList(0, 1), 8 * CompressionTuner.CHUNK);
+            long total = 0;
+            for (byte[] c : small) total += c.length;
+            assertEquals(300 * 1024, total);
+
+            // 只有直接存储的文件时没有样本，预测只看读取
+            CompressionPolicy policy = new CompressionPolicy(-1, Collections.singletonList("txt"), Collections.emptyList(), 7.5, 65536, 16384);
+            CompressionTuner.Decision d = new CompressionTuner(new int[]{1, 9}, 60_000L, 1024 * 1024)
+                    .tune(files, policy, 2, Collections.emptyList());
+            assertEquals(0, d.sampleBytes);
+            assertEquals(0, d.predictedMillis);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void historyProvidesThroughputAndCalibration() {
+        List<BackupMetrics.Run> history = new ArrayList<>();
+        history.add(run(100 * 1024 * 1024L, 2000, -1, 1.0));
+        history.add(run(100 * 1024 * 1024L, 1000, 500, 1.0));
+        history.add(run(100 * 1024 * 1024L, 3000, 1000, 1.5));
+        BackupMetrics.Run failed = run(100 * 1024 * 1024L, 10, 10_000, 1.0);
+        failed.success = false;
+        history.add(failed);
+        assertEquals(100 * 1024 * 1024.0 / 1000, CompressionTuner.readThroughput(history), 1e-6);
+        // 偏差 1000/500 = 2 与 3000/(1000/1.5) = 4.5，中位数 3.25
+        assertEquals(3.25, CompressionTuner.calibration(history), 1e-9);
+        assertEquals(1.0, CompressionTuner.calibration(Collections.emptyList()), 1e-9);
+
+        // 调优字段写入历史行并能读回
+        BackupMetrics.Run parsed = BackupMetrics.Run.parse(history.get(2).toLine());
+        assertNotNull(parsed);
+        assertEquals(6, parsed.tunedLevel);
+        assertEquals(1000, parsed.predictedMillis);
+        assertEquals(1.5, parsed.calibration, 1e-9);
+        assertEquals(-1, BackupMetrics.Run.parse(history.get(0).toLine()).predictedMillis);
+    }
+
+    @Test
+    void peakHoursWrapAroundMidnight() {
+        assertTrue(CompressionTuner.inHours("18-23", 18));
+        assertTrue(CompressionTuner.inHours("18-23", 23));
+        assertFalse(CompressionTuner.inHours("18-23", 17));
+        assertTrue(CompressionTuner.inHours("22-6", 2));
+        assertFalse(CompressionTuner.inHours("22-6", 12));
+        assertTrue(CompressionTuner.inHours("8-9, 12-13", 12));
+        assertFalse(CompressionTuner.inHours("", 12));
+    }
+
+    private static BackupMetrics.Run run(long bytesRead, long archiveMillis, long predicted, double calibration) {
+        BackupMetrics.Run r = new BackupMetrics.Run(System.currentTimeMillis());
+        r.success = true;
+        r.bytesRead = bytesRead;
+        r.addPhase("archive", archiveMillis);
+        if (predicted >= 0) {
+            r.tunedLevel = 6;
+            r.predictedMillis = predicted;
+            r.calibration = calibration;
+        }
+        return r;
+    }
+
+    private static CompressionTuner.Candidate candidate(int level, long compressed, long predicted) {
+        CompressionTuner.Candidate c = new CompressionTuner.Candidate(level);
+        c.compressedBytes = compressed;
+        c.predictedMillis = predicted;
+        return c;
+    }
+
+    private static FileScanner.ScannedFile file(Path root, String name, byte[] data) throws IOException {
+        Path p = root.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.write(p, data);
+        return new FileScanner.ScannedFile(p, name, data.length, Files.getLastModifiedTime(p).toMillis());
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((a, b) -> b.compareTo(a))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
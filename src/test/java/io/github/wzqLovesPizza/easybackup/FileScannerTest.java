@@ -0,0 +1,118 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 扫描器：排除规则（名称规则与路径规则、提前跳过的子树、命中计数）、条目名与字节汇总。
+ */
+class FileScannerTest {
+
+    @Test
+    void scanAppliesExclusionsAndReportsBytes() throws Exception {
+        Path root = Files.createTempDirectory("easybackup-scan");
+        try {
+            write(root.resolve("world/level.dat"), 10);
+            write(root.resolve("world/session.lock"), 3);
+            write(root.resolve("world/region/r.0.0.mca"), 8192);
+            write(root.resolve("world/region/r.0.1.mca"), 4096);
+            write(root.resolve("world/logs/latest.log"), 50);
+            write(root.resolve("world/data/raids.tmp"), 7);
+            write(root.resolve("server.properties"), 5);
+
+            FileScanner scanner = new FileScanner(root,
+                    new HashSet<>(Collections.singletonList("logs")),
+                    new HashSet<>(Collections.singletonList("session.lock")),
+                    new HashSet<>(Collections.singletonList("tmp")), 4, null);
+            FileScanner.ScanResult result = scanner.scan(Arrays.asList(root.resolve("world"), root.resolve("server.properties")));
+
+            List<String> names = result.files.stream().map(f -> f.entryName).collect(Collectors.toList());
+            assertEquals(Arrays.asList("world/level.dat", "world/region/r.0.0.mca", "world/region/r.0.1.mca", "server.properties"), names);
+            assertEquals(10 + 8192 + 4096 + 5, result.totalBytes);
+            Set<Long> sizes = result.files.stream().map(f -> f.size).collect(Collectors.toSet());
+            assertEquals(new HashSet<>(Arrays.asList(10L, 8192L, 4096L, 5L)), sizes);
+        } finally {
+            deleteRecursively(root);
+        }
+    }
+
+    @Test
+    void pathRulesPruneSubtreesAndCountHits() throws Exception {
+        Path root = Files.createTempDirectory("easybackup-scan-rules");
+        try {
+            write(root.resolve("world/level.dat"), 10);
+            write(root.resolve("world/data/raids.dat"), 4);
+            write(root.resolve("world/data/Map_0.dat"), 6);
+            write(root.resolve("world_nether/data/raids.dat"), 4);
+            write(root.resolve("plugins/dynmap/configuration.txt"), 20);
+            write(root.resolve("plugins/dynmap/web/index.html"), 30);
+            write(root.resolve("plugins/dynmap/web/tiles/world/0_0.png"), 100);
+            write(root.resolve("plugins/dynmap/web/tiles/world/0_1.png"), 100);
+            write(root.resolve("plugins/dynmap/web/tiles/marker/markers.json"), 9);
+            write(root.resolve("plugins/Foo/cache/a.bin"), 11);
+            write(root.resolve("plugins/Foo/config.yml"), 12);
+            write(root.resolve("plugins/Bar/debug-1.txt"), 13);
+
+            PathFilter filter = new PathFilter(new HashSet<>(), new HashSet<>(), new HashSet<>(),
+                    Arrays.asList("world/data/raids.dat", "plugins/dynmap/web/tiles/**", "**/cache", "regex:plugins/[^/]+/debug-\\d+\\.txt"),
+                    Collections.singletonList("plugins/dynmap/web/tiles/marker/*.json"));
+            FileScanner scanner = new FileScanner(root, filter, 2, null);
+            FileScanner.ScanResult result = scanner.scan(Arrays.asList(root.resolve("world"), root.resolve("world_nether"), root.resolve("plugins")));
+
+            Set<String> names = result.files.stream().map(f -> f.entryName).collect(Collectors.toSet());
+            assertEquals(new HashSet<>(Arrays.asList("world/level.dat", "world/data/Map_0.dat", "world_nether/data/raids.dat",
+                    "plugins/dynmap/configuration.txt", "plugins/dynmap/web/index.html",
+                    "plugins/dynmap/web/tiles/marker/markers.json", "plugins/Foo/config.yml")), names);
+
+            List<PathFilter.Rule> hits = filter.hits();
+            assertEquals(4, hits.size());
+            PathFilter.Rule tiles = hits.get(0);
+            assertEquals("plugins/dynmap/web/tiles/**", tiles.text);
+            // tiles/world 整个跳过；tiles 本身因 include 规则仍被列出
+            assertEquals(1, tiles.dirs.get());
+            PathFilter.Rule raids = hits.stream().filter(r -> r.text.equals("world/data/raids.dat")).findFirst().get();
+            assertEquals(1, raids.files.get());
+            assertEquals(4, raids.bytes.get());
+
+            // 单独检查路径（变更日志使用）与扫描结果一致
+            assertTrue(scanner.isExcludedDir(root.resolve("plugins/dynmap/web/tiles/world")));
+            assertFalse(scanner.isExcludedDir(root.resolve("plugins/dynmap/web/tiles")));
+            assertTrue(scanner.isExcludedFile(root.resolve("plugins/dynmap/web/tiles/world/0_0.png")));
+            assertFalse(scanner.isExcludedFile(root.resolve("plugins/dynmap/web/tiles/marker/markers.json")));
+            assertTrue(scanner.isExcludedFile(root.resolve("plugins/Foo/cache/a.bin")));
+            assertTrue(scanner.isExcludedFile(root.resolve("world/DATA/Raids.dat")));
+        } finally {
+            deleteRecursively(root);
+        }
+    }
+
+    private static void write(Path p, int size) throws IOException {
+        Files.createDirectories(p.getParent());
+        Files.write(p, new byte[size]);
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 并行写出的 ZIP 必须能被 JDK 的 ZipFile / ZipInputStream 原样读回。
+ */
+class ParallelZipWriterTest {
+
+    @Test
+    void multiBlockEntriesRoundTrip() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-pzip");
+        try {
+            Random rnd = new Random(1);
+            Map<String, byte[]> files = new HashMap<>();
+            files.put("world/level.dat", "hello world".repeat(100).getBytes(StandardCharsets.UTF_8));
+            files.put("world/empty.txt", new byte[0]);
+            byte[] region = new byte[5 * 1024 * 1024 + 123];
+            for (int i = 0; i < region.length; i++) region[i] = (byte) (rnd.nextInt(16) + (i / 4096));
+            files.put("world/region/r.0.0.mca", region);
+            byte[] noise = new byte[300 * 1024];
+            rnd.nextBytes(noise);
+            files.put("世界/噪声.bin", noise);
+
+            File zip = tmp.resolve("out.zip").toFile();
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 4, 64 * 1024, CompressionPolicy.uniform(-1), Logger.getLogger("test"))) {
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    Path p = tmp.resolve("src").resolve(Integer.toHexString(e.getKey().hashCode()));
+                    Files.createDirectories(p.getParent());
+                    Files.write(p, e.getValue());
+                    w.addFile(e.getKey(), p.toFile());
+                }
+            }
+
+            try (ZipFile zf = new ZipFile(zip)) {
+                assertEquals(files.size(), zf.size());
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    ZipEntry ze = zf.getEntry(e.getKey());
+                    assertNotNull(ze, e.getKey());
+                    try (InputStream in = zf.getInputStream(ze)) {
+                        assertArrayEquals(e.getValue(), in.readAllBytes(), e.getKey());
+                    }
+                }
+            }
+            int seen = 0;
+            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(zip), StandardCharsets.UTF_8)) {
+                ZipEntry ze;
+                while ((ze = zin.getNextEntry()) != null) {
+                    assertArrayEquals(files.get(ze.getName()), zin.readAllBytes(), ze.getName());
+                    seen++;
+                }
+            }
+            assertEquals(files.size(), seen);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void zip64EndRecordForManyEntries() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-pzip64");
+        try {
+            Path src = tmp.resolve("a.txt");
+            Files.writeString(src, "x");
+            File zip = tmp.resolve("many.zip").toFile();
+            int count = 70_000;
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip), 1 << 16), 2, 1 << 20, CompressionPolicy.uniform(1), null)) {
+                for (int i = 0; i < count; i++) w.addFile("f/" + i, src.toFile());
+            }
+            try (ZipFile zf = new ZipFile(zip)) {
+                assertEquals(count, zf.size());
+                try (InputStream in = zf.getInputStream(zf.getEntry("f/" + (count - 1)))) {
+                    assertEquals("x", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void policyStoresAlreadyCompressedEntries() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-pzip-policy");
+        try {
+            Random rnd = new Random(5);
+            Map<String, byte[]> files = new HashMap<>();
+            byte[] region = new byte[300 * 1024];
+            rnd.nextBytes(region);
+            files.put("world/region/r.0.0.mca", region);
+            byte[] noise = new byte[200 * 1024];
+            rnd.nextBytes(noise);
+            files.put("plugins/db/blob.bin", noise);
+            files.put("plugins/cfg/config.yml", "key: value\n".repeat(20000).getBytes(StandardCharsets.UTF_8));
+
+            Map<String, Object> rule = new HashMap<>();
+            rule.put("pattern", "plugins/**/*.yml");
+            rule.put("level", 9);
+            CompressionPolicy policy = new CompressionPolicy(-1, CompressionPolicy.DEFAULT_STORE_EXTENSIONS,
+                    java.util.Collections.singletonList(rule), 7.5, 64 * 1024, 16 * 1024);
+            assertEquals(Integer.valueOf(9), policy.levelForPath("plugins/cfg/config.yml"));
+            assertEquals(Integer.valueOf(CompressionPolicy.STORE), policy.levelForPath("world/region/r.0.0.mca"));
+
+            File zip = tmp.resolve("out.zip").toFile();
+            ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 3, 64 * 1024, policy, null);
+            try (w) {
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    Path p = tmp.resolve("src").resolve(Integer.toHexString(e.getKey().hashCode()));
+                    Files.createDirectories(p.getParent());
+                    Files.write(p, e.getValue());
+                    w.addFile(e.getKey(), p.toFile());
+                }
+            }
+            assertEquals(2, w.getStoredEntries());
+
+            try (ZipFile zf = new ZipFile(zip)) {
+                assertEquals(ZipEntry.STORED, zf.getEntry("world/region/r.0.0.mca").getMethod());
+                assertEquals(ZipEntry.STORED, zf.getEntry("plugins/db/blob.bin").getMethod());
+                assertEquals(ZipEntry.DEFLATED, zf.getEntry("plugins/cfg/config.yml").getMethod());
+            }
+            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(zip), StandardCharsets.UTF_8)) {
+                ZipEntry ze;
+                while ((ze = zin.getNextEntry()) != null) {
+                    assertArrayEquals(files.get(ze.getName()), zin.readAllBytes(), ze.getName());
+                }
+            }
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void mappedAndPooledReadsRoundTripWithBoundedBuffers() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-pzip-io");
+        try {
+            Random rnd = new Random(9);
+            Map<String, byte[]> files = new HashMap<>();
+            byte[] big = new byte[600 * 1024 + 7];
+            for (int i = 0; i < big.length; i++) big[i] = (byte) (rnd.nextInt(8) + (i / 1000));
+            files.put("world/big.bin", big);
+            for (int i = 0; i < 200; i++) {
+                files.put("world/small/" + i + ".txt", ("line " + i + "\n").repeat(i + 1).getBytes(StandardCharsets.UTF_8));
+            }
+
+            File zip = tmp.resolve("out.zip").toFile();
+            ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 2, 64 * 1024, CompressionPolicy.uniform(-1), null);
+            try (w) {
+                // 256 KiB 以上的文件走内存映射
+                w.setMmapThreshold(256 * 1024);
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    Path p = tmp.resolve("src").resolve(Integer.toHexString(e.getKey().hashCode()));
+                    Files.createDirectories(p.getParent());
+                    Files.write(p, e.getValue());
+                    w.addFile(e.getKey(), p.toFile());
+                }
+            }
+            long buffers = w.getDirectBuffersAllocated();
+            // 池化缓冲区的数量只与在途块数有关，与文件数无关
+            assertTrue(buffers <= 2 * 2 * 2 + 4, "allocated " + buffers);
+
+            try (ZipFile zf = new ZipFile(zip)) {
+                assertEquals(files.size(), zf.size());
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    try (InputStream in = zf.getInputStream(zf.getEntry(e.getKey()))) {
+                        assertArrayEquals(e.getValue(), in.readAllBytes(), e.getKey());
+                    }
+                }
+            }
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void unchangedEntriesAreCopiedFromPreviousArchive() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-pzip-reuse");
+        try {
+            Random rnd = new Random(5);
+            Path src = Files.createDirectories(tmp.resolve("src"));
+            Map<String, byte[]> files = new HashMap<>();
+            files.put("world/level.dat", "level".repeat(500).getBytes(StandardCharsets.UTF_8));
+            byte[] region = new byte[600 * 1024 + 7];
+            for (int i = 0; i < region.length; i++) region[i] = (byte) (rnd.nextInt(8) + (i / 8192));
+            files.put("world/region/r.0.0.mca", region);
+            files.put("plugins/config.yml", "a: 1\n".repeat(100).getBytes(StandardCharsets.UTF_8));
+            long mtime = 1_700_000_000_123L;
+            for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                Path p = src.resolve(e.getKey());
+                Files.createDirectories(p.getParent());
+                Files.write(p, e.getValue());
+                assertTrue(p.toFile().setLastModified(mtime));
+            }
+
+            File first = tmp.resolve("first.zip").toFile();
+            writeZip(first, src, files, null);
+            try (ZipFile zf = new ZipFile(first)) {
+                assertEquals(mtime, zf.getEntry("world/level.dat").getLastModifiedTime().toMillis());
+            }
+
+            // 内容改变但大小与修改时间不变：只比较元数据会误判，核对 CRC 后重新压缩
+            byte[] changed = "b: 2\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+            Path config = src.resolve("plugins/config.yml");
+            Files.write(config, changed);
+            assertTrue(config.toFile().setLastModified(mtime));
+            files.put("plugins/config.yml", changed);
+            // 新文件照常压缩
+            files.put("world/new.dat", "new".getBytes(StandardCharsets.UTF_8));
+            Files.write(src.resolve("world/new.dat"), files.get("world/new.dat"));
+
+            File second = tmp.resolve("second.zip").toFile();
+            // 上一次备份开始前不足 2 秒修改的文件不沿用
+            try (PreviousZip guarded = PreviousZip.open(first, mtime + 1000L)) {
+                assertNull(guarded.find("world/level.dat", files.get("world/level.dat").length, mtime));
+            }
+            ParallelZipWriter w = writeZip(second, src, files, PreviousZip.open(first, System.currentTimeMillis()));
+            assertEquals(2, w.getReusedEntries());
+            assertEquals(files.get("world/level.dat").length + region.length, w.getReusedBytes());
+
+            try (ZipFile zf = new ZipFile(second)) {
+                assertEquals(files.size(), zf.size());
+                for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                    try (InputStream in = zf.getInputStream(zf.getEntry(e.getKey()))) {
+                        assertArrayEquals(e.getValue(), in.readAllBytes(), e.getKey());
+                    }
+                }
+            }
+            int seen = 0;
+            try (ZipInputStream zin = new ZipInputStream(new FileInputStream(second), StandardCharsets.UTF_8)) {
+                ZipEntry ze;
+                while ((ze = zin.getNextEntry()) != null) {
+                    assertArrayEquals(files.get(ze.getName()), zin.readAllBytes(), ze.getName());
+                    seen++;
+                }
+            }
+            assertEquals(files.size(), seen);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static ParallelZipWriter writeZip(File zip, Path src, Map<String, byte[]> files, PreviousZip previous) throws IOException {
+        ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 2, 64 * 1024,
+                CompressionPolicy.uniform(-1), Logger.getLogger("test"));
+        try (ParallelZipWriter writer = w) {
+            if (previous != null) writer.setPrevious(previous, true);
+            for (String name : new java.util.TreeSet<>(files.keySet())) {
+                File f = src.resolve(name).toFile();
+                writer.addFile(name, f, f.length(), f.lastModified());
+            }
+        }
+        return w;
+    }
+
+    @Test
+    void crcCombineMatchesSequentialCrc() {
+        byte[] a = new byte[12345];
+        byte[] b = new byte[67890];
+        new Random(3).nextBytes(a);
+        new Random(4).nextBytes(b);
+        CRC32 ca = new CRC32();
+        ca.update(a);
+        CRC32 cb = new CRC32();
+        cb.update(b);
+        CRC32 all = new CRC32();
+        all.update(a);
+        all.update(b);
+        assertEquals(all.getValue(), ParallelZipWriter.crc32Combine(ca.getValue(), cb.getValue(), b.length));
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
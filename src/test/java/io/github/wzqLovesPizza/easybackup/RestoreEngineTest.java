@@ -0,0 +1,178 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 还原：按目录、通配符与坐标选择条目；ZIP 与 tar 解压后替换，原有内容留在 old；
+ * 替换失败时撤销；暂存的还原在下次启动时执行；选择器匹配不到时报错。
+ */
+class RestoreEngineTest {
+
+    private static final Map<String, String> FILES = new LinkedHashMap<>();
+
+    static {
+        FILES.put("world/level.dat", "level");
+        FILES.put("world/region/r.0.0.mca", "r00");
+        FILES.put("world/region/r.2.-1.mca", "r2-1");
+        FILES.put("world/entities/r.2.-1.mca", "e2-1");
+        FILES.put("world/poi/r.0.0.mca", "p00");
+        FILES.put("world_nether/DIM-1/region/r.-1.0.mca", "n-10");
+        FILES.put("plugins/Foo/config.yml", "foo: 1");
+        FILES.put("server.properties", "motd=x");
+    }
+
+    @Test
+    void selectorsPickDirectoriesGlobsAndRegions() throws Exception {
+        List<String> names = new java.util.ArrayList<>(FILES.keySet());
+        assertEquals(Arrays.asList("plugins", "server.properties", "world", "world_nether"),
+                RestoreEngine.select(Collections.emptyList()).units(names));
+        assertEquals(Collections.singletonList("world"),
+                RestoreEngine.select(Arrays.asList("world/", "world/region/*.mca")).units(names));
+        // 方块 (1100, -5) 位于区域 (2, -1)
+        assertEquals(Arrays.asList("world/entities/r.2.-1.mca", "world/region/r.2.-1.mca"),
+                RestoreEngine.select(Collections.singletonList("world@1100,-5")).units(names));
+        assertEquals(Collections.singletonList("world_nether/DIM-1/region/r.-1.0.mca"),
+                RestoreEngine.select(Collections.singletonList("world_nether/DIM-1@-1,0")).units(names));
+        assertEquals(Collections.singletonList("plugins/Foo/config.yml"),
+                RestoreEngine.select(Collections.singletonList("plugins/**/*.yml")).units(names));
+        assertThrows(IOException.class, () -> RestoreEngine.select(Collections.singletonList("world_the_end")).units(names));
+        assertFalse(RestoreEngine.select(Collections.singletonList("world")).matches("world_nether/level.dat"));
+    }
+
+    @Test
+    void restoresSubsetOfZipAndKeepsOldCopy() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-restore");
+        try {
+            File zip = tmp.resolve("EasyBackUp_1.zip").toFile();
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 2, 64 * 1024, CompressionPolicy.uniform(-1), null)) {
+                writeAll(tmp, (name, f) -> w.addFile(name, f));
+            }
+            Path root = tmp.resolve("server");
+            write(root.resolve("world/region/r.2.-1.mca"), "changed");
+            write(root.resolve("world/region/r.5.5.mca"), "untouched");
+            write(root.resolve("plugins/Foo/config.yml"), "foo: 2");
+            write(root.resolve("plugins/Foo/extra.yml"), "extra");
+
+            RestoreEngine engine = new RestoreEngine(root.toFile(), 3, null);
+            RestoreEngine.Plan plan = engine.plan(zip, Arrays.asList("world@1100,-5", "plugins"));
+            assertEquals(3, plan.entries.size());
+            RestoreEngine.Staged staged = engine.extract(plan);
+            engine.swap(staged);
+
+            assertEquals("r2-1", read(root.resolve("world/region/r.2.-1.mca")));
+            assertEquals("e2-1", read(root.resolve("world/entities/r.2.-1.mca")));
+            assertEquals("untouched", read(root.resolve("world/region/r.5.5.mca")));
+            // 目录单元整体替换：备份之后新增的文件移到 old
+            assertEquals("foo: 1", read(root.resolve("plugins/Foo/config.yml")));
+            assertFalse(Files.exists(root.resolve("plugins/Foo/extra.yml")));
+            assertEquals("extra", read(staged.oldDir().toPath().resolve("plugins/Foo/extra.yml")));
+            assertEquals("changed", read(staged.oldDir().toPath().resolve("world/region/r.2.-1.mca")));
+            assertFalse(staged.newDir().exists());
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void restoresTarAndAppliesPendingSwap() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-restore");
+        try {
+            File tar = tmp.resolve("EasyBackUp_1.tar").toFile();
+            TarArchiveWriter.TimedOutputStream disk = new TarArchiveWriter.TimedOutputStream(new FileOutputStream(tar));
+            try (TarArchiveWriter w = new TarArchiveWriter(new BufferedOutputStream(disk), disk, false, 64 * 1024, null)) {
+                writeAll(tmp, (name, f) -> w.addFile(name, f, f.length(), f.lastModified()));
+            }
+            Path root = tmp.resolve("server");
+            write(root.resolve("world/level.dat"), "newer");
+
+            RestoreEngine engine = new RestoreEngine(root.toFile(), 2, null);
+            RestoreEngine.Plan plan = engine.plan(tar, Collections.singletonList("world"));
+            assertFalse(plan.isIndexed());
+            RestoreEngine.Staged staged = engine.extract(plan);
+            assertEquals(Collections.singletonList("world"), staged.units);
+            assertEquals(5, staged.files);
+            engine.schedule(staged);
+            assertEquals("newer", read(root.resolve("world/level.dat")));
+
+            assertTrue(RestoreEngine.applyPending(root.toFile(), null));
+            assertEquals("level", read(root.resolve("world/level.dat")));
+            assertEquals("p00", read(root.resolve("world/poi/r.0.0.mca")));
+            assertEquals("newer", read(staged.oldDir().toPath().resolve("world/level.dat")));
+            assertFalse(RestoreEngine.applyPending(root.toFile(), null));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void failedSwapRollsBack() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-restore");
+        try {
+            File zip = tmp.resolve("EasyBackUp_1.zip").toFile();
+            try (ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zip)), 2, 64 * 1024, CompressionPolicy.uniform(-1), null)) {
+                writeAll(tmp, (name, f) -> w.addFile(name, f));
+            }
+            Path root = tmp.resolve("server");
+            write(root.resolve("plugins/Foo/config.yml"), "foo: 2");
+            write(root.resolve("server.properties"), "motd=live");
+
+            RestoreEngine engine = new RestoreEngine(root.toFile(), 2, null);
+            RestoreEngine.Staged staged = engine.extract(engine.plan(zip, Arrays.asList("plugins", "server.properties")));
+            // 第二个单元的暂存内容丢失，替换到一半失败
+            Files.delete(staged.newDir().toPath().resolve("server.properties"));
+            assertThrows(IOException.class, () -> engine.swap(staged));
+            assertEquals("foo: 2", read(root.resolve("plugins/Foo/config.yml")));
+            assertEquals("motd=live", read(root.resolve("server.properties")));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private interface Adder {
+        void add(String name, File f) throws IOException;
+    }
+
+    private static void writeAll(Path tmp, Adder adder) throws IOException {
+        int i = 0;
+        for (Map.Entry<String, String> e : FILES.entrySet()) {
+            Path src = tmp.resolve("src").resolve(Integer.toString(i++));
+            write(src, e.getValue());
+            adder.add(e.getKey(), src.toFile());
+        }
+    }
+
+    private static void write(Path p, String content) throws IOException {
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path p) throws IOException {
+        return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 差分测试：索引化的分层保留必须与旧实现（逐个线性扫描，原样保留在本文件中）选出完全相同的备份。
+ */
+class RetentionDifferentialTest {
+
+    private static final String[][] SPACING_POOL = {
+            {"1H", "2H", "3H", "6H"}, {"30M", "4H", "8H", "12H"}, {"10D", "15D"}, {"1H", "1H", "3H"}, {"0S", "2H"}};
+
+    @Test
+    void indexedSelectionMatchesLegacy() {
+        TimeZone originalTz = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        try {
+            Random rnd = new Random(20241115L);
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.ROOT);
+            long base = 1_731_672_000_000L;
+            for (int round = 0; round < 400; round++) {
+                int n = rnd.nextInt(round < 50 ? 12 : 300);
+                File[] files = new File[n];
+                long step = (1 + rnd.nextInt(6)) * 1_800_000L;
+                for (int i = 0; i < n; i++) {
+                    // 故意制造同一时间戳、乱序与无法解析的文件名
+                    long t = base - (rnd.nextInt(3) == 0 ? rnd.nextInt(Math.max(1, i)) : i) * step - rnd.nextInt(4) * 1000L;
+                    String name = rnd.nextInt(40) == 0 ? "EasyBackUp_broken-" + i + ".zip"
+                            : "EasyBackUp_" + fmt.format(new Date(t)) + (rnd.nextBoolean() ? ".zip" : ".snapshot");
+                    files[i] = new File("backups-" + (i % 3), name);
+                }
+                List<Map<String, Object>> tiers = randomTiers(rnd);
+                int maxTotal = rnd.nextInt(5) == 0 ? -1 : rnd.nextInt(25);
+                long now = base + rnd.nextInt(3) * 3_600_000L;
+
+                Set<File> expected = legacySelect(files, tiers, maxTotal, now);
+                Set<File> actual = BackupTask.selectTieredRetention(files, tiers, maxTotal, now);
+                assertEquals(expected, actual, "round " + round + " n=" + n + " tiers=" + tiers + " max=" + maxTotal);
+            }
+        } finally {
+            TimeZone.setDefault(originalTz);
+        }
+    }
+
+    @Test
+    void timestampParserMatchesSimpleDateFormat() {
+        TimeZone originalTz = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        try {
+            String[] names = {
+                    "EasyBackUp_2024-11-15_12-00-00.zip", "EasyBackUp_2024-10-27_02-30-00.zip", "EasyBackUp_2024-03-31_02-30-00.zip",
+                    "EasyBackUp_2024-1-5_3-4-5.zip", "EasyBackUp_2024-02-30_00-00-00.zip", "EasyBackUp_2024-01-01_24-00-00.zip",
+                    "EasyBackUp_2024-01-01_00-00-00.tar.zst", "EasyBackUp_2024-01-01_00-00-00x.zip", "EasyBackUp_latest.zip",
+                    "EasyBackUp_.zip", "EasyBackUp-2024-01-01_00-00-00", "EasyBackUp_2024-12-31_23-59-59.snapshot"};
+            for (String name : names) {
+                assertEquals(legacyParse(name), BackupTask.parseTimestampFromName(name), name);
+            }
+        } finally {
+            TimeZone.setDefault(originalTz);
+        }
+    }
+
+    private static List<Map<String, Object>> randomTiers(Random rnd) {
+        List<Map<String, Object>> tiers = new ArrayList<>();
+        String[] windows = {"1D", "3D", "7D", "30D", "365D", "0S", null};
+        int count = 1 + rnd.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> t = new HashMap<>();
+            String w = windows[rnd.nextInt(windows.length)];
+            if (w != null) t.put("window", w);
+            if (rnd.nextBoolean()) {
+                t.put("spacings", Arrays.asList(SPACING_POOL[rnd.nextInt(SPACING_POOL.length)]));
+                if (rnd.nextInt(3) == 0) t.put("keep", rnd.nextInt(4));
+            } else {
+                t.put("keep", rnd.nextInt(6));
+                t.put("min-spacing", new String[]{"0S", "1H", "6H", "12H", "1D", "7D"}[rnd.nextInt(6)]);
+                if (rnd.nextBoolean()) t.put("growth-multiplier", new double[]{1.0, 1.5, 2.0, 0.5}[rnd.nextInt(4)]);
+            }
+            tiers.add(t);
+        }
+        return tiers;
+    }
+
+    // ---- 旧实现（改为索引前的 BackupTask 代码，仅去掉删除部分） ----
+
+    static Set<File> legacySelect(File[] files, List<Map<String, Object>> tiers, int maxTotal, long now) {
+
+        // 解析文件的时间戳
+        List<BackupEntry> entries = new ArrayList<>();
+        for (File f : files) {
+            Long ts = legacyParse(f.getName());
+            if (ts == null) ts = f.lastModified();
+            entries.add(new BackupEntry(f, ts));
+        }
+        // 按时间从新到旧排序
+        entries.sort((a, b) -> Long.compare(b.timestamp, a.timestamp));
+
+        List<BackupEntry> selected = new ArrayList<>();
+        Set<BackupEntry> selectedSet = new HashSet<>();
+
+        long upperBoundExclusive = Long.MAX_VALUE; // 确保下一层只触及更久远的窗口
+
+        for (Map<String, Object> tier : tiers) {
+            String windowStr = BackupTask.asString(tier.get("window"), null);
+            int windowSec = windowStr != null ? BackupTask.safeParseDurationSeconds(windowStr) : 0;
+
+            // 支持两种策略：
+            // 1) spacings: 非均匀间隔序列（优先）
+            // 2) min-spacing + growth-multiplier: 基础间隔 + 逐次增长（几何或线性，默认1.0表示不增长）
+            List<Integer> spacingList = BackupTask.parseSpacingList(tier.get("spacings"));
+            String spacingStr = BackupTask.asString(tier.get("min-spacing"), "0S");
+            int baseSpacingSec = BackupTask.safeParseDurationSeconds(spacingStr);
+            double growth = BackupTask.asDouble(tier.get("growth-multiplier"), 1.0);
+
+            int keepCfg = BackupTask.asInt(tier.get("keep"), 0);
+            int keep;
+            if (!spacingList.isEmpty()) {
+                keep = keepCfg > 0 ? Math.min(keepCfg, spacingList.size()) : spacingList.size();
+            } else {
+                keep = keepCfg;
+            }
+
+            if (keep <= 0) continue;
+            long windowStart = windowSec > 0 ? now - windowSec * 1000L : Long.MIN_VALUE;
+
+            int keptInTier = 0;
+            long lastKeptInTier = Long.MAX_VALUE;
+            while (keptInTier < keep) {
+                BackupEntry chosen = null;
+                BackupEntry oldestCandidate = null;
+
+                int spacingForPickSec;
+                if (keptInTier == 0) {
+                    spacingForPickSec = 0; // 第一个永远保留最新的一个
+                } else if (!spacingList.isEmpty()) {
+                    int idx = Math.min(keptInTier - 1, spacingList.size() - 1);
+                    spacingForPickSec = spacingList.get(idx);
+                } else {
+                    spacingForPickSec = (int) Math.round(baseSpacingSec * Math.pow(Math.max(1.0, growth), keptInTier - 1));
+                }
+                long spacingMs = spacingForPickSec * 1000L;
+
+                for (BackupEntry e : entries) {
+                    if (selectedSet.contains(e)) continue;
+                    if (e.timestamp < windowStart) continue;
+                    if (e.timestamp >= upperBoundExclusive) continue;
+
+                    oldestCandidate = e; // 由于按时间降序遍历，最后一次赋值即为窗口内最老的备份
+
+                    if (lastKeptInTier == Long.MAX_VALUE || e.timestamp <= lastKeptInTier - spacingMs) {
+                        chosen = e;
+                        break;
+                    }
+                }
+
+                if (chosen == null) {
+                    if (oldestCandidate != null) {
+                        chosen = oldestCandidate; // 没有满足间隔，也先占位以便后续老化
+                    } else {
+                        break; // 窗口内没有可用候选，结束该层
+                    }
+                }
+
+                selected.add(chosen);
+                selectedSet.add(chosen);
+                keptInTier++;
+                lastKeptInTier = chosen.timestamp;
+            }
+
+            if (windowSec > 0) {
+                upperBoundExclusive = Math.min(upperBoundExclusive, windowStart);
+            }
+        }
+
+        // 若选中的数量少于 maxTotal，保留最老的若干作为“候补”，让它们有机会晋升到更高层
+        if (maxTotal > 0 && selected.size() < maxTotal) {
+            List<BackupEntry> oldestFirst = new ArrayList<>(entries);
+            oldestFirst.sort(Comparator.comparingLong(e -> e.timestamp));
+            for (BackupEntry e : oldestFirst) {
+                if (selected.size() >= maxTotal) break;
+                if (selectedSet.contains(e)) continue;
+                selected.add(e);
+                selectedSet.add(e);
+            }
+        }
+
+        // 如果配置的总量上限小于选中数量，截断为最新的 maxTotal 个
+        if (maxTotal > 0 && selected.size() > maxTotal) {
+            selected.sort((a, b) -> Long.compare(b.timestamp, a.timestamp));
+            List<BackupEntry> trimmed = new ArrayList<>(selected.subList(0, maxTotal));
+            selected = trimmed;
+            selectedSet = new HashSet<>(trimmed);
+        }
+
+        Set<File> keepFiles = new HashSet<>();
+        for (BackupEntry e : selected) keepFiles.add(e.file);
+        return keepFiles;
+    }
+
+    private static class BackupEntry {
+        final File file;
+        final long timestamp;
+        BackupEntry(File file, long timestamp) { this.file = file; this.timestamp = timestamp; }
+    }
+
+    private static Long legacyParse(String name) {
+        // 期望格式: EasyBackUp_yyyy-MM-dd_HH-mm-ss.zip
+        try {
+            int us = name.indexOf('_');
+            int dot = name.lastIndexOf('.')
+;            if (us >= 0 && dot > us) {
+                String ts = name.substring(us + 1, dot);
+                java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+                sdf.setLenient(false);
+                Date d = sdf.parse(ts);
+                return d.getTime();
+            }
+        } catch (Exception ignored) {}
+        return null;
+    }
+}
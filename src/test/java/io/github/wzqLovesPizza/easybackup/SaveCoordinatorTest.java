@@ -0,0 +1,60 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分世界保存的计划：只保存目标涉及的世界；只备份玩家数据时只保存玩家；玩家数据只在主世界中。
+ */
+class SaveCoordinatorTest {
+
+    private static final Path ROOT = Paths.get("server").toAbsolutePath();
+
+    @Test
+    void savesOnlyWorldsCoveredByTargets() {
+        Map<String, Path> worlds = worlds();
+
+        SaveCoordinator.Plan all = SaveCoordinator.plan(worlds, Collections.singletonList(ROOT));
+        assertEquals(Arrays.asList("world", "world_nether", "world_the_end"), new ArrayList<>(all.worlds.keySet()));
+        assertTrue(all.players);
+
+        SaveCoordinator.Plan nether = SaveCoordinator.plan(worlds, Collections.singletonList(ROOT.resolve("world_nether")));
+        assertEquals(Collections.singletonList("world_nether"), new ArrayList<>(nether.worlds.keySet()));
+        assertFalse(nether.players);
+
+        // 世界中的区域目录同样需要保存整个世界
+        SaveCoordinator.Plan region = SaveCoordinator.plan(worlds, Collections.singletonList(ROOT.resolve("world/region")));
+        assertEquals(Collections.singletonList("world"), new ArrayList<>(region.worlds.keySet()));
+        assertFalse(region.players);
+
+        SaveCoordinator.Plan none = SaveCoordinator.plan(worlds, Arrays.asList(ROOT.resolve("plugins"), ROOT.resolve("config")));
+        assertTrue(none.worlds.isEmpty());
+        assertFalse(none.players);
+    }
+
+    @Test
+    void playerDataTargetsOnlySavePlayers() {
+        SaveCoordinator.Plan plan = SaveCoordinator.plan(worlds(),
+                Arrays.asList(ROOT.resolve("world/playerdata"), ROOT.resolve("world/Stats")));
+        assertTrue(plan.worlds.isEmpty());
+        assertTrue(plan.players);
+
+        // 其它世界里的 playerdata 不是服务器真正使用的玩家数据
+        SaveCoordinator.Plan other = SaveCoordinator.plan(worlds(), Collections.singletonList(ROOT.resolve("world_nether/playerdata")));
+        assertTrue(other.worlds.isEmpty());
+        assertFalse(other.players);
+    }
+
+    private static Map<String, Path> worlds() {
+        Map<String, Path> worlds = new LinkedHashMap<>();
+        worlds.put("world", ROOT.resolve("world"));
+        worlds.put("world_nether", ROOT.resolve("world_nether"));
+        worlds.put("world_the_end", ROOT.resolve("world_the_end"));
+        return worlds;
+    }
+}
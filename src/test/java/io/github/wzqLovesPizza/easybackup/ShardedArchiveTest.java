@@ -0,0 +1,148 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分片备份：按目标与分组划分分片；多个 ZIP 分片共用压缩线程池同时写出；
+ * 索引记录每个分片的目标；还原一个维度时只读取它所在的分片；校验与目录记录把整个目录当作一个备份。
+ */
+class ShardedArchiveTest {
+
+    @Test
+    void planGroupsTargetsAndAssignsByLongestPrefix() {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put("others", Arrays.asList("world_the_end", "plugins/"));
+        List<ShardedArchive.Shard> shards = ShardedArchive.plan(
+                Arrays.asList("world", "world/datapacks", "world_nether", "world_the_end", "plugins"), groups);
+        List<String> names = new ArrayList<>();
+        for (ShardedArchive.Shard s : shards) names.add(s.name);
+        assertEquals(Arrays.asList("world", "world_datapacks", "world_nether", "others"), names);
+        assertEquals(Arrays.asList("world_the_end", "plugins"), shards.get(3).prefixes);
+
+        Path p = Path.of("x");
+        ShardedArchive.assign(shards, Arrays.asList(
+                new FileScanner.ScannedFile(p, "world/level.dat", 10, 0),
+                new FileScanner.ScannedFile(p, "world/datapacks/a.zip", 20, 0),
+                new FileScanner.ScannedFile(p, "world_nether/level.dat", 30, 0),
+                new FileScanner.ScannedFile(p, "plugins/Foo/config.yml", 40, 0),
+                new FileScanner.ScannedFile(p, "server.properties", 50, 0)));
+        assertEquals(2, shards.get(0).files.size()); // 不属于任何目标的文件归入第一个分片
+        assertEquals(60, shards.get(0).bytes);
+        assertEquals("world/datapacks/a.zip", shards.get(1).files.get(0).entryName);
+        assertEquals(1, shards.get(2).files.size());
+        assertEquals(40, shards.get(3).bytes);
+    }
+
+    @Test
+    void writesShardsConcurrentlyAndRestoresOneDimension() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-shards");
+        ExecutorService pool = ParallelZipWriter.newPool(3);
+        try {
+            Path root = tmp.resolve("server");
+            Map<String, String> files = new LinkedHashMap<>();
+            files.put("world/level.dat", "overworld");
+            files.put("world/region/r.0.0.mca", "r00");
+            files.put("world_nether/DIM-1/region/r.0.0.mca", "n00");
+            files.put("plugins/Foo/config.yml", "foo: 1");
+            List<FileScanner.ScannedFile> sources = new ArrayList<>();
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                Path f = root.resolve(e.getKey());
+                write(f, e.getValue());
+                sources.add(new FileScanner.ScannedFile(f, e.getKey(), Files.size(f), 0));
+            }
+            Map<String, List<String>> groups = Collections.singletonMap("misc", Collections.singletonList("plugins"));
+            List<ShardedArchive.Shard> shards = ShardedArchive.plan(Arrays.asList("world", "world_nether", "plugins"), groups);
+            ShardedArchive.assign(shards, sources);
+
+            File dir = tmp.resolve("backups/EasyBackUp_2024-01-01_00-00-00" + ShardedArchive.SUFFIX).toFile();
+            long[] written = new long[1];
+            ShardedArchive.Result result = ShardedArchive.write(dir, shards, ArchiveCodec.ZIP, true,
+                    (target, manifest) -> {
+                        OutputStream out = manifest.digesting(new FileOutputStream(target));
+                        ParallelZipWriter w = new ParallelZipWriter(new BufferedOutputStream(out),
+                                pool, false, 2, 64 * 1024, CompressionPolicy.uniform(-1), null);
+                        w.setManifest(manifest);
+                        return w;
+                    }, 0, size -> {
+                        synchronized (written) {
+                            written[0] += size;
+                        }
+                    }, null);
+            assertTrue(ShardedArchive.isSharded(dir));
+            assertEquals(files.values().stream().mapToLong(v -> v.length()).sum(), written[0]);
+            assertNotNull(result.hash);
+            Map<File, List<String>> index = ShardedArchive.readIndex(dir);
+            assertEquals(3, index.size());
+            assertEquals(Collections.singletonList("plugins"), index.get(new File(dir, "misc.zip")));
+
+            // 目录记录与校验把整个目录当作一个备份
+            BackupCatalog catalog = BackupCatalog.open(dir.getParentFile(), ArchiveCodec.EXTENSIONS, null);
+            assertEquals(1, catalog.size());
+            assertEquals(ShardedArchive.totalSize(dir), catalog.list().get(0).size);
+            BackupVerifier verifier = new BackupVerifier(2, null);
+            BackupVerifier.Result ok = verifier.verify(dir);
+            assertTrue(ok.ok, ok.message);
+            assertEquals(4, ok.entries);
+
+            // 只还原下界：计划只包含下界的分片
+            write(root.resolve("world_nether/DIM-1/region/r.0.0.mca"), "changed");
+            write(root.resolve("world/level.dat"), "newer");
+            RestoreEngine engine = new RestoreEngine(root.toFile(), 2, null);
+            RestoreEngine.Plan plan = engine.plan(dir, Collections.singletonList("world_nether"));
+            assertEquals(1, plan.parts.size());
+            assertEquals(new File(dir, "world_nether.zip"), plan.parts.get(0).archive);
+            engine.swap(engine.extract(plan));
+            assertEquals("n00", read(root.resolve("world_nether/DIM-1/region/r.0.0.mca")));
+            assertEquals("newer", read(root.resolve("world/level.dat")));
+
+            // 坐标选择器同样只打开所在维度的分片
+            assertEquals(1, engine.plan(dir, Collections.singletonList("world@0,0")).parts.size());
+            assertEquals(3, engine.plan(dir, Collections.emptyList()).parts.size());
+
+            // 某个分片损坏时整个备份校验失败
+            File nether = new File(dir, "world_nether.zip");
+            byte[] data = Files.readAllBytes(nether.toPath());
+            Files.write(nether.toPath(), Arrays.copyOf(data, data.length - 30));
+            assertFalse(verifier.verify(dir).ok);
+            verifier.shutdown();
+
+            assertTrue(ShardedArchive.delete(dir));
+            assertFalse(dir.exists());
+        } finally {
+            pool.shutdownNow();
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static void write(Path p, String content) throws IOException {
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path p) throws IOException {
+        return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 暂存副本必须与原文件内容一致，且原文件随后的原地改写不能影响暂存副本。
+ */
+class StagingSnapshotTest {
+
+    @Test
+    void stagedCopiesAreIndependentOfInPlaceWrites() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-staging");
+        try {
+            Path server = tmp.resolve("server");
+            Path region = server.resolve("world/region/r.0.0.mca");
+            Path player = server.resolve("world/playerdata/p.dat");
+            Files.createDirectories(region.getParent());
+            Files.createDirectories(player.getParent());
+            Files.writeString(region, "region-v1");
+            Files.writeString(player, "player-v1");
+
+            List<FileScanner.ScannedFile> files = new ArrayList<>();
+            files.add(new FileScanner.ScannedFile(region, "world/region/r.0.0.mca", 9, 1L));
+            files.add(new FileScanner.ScannedFile(player, "world/playerdata/p.dat", 9, 2L));
+            files.add(new FileScanner.ScannedFile(server.resolve("world/gone.txt"), "world/gone.txt", 1, 3L));
+
+            StagingSnapshot staging = new StagingSnapshot(tmp.resolve("staging").toFile(), Collections.singletonList("dat"), false, 2, Logger.getLogger("test"));
+            List<FileScanner.ScannedFile> staged = staging.capture(server.toFile(), files);
+            assertEquals(2, staged.size());
+            assertEquals(1, staging.linked.get());
+            assertEquals(1, staging.copied.get());
+
+            // 区域文件被原地改写，暂存副本不变
+            Files.writeString(region, "region-v2");
+            FileScanner.ScannedFile r = staged.get(0);
+            assertEquals("world/region/r.0.0.mca", r.entryName);
+            assertEquals(1L, r.lastModified);
+            assertEquals("region-v1", new String(Files.readAllBytes(r.path), StandardCharsets.UTF_8));
+            assertTrue(r.path.startsWith(tmp.resolve("staging")));
+
+            staging.cleanup();
+            assertFalse(Files.exists(tmp.resolve("staging")));
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}
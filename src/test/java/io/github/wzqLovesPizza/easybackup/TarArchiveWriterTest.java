@@ -0,0 +1,147 @@
+package io.github.wzqLovesPizza.easybackup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * tar 写出：短名称、需要 prefix 拆分的长名称、只能用 PAX 的名称与非 ASCII 名称都能按原样读回；
+ * 打不开的文件被跳过；头部校验和正确；归档以两个全零块结尾。
+ */
+class TarArchiveWriterTest {
+
+    @Test
+    void writesReadableUstarAndPaxEntries() throws Exception {
+        Path tmp = Files.createTempDirectory("easybackup-tar");
+        try {
+            Random rnd = new Random(13);
+            Map<String, byte[]> expected = new LinkedHashMap<>();
+            expected.put("world/level.dat", bytes(rnd, 1000));
+            expected.put("world/" + "d".repeat(120) + "/r.0.0.mca", bytes(rnd, 512 * 3));
+            expected.put("plugins/" + "x".repeat(130) + ".yml", bytes(rnd, 0));
+            expected.put("plugins/配置/设置.yml", "键: 值\n".getBytes(StandardCharsets.UTF_8));
+            expected.put("big/data.bin", bytes(rnd, 300_000));
+
+            File tar = tmp.resolve("out.tar").toFile();
+            TarArchiveWriter.TimedOutputStream disk = new TarArchiveWriter.TimedOutputStream(new FileOutputStream(tar));
+            try (TarArchiveWriter w = new TarArchiveWriter(new BufferedOutputStream(disk), disk, false, 64 * 1024, null)) {
+                int i = 0;
+                for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                    File src = tmp.resolve("src" + (i++)).toFile();
+                    Files.write(src.toPath(), e.getValue());
+                    w.addFile(e.getKey(), src, src.length(), 1_700_000_000_000L);
+                }
+                w.addFile("missing.txt", tmp.resolve("does-not-exist").toFile(), 10, 0L);
+                assertEquals(1, w.getSkippedEntries());
+                assertEquals(-1L, w.getCompressNanos());
+            }
+
+            Map<String, byte[]> actual = readTar(Files.readAllBytes(tar.toPath()));
+            assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                assertArrayEquals(e.getValue(), actual.get(e.getKey()), e.getKey());
+            }
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    @Test
+    void splitsAndPaxRecordsFollowTheSpec() {
+        assertEquals(-1, TarArchiveWriter.ustarSplit(new byte[100]));
+        byte[] name = ("a/" + "b".repeat(99)).getBytes(StandardCharsets.US_ASCII);
+        assertEquals(1, TarArchiveWriter.ustarSplit(name));
+        assertEquals(-2, TarArchiveWriter.ustarSplit(("a/" + "b".repeat(101)).getBytes(StandardCharsets.US_ASCII)));
+        // 长度字段包含它自己："7 a=bc\n" 正好 7 字节；长度进位时多算一位
+        assertEquals("7 a=bc\n", TarArchiveWriter.paxRecord("a", "bc"));
+        assertEquals("11 a=vvvvv\n", TarArchiveWriter.paxRecord("a", "vvvvv"));
+        String r = TarArchiveWriter.paxRecord("path", "p".repeat(90));
+        assertEquals(r.getBytes(StandardCharsets.UTF_8).length, Integer.parseInt(r.substring(0, r.indexOf(' '))));
+        assertEquals(ArchiveCodec.TAR_ZSTD, ArchiveCodec.forFileName("EasyBackUp_2024-01-01_00-00-00.tar.zst"));
+        assertEquals(ArchiveCodec.TAR_ZSTD, ArchiveCodec.forName("ZSTD"));
+        assertEquals(null, ArchiveCodec.forName("repository"));
+    }
+
+    /** 最小的 tar 读取：校验头部校验和，支持 ustar prefix 与 PAX path。 */
+    private static Map<String, byte[]> readTar(byte[] data) {
+        Map<String, byte[]> out = new LinkedHashMap<>();
+        int pos = 0;
+        String paxPath = null;
+        while (true) {
+            assertTrue(pos + 512 <= data.length, "归档缺少结尾块");
+            if (isZero(data, pos)) {
+                assertTrue(isZero(data, pos + 512), "结尾应为两个全零块");
+                return out;
+            }
+            long sum = 0;
+            for (int i = 0; i < 512; i++) sum += (i >= 148 && i < 156) ? ' ' : data[pos + i] & 0xFF;
+            assertEquals(sum, Long.parseLong(field(data, pos + 148, 6), 8));
+            assertEquals("ustar", field(data, pos + 257, 6));
+            long size = Long.parseLong(field(data, pos + 124, 12), 8);
+            byte type = data[pos + 156];
+            String name = field(data, pos, 100);
+            String prefix = field(data, pos + 345, 155);
+            pos += 512;
+            byte[] body = new byte[(int) size];
+            System.arraycopy(data, pos, body, 0, body.length);
+            pos += (int) ((size + 511) / 512 * 512);
+            if (type == 'x') {
+                String records = new String(body, StandardCharsets.UTF_8);
+                int p = 0;
+                while (p < body.length) {
+                    int sp = records.indexOf(' ', p);
+                    int len = Integer.parseInt(records.substring(p, sp));
+                    String rec = new String(body, p, len, StandardCharsets.UTF_8);
+                    String kv = rec.substring(rec.indexOf(' ') + 1, rec.length() - 1);
+                    if (kv.startsWith("path=")) paxPath = kv.substring(5);
+                    p += len;
+                }
+                continue;
+            }
+            String full = paxPath != null ? paxPath : (prefix.isEmpty() ? name : prefix + "/" + name);
+            paxPath = null;
+            out.put(full, body);
+        }
+    }
+
+    private static String field(byte[] data, int off, int len) {
+        int end = off;
+        while (end < off + len && data[end] != 0) end++;
+        return new String(data, off, end - off, StandardCharsets.UTF_8).trim();
+    }
+
+    private static boolean isZero(byte[] data, int off) {
+        for (int i = 0; i < 512; i++) if (data[off + i] != 0) return false;
+        return true;
+    }
+
+    private static byte[] bytes(Random rnd, int n) {
+        byte[] b = new byte[n];
+        rnd.nextBytes(b);
+        return b;
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((x, y) -> y.compareTo(x))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        } catch (IOException ignored) {
+        }
+    }
+}